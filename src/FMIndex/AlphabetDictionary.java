@@ -10,7 +10,6 @@
 
 package FMIndex;
 
-import javax.swing.JOptionPane;
 
 /**
  * Class AlphabetDictionary provides dictionary for characters used in reference
@@ -56,12 +55,10 @@ public class AlphabetDictionary implements java.io.Serializable {
      */
     public void addCharacter(int newCharacter) throws ReportedException {
         if (finalized) {
-            reportError ("Pokušaj dodavanja znaka već finaliziranom rječniku!");
-            throw new ReportedException();
+            throw new ReportedException("Pokušaj dodavanja znaka već finaliziranom rječniku!");
         }
         if ((newCharacter <= 0) || (newCharacter > 127)) {
-            reportError ("Pokušaj dodavanja u rječnik znaka izvan dozvoljenih granica: " + Integer.toString(newCharacter));
-            throw new ReportedException();
+            throw new ReportedException("Pokušaj dodavanja u rječnik znaka izvan dozvoljenih granica: " + Integer.toString(newCharacter));
         }
         dictionaryArray[newCharacter] = 1;
     }
@@ -76,8 +73,7 @@ public class AlphabetDictionary implements java.io.Serializable {
     public byte getCompactCode(byte rawCode) throws ReportedException {
 
         if (!finalized) {
-            reportError ("Pokušaj dohvata kompaktnog koda iz nefinaliziranog rječnika!");
-            throw new ReportedException();
+            throw new ReportedException("Pokušaj dohvata kompaktnog koda iz nefinaliziranog rječnika!");
         }
         return dictionaryArray[rawCode];
     }
@@ -91,8 +87,7 @@ public class AlphabetDictionary implements java.io.Serializable {
     public int getAlphabetSize() throws ReportedException {
 
         if (!finalized) {
-            reportError ("Pokušaj dohvata veličine abecede iz nefinaliziranog rječnika!");
-            throw new ReportedException();
+            throw new ReportedException("Pokušaj dohvata veličine abecede iz nefinaliziranog rječnika!");
         }
         return alphabetSize;
     }
@@ -108,8 +103,7 @@ public class AlphabetDictionary implements java.io.Serializable {
         byte compactCode = 1;
 
         if (finalized) {
-            reportError ("Pokušaj finaliziranja već finaliziranom rječniku!");
-            throw new ReportedException();
+            throw new ReportedException("Pokušaj finaliziranja već finaliziranom rječniku!");
         }
         for (int i = 1; i < 128; i++) {
             if (dictionaryArray[i] != 0) {
@@ -120,15 +114,5 @@ public class AlphabetDictionary implements java.io.Serializable {
         alphabetSize = (compactCode - 1);
         finalized = true;
     }
-
-    /**
-     * Function reportError reports execution errors by opening confirmation
-     * window with appropriate message.
-     * 
-     * @param   text    message to be reported in confirmation window
-     */
-    private void reportError (String text) {
-        JOptionPane.showConfirmDialog(null, text, "FMIndexCount", JOptionPane.DEFAULT_OPTION, JOptionPane.ERROR_MESSAGE);
-    }
     // </editor-fold>
 }
@@ -0,0 +1,427 @@
+/*
+ * Author:
+ *
+ *      Vedran Sabadoš
+ *
+ * Version:
+ *
+ *      V1.0         26. 12. 2013
+ */
+
+package FMIndex;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Class BackwardSearchBenchmark compares backward search step which counts
+ * occurrences before both interval ends by two separate Occ calls with the
+ * step which counts them by one OccRange call. Query sequences are sampled
+ * from reference sequence itself by walking its BW transform backwards from
+ * random rotations, so every query occurs in reference sequence and every
+ * step of backward search is performed. Steps of all searches are recorded
+ * and replayed independently of each other, which measures cost of counting
+ * itself, and then whole searches are timed, where each step waits for the
+ * previous one. Both ways have to give the same counts and intervals, so the
+ * benchmark checks OccRange as well. Each measurement is repeated and its
+ * fastest round is reported, which is least affected by just-in-time
+ * compilation and other processes.
+ *
+ * Usage: java -cp bin FMIndex.BackwardSearchBenchmark [file.rfix] [query length] [number of queries]
+ *
+ * @version     V1.0                26.12.2013.
+ * @author      Vedran Sabadoš
+ */
+public class BackwardSearchBenchmark {
+
+    // <editor-fold desc="Constants">
+
+    final static public String DEFAULT_INDEX_FILE = "Data/Chr1_010.rfix";   // index file used if none is given
+    final static public int DEFAULT_QUERY_LENGTH = 32;                      // query length used if none is given
+    final static public int DEFAULT_NO_QUERIES = 100000;                    // number of queries used if none is given
+    final static public int NO_ROUNDS = 10;                                 // number of rounds, the fastest one of each search is reported
+    final static public long RANDOM_SEED = 26122013L;                       // seed of query sampling
+    // </editor-fold>
+
+    // <editor-fold desc="Methods">
+
+    /**
+     * Benchmark main function
+     *
+     * @param args      command line arguments, optional preprocessed reference
+     *                  sequence index file, query length and number of queries
+     */
+    public static void main(String[] args) {
+
+        ReferenceSequenceIndex referenceSequenceIndex;
+        ObjectInputStream inputStream;
+        byte[][] querySequences;
+        byte[] stepCharacters;
+        int[] stepLowIndexes;
+        int[] stepHighIndexes;
+        int[] separateIntervals;
+        int[] fusedIntervals;
+        String filename;
+        int queryLength;
+        int noQueries;
+        int noSteps;
+        long separateChecksum;
+        long fusedChecksum;
+        long separateDuration;
+        long fusedDuration;
+        long time;
+
+        filename = ((args.length > 0) ? args[0] : DEFAULT_INDEX_FILE);
+        try {
+            queryLength = ((args.length > 1) ? Integer.parseInt(args[1]) : DEFAULT_QUERY_LENGTH);
+            noQueries = ((args.length > 2) ? Integer.parseInt(args[2]) : DEFAULT_NO_QUERIES);
+            if ((queryLength < 2) || (noQueries < 1)) {
+                System.out.println("Query length has to be at least 2 and number of queries at least 1");
+                System.exit(1);
+            }
+
+            /* read reference sequence index */
+            inputStream = new ObjectInputStream(new BufferedInputStream(new FileInputStream(filename)));
+            try {
+                referenceSequenceIndex = (ReferenceSequenceIndex) inputStream.readObject();
+            } finally {
+                inputStream.close();
+            }
+            if (referenceSequenceIndex.isLongIndex()) {
+                System.out.println("Benchmark supports 32-bit reference sequence index only: " + filename);
+                System.exit(1);
+            }
+
+            /* sample query sequences */
+            querySequences = sampleQuerySequences(referenceSequenceIndex, queryLength, noQueries);
+            System.out.println( Integer.toString(noQueries) + " query sequences of " + Integer.toString(queryLength)
+                                + " characters sampled from " + filename);
+
+            /* record backward search steps */
+            stepCharacters = new byte[noQueries * (queryLength - 1)];
+            stepLowIndexes = new int[stepCharacters.length];
+            stepHighIndexes = new int[stepCharacters.length];
+            noSteps = recordSteps(referenceSequenceIndex, querySequences, stepCharacters, stepLowIndexes, stepHighIndexes);
+
+            /* replay recorded steps by both ways */
+            separateDuration = Long.MAX_VALUE;
+            fusedDuration = Long.MAX_VALUE;
+            for (int round = 0; round < NO_ROUNDS; round++) {
+                time = System.nanoTime();
+                separateChecksum = replaySeparate(referenceSequenceIndex, stepCharacters, stepLowIndexes, stepHighIndexes, noSteps);
+                separateDuration = Math.min(separateDuration, (System.nanoTime() - time));
+
+                time = System.nanoTime();
+                fusedChecksum = replayFused(referenceSequenceIndex, stepCharacters, stepLowIndexes, stepHighIndexes, noSteps);
+                fusedDuration = Math.min(fusedDuration, (System.nanoTime() - time));
+
+                if (separateChecksum != fusedChecksum) {
+                    System.out.println("Replayed step counts differ!");
+                    System.exit(1);
+                }
+            }
+            System.out.println("Backward search steps:                      " + Integer.toString(noSteps));
+            reportDurations("Replayed steps", separateDuration, fusedDuration, noSteps);
+
+            /* search all queries by both ways */
+            separateIntervals = new int[2 * noQueries];
+            fusedIntervals = new int[2 * noQueries];
+            separateDuration = Long.MAX_VALUE;
+            fusedDuration = Long.MAX_VALUE;
+            for (int round = 0; round < NO_ROUNDS; round++) {
+                time = System.nanoTime();
+                searchSeparate(referenceSequenceIndex, querySequences, separateIntervals);
+                separateDuration = Math.min(separateDuration, (System.nanoTime() - time));
+
+                time = System.nanoTime();
+                searchFused(referenceSequenceIndex, querySequences, fusedIntervals);
+                fusedDuration = Math.min(fusedDuration, (System.nanoTime() - time));
+
+                if (!Arrays.equals(separateIntervals, fusedIntervals)) {
+                    System.out.println("Backward search intervals differ!");
+                    System.exit(1);
+                }
+            }
+            reportDurations("Whole searches", separateDuration, fusedDuration, noSteps);
+        } catch (NumberFormatException ex) {
+            System.out.println("Query length and number of queries have to be integers: " + ex.getMessage());
+            System.exit(1);
+        } catch (IOException ex) {
+            System.out.println("Reading of " + filename + " failed: " + ex.getMessage());
+            System.exit(1);
+        } catch (ClassNotFoundException ex) {
+            System.out.println("Reading of " + filename + " failed: " + ex.getMessage());
+            System.exit(1);
+        } catch (ReportedException ex) {
+            System.out.println(ex.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Function sampleQuerySequences samples compact coded query sequences from
+     * reference sequence by walking its BW transform backwards from random
+     * rotations. Walk which reaches terminating character is restarted.
+     *
+     * @param referenceSequenceIndex    reference sequence index
+     * @param queryLength               query length
+     * @param noQueries                 number of queries
+     * @return                          compact coded query sequences
+     * @throws ReportedException
+     */
+    static byte[][] sampleQuerySequences(   ReferenceSequenceIndex referenceSequenceIndex,
+                                            int queryLength,
+                                            int noQueries                                   ) throws ReportedException {
+
+        FMIndexOccurrenceTable occurrenceTable;
+        Random random;
+        byte[][] querySequences;
+        int alphabetSize;
+        int bwtLength;
+        int index;
+        byte character;
+
+        occurrenceTable = referenceSequenceIndex.getOccurrenceTable();
+        alphabetSize = referenceSequenceIndex.alphabetDictionary.getAlphabetSize();
+        bwtLength = ((int) referenceSequenceIndex.getBwtLength());
+        random = new Random(RANDOM_SEED);
+        querySequences = new byte[noQueries][queryLength];
+        for (int i = 0; i < noQueries; i++) {
+            index = random.nextInt(bwtLength);
+            for (int j = (queryLength - 1); j >= 0; j--) {
+
+                /* find BW transform character of current rotation */
+                character = 0;
+                for (byte c = 0; c <= alphabetSize; c++) {
+                    if (occurrenceTable.Occ(c, index + 1) != occurrenceTable.Occ(c, index)) {
+                        character = c;
+                        break;
+                    }
+                }
+                if (character == 0) {
+                    index = random.nextInt(bwtLength);
+                    j = queryLength;
+                    continue;
+                }
+                querySequences[i][j] = character;
+                index = (referenceSequenceIndex.C(character) + occurrenceTable.Occ(character, index));
+            }
+        }
+        return querySequences;
+    }
+
+    /**
+     * Function recordSteps performs backward search of each query sequence
+     * and records character and interval ends counted by each step.
+     *
+     * @param referenceSequenceIndex    reference sequence index
+     * @param querySequences            compact coded query sequences
+     * @param stepCharacters            receives character of each step
+     * @param stepLowIndexes            receives lower index counted by each step
+     * @param stepHighIndexes           receives higher index counted by each step
+     * @return                          number of recorded steps
+     * @throws ReportedException
+     */
+    static int recordSteps( ReferenceSequenceIndex referenceSequenceIndex,
+                            byte[][] querySequences,
+                            byte[] stepCharacters,
+                            int[] stepLowIndexes,
+                            int[] stepHighIndexes                          ) throws ReportedException {
+
+        FMIndexOccurrenceTable occurrenceTable;
+        byte[] querySequence;
+        int lowIndex;
+        int highIndex;
+        int noSteps;
+        byte characterToProcess;
+
+        occurrenceTable = referenceSequenceIndex.getOccurrenceTable();
+        noSteps = 0;
+        for (int q = 0; q < querySequences.length; q++) {
+            querySequence = querySequences[q];
+            characterToProcess = querySequence[querySequence.length - 1];
+            lowIndex = referenceSequenceIndex.C(characterToProcess);
+            highIndex = (referenceSequenceIndex.C((byte) (characterToProcess + 1)) - 1);
+            for (int i = (querySequence.length - 2); i >= 0; i--) {
+                characterToProcess = querySequence[i];
+                stepCharacters[noSteps] = characterToProcess;
+                stepLowIndexes[noSteps] = lowIndex;
+                stepHighIndexes[noSteps++] = (highIndex + 1);
+                highIndex = (   referenceSequenceIndex.C(characterToProcess)
+                                + occurrenceTable.Occ(characterToProcess, (highIndex + 1)) - 1);
+                lowIndex = (    referenceSequenceIndex.C(characterToProcess)
+                                + occurrenceTable.Occ(characterToProcess, lowIndex)           );
+                if (highIndex < lowIndex) {
+                    break;
+                }
+            }
+        }
+        return noSteps;
+    }
+
+    /**
+     * Function replaySeparate counts occurrences of recorded steps by two Occ
+     * calls per step.
+     *
+     * @param referenceSequenceIndex    reference sequence index
+     * @param stepCharacters            character of each step
+     * @param stepLowIndexes            lower index of each step
+     * @param stepHighIndexes           higher index of each step
+     * @param noSteps                   number of steps
+     * @return                          checksum of all counts
+     * @throws ReportedException
+     */
+    private static long replaySeparate( ReferenceSequenceIndex referenceSequenceIndex,
+                                        byte[] stepCharacters,
+                                        int[] stepLowIndexes,
+                                        int[] stepHighIndexes,
+                                        int noSteps                                     ) throws ReportedException {
+
+        FMIndexOccurrenceTable occurrenceTable;
+        long checksum;
+
+        occurrenceTable = referenceSequenceIndex.getOccurrenceTable();
+        checksum = 0;
+        for (int i = 0; i < noSteps; i++) {
+            checksum += occurrenceTable.Occ(stepCharacters[i], stepLowIndexes[i]);
+            checksum += (((long) occurrenceTable.Occ(stepCharacters[i], stepHighIndexes[i])) << 20);
+        }
+        return checksum;
+    }
+
+    /**
+     * Function replayFused counts occurrences of recorded steps by one
+     * OccRange call per step.
+     *
+     * @param referenceSequenceIndex    reference sequence index
+     * @param stepCharacters            character of each step
+     * @param stepLowIndexes            lower index of each step
+     * @param stepHighIndexes           higher index of each step
+     * @param noSteps                   number of steps
+     * @return                          checksum of all counts
+     * @throws ReportedException
+     */
+    private static long replayFused(ReferenceSequenceIndex referenceSequenceIndex,
+                                    byte[] stepCharacters,
+                                    int[] stepLowIndexes,
+                                    int[] stepHighIndexes,
+                                    int noSteps                                     ) throws ReportedException {
+
+        FMIndexOccurrenceTable occurrenceTable;
+        int[] occurrences;
+        long checksum;
+
+        occurrenceTable = referenceSequenceIndex.getOccurrenceTable();
+        occurrences = new int[2];
+        checksum = 0;
+        for (int i = 0; i < noSteps; i++) {
+            occurrenceTable.OccRange(stepCharacters[i], stepLowIndexes[i], stepHighIndexes[i], occurrences);
+            checksum += occurrences[0];
+            checksum += (((long) occurrences[1]) << 20);
+        }
+        return checksum;
+    }
+
+    /**
+     * Function searchSeparate finds interval of each query sequence by
+     * backward search with two Occ calls per step.
+     *
+     * @param referenceSequenceIndex    reference sequence index
+     * @param querySequences            compact coded query sequences
+     * @param intervals                 receives low and high index of each interval
+     * @throws ReportedException
+     */
+    private static void searchSeparate( ReferenceSequenceIndex referenceSequenceIndex,
+                                        byte[][] querySequences,
+                                        int[] intervals                                 ) throws ReportedException {
+
+        FMIndexOccurrenceTable occurrenceTable;
+        byte[] querySequence;
+        int lowIndex;
+        int highIndex;
+        byte characterToProcess;
+
+        occurrenceTable = referenceSequenceIndex.getOccurrenceTable();
+        for (int q = 0; q < querySequences.length; q++) {
+            querySequence = querySequences[q];
+            characterToProcess = querySequence[querySequence.length - 1];
+            lowIndex = referenceSequenceIndex.C(characterToProcess);
+            highIndex = (referenceSequenceIndex.C((byte) (characterToProcess + 1)) - 1);
+            for (int i = (querySequence.length - 2); i >= 0; i--) {
+                characterToProcess = querySequence[i];
+                highIndex = (   referenceSequenceIndex.C(characterToProcess)
+                                + occurrenceTable.Occ(characterToProcess, (highIndex + 1)) - 1);
+                lowIndex = (    referenceSequenceIndex.C(characterToProcess)
+                                + occurrenceTable.Occ(characterToProcess, lowIndex)           );
+                if (highIndex < lowIndex) {
+                    break;
+                }
+            }
+            intervals[2 * q] = lowIndex;
+            intervals[(2 * q) + 1] = highIndex;
+        }
+    }
+
+    /**
+     * Function searchFused finds interval of each query sequence by backward
+     * search with one OccRange call per step.
+     *
+     * @param referenceSequenceIndex    reference sequence index
+     * @param querySequences            compact coded query sequences
+     * @param intervals                 receives low and high index of each interval
+     * @throws ReportedException
+     */
+    private static void searchFused(ReferenceSequenceIndex referenceSequenceIndex,
+                                    byte[][] querySequences,
+                                    int[] intervals                                 ) throws ReportedException {
+
+        FMIndexOccurrenceTable occurrenceTable;
+        int[] occurrences;
+        byte[] querySequence;
+        int lowIndex;
+        int highIndex;
+        byte characterToProcess;
+
+        occurrenceTable = referenceSequenceIndex.getOccurrenceTable();
+        occurrences = new int[2];
+        for (int q = 0; q < querySequences.length; q++) {
+            querySequence = querySequences[q];
+            characterToProcess = querySequence[querySequence.length - 1];
+            lowIndex = referenceSequenceIndex.C(characterToProcess);
+            highIndex = (referenceSequenceIndex.C((byte) (characterToProcess + 1)) - 1);
+            for (int i = (querySequence.length - 2); i >= 0; i--) {
+                characterToProcess = querySequence[i];
+                occurrenceTable.OccRange(characterToProcess, lowIndex, (highIndex + 1), occurrences);
+                lowIndex = (referenceSequenceIndex.C(characterToProcess) + occurrences[0]);
+                highIndex = (referenceSequenceIndex.C(characterToProcess) + occurrences[1] - 1);
+                if (highIndex < lowIndex) {
+                    break;
+                }
+            }
+            intervals[2 * q] = lowIndex;
+            intervals[(2 * q) + 1] = highIndex;
+        }
+    }
+
+    /**
+     * Function reportDurations prints durations per step of both ways and
+     * speedup of OccRange.
+     *
+     * @param title                 measurement title
+     * @param separateDuration      duration with two Occ calls per step in nanoseconds
+     * @param fusedDuration         duration with one OccRange call per step in nanoseconds
+     * @param noSteps               number of steps
+     */
+    private static void reportDurations(String title, long separateDuration, long fusedDuration, int noSteps) {
+        System.out.println(title + ", two Occ calls per step:     " + String.format("%.1f", ((double) separateDuration) / noSteps) + " ns");
+        System.out.println(title + ", one OccRange call per step: " + String.format("%.1f", ((double) fusedDuration) / noSteps) + " ns");
+        if (fusedDuration > 0) {
+            System.out.println(title + ", speedup:                    " + String.format("%.2f", ((double) separateDuration) / fusedDuration));
+        }
+    }
+    // </editor-fold>
+}
@@ -0,0 +1,415 @@
+/*
+ * Author:
+ *
+ *      Vedran Sabadoš
+ *
+ * Version:
+ *
+ *      V1.0         26. 12. 2013
+ */
+
+package FMIndex;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Class BatchQueryCounter counts occurrences of many query sequences (e.g.
+ * short reads or probes) in one reference sequence. Queries are divided into
+ * chunks which worker threads of fixed pool take one by one, so faster
+ * threads take more chunks. All workers share the same reference sequence
+ * index, which is only read during counting, and each worker writes counts of
+ * its chunk to its own part of result array, so counts are returned in input
+ * order without any locking. Duration of each query is measured, so
+ * throughput and latency percentiles are reported in batch statistics.
+ * Query which can not occur in reference sequence (e.g. empty query) gets
+ * count INVALID_QUERY_COUNT and does not stop the batch.
+ *
+ * Usage: java -cp bin FMIndex.BatchQueryCounter file.rfix queries.txt [threads] [counts.txt]
+ *
+ * @version     V1.0                26.12.2013.
+ * @author      Vedran Sabadoš
+ */
+public class BatchQueryCounter {
+
+    // <editor-fold desc="Constants">
+
+    final public static long INVALID_QUERY_COUNT = -1;          // count of query that can not be counted
+    final public static int CHUNK_SIZE = 1024;                  // number of queries taken by worker thread at once
+    final public static int PROGRESS_STEP = 1000;               // progress maximum
+    // </editor-fold>
+
+    // <editor-fold desc="Fields">
+
+    /** Reference sequence whose index is queried */
+    private final ReferenceSequence referenceSequence;
+
+    /** Number of worker threads */
+    private final int noThreads;
+
+    /** Listener receiving batch progress and statistics, or null */
+    private final ProgressListener progressListener;
+
+    /** Index of the next chunk taken by worker thread */
+    private AtomicInteger nextChunk;
+
+    /** Number of completed chunks */
+    private AtomicInteger noCompletedChunks;
+
+    /** Number of queries that could not be counted */
+    private AtomicInteger noInvalidQueries;
+
+    /** Query durations of the last batch in nanoseconds, sorted */
+    private long[] queryDurations;
+
+    /** Duration of the last batch in nanoseconds */
+    private long batchDuration;
+
+    /** Statistics of the last batch */
+    private String batchStatistics;
+    // </editor-fold>
+
+    // <editor-fold desc="Constructor">
+
+    /**
+     * Class BatchQueryCounter Constructor
+     *
+     * @param reference     reference sequence whose index is queried
+     * @param threads       number of worker threads
+     * @param listener      listener receiving batch progress and statistics, or null
+     */
+    public BatchQueryCounter(ReferenceSequence reference, int threads, ProgressListener listener) {
+        referenceSequence = reference;
+        noThreads = threads;
+        progressListener = listener;
+        queryDurations = new long[0];
+        batchStatistics = "";
+    }
+    // </editor-fold>
+
+    // <editor-fold desc="Methods">
+
+    /**
+     * Function countOccurrences counts occurrences of each query sequence
+     * read from given file. File contains one query sequence per line; empty
+     * lines and Fasta header lines (beginning with ">") are skipped.
+     *
+     * @param filename      query sequence file
+     * @return              number of occurrences of each query sequence, in file order
+     * @throws ReportedException
+     */
+    public long[] countOccurrences(String filename) throws ReportedException {
+        return countOccurrences(readQuerySequences(filename));
+    }
+
+    /**
+     * Function countOccurrences counts occurrences of each given query
+     * sequence in reference sequence.
+     *
+     * @param querySequences    query sequences
+     * @return                  number of occurrences of each query sequence, in input order
+     * @throws ReportedException
+     */
+    public long[] countOccurrences(final String[] querySequences) throws ReportedException {
+
+        ExecutorService executorService;
+        ArrayList<Future<Void>> workers;
+        final long[] counts;
+        final long[] durations;
+        final int noChunks;
+
+        counts = new long[querySequences.length];
+        durations = new long[querySequences.length];
+        noChunks = ((querySequences.length + CHUNK_SIZE - 1) / CHUNK_SIZE);
+        nextChunk = new AtomicInteger();
+        noCompletedChunks = new AtomicInteger();
+        noInvalidQueries = new AtomicInteger();
+        if (progressListener != null) {
+            progressListener.setProgressIndeterminate(false);
+            progressListener.setProgressMaximum(PROGRESS_STEP);
+            progressListener.setProgressValue(0);
+        }
+
+        /* count queries on worker threads */
+        batchDuration = System.nanoTime();
+        executorService = Executors.newFixedThreadPool(noThreads);
+        workers = new ArrayList<>();
+        try {
+            for (int i = 0; i < noThreads; i++) {
+                workers.add(executorService.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        countChunks(querySequences, counts, durations, noChunks);
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> worker : workers) {
+                worker.get();
+            }
+        } catch (InterruptedException ex) {
+            throw new ReportedException("Brojanje ponavljanja upita prekinuto na zahtjev korisnika!");
+        } catch (ExecutionException ex) {
+            throw new ReportedException(    "Neočekivana pogreška tijekom paralelnog brojanja ponavljanja upita ("
+                                            + getExceptionType(ex.getCause())
+                                            + "):\n\n    "
+                                            + ex.getCause().getMessage()                                        );
+        } finally {
+            executorService.shutdownNow();
+        }
+        batchDuration = (System.nanoTime() - batchDuration);
+
+        /* report statistics */
+        Arrays.sort(durations);
+        queryDurations = durations;
+        batchStatistics = createStatistics();
+        if (progressListener != null) {
+            progressListener.reportStatistics(batchStatistics);
+        }
+        return counts;
+    }
+
+    /**
+     * Function countChunks takes chunks of queries until all of them are
+     * taken, and counts occurrences of their query sequences.
+     *
+     * @param querySequences    query sequences
+     * @param counts            number of occurrences of each query sequence
+     * @param durations         duration of each query in nanoseconds
+     * @param noChunks          number of chunks
+     */
+    private void countChunks(String[] querySequences, long[] counts, long[] durations, int noChunks) {
+
+        int chunk;
+        int chunkEnd;
+        long time;
+
+        while ((chunk = nextChunk.getAndIncrement()) < noChunks) {
+            if (Thread.currentThread().isInterrupted()) {
+                return;
+            }
+            chunkEnd = Math.min(((chunk + 1) * CHUNK_SIZE), querySequences.length);
+            for (int i = (chunk * CHUNK_SIZE); i < chunkEnd; i++) {
+                time = System.nanoTime();
+                try {
+                    counts[i] = referenceSequence.countOccurrences(querySequences[i]);
+                } catch (ReportedException ex) {
+                    counts[i] = INVALID_QUERY_COUNT;
+                    noInvalidQueries.incrementAndGet();
+                }
+                durations[i] = (System.nanoTime() - time);
+            }
+            updateProgress(noCompletedChunks.incrementAndGet(), noChunks);
+        }
+    }
+
+    /**
+     * Function readQuerySequences reads query sequences from given file, one
+     * query sequence per line.
+     *
+     * @param filename      query sequence file
+     * @return              query sequences in file order
+     * @throws ReportedException
+     */
+    private String[] readQuerySequences(String filename) throws ReportedException {
+
+        BufferedReader reader;
+        ArrayList<String> querySequences;
+        String line;
+
+        querySequences = new ArrayList<>();
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(filename), Charset.forName("UTF-8")));
+            try {
+                while ((line = reader.readLine()) != null) {
+                    line = line.trim();
+                    if ((line.length() > 0) && (line.charAt(0) != '>')) {
+                        querySequences.add(line);
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (IOException ex) {
+            throw new ReportedException(    "Greška tijekom učitavanja upitnih sljedova ("
+                                            + getExceptionType(ex)
+                                            + "):\n\n    "
+                                            + ex.getMessage()                               );
+        }
+        return querySequences.toArray(new String[querySequences.size()]);
+    }
+
+    /**
+     * Function updateProgress hands batch progress over to progress listener.
+     *
+     * @param completed     number of completed chunks
+     * @param noChunks      number of chunks
+     */
+    private void updateProgress(int completed, int noChunks) {
+        if (progressListener != null) {
+            progressListener.setProgressValue((int) (((long) completed * PROGRESS_STEP) / noChunks));
+        }
+    }
+
+    /**
+     * Function createStatistics creates statistics of the last batch.
+     *
+     * @return      statistics text
+     */
+    private String createStatistics() {
+
+        String statistics;
+
+        statistics = "Statistika skupnog brojanja ponavljanja upita u referentnoj sekvenci:\n";
+        statistics += (  "\n    Broj upita:                                         " + Integer.toString(queryDurations.length));
+        statistics += (  "\n    Broj neispravnih upita:                             " + Integer.toString(noInvalidQueries.get()));
+        statistics += (  "\n    Broj dretvi:                                        " + Integer.toString(noThreads));
+
+        statistics += ("\n\n    Ukupno vrijeme brojanja:                            " + Long.toString(batchDuration / 1000000) + " ms");
+        statistics += (  "\n    Upita u sekundi:                                    " + Long.toString(getQueriesPerSecond()));
+        statistics += (  "\n    Trajanje upita p50 / p99 / najdulje:                "
+                         + Long.toString(getQueryDurationPercentile(50) / 1000) + " / "
+                         + Long.toString(getQueryDurationPercentile(99) / 1000) + " / "
+                         + Long.toString(getQueryDurationPercentile(100) / 1000) + " µs");
+        return statistics;
+    }
+
+    /**
+     * Function getQueriesPerSecond provides throughput of the last batch.
+     *
+     * @return      number of queries counted per second
+     */
+    public long getQueriesPerSecond() {
+        if (batchDuration <= 0) {
+            return 0;
+        }
+        return (long) ((queryDurations.length * 1000000000.0) / batchDuration);
+    }
+
+    /**
+     * Function getQueryDurationPercentile provides query duration which
+     * given percentage of queries of the last batch did not exceed.
+     *
+     * @param percent   percentile, from 1 to 100
+     * @return          query duration in nanoseconds, 0 if batch was empty
+     */
+    public long getQueryDurationPercentile(int percent) {
+
+        int index;
+
+        if (queryDurations.length == 0) {
+            return 0;
+        }
+        index = (int) (((long) queryDurations.length * percent + 99) / 100 - 1);
+        return queryDurations[Math.max(0, Math.min(index, (queryDurations.length - 1)))];
+    }
+
+    /**
+     * Function getBatchDuration provides duration of the last batch.
+     *
+     * @return      batch duration in nanoseconds
+     */
+    public long getBatchDuration() {
+        return batchDuration;
+    }
+
+    /**
+     * Function getStatistics provides statistics of the last batch.
+     *
+     * @return      statistics text
+     */
+    public String getStatistics() {
+        return batchStatistics;
+    }
+
+    /**
+     * Function getExceptionType provides exception class name without package.
+     *
+     * @param ex    exception
+     * @return      exception class name
+     */
+    private static String getExceptionType (Throwable ex) {
+
+        String exceptionFullName;
+        int lastDotIndex;
+
+        exceptionFullName = ex.getClass().toString();
+        lastDotIndex = exceptionFullName.lastIndexOf('.');
+        if (lastDotIndex < 0) {
+            lastDotIndex = 0;
+        } else {
+            lastDotIndex++;
+        }
+        return exceptionFullName.substring(lastDotIndex);
+    }
+
+    /**
+     * Batch query main function, counts queries from file in preprocessed
+     * reference sequence index and writes counts to file, one per line.
+     *
+     * @param args      command line arguments: index file, query file,
+     *                  optional number of threads and optional count file
+     */
+    public static void main(String[] args) {
+
+        ReferenceSequence referenceSequence;
+        BatchQueryCounter batchQueryCounter;
+        BufferedWriter writer;
+        long[] counts;
+        int threads;
+
+        if (args.length < 2) {
+            System.out.println("Usage: java -cp bin FMIndex.BatchQueryCounter file.rfix queries.txt [threads] [counts.txt]");
+            System.exit(1);
+        }
+        try {
+            threads = Runtime.getRuntime().availableProcessors();
+            if (args.length > 2) {
+                try {
+                    threads = Integer.parseInt(args[2]);
+                } catch (NumberFormatException ex) {
+                    threads = 0;
+                }
+                if (threads <= 0) {
+                    throw new ReportedException("Broj dretvi mora biti pozitivan cijeli broj: " + args[2]);
+                }
+            }
+            referenceSequence = new ReferenceSequence(args[0], ReferenceSequence.ReferenceSequenceFormat.PREPROCESSED, "", null);
+            batchQueryCounter = new BatchQueryCounter(referenceSequence, threads, null);
+            counts = batchQueryCounter.countOccurrences(args[1]);
+            System.out.println(batchQueryCounter.getStatistics());
+            if (args.length > 3) {
+                writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(args[3]), Charset.forName("UTF-8")));
+                try {
+                    for (long count : counts) {
+                        writer.write(Long.toString(count));
+                        writer.newLine();
+                    }
+                } finally {
+                    writer.close();
+                }
+            }
+        } catch (IOException ex) {
+            System.out.println("Writing of " + args[3] + " failed: " + ex.getMessage());
+            System.exit(1);
+        } catch (ReportedException ex) {
+            System.out.println(ex.getMessage());
+            System.exit(1);
+        }
+    }
+    // </editor-fold>
+}
@@ -0,0 +1,470 @@
+/*
+ * Author:
+ *
+ *      Vedran Sabadoš
+ *
+ * Version:
+ *
+ *      V1.0         26. 12. 2013
+ */
+
+package FMIndex;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveTask;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Class BgzfInputStream reads file compressed in blocked gzip format (BGZF).
+ * BGZF file is a series of gzip members of up to 64 KB of uncompressed data,
+ * each one with its compressed size written in "BC" extra subfield of gzip
+ * header, so blocks are read without inflating them and inflated
+ * independently. Compressed blocks are read ahead and inflated in parallel,
+ * inflated blocks are provided in file order. Plain gzip files do not have
+ * block sizes in their headers and are read by GZIPInputStream instead.
+ *
+ * @version     V1.0                26.12.2013.
+ * @author      Vedran Sabadoš
+ */
+public class BgzfInputStream extends InputStream {
+
+    // <editor-fold desc="Constants">
+
+    final public static int GZIP_ID1 = 0x1f;                    // the first byte of gzip member
+    final public static int GZIP_ID2 = 0x8b;                    // the second byte of gzip member
+    final public static int DEFLATE_METHOD = 8;                 // gzip compression method
+    final public static int EXTRA_FLAG = 0x04;                  // gzip flag of extra field in header
+    final public static int FIXED_HEADER_SIZE = 12;             // gzip header size without extra field, extra field length included
+    final public static int BGZF_SUBFIELD_ID1 = 0x42;           // B character in UTF8 identifies BGZF subfield
+    final public static int BGZF_SUBFIELD_ID2 = 0x43;           // C character in UTF8 identifies BGZF subfield
+    final public static int FOOTER_SIZE = 8;                    // CRC32 and uncompressed size
+    final public static int MAXIMAL_BLOCK_SIZE = 0x00010000;    // maximal size of compressed and uncompressed block
+    final public int BLOCKS_PER_THREAD = 4;                     // number of blocks read ahead for each inflating thread
+    // </editor-fold>
+
+    // <editor-fold desc="Fields">
+
+    /** Compressed blocks reader */
+    private final DataInputStream compressedStream;
+
+    /** Inflating threads pool */
+    private final ForkJoinPool forkJoinPool;
+
+    /** Blocks being inflated, in file order */
+    private final ArrayDeque<Future<byte[]>> pendingBlocks;
+
+    /** Maximal number of blocks being inflated */
+    private final int maximalPendingBlocks;
+
+    /** Number of inflating threads */
+    private final int noThreads;
+
+    /** Inflated block being read */
+    private byte[] currentBlock;
+
+    /** Index of the next byte of inflated block */
+    private int currentBlockIndex;
+
+    /** True if all compressed blocks are read */
+    private boolean endOfCompressedFile;
+
+    /** Number of compressed bytes read */
+    private long compressedBytesRead;
+
+    /** Number of inflated bytes */
+    private long bytesInflated;
+    // </editor-fold>
+
+    // <editor-fold desc="Constructor">
+
+    /**
+     * Class BgzfInputStream Constructor
+     *
+     * @param filename      BGZF filename
+     * @param threads       number of inflating threads
+     * @throws IOException
+     */
+    public BgzfInputStream(String filename, int threads) throws IOException {
+        noThreads = Math.max(1, threads);
+        maximalPendingBlocks = (noThreads * BLOCKS_PER_THREAD);
+        compressedStream = new DataInputStream(new BufferedInputStream(new FileInputStream(filename), MAXIMAL_BLOCK_SIZE));
+        forkJoinPool = new ForkJoinPool(noThreads);
+        pendingBlocks = new ArrayDeque<>(maximalPendingBlocks);
+        currentBlock = new byte[0];
+        currentBlockIndex = 0;
+        endOfCompressedFile = false;
+        compressedBytesRead = 0;
+        bytesInflated = 0;
+    }
+    // </editor-fold>
+
+    // <editor-fold desc="Methods">
+
+    /**
+     * Function isGzipFile checks if file starts with gzip member header.
+     *
+     * @param filename      filename
+     * @return              true if file is compressed by gzip, BGZF included
+     * @throws IOException
+     */
+    public static boolean isGzipFile(String filename) throws IOException {
+
+        byte[] header;
+
+        header = readHeader(filename);
+        return (    (header.length >= FIXED_HEADER_SIZE)
+                    && ((header[0] & 0xff) == GZIP_ID1)
+                    && ((header[1] & 0xff) == GZIP_ID2)
+                    && (header[2] == DEFLATE_METHOD)        );
+    }
+
+    /**
+     * Function isBgzfFile checks if file starts with BGZF block, i.e. gzip
+     * member header with block size in "BC" extra subfield.
+     *
+     * @param filename      filename
+     * @return              true if file is compressed in BGZF format
+     * @throws IOException
+     */
+    public static boolean isBgzfFile(String filename) throws IOException {
+
+        byte[] header;
+
+        if (!isGzipFile(filename)) {
+            return false;
+        }
+        header = readHeader(filename);
+        if ((header[3] & EXTRA_FLAG) == 0) {
+            return false;
+        }
+        return (getBlockSize(header, FIXED_HEADER_SIZE, Math.min((header.length - FIXED_HEADER_SIZE), getExtraLength(header))) > 0);
+    }
+
+    /**
+     * Function read provides the next inflated byte.
+     *
+     * @return      next byte, or -1 at the end of file
+     * @throws IOException
+     */
+    @Override
+    public int read() throws IOException {
+        if ((currentBlockIndex >= currentBlock.length) && (!nextBlock())) {
+            return -1;
+        }
+        return (currentBlock[currentBlockIndex++] & 0xff);
+    }
+
+    /**
+     * Function read provides inflated bytes, up to the end of current block.
+     *
+     * @param buffer        buffer to copy bytes to
+     * @param offset        position of the first byte in buffer
+     * @param length        maximal number of bytes
+     * @return              number of bytes copied, or -1 at the end of file
+     * @throws IOException
+     */
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+
+        int noBytes;
+
+        if (length == 0) {
+            return 0;
+        }
+        if ((currentBlockIndex >= currentBlock.length) && (!nextBlock())) {
+            return -1;
+        }
+        noBytes = Math.min(length, (currentBlock.length - currentBlockIndex));
+        System.arraycopy(currentBlock, currentBlockIndex, buffer, offset, noBytes);
+        currentBlockIndex += noBytes;
+        return noBytes;
+    }
+
+    /**
+     * Function close stops inflating threads and closes compressed file.
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        forkJoinPool.shutdownNow();
+        compressedStream.close();
+    }
+
+    /**
+     * Function getCompressedBytesRead provides number of compressed bytes read.
+     *
+     * @return      number of compressed bytes
+     */
+    public long getCompressedBytesRead() {
+        return compressedBytesRead;
+    }
+
+    /**
+     * Function getBytesInflated provides number of inflated bytes provided to
+     * reader so far, blocks read ahead excluded.
+     *
+     * @return      number of inflated bytes
+     */
+    public long getBytesInflated() {
+        return bytesInflated;
+    }
+
+    /**
+     * Function getNoThreads provides number of inflating threads.
+     *
+     * @return      number of threads
+     */
+    public int getNoThreads() {
+        return noThreads;
+    }
+
+    /**
+     * Function getMemoryConsumption estimates memory consumption of blocks
+     * read ahead.
+     *
+     * @return      memory consumption in bytes
+     */
+    public long getMemoryConsumption() {
+        return (((long) (maximalPendingBlocks + 2)) * 2 * MAXIMAL_BLOCK_SIZE);
+    }
+
+    /**
+     * Function nextBlock makes the next inflated block current. Compressed
+     * blocks are read ahead, so each inflating thread has blocks to inflate.
+     * Empty blocks, as the end of file block, are skipped.
+     *
+     * @return      true if block is available, false at the end of file
+     * @throws IOException
+     */
+    private boolean nextBlock() throws IOException {
+
+        byte[] compressedBlock;
+        Throwable cause;
+
+        do {
+            while ((!endOfCompressedFile) && (pendingBlocks.size() < maximalPendingBlocks)) {
+                compressedBlock = readCompressedBlock();
+                if (compressedBlock == null) {
+                    endOfCompressedFile = true;
+                } else {
+                    pendingBlocks.add(forkJoinPool.submit(new InflateTask(compressedBlock)));
+                }
+            }
+            if (pendingBlocks.isEmpty()) {
+                return false;
+            }
+            try {
+                currentBlock = pendingBlocks.poll().get();
+            } catch (InterruptedException ex) {
+                throw new IOException("Čitanje datoteke prekinuto", ex);
+            } catch (ExecutionException ex) {
+
+                /* exception thrown in other thread may be wrapped more than once */
+                for (cause = ex.getCause(); cause != null; cause = cause.getCause()) {
+                    if (cause instanceof IOException) {
+                        throw ((IOException) cause);
+                    }
+                }
+                throw new IOException(ex.getCause());
+            }
+            currentBlockIndex = 0;
+        } while (currentBlock.length == 0);
+        bytesInflated += currentBlock.length;
+        return true;
+    }
+
+    /**
+     * Function readCompressedBlock reads the next BGZF block, header
+     * included.
+     *
+     * @return      compressed block, or null at the end of file
+     * @throws IOException
+     */
+    private byte[] readCompressedBlock() throws IOException {
+
+        byte[] header;
+        byte[] block;
+        int firstByte;
+        int extraLength;
+        int blockSize;
+
+        firstByte = compressedStream.read();
+        if (firstByte < 0) {
+            return null;
+        }
+        header = new byte[FIXED_HEADER_SIZE];
+        header[0] = ((byte) firstByte);
+        try {
+            compressedStream.readFully(header, 1, (FIXED_HEADER_SIZE - 1));
+            if (    ((header[0] & 0xff) != GZIP_ID1) || ((header[1] & 0xff) != GZIP_ID2)
+                    || (header[2] != DEFLATE_METHOD) || ((header[3] & EXTRA_FLAG) == 0)     ) {
+                throw new IOException("Neispravan BGZF blok na poziciji " + Long.toString(compressedBytesRead));
+            }
+            extraLength = getExtraLength(header);
+            block = new byte[FIXED_HEADER_SIZE + extraLength];
+            System.arraycopy(header, 0, block, 0, FIXED_HEADER_SIZE);
+            compressedStream.readFully(block, FIXED_HEADER_SIZE, extraLength);
+            blockSize = getBlockSize(block, FIXED_HEADER_SIZE, extraLength);
+            if (blockSize < (FIXED_HEADER_SIZE + extraLength + FOOTER_SIZE)) {
+                throw new IOException("Neispravan BGZF blok na poziciji " + Long.toString(compressedBytesRead));
+            }
+            header = block;
+            block = new byte[blockSize];
+            System.arraycopy(header, 0, block, 0, header.length);
+            compressedStream.readFully(block, header.length, (blockSize - header.length));
+        } catch (EOFException ex) {
+            throw new IOException("Neočekivani kraj BGZF datoteke", ex);
+        }
+        compressedBytesRead += blockSize;
+        return block;
+    }
+
+    /**
+     * Function readHeader reads the beginning of file, long enough to contain
+     * gzip header with BGZF extra field.
+     *
+     * @param filename      filename
+     * @return              the first bytes of file
+     * @throws IOException
+     */
+    private static byte[] readHeader(String filename) throws IOException {
+
+        FileInputStream fileStream;
+        byte[] header;
+        int length;
+        int bytesRead;
+
+        header = new byte[FIXED_HEADER_SIZE + 64];
+        length = 0;
+        fileStream = new FileInputStream(filename);
+        try {
+            while ((length < header.length) && ((bytesRead = fileStream.read(header, length, (header.length - length))) > 0)) {
+                length += bytesRead;
+            }
+        } finally {
+            fileStream.close();
+        }
+        return Arrays.copyOf(header, length);
+    }
+
+    /**
+     * Function getExtraLength provides length of gzip header extra field.
+     *
+     * @param header        gzip header
+     * @return              extra field length
+     */
+    private static int getExtraLength(byte[] header) {
+        return ((header[10] & 0xff) | ((header[11] & 0xff) << 8));
+    }
+
+    /**
+     * Function getBlockSize finds "BC" subfield in gzip header extra field
+     * and provides BGZF block size written in it.
+     *
+     * @param header        gzip header
+     * @param offset        position of extra field in header
+     * @param extraLength   extra field length
+     * @return              block size, or 0 if there is no "BC" subfield
+     */
+    private static int getBlockSize(byte[] header, int offset, int extraLength) {
+
+        int subfieldLength;
+
+        for (int i = offset; (i + 4) <= (offset + extraLength); i += (4 + subfieldLength)) {
+            subfieldLength = ((header[i + 2] & 0xff) | ((header[i + 3] & 0xff) << 8));
+            if (    ((header[i] & 0xff) == BGZF_SUBFIELD_ID1) && ((header[i + 1] & 0xff) == BGZF_SUBFIELD_ID2)
+                    && (subfieldLength == 2) && ((i + 6) <= (offset + extraLength))                             ) {
+                return (((header[i + 4] & 0xff) | ((header[i + 5] & 0xff) << 8)) + 1);
+            }
+        }
+        return 0;
+    }
+    // </editor-fold>
+
+    // <editor-fold desc="Inflate task class">
+
+    /**
+     * Class InflateTask inflates one BGZF block and checks its uncompressed
+     * size and CRC32.
+     */
+    private class InflateTask extends RecursiveTask<byte[]> {
+
+        private static final long serialVersionUID = 1L;
+
+        /** Compressed block, header and footer included */
+        private final byte[] compressedBlock;
+
+        /**
+         * Class InflateTask Constructor
+         *
+         * @param block     compressed block
+         */
+        InflateTask(byte[] block) {
+            compressedBlock = block;
+        }
+
+        /**
+         * Function compute inflates the block.
+         *
+         * @return      inflated block
+         */
+        @Override
+        protected byte[] compute() {
+
+            Inflater inflater;
+            CRC32 crc32;
+            byte[] block;
+            int headerSize;
+            int footer;
+            int blockSize;
+            int inflatedSize;
+            int crc;
+
+            headerSize = (FIXED_HEADER_SIZE + getExtraLength(compressedBlock));
+            footer = (compressedBlock.length - FOOTER_SIZE);
+            crc = (     (compressedBlock[footer] & 0xff) | ((compressedBlock[footer + 1] & 0xff) << 8)
+                        | ((compressedBlock[footer + 2] & 0xff) << 16) | ((compressedBlock[footer + 3] & 0xff) << 24)  );
+            blockSize = (   (compressedBlock[footer + 4] & 0xff) | ((compressedBlock[footer + 5] & 0xff) << 8)
+                            | ((compressedBlock[footer + 6] & 0xff) << 16) | ((compressedBlock[footer + 7] & 0xff) << 24)  );
+            if ((blockSize < 0) || (blockSize > MAXIMAL_BLOCK_SIZE)) {
+                throw new RuntimeException(new IOException("Neispravna veličina BGZF bloka: " + Integer.toString(blockSize)));
+            }
+            block = new byte[blockSize];
+            inflater = new Inflater(true);
+            try {
+                inflater.setInput(compressedBlock, headerSize, (footer - headerSize));
+                inflatedSize = 0;
+                while ((inflatedSize < blockSize) && (!inflater.finished()) && (!inflater.needsInput())) {
+                    inflatedSize += inflater.inflate(block, inflatedSize, (blockSize - inflatedSize));
+                }
+                if (inflatedSize != blockSize) {
+                    throw new RuntimeException(new IOException("Neispravan sadržaj BGZF bloka"));
+                }
+            } catch (DataFormatException ex) {
+                throw new RuntimeException(new IOException("Neispravan sadržaj BGZF bloka", ex));
+            } finally {
+                inflater.end();
+            }
+            crc32 = new CRC32();
+            crc32.update(block, 0, blockSize);
+            if (((int) crc32.getValue()) != crc) {
+                throw new RuntimeException(new IOException("Neispravan CRC32 BGZF bloka"));
+            }
+            return block;
+        }
+    }
+    // </editor-fold>
+}
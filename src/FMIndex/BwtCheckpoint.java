@@ -0,0 +1,467 @@
+/*
+ * Author:
+ *
+ *      Vedran Sabadoš
+ *
+ * Version:
+ *
+ *      V1.0         26. 12. 2013
+ */
+
+package FMIndex;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Class BwtCheckpoint keeps progress of BW transform creation by rotation sort
+ * on disk, so creation interrupted by cancellation or crash is resumed from
+ * the last completed start sequence instead of from the beginning. BW
+ * transform created so far is appended to segment file, so each character is
+ * written only once. Small state file contains BW transform length, next
+ * start sequence, prefix-sum table and reference sequence fingerprint. State
+ * file is replaced by renaming only after segment file is forced to disk, so
+ * it never describes characters not written. Checkpoint is written only if
+ * minimal interval has passed since the previous one and total write duration
+ * stays within given share of creation time. Checkpoint files are kept in
+ * given directory, not next to reference sequence file which may be read-only,
+ * and their names contain reference sequence fingerprint. If checkpoint can
+ * not be written, checkpoints are turned off and creation continues.
+ *
+ * @version     V1.0                26.12.2013.
+ * @author      Vedran Sabadoš
+ */
+public class BwtCheckpoint {
+
+    // <editor-fold desc="Constants">
+
+    final public static String STATE_FILE_EXTENSION = ".ckpt";  // extension added to reference sequence name and fingerprint
+    final public static String SEGMENT_FILE_EXTENSION = ".bwt"; // extension added to state filename
+    final public long CHECKPOINT_MAGIC = 0x464d49434b505431L;   // "FMICKPT1" at the start of state file
+    final public int MAXIMAL_OVERHEAD_PERCENT = 2;              // maximal share of creation time spent writing checkpoints
+    final public int STATE_BUFFER_SIZE = 0x00001000;            // size of state file buffer
+    // </editor-fold>
+
+    // <editor-fold desc="Fields">
+
+    /** File containing checkpoint state */
+    private final File stateFile;
+
+    /** File containing BW transform created so far */
+    private final File segmentFile;
+
+    /** Checksum of compact coded reference sequence */
+    private final long fingerprint;
+
+    /** Reference sequence length including terminating character */
+    private final int referenceSequenceLength;
+
+    /** Start sequence length of rotation buckets */
+    private final int startSequenceLength;
+
+    /** Minimal interval between checkpoints in ms */
+    private final long minimalInterval;
+
+    /** True if ignored and failed checkpoints are reported to standard output */
+    private final boolean verbose;
+
+    /** Description of error which turned checkpoints off, or null if checkpoints are written */
+    private String writeError;
+
+    /** Segment file opened for writing, or null if not opened yet */
+    private RandomAccessFile segmentRandomAccessFile;
+
+    /** Number of BW transform characters already in segment file */
+    private int savedBwtIndex;
+
+    /** Restored checkpoint state */
+    private int restoredChangeDepth;
+    private int restoredStartSequenceCombination;
+    private byte[] restoredStartSequence;
+    private int[] restoredPrefixSumTable;
+
+    /** Time of creation start and of the last checkpoint in ms */
+    private final long startTime;
+    private long lastCheckpointTime;
+
+    /** Statistics */
+    private int noCheckpoints;
+    private long bytesWritten;
+    private long writeDuration;
+    private long maximalWriteDuration;
+    // </editor-fold>
+
+    // <editor-fold desc="Constructor">
+
+    /**
+     * Class BwtCheckpoint Constructor
+     *
+     * @param directory         directory in which checkpoint files are placed
+     * @param filename          reference sequence filename, its name is used in checkpoint filenames
+     * @param checksum          checksum of compact coded reference sequence
+     * @param sequenceLength    reference sequence length including terminating character
+     * @param sequenceDepth     start sequence length of rotation buckets
+     * @param interval          minimal interval between checkpoints in seconds
+     * @param verboseOutput     true if ignored and failed checkpoints are reported to standard output
+     */
+    public BwtCheckpoint(   String directory,
+                            String filename,
+                            long checksum,
+                            int sequenceLength,
+                            int sequenceDepth,
+                            int interval,
+                            boolean verboseOutput   ) {
+
+        stateFile = new File(directory, (new File(filename).getName() + "." + Long.toHexString(checksum) + STATE_FILE_EXTENSION));
+        segmentFile = new File(stateFile.getPath() + SEGMENT_FILE_EXTENSION);
+        fingerprint = checksum;
+        referenceSequenceLength = sequenceLength;
+        startSequenceLength = sequenceDepth;
+        minimalInterval = (interval * 1000L);
+        verbose = verboseOutput;
+        startTime = System.currentTimeMillis();
+        lastCheckpointTime = startTime;
+    }
+    // </editor-fold>
+
+    // <editor-fold desc="Methods">
+
+    /**
+     * Function restore reads checkpoint written by previous creation of the
+     * same reference sequence and copies saved BW transform into BWT buffer.
+     * Checkpoint of other reference sequence, or damaged one, is ignored and
+     * overwritten by the next checkpoint.
+     *
+     * @param bwtBuffer         BWT buffer
+     * @param alphabetSize      number of characters in the alphabet
+     * @return                  number of restored BW transform characters, or 0 if there is no valid checkpoint
+     */
+    public int restore(byte[] bwtBuffer, int alphabetSize) {
+
+        DataInputStream stateInputStream;
+        RandomAccessFile segmentInputFile;
+        int bwtIndex;
+
+        if (!stateFile.exists()) {
+            return 0;
+        }
+        stateInputStream = null;
+        segmentInputFile = null;
+        try {
+
+            /* check that checkpoint belongs to this reference sequence */
+            stateInputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(stateFile), STATE_BUFFER_SIZE));
+            if (    (stateInputStream.readLong() != CHECKPOINT_MAGIC)
+                    || (stateInputStream.readLong() != fingerprint)
+                    || (stateInputStream.readInt() != referenceSequenceLength)
+                    || (stateInputStream.readInt() != startSequenceLength)
+                    || (stateInputStream.readInt() != (alphabetSize + 2))   ) {
+                printMessage("Checkpoint " + stateFile.getPath() + " does not match reference sequence, it is ignored");
+                return 0;
+            }
+
+            /* read state */
+            bwtIndex = stateInputStream.readInt();
+            restoredChangeDepth = stateInputStream.readInt();
+            restoredStartSequenceCombination = stateInputStream.readInt();
+            restoredStartSequence = new byte[startSequenceLength];
+            stateInputStream.readFully(restoredStartSequence);
+            restoredPrefixSumTable = new int[alphabetSize + 2];
+            for (int i = 0; i < restoredPrefixSumTable.length; i++) {
+                restoredPrefixSumTable[i] = stateInputStream.readInt();
+            }
+            if ((bwtIndex <= 0) || (bwtIndex > referenceSequenceLength) || (segmentFile.length() < bwtIndex)) {
+                printMessage("Checkpoint " + stateFile.getPath() + " is not complete, it is ignored");
+                return 0;
+            }
+
+            /* read BW transform */
+            segmentInputFile = new RandomAccessFile(segmentFile, "r");
+            segmentInputFile.readFully(bwtBuffer, 0, bwtIndex);
+        } catch (IOException ex) {
+            printMessage("Checkpoint " + stateFile.getPath() + " can not be read, it is ignored: " + ex.getMessage());
+            return 0;
+        } finally {
+            closeQuietly(stateInputStream);
+            closeQuietly(segmentInputFile);
+        }
+        savedBwtIndex = bwtIndex;
+        return bwtIndex;
+    }
+
+    /**
+     * Function isDue checks if checkpoint should be written after current
+     * start sequence. Minimal interval has to pass since the previous
+     * checkpoint, and time spent writing checkpoints must not exceed maximal
+     * share of creation time. No checkpoint is due after failed write.
+     *
+     * @return      true if checkpoint should be written
+     */
+    public boolean isDue() {
+
+        long currentTime;
+
+        if (writeError != null) {
+            return false;
+        }
+        currentTime = System.currentTimeMillis();
+        if ((currentTime - lastCheckpointTime) < minimalInterval) {
+            return false;
+        }
+        return ((writeDuration * 100) <= ((currentTime - startTime) * MAXIMAL_OVERHEAD_PERCENT));
+    }
+
+    /**
+     * Function write appends BW transform created since the previous
+     * checkpoint to segment file and replaces state file. If writing fails,
+     * the error is kept for creation statistics and checkpoints are turned
+     * off, so creation is not stopped.
+     *
+     * @param bwtBuffer             BWT buffer
+     * @param bwtIndex              number of created BW transform characters
+     * @param startSequence         next start sequence to process
+     * @param changeDepth           depth of the first changed character of next start sequence
+     * @param startSequenceCombination  number of processed start sequences
+     * @param prefixSumTable        prefix-sum table filled so far
+     */
+    public void write(  byte[] bwtBuffer,
+                        int bwtIndex,
+                        byte[] startSequence,
+                        int changeDepth,
+                        int startSequenceCombination,
+                        int[] prefixSumTable            ) {
+
+        File temporaryStateFile;
+        FileOutputStream stateFileStream;
+        DataOutputStream stateOutputStream;
+        long duration;
+
+        if (writeError != null) {
+            return;
+        }
+        duration = System.currentTimeMillis();
+        temporaryStateFile = new File(stateFile.getPath() + ".tmp");
+        stateOutputStream = null;
+        try {
+
+            /* append BW transform and force it to disk */
+            if (segmentRandomAccessFile == null) {
+                segmentRandomAccessFile = new RandomAccessFile(segmentFile, "rw");
+                segmentRandomAccessFile.setLength(savedBwtIndex);
+            }
+            segmentRandomAccessFile.seek(savedBwtIndex);
+            segmentRandomAccessFile.write(bwtBuffer, savedBwtIndex, (bwtIndex - savedBwtIndex));
+            segmentRandomAccessFile.getChannel().force(false);
+            bytesWritten += (bwtIndex - savedBwtIndex);
+            savedBwtIndex = bwtIndex;
+
+            /* write state and replace previous one */
+            stateFileStream = new FileOutputStream(temporaryStateFile);
+            stateOutputStream = new DataOutputStream(new BufferedOutputStream(stateFileStream, STATE_BUFFER_SIZE));
+            stateOutputStream.writeLong(CHECKPOINT_MAGIC);
+            stateOutputStream.writeLong(fingerprint);
+            stateOutputStream.writeInt(referenceSequenceLength);
+            stateOutputStream.writeInt(startSequenceLength);
+            stateOutputStream.writeInt(prefixSumTable.length);
+            stateOutputStream.writeInt(bwtIndex);
+            stateOutputStream.writeInt(changeDepth);
+            stateOutputStream.writeInt(startSequenceCombination);
+            stateOutputStream.write(startSequence, 0, startSequenceLength);
+            for (int i = 0; i < prefixSumTable.length; i++) {
+                stateOutputStream.writeInt(prefixSumTable[i]);
+            }
+            stateOutputStream.flush();
+            stateFileStream.getFD().sync();
+            stateOutputStream.close();
+            stateOutputStream = null;
+            bytesWritten += temporaryStateFile.length();
+            Files.move(temporaryStateFile.toPath(), stateFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex) {
+            closeQuietly(stateOutputStream);
+            close();
+            temporaryStateFile.delete();
+            writeError = (getExceptionType(ex) + ": " + ex.getMessage());
+            printMessage("Checkpoint " + stateFile.getPath() + " can not be written, checkpoints are turned off: " + writeError);
+            return;
+        }
+
+        /* update statistics */
+        lastCheckpointTime = System.currentTimeMillis();
+        duration = (lastCheckpointTime - duration);
+        writeDuration += duration;
+        maximalWriteDuration = Math.max(maximalWriteDuration, duration);
+        noCheckpoints++;
+    }
+
+    /**
+     * Function delete closes and deletes checkpoint files, when BW transform
+     * is completed.
+     */
+    public void delete() {
+        close();
+        stateFile.delete();
+        segmentFile.delete();
+    }
+
+    /**
+     * Function close closes segment file, checkpoint files are kept for
+     * resumed creation.
+     */
+    public void close() {
+        closeQuietly(segmentRandomAccessFile);
+        segmentRandomAccessFile = null;
+    }
+
+    /**
+     * Function getStateFilename provides name of checkpoint state file.
+     *
+     * @return      state filename
+     */
+    public String getStateFilename() {
+        return stateFile.getPath();
+    }
+
+    /**
+     * Function getRestoredChangeDepth provides depth of the first changed
+     * character of restored start sequence.
+     *
+     * @return      change depth
+     */
+    public int getRestoredChangeDepth() {
+        return restoredChangeDepth;
+    }
+
+    /**
+     * Function getRestoredStartSequenceCombination provides number of start
+     * sequences processed before restored checkpoint.
+     *
+     * @return      number of processed start sequences
+     */
+    public int getRestoredStartSequenceCombination() {
+        return restoredStartSequenceCombination;
+    }
+
+    /**
+     * Function getRestoredStartSequence provides next start sequence to
+     * process.
+     *
+     * @return      start sequence
+     */
+    public byte[] getRestoredStartSequence() {
+        return restoredStartSequence;
+    }
+
+    /**
+     * Function getRestoredPrefixSumTable provides prefix-sum table filled
+     * before restored checkpoint.
+     *
+     * @return      prefix-sum table
+     */
+    public int[] getRestoredPrefixSumTable() {
+        return restoredPrefixSumTable;
+    }
+
+    /**
+     * Function getNoCheckpoints provides number of written checkpoints.
+     *
+     * @return      number of checkpoints
+     */
+    public int getNoCheckpoints() {
+        return noCheckpoints;
+    }
+
+    /**
+     * Function getBytesWritten provides number of bytes written to checkpoint
+     * files.
+     *
+     * @return      number of bytes
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * Function getWriteDuration provides total duration of checkpoint writes.
+     *
+     * @return      duration in ms
+     */
+    public long getWriteDuration() {
+        return writeDuration;
+    }
+
+    /**
+     * Function getMaximalWriteDuration provides duration of the longest
+     * checkpoint write.
+     *
+     * @return      duration in ms
+     */
+    public long getMaximalWriteDuration() {
+        return maximalWriteDuration;
+    }
+
+    /**
+     * Function getWriteError provides description of error which turned
+     * checkpoints off.
+     *
+     * @return      error description, or null if checkpoints are written
+     */
+    public String getWriteError() {
+        return writeError;
+    }
+
+    /**
+     * Function printMessage prints why checkpoint is ignored or why
+     * checkpoints are turned off if verbose output is requested.
+     *
+     * @param message       checkpoint message
+     */
+    private void printMessage(String message) {
+        if (verbose) {
+            System.out.println(message);
+        }
+    }
+
+    /**
+     * Function closeQuietly closes file ignoring errors.
+     *
+     * @param closeable     file to close, or null
+     */
+    private void closeQuietly(java.io.Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ex) {
+            }
+        }
+    }
+
+    /**
+     * Function getExceptionType provides the type of exception
+     *
+     * @param   ex    exception which type is to be determined
+     */
+    private String getExceptionType (Exception ex) {
+
+        String exceptionFullName;
+        int lastDotIndex;
+
+        exceptionFullName = ex.getClass().toString();
+        lastDotIndex = exceptionFullName.lastIndexOf('.');
+        if (lastDotIndex < 0) {
+            lastDotIndex = 0;
+        } else {
+            lastDotIndex++;
+        }
+        return exceptionFullName.substring(lastDotIndex);
+    }
+    // </editor-fold>
+}
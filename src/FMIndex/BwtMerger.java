@@ -0,0 +1,395 @@
+/*
+ * Author:
+ *
+ *      Vedran Sabadoš
+ *
+ * Version:
+ *
+ *      V1.0         26. 12. 2013
+ */
+
+package FMIndex;
+
+
+/**
+ * Class BwtMerger merges index of added sequence into existing reference
+ * sequence index without sorting rotations again. Every sequence keeps its
+ * own terminating character, so the result is index of sequence collection
+ * and query occurrences are never counted across sequence boundaries.
+ * Suffixes of added sequence are located among existing suffixes by backward
+ * search of added sequence in existing index, which gives interleave bit
+ * string of merged BW transform. Merged occurrence wavelet tree is then
+ * filled by reading both BW transforms sequentially in interleave order.
+ * Terminating characters of existing sequences are ordered before those of
+ * added sequences. Both merged indexes are 32-bit, while merged index can be
+ * 64-bit, so it is not limited by the length of 32-bit index.
+ *
+ * @version     V1.0                26.12.2013.
+ * @author      Vedran Sabadoš
+ */
+public class BwtMerger {
+
+    // <editor-fold desc="Constants">
+
+    final public int CANCEL_CHECK_INTERVAL = 0x00100000;        // number of characters processed between cancellation checks
+    // </editor-fold>
+
+    // <editor-fold desc="Fields">
+
+    /** Existing reference sequence index */
+    private final ReferenceSequenceIndex referenceSequenceIndex;
+
+    /** Index of added sequence */
+    private final ReferenceSequenceIndex addedSequenceIndex;
+
+    /** Addressing of merged index */
+    private final ReferenceSequence.IndexAddressing mergedIndexAddressing;
+
+    /** Alphabet dictionary of merged index */
+    private AlphabetDictionary mergedAlphabetDictionary;
+
+    /** Compact code in merged index for each compact code of existing index */
+    private byte[] referenceCharacterMap;
+
+    /** Compact code in merged index for each compact code of added sequence index */
+    private byte[] addedCharacterMap;
+
+    /** Compact code in existing index for each merged compact code, -1 if character is not contained in existing index */
+    private byte[] mergedToReferenceCharacterMap;
+
+    /** Number of characters of existing BW transform lexicographically smaller than each merged compact code */
+    private int[] referencePrefixSumTable;
+
+    /** BW transform of added sequence */
+    private byte[] addedBwtBuffer;
+
+    /** Interleave bit string, set bits mark merged BW transform positions taken by added sequence */
+    private long[] interleaveBitString;
+
+    /** Statistics */
+    private long noMergedSymbols;
+    private long mergeDuration;
+    private long maximalMemoryConsumption;
+    // </editor-fold>
+
+    // <editor-fold desc="Constructor">
+
+    /**
+     * Class BwtMerger Constructor
+     *
+     * @param index         existing reference sequence index
+     * @param addedIndex    index of sequence to be added
+     * @param addressing    addressing of merged index
+     */
+    public BwtMerger(ReferenceSequenceIndex index, ReferenceSequenceIndex addedIndex, ReferenceSequence.IndexAddressing addressing) {
+        referenceSequenceIndex = index;
+        addedSequenceIndex = addedIndex;
+        mergedIndexAddressing = addressing;
+    }
+    // </editor-fold>
+
+    // <editor-fold desc="Methods">
+
+    /**
+     * Function merge creates merged index of existing reference sequence and
+     * added sequence.
+     *
+     * @return      merged reference sequence index
+     * @throws ReportedException
+     */
+    public ReferenceSequenceIndex merge() throws ReportedException {
+
+        ReferenceSequenceIndex mergedIndex;
+
+        if (referenceSequenceIndex.isLongIndex() || addedSequenceIndex.isLongIndex()) {
+            throw new ReportedException("Spajanje indeksa podržano je samo za 32-bitno adresiranje indeksa!");
+        }
+        if ((referenceSequenceIndex.occurrenceWaveletMatrix != null) || (addedSequenceIndex.occurrenceWaveletMatrix != null)) {
+            throw new ReportedException("Spajanje indeksa podržano je samo za indekse sa stablom valića!");
+        }
+        if (    (mergedIndexAddressing == ReferenceSequence.IndexAddressing.INT_32)
+                && ((referenceSequenceIndex.getBwtLength() + addedSequenceIndex.getBwtLength()) >= 0x7fffffff)  ) {
+            throw new ReportedException(    "Spojeni referentni slijed je prevelik: "
+                                            + Long.toString(referenceSequenceIndex.getBwtLength() + addedSequenceIndex.getBwtLength())
+                                            + " znakova, potrebno je koristiti opciju -index=long!"                                     );
+        }
+
+        mergeDuration = System.nanoTime();
+        mergeAlphabets();
+        readAddedBwt();
+        calculateInterleave();
+        mergedIndex = createMergedIndex();
+        mergeDuration = (System.nanoTime() - mergeDuration);
+
+        /* release unused objects */
+        addedBwtBuffer = null;
+        interleaveBitString = null;
+        return mergedIndex;
+    }
+
+    /**
+     * Function getNoMergedSymbols provides number of symbols in merged BW
+     * transform.
+     *
+     * @return      number of merged symbols
+     */
+    public long getNoMergedSymbols() {
+        return noMergedSymbols;
+    }
+
+    /**
+     * Function getMergeDuration provides merge duration.
+     *
+     * @return      merge duration in ms
+     */
+    public long getMergeDuration() {
+        return (mergeDuration / 1000000);
+    }
+
+    /**
+     * Function getSymbolsPerSecond provides merge throughput.
+     *
+     * @return      number of merged symbols per second
+     */
+    public long getSymbolsPerSecond() {
+        if (mergeDuration <= 0) {
+            return 0;
+        }
+        return ((long) (noMergedSymbols * 1000000000.0 / mergeDuration));
+    }
+
+    /**
+     * Function getMaximalMemoryConsumption provides maximal memory used by
+     * merge in addition to existing and added index.
+     *
+     * @return      maximal memory consumption in bytes
+     */
+    public long getMaximalMemoryConsumption() {
+        return maximalMemoryConsumption;
+    }
+
+    /**
+     * Function mergeAlphabets creates alphabet dictionary containing characters
+     * of both indexes and maps compact codes of both indexes to merged compact
+     * codes. Compact codes follow character order, so mapping keeps
+     * lexicographic order of rotations of both indexes.
+     *
+     * @throws ReportedException
+     */
+    private void mergeAlphabets() throws ReportedException {
+
+        byte referenceCode;
+        byte addedCode;
+        int mergedAlphabetSize;
+
+        mergedAlphabetDictionary = new AlphabetDictionary();
+        for (int i = 1; i < 128; i++) {
+            if (    (referenceSequenceIndex.alphabetDictionary.getCompactCode((byte) i) != 0)
+                    || (addedSequenceIndex.alphabetDictionary.getCompactCode((byte) i) != 0)    ) {
+                mergedAlphabetDictionary.addCharacter(i);
+            }
+        }
+        mergedAlphabetDictionary.finalizeDictionary();
+
+        mergedAlphabetSize = mergedAlphabetDictionary.getAlphabetSize();
+        referenceCharacterMap = new byte[referenceSequenceIndex.alphabetDictionary.getAlphabetSize() + 1];
+        addedCharacterMap = new byte[addedSequenceIndex.alphabetDictionary.getAlphabetSize() + 1];
+        mergedToReferenceCharacterMap = new byte[mergedAlphabetSize + 1];
+        for (int i = 1; i <= mergedAlphabetSize; i++) {
+            mergedToReferenceCharacterMap[i] = -1;
+        }
+        for (int i = 1; i < 128; i++) {
+            referenceCode = referenceSequenceIndex.alphabetDictionary.getCompactCode((byte) i);
+            if (referenceCode != 0) {
+                referenceCharacterMap[referenceCode] = mergedAlphabetDictionary.getCompactCode((byte) i);
+                mergedToReferenceCharacterMap[referenceCharacterMap[referenceCode]] = referenceCode;
+            }
+            addedCode = addedSequenceIndex.alphabetDictionary.getCompactCode((byte) i);
+            if (addedCode != 0) {
+                addedCharacterMap[addedCode] = mergedAlphabetDictionary.getCompactCode((byte) i);
+            }
+        }
+
+        /* count existing characters smaller than each merged character */
+        referencePrefixSumTable = new int[mergedAlphabetSize + 1];
+        referencePrefixSumTable[0] = 0;
+        for (int i = 1; i <= mergedAlphabetSize; i++) {
+            referencePrefixSumTable[i] = referencePrefixSumTable[i - 1];
+            if (mergedToReferenceCharacterMap[i - 1] >= 0) {
+                referencePrefixSumTable[i] += referenceSequenceIndex.getCharacterTotal(mergedToReferenceCharacterMap[i - 1]);
+            }
+        }
+    }
+
+    /**
+     * Function readAddedBwt reads BW transform of added sequence from its
+     * occurrence wavelet tree.
+     *
+     * @throws ReportedException
+     */
+    private void readAddedBwt() throws ReportedException {
+
+        int addedBwtLength;
+
+        addedBwtLength = ((int) addedSequenceIndex.getBwtLength());
+        addedBwtBuffer = new byte[addedBwtLength];
+        maximalMemoryConsumption += addedBwtLength;
+        addedSequenceIndex.occurrenceWaveletTree.resetSequentialIndex();
+        for (int i = 0; i < addedBwtLength; i++) {
+            addedBwtBuffer[i] = addedSequenceIndex.occurrenceWaveletTree.readCharacter();
+        }
+    }
+
+    /**
+     * Function calculateInterleave calculates interleave bit string. Each
+     * added sequence is searched backward from its terminating character. At
+     * every step, rank of current suffix among added suffixes and number of
+     * existing suffixes smaller than it are known, and their sum is position
+     * of the suffix in merged BW transform.
+     *
+     * @throws ReportedException
+     */
+    private void calculateInterleave() throws ReportedException {
+
+        long mergedLength;
+        int noAddedSequences;
+        int referenceIndex;
+        int addedIndex;
+        long position;
+        long noSteps;
+        byte character;
+
+        mergedLength = (referenceSequenceIndex.getBwtLength() + addedSequenceIndex.getBwtLength());
+        interleaveBitString = new long[(int) ((mergedLength + 63) >>> 6)];
+        maximalMemoryConsumption += (interleaveBitString.length * 8);
+
+        /* every terminating character starts one added sequence */
+        noAddedSequences = addedSequenceIndex.C((byte) 1);
+        noSteps = 0;
+        for (int sequence = 0; sequence < noAddedSequences; sequence++) {
+            referenceIndex = referenceSequenceIndex.C((byte) 1);
+            addedIndex = sequence;
+            while (true) {
+                position = (((long) referenceIndex) + addedIndex);
+                interleaveBitString[(int) (position >>> 6)] |= (1L << (position & 0x3f));
+                character = addedBwtBuffer[addedIndex];
+                if (character == 0) {
+                    break;
+                }
+                if (((++noSteps) % CANCEL_CHECK_INTERVAL) == 0) {
+                    checkCancel();
+                }
+
+                /* extend suffix by preceding character in both indexes */
+                addedIndex = (  addedSequenceIndex.C(character)
+                                + addedSequenceIndex.occurrenceWaveletTree.Occ(character, addedIndex)  );
+                character = addedCharacterMap[character];
+                if (mergedToReferenceCharacterMap[character] >= 0) {
+                    referenceIndex = (  referencePrefixSumTable[character]
+                                        + referenceSequenceIndex.occurrenceWaveletTree.Occ(mergedToReferenceCharacterMap[character], referenceIndex)   );
+                } else {
+                    referenceIndex = referencePrefixSumTable[character];
+                }
+            }
+        }
+    }
+
+    /**
+     * Function createMergedIndex creates merged prefix-sum table and fills
+     * merged 32-bit or 64-bit occurrence wavelet tree by reading both BW
+     * transforms in interleave order.
+     *
+     * @return      merged reference sequence index
+     * @throws ReportedException
+     */
+    private ReferenceSequenceIndex createMergedIndex() throws ReportedException {
+
+        ReferenceSequenceIndex mergedIndex;
+        FMIndexWaveletTreeNode referenceWaveletTree;
+        FMIndexWaveletTreeNode mergedWaveletTree;
+        FMIndexLongWaveletTreeNode mergedLongWaveletTree;
+        long[] longPrefixSumTable;
+        int[] prefixSumTable;
+        int mergedAlphabetSize;
+        long mergedLength;
+        int addedIndex;
+        byte character;
+
+        /* create merged prefix-sum table */
+        mergedAlphabetSize = mergedAlphabetDictionary.getAlphabetSize();
+        longPrefixSumTable = new long[mergedAlphabetSize + 2];
+        for (int i = 0; i <= referenceSequenceIndex.alphabetDictionary.getAlphabetSize(); i++) {
+            longPrefixSumTable[referenceCharacterMap[i] + 1] += referenceSequenceIndex.getCharacterTotal((byte) i);
+        }
+        for (int i = 0; i <= addedSequenceIndex.alphabetDictionary.getAlphabetSize(); i++) {
+            longPrefixSumTable[addedCharacterMap[i] + 1] += addedSequenceIndex.getCharacterTotal((byte) i);
+        }
+        for (int i = 1; i < (mergedAlphabetSize + 2); i++) {
+            longPrefixSumTable[i] += longPrefixSumTable[i - 1];
+        }
+        mergedLength = longPrefixSumTable[mergedAlphabetSize + 1];
+
+        /* create empty merged occurrence wavelet tree */
+        mergedIndex = new ReferenceSequenceIndex();
+        mergedIndex.alphabetDictionary = mergedAlphabetDictionary;
+        if (mergedIndexAddressing == ReferenceSequence.IndexAddressing.LONG_64) {
+            mergedIndex.longPrefixSumTable = longPrefixSumTable;
+            mergedWaveletTree = null;
+            mergedLongWaveletTree = new FMIndexLongWaveletTreeNode(longPrefixSumTable);
+            mergedLongWaveletTree.resetSequentialIndex();
+        } else {
+            prefixSumTable = new int[mergedAlphabetSize + 2];
+            for (int i = 0; i < (mergedAlphabetSize + 2); i++) {
+                prefixSumTable[i] = ((int) longPrefixSumTable[i]);
+            }
+            mergedIndex.prefixSumTable = prefixSumTable;
+            mergedWaveletTree = new FMIndexWaveletTreeNode(null, prefixSumTable, referenceSequenceIndex.occurrenceWaveletTree.isHuffmanShaped());
+            mergedWaveletTree.resetSequentialIndex();
+            mergedLongWaveletTree = null;
+        }
+
+        /* fill merged occurrence wavelet tree */
+        referenceWaveletTree = referenceSequenceIndex.occurrenceWaveletTree;
+        referenceWaveletTree.resetSequentialIndex();
+        addedIndex = 0;
+        for (long i = 0; i < mergedLength; i++) {
+            if ((interleaveBitString[(int) (i >>> 6)] & (1L << (i & 0x3f))) != 0) {
+                character = addedCharacterMap[addedBwtBuffer[addedIndex++]];
+            } else {
+                character = referenceCharacterMap[referenceWaveletTree.readCharacter()];
+            }
+            if (mergedLongWaveletTree != null) {
+                mergedLongWaveletTree.insertCharacter(character);
+            } else {
+                mergedWaveletTree.insertCharacter(character);
+            }
+            if ((i % CANCEL_CHECK_INTERVAL) == 0) {
+                checkCancel();
+            }
+        }
+        if (mergedLongWaveletTree != null) {
+            mergedLongWaveletTree.refreshBuckets();
+            mergedIndex.longOccurrenceWaveletTree = mergedLongWaveletTree;
+        } else {
+            mergedWaveletTree.refreshBuckets();
+            mergedIndex.occurrenceWaveletTree = mergedWaveletTree;
+        }
+        maximalMemoryConsumption += mergedIndex.getMemoryConsumption();
+        noMergedSymbols = mergedLength;
+        return mergedIndex;
+    }
+
+    /**
+     * Function checkCancel checks if reference sequence creation cancellation
+     * is requested. If so, creation is interrupted by ReportedException
+     * describing cancellation.
+     *
+     * @throws ReportedException
+     */
+    private void checkCancel() throws ReportedException {
+        if (Thread.interrupted()) {
+            throw new ReportedException("Kreiranje indeksa referentnog slijeda prekinuto na zahtjev korisnika!");
+        }
+    }
+    // </editor-fold>
+}
@@ -0,0 +1,340 @@
+/*
+ * Author:
+ *
+ *      Vedran Sabadoš
+ *
+ * Version:
+ *
+ *      V1.0         26. 12. 2013
+ */
+
+package FMIndex;
+
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Class BwtPipeline inserts BW transform into occurrence wavelet tree while
+ * rotation sort is still running. Rotation sort emits BW transform characters
+ * in their final order, so they are collected into fixed size blocks and
+ * every filled block is handed over to inserting thread, which inserts its
+ * characters into wavelet tree bit strings. Whole BW transform buffer is
+ * never allocated, only a few blocks circulate between the two threads.
+ * Wavelet tree must be created upon complete prefix-sum table before the
+ * pipeline is started, and it must not be used by other threads until
+ * function finish returns.
+ *
+ * @version     V1.0                26.12.2013.
+ * @author      Vedran Sabadoš
+ */
+public class BwtPipeline {
+
+    // <editor-fold desc="Constants">
+
+    final public int MAXIMAL_BLOCK_SIZE = 0x00100000;           // maximal number of BW transform characters in one block
+    final public int NO_BLOCKS = 4;                             // number of blocks circulating between threads
+    final public int QUEUE_POLL_INTERVAL = 100;                 // milliseconds between two checks of inserting thread failure
+    // </editor-fold>
+
+    // <editor-fold desc="Fields">
+
+    /** 32-bit occurrence wavelet tree, or null if 64-bit tree is used */
+    private final FMIndexWaveletTreeNode occurrenceWaveletTree;
+
+    /** 64-bit occurrence wavelet tree, or null if 32-bit tree is used */
+    private final FMIndexLongWaveletTreeNode longOccurrenceWaveletTree;
+
+    /** Number of BW transform characters in one block */
+    private final int blockSize;
+
+    /** Filled blocks waiting for insertion */
+    private final ArrayBlockingQueue<byte[]> filledBlocks;
+
+    /** Empty blocks ready to be filled */
+    private final ArrayBlockingQueue<byte[]> emptyBlocks;
+
+    /** Thread inserting filled blocks into wavelet tree */
+    private final Thread insertingThread;
+
+    /** Block being filled */
+    private byte[] currentBlock;
+
+    /** Number of characters in block being filled */
+    private int currentBlockIndex;
+
+    /** Number of characters handed over to inserting thread */
+    private long noCharacters;
+
+    /** Number of blocks handed over to inserting thread */
+    private int noBlocks;
+
+    /** Time in nanoseconds sorting thread waited for empty block */
+    private long producerWaitDuration;
+
+    /** Time in nanoseconds inserting thread spent inserting characters */
+    private volatile long insertDuration;
+
+    /** Error which stopped inserting thread, or null if it did not fail */
+    private volatile ReportedException insertException;
+    // </editor-fold>
+
+    // <editor-fold desc="Constructor">
+
+    /**
+     * Class BwtPipeline Constructor, starts inserting thread. Exactly one of
+     * the wavelet trees must be given. Blocks are not bigger than BW
+     * transform, so short sequences do not allocate full size blocks.
+     *
+     * @param tree          empty 32-bit occurrence wavelet tree, or null
+     * @param longTree      empty 64-bit occurrence wavelet tree, or null
+     * @param bwtLength     BW transform length
+     */
+    public BwtPipeline(FMIndexWaveletTreeNode tree, FMIndexLongWaveletTreeNode longTree, long bwtLength) {
+
+        occurrenceWaveletTree = tree;
+        longOccurrenceWaveletTree = longTree;
+        blockSize = ((int) Math.max(1, Math.min(MAXIMAL_BLOCK_SIZE, bwtLength)));
+        filledBlocks = new ArrayBlockingQueue<>(NO_BLOCKS + 1);
+        emptyBlocks = new ArrayBlockingQueue<>(NO_BLOCKS);
+        for (int i = 1; i < NO_BLOCKS; i++) {
+            emptyBlocks.add(new byte[blockSize]);
+        }
+        currentBlock = new byte[blockSize];
+        currentBlockIndex = 0;
+        noCharacters = 0;
+        noBlocks = 0;
+        producerWaitDuration = 0;
+        insertDuration = 0;
+        insertException = null;
+
+        insertingThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                insertBlocks();
+            }
+        }, "BwtPipeline");
+        insertingThread.setDaemon(true);
+        insertingThread.start();
+    }
+    // </editor-fold>
+
+    // <editor-fold desc="Methods">
+
+    /**
+     * Function insertCharacter appends next BW transform character to block
+     * being filled and hands the block over to inserting thread when it is
+     * full.
+     *
+     * @param character     BW transform character
+     * @throws ReportedException
+     */
+    final public void insertCharacter(byte character) throws ReportedException {
+        currentBlock[currentBlockIndex++] = character;
+        if (currentBlockIndex == blockSize) {
+            handOverBlock(currentBlock);
+            currentBlock = takeEmptyBlock();
+            currentBlockIndex = 0;
+        }
+    }
+
+    /**
+     * Function finish hands over the last block, waits until inserting thread
+     * inserts all blocks and refreshes wavelet tree buckets.
+     *
+     * @throws ReportedException
+     */
+    public void finish() throws ReportedException {
+
+        if (currentBlockIndex > 0) {
+            handOverBlock(Arrays.copyOf(currentBlock, currentBlockIndex));
+        }
+        currentBlock = null;
+        handOverBlock(new byte[0]);
+        try {
+            insertingThread.join();
+        } catch (InterruptedException ex) {
+            close();
+            throw new ReportedException("Kreiranje indeksa referentnog slijeda prekinuto na zahtjev korisnika!");
+        }
+        if (insertException != null) {
+            throw insertException;
+        }
+        if (longOccurrenceWaveletTree != null) {
+            longOccurrenceWaveletTree.refreshBuckets();
+        } else {
+            occurrenceWaveletTree.refreshBuckets();
+        }
+    }
+
+    /**
+     * Function close stops inserting thread if pipeline is abandoned before
+     * it is finished.
+     */
+    public void close() {
+        insertingThread.interrupt();
+        try {
+            insertingThread.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Function getNoCharacters provides number of characters inserted into
+     * wavelet tree.
+     *
+     * @return      number of characters
+     */
+    public long getNoCharacters() {
+        return noCharacters;
+    }
+
+    /**
+     * Function getNoBlocks provides number of blocks handed over to inserting
+     * thread, including the last partially filled block.
+     *
+     * @return      number of blocks
+     */
+    public int getNoBlocks() {
+        return noBlocks;
+    }
+
+    /**
+     * Function getInsertDuration provides time inserting thread spent
+     * inserting characters into wavelet tree.
+     *
+     * @return      insertion duration in milliseconds
+     */
+    public long getInsertDuration() {
+        return (insertDuration / 1000000);
+    }
+
+    /**
+     * Function getProducerWaitDuration provides time sorting thread waited
+     * for inserting thread to release a block.
+     *
+     * @return      waiting duration in milliseconds
+     */
+    public long getProducerWaitDuration() {
+        return (producerWaitDuration / 1000000);
+    }
+
+    /**
+     * Function getMemoryConsumption estimates memory consumption of blocks.
+     *
+     * @return      memory consumption in bytes
+     */
+    public long getMemoryConsumption() {
+        return (((long) NO_BLOCKS) * (blockSize + 16));
+    }
+
+    /**
+     * Function insertBlocks is run by inserting thread. It inserts filled
+     * blocks into wavelet tree until empty block marking the end of BW
+     * transform arrives.
+     */
+    private void insertBlocks() {
+
+        byte[] block;
+        long time;
+
+        try {
+            if (longOccurrenceWaveletTree != null) {
+                longOccurrenceWaveletTree.resetSequentialIndex();
+            } else {
+                occurrenceWaveletTree.resetSequentialIndex();
+            }
+            while (true) {
+                block = filledBlocks.take();
+                if (block.length == 0) {
+                    break;
+                }
+                time = System.nanoTime();
+                if (longOccurrenceWaveletTree != null) {
+                    for (byte character: block) {
+                        longOccurrenceWaveletTree.insertCharacter(character);
+                    }
+                } else {
+                    for (byte character: block) {
+                        occurrenceWaveletTree.insertCharacter(character);
+                    }
+                }
+                insertDuration += (System.nanoTime() - time);
+                if (block.length == blockSize) {
+                    emptyBlocks.put(block);
+                }
+            }
+        } catch (InterruptedException ex) {
+            insertException = new ReportedException("Kreiranje indeksa referentnog slijeda prekinuto na zahtjev korisnika!");
+        } catch (ReportedException ex) {
+            insertException = ex;
+        } catch (RuntimeException ex) {
+            insertException = new ReportedException(    "Neočekivana pogreška tijekom umetanja BW transformacije u stablo valića ("
+                                                        + ex.toString() + ")!"                                                      );
+        }
+    }
+
+    /**
+     * Function handOverBlock hands block over to inserting thread.
+     *
+     * @param block     filled block, or empty block marking the end of BW transform
+     * @throws ReportedException
+     */
+    private void handOverBlock(byte[] block) throws ReportedException {
+        try {
+            while (!filledBlocks.offer(block, QUEUE_POLL_INTERVAL, TimeUnit.MILLISECONDS)) {
+                checkInsertingThread();
+            }
+        } catch (InterruptedException ex) {
+            close();
+            throw new ReportedException("Kreiranje indeksa referentnog slijeda prekinuto na zahtjev korisnika!");
+        }
+        if (block.length > 0) {
+            noCharacters += block.length;
+            noBlocks++;
+        }
+    }
+
+    /**
+     * Function takeEmptyBlock takes block released by inserting thread,
+     * waiting for it if all blocks are still in use.
+     *
+     * @return      empty block
+     * @throws ReportedException
+     */
+    private byte[] takeEmptyBlock() throws ReportedException {
+
+        byte[] block;
+        long time;
+
+        block = emptyBlocks.poll();
+        if (block != null) {
+            return block;
+        }
+        time = System.nanoTime();
+        try {
+            while ((block = emptyBlocks.poll(QUEUE_POLL_INTERVAL, TimeUnit.MILLISECONDS)) == null) {
+                checkInsertingThread();
+            }
+        } catch (InterruptedException ex) {
+            close();
+            throw new ReportedException("Kreiranje indeksa referentnog slijeda prekinuto na zahtjev korisnika!");
+        }
+        producerWaitDuration += (System.nanoTime() - time);
+        return block;
+    }
+
+    /**
+     * Function checkInsertingThread interrupts sorting if inserting thread
+     * failed, with the error which stopped inserting thread.
+     *
+     * @throws ReportedException
+     */
+    private void checkInsertingThread() throws ReportedException {
+        if (insertException != null) {
+            throw insertException;
+        }
+    }
+    // </editor-fold>
+}
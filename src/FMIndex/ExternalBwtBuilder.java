@@ -0,0 +1,1110 @@
+/*
+ * Author:
+ *
+ *      Vedran Sabadoš
+ *
+ * Version:
+ *
+ *      V1.0         26. 12. 2013
+ */
+
+package FMIndex;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Class ExternalBwtBuilder creates reference sequence BW transform keeping
+ * only configurable working set of rotations in memory. Rotations are divided
+ * into buckets by their start sequence and spilled to disk. Buckets are
+ * processed in lexicographic order, and every bucket is sorted in groups of
+ * rotations that fit into the working set. Sorted groups are written as BW
+ * transform runs into temporary file. Buckets cover disjoint ranges of
+ * rotations, so the runs are already in lexicographic order and they are
+ * merged by streaming them sequentially into occurrence wavelet tree, which
+ * means that neither BW transform nor all rotations ever have to be in memory.
+ *
+ * @version     V1.0                26.12.2013.
+ * @author      Vedran Sabadoš
+ */
+public class ExternalBwtBuilder {
+
+    // <editor-fold desc="Constants">
+
+    final public long MINIMAL_WORKING_SET_SIZE = 0x01000000;    // minimal working set size
+    final public int STREAM_CHUNK_SIZE = 0x00040000;            // number of rotations read from disk at once
+    final public int RUN_FILE_BUFFER_SIZE = 0x00100000;         // size of BW transform run file buffer
+    final public int START_SEQUENCE_BUFFER_SIZE = 1000;         // maximal start sequence length
+    final public int SPLIT_EFFICIENCY_PERCENT = 90;             // rotations are partitioned by samples if one next character has more than given percentage of them
+    final public int SAMPLES_PER_RANGE = 32;                    // number of sample rotations per partition range
+    final public int MAXIMAL_PARTITION_RANGES = 64;             // maximal number of ranges rotations are partitioned into at once
+    final public int MINIMAL_PARTITION_BUFFER_SIZE = 0x00010000; // minimal size of partition range file buffer
+    // </editor-fold>
+
+    // <editor-fold desc="Fields">
+
+    /** Compact coded reference sequence buffer */
+    private byte[] compactCodeBuffer;
+
+    /** Reference sequence length including terminating character */
+    private final int referenceSequenceLength;
+
+    /** Number of characters in the alphabet */
+    private final int alphabetSize;
+
+    /** Reference sequence rotation sorter */
+    private RotationSorter rotationSorter;
+
+    /** Maximal memory used for rotations being sorted */
+    private final long workingSetSize;
+
+    /** Start sequence length of initial buckets */
+    private final int initialStartSequenceLength;
+
+    /** Listener receiving creation progress, or null if progress is not reported */
+    private final ProgressListener progressListener;
+
+    /** True if sort duration of each bucket is printed to standard output */
+    private final boolean verbose;
+
+    /** Initial rotation buckets spilled to disk */
+    private RotationBucketizer rotationBucketizer;
+
+    /** Temporary file containing BW transform runs */
+    private File runFile;
+
+    /** Output stream used to write BW transform runs */
+    private OutputStream runOutputStream;
+
+    /** Number of BW transform characters written to run file */
+    private long bwtLength;
+
+    /** Statistics */
+    private int completedStartSequenceCombinations;
+    private int noRuns;
+    private int noSplitBuckets;
+    private int noPasses;
+    private long bytesScanned;
+    private long bytesSpilled;
+    private long currentMemoryConsumption;
+    private long maximalMemoryConsumption;
+    // </editor-fold>
+
+    // <editor-fold desc="Constructor">
+
+    /**
+     * Class ExternalBwtBuilder Constructor
+     *
+     * @param codeBuffer                compact coded reference sequence terminated by character 0
+     * @param noCharacters              number of characters in the alphabet
+     * @param sorter                    reference sequence rotation sorter
+     * @param workingSet                maximal memory used for rotations being sorted
+     * @param startSequenceLength       start sequence length of initial buckets
+     * @param listener                  listener receiving creation progress, or null
+     * @param verboseOutput             true if sort duration of each bucket is printed to standard output
+     */
+    public ExternalBwtBuilder(  byte[] codeBuffer,
+                                int noCharacters,
+                                RotationSorter sorter,
+                                long workingSet,
+                                int startSequenceLength,
+                                ProgressListener listener,
+                                boolean verboseOutput       ) {
+
+        compactCodeBuffer = codeBuffer;
+        referenceSequenceLength = codeBuffer.length;
+        alphabetSize = noCharacters;
+        rotationSorter = sorter;
+        workingSetSize = Math.max(workingSet, MINIMAL_WORKING_SET_SIZE);
+        initialStartSequenceLength = startSequenceLength;
+        progressListener = listener;
+        verbose = verboseOutput;
+    }
+    // </editor-fold>
+
+    // <editor-fold desc="Methods">
+
+    /**
+     * Function createBwt sorts all reference sequence rotations and writes
+     * BW transform runs into temporary file. References to reference sequence
+     * and rotation sorter are released when BW transform is created.
+     *
+     * @throws ReportedException
+     */
+    public void createBwt() throws ReportedException {
+
+        try {
+
+            /* divide rotations into buckets spilled to disk */
+            rotationBucketizer = new RotationBucketizer(    compactCodeBuffer,
+                                                            alphabetSize,
+                                                            initialStartSequenceLength,
+                                                            true,
+                                                            ((int) Math.min(    RotationBucketizer.DEFAULT_SPILL_BUFFER_MEMORY,
+                                                                                (workingSetSize / 2)                            ))  );
+            noPasses += rotationBucketizer.getNoPasses();
+            bytesScanned += rotationBucketizer.getBytesScanned();
+            bytesSpilled += rotationBucketizer.getBytesSpilled();
+            allocateMemory(rotationBucketizer.getMaximalMemoryConsumption());
+            releaseMemory(rotationBucketizer.getMaximalMemoryConsumption() - rotationBucketizer.getMemoryConsumption());
+
+            /* sort buckets in lexicographic order */
+            runFile = File.createTempFile("FMIndexCount", ".bwt");
+            runFile.deleteOnExit();
+            runOutputStream = new BufferedOutputStream(new FileOutputStream(runFile), RUN_FILE_BUFFER_SIZE);
+            allocateMemory(RUN_FILE_BUFFER_SIZE);
+            processStartSequences(new byte[0]);
+            runOutputStream.close();
+            runOutputStream = null;
+            releaseMemory(RUN_FILE_BUFFER_SIZE);
+        } catch (IOException ex) {
+            close();
+            throw new ReportedException(    "Greška tijekom zapisivanja privremene datoteke BW transformacije ("
+                                            + getExceptionType(ex)
+                                            + "):\n\n    "
+                                            + ex.getMessage()                                                   );
+        } catch (ReportedException ex) {
+            close();
+            throw ex;
+        }
+
+        /* release unused objects */
+        releaseMemory(rotationBucketizer.getMemoryConsumption());
+        rotationBucketizer.close();
+        rotationBucketizer = null;
+        compactCodeBuffer = null;
+        rotationSorter = null;
+
+        if (bwtLength != referenceSequenceLength) {
+            close();
+            throw new ReportedException("Vanjski kreirana BW transformacija nije potpuna!");
+        }
+    }
+
+    /**
+     * Function insertBwt streams BW transform runs from temporary file into
+     * given empty occurrence wavelet tree.
+     *
+     * @param occurrenceWaveletTree     empty occurrence wavelet tree created upon prefix-sum table
+     * @throws ReportedException
+     */
+    public void insertBwt(FMIndexWaveletTreeNode occurrenceWaveletTree) throws ReportedException {
+        insertBwt(occurrenceWaveletTree, null);
+    }
+
+    /**
+     * Function insertBwt streams BW transform runs from temporary file into
+     * given empty 64-bit occurrence wavelet tree.
+     *
+     * @param longOccurrenceWaveletTree     empty 64-bit occurrence wavelet tree created upon prefix-sum table
+     * @throws ReportedException
+     */
+    public void insertBwt(FMIndexLongWaveletTreeNode longOccurrenceWaveletTree) throws ReportedException {
+        insertBwt(null, longOccurrenceWaveletTree);
+    }
+
+    /**
+     * Function insertBwt streams BW transform runs from temporary file into
+     * the one of given occurrence wavelet trees which is not null.
+     *
+     * @param occurrenceWaveletTree         empty 32-bit occurrence wavelet tree, or null
+     * @param longOccurrenceWaveletTree     empty 64-bit occurrence wavelet tree, or null
+     * @throws ReportedException
+     */
+    private void insertBwt( FMIndexWaveletTreeNode occurrenceWaveletTree,
+                            FMIndexLongWaveletTreeNode longOccurrenceWaveletTree ) throws ReportedException {
+
+        InputStream runInputStream;
+        byte[] readBuffer;
+        long insertedCharacters;
+        int readCharacters;
+
+        readBuffer = new byte[RUN_FILE_BUFFER_SIZE];
+        insertedCharacters = 0;
+        if (occurrenceWaveletTree != null) {
+            occurrenceWaveletTree.resetSequentialIndex();
+        } else {
+            longOccurrenceWaveletTree.resetSequentialIndex();
+        }
+        try {
+            runInputStream = new BufferedInputStream(new FileInputStream(runFile), RUN_FILE_BUFFER_SIZE);
+            try {
+                while ((readCharacters = runInputStream.read(readBuffer)) > 0) {
+                    checkCancel();
+                    if (occurrenceWaveletTree != null) {
+                        for (int i = 0; i < readCharacters; i++) {
+                            occurrenceWaveletTree.insertCharacter(readBuffer[i]);
+                        }
+                    } else {
+                        for (int i = 0; i < readCharacters; i++) {
+                            longOccurrenceWaveletTree.insertCharacter(readBuffer[i]);
+                        }
+                    }
+                    insertedCharacters += readCharacters;
+                }
+            } finally {
+                runInputStream.close();
+            }
+        } catch (IOException ex) {
+            throw new ReportedException(    "Greška tijekom čitanja privremene datoteke BW transformacije ("
+                                            + getExceptionType(ex)
+                                            + "):\n\n    "
+                                            + ex.getMessage()                                               );
+        }
+        if (insertedCharacters != referenceSequenceLength) {
+            throw new ReportedException("Privremena datoteka BW transformacije nije potpuna!");
+        }
+        if (occurrenceWaveletTree != null) {
+            occurrenceWaveletTree.refreshBuckets();
+        } else {
+            longOccurrenceWaveletTree.refreshBuckets();
+        }
+    }
+
+    /**
+     * Function close closes and deletes all temporary files.
+     */
+    public void close() {
+        if (runOutputStream != null) {
+            try {
+                runOutputStream.close();
+            } catch (IOException ex) {
+            }
+            runOutputStream = null;
+        }
+        if (runFile != null) {
+            runFile.delete();
+            runFile = null;
+        }
+        if (rotationBucketizer != null) {
+            rotationBucketizer.close();
+            rotationBucketizer = null;
+        }
+    }
+
+    /**
+     * Function getNoRuns provides number of BW transform runs written to disk.
+     *
+     * @return      number of BW transform runs
+     */
+    public int getNoRuns() {
+        return noRuns;
+    }
+
+    /**
+     * Function getNoSplitBuckets provides number of buckets that did not fit
+     * into working set and were split by the next character.
+     *
+     * @return      number of split buckets
+     */
+    public int getNoSplitBuckets() {
+        return noSplitBuckets;
+    }
+
+    /**
+     * Function getNoPasses provides number of passes over reference sequence.
+     *
+     * @return      number of passes over reference sequence
+     */
+    public int getNoPasses() {
+        return noPasses;
+    }
+
+    /**
+     * Function getBytesScanned provides number of reference sequence bytes
+     * scanned during bucketing.
+     *
+     * @return      number of scanned bytes
+     */
+    public long getBytesScanned() {
+        return bytesScanned;
+    }
+
+    /**
+     * Function getBytesSpilled provides number of bytes written to temporary
+     * files.
+     *
+     * @return      number of bytes spilled to disk
+     */
+    public long getBytesSpilled() {
+        return bytesSpilled;
+    }
+
+    /**
+     * Function getMaximalMemoryConsumption provides estimated maximal memory
+     * consumption during BW transform creation, reference sequence excluded.
+     *
+     * @return      estimated maximal memory consumption in bytes
+     */
+    public long getMaximalMemoryConsumption() {
+        return maximalMemoryConsumption;
+    }
+
+    /**
+     * Function getPeakResidentSetSize provides peak resident set size of the
+     * process as reported by operating system (VmHWM). If it is not available,
+     * sum of peak usages of heap memory pools is provided instead.
+     *
+     * @return      peak resident set size in bytes
+     */
+    public static long getPeakResidentSetSize() {
+
+        BufferedReader statusReader;
+        String line;
+        String[] fields;
+        long peakHeapUsage;
+
+        try {
+            statusReader = new BufferedReader(new FileReader("/proc/self/status"));
+            try {
+                while ((line = statusReader.readLine()) != null) {
+                    if (line.startsWith("VmHWM:")) {
+                        fields = line.substring(6).trim().split("\\s+");
+                        return (Long.parseLong(fields[0]) * 1024);
+                    }
+                }
+            } finally {
+                statusReader.close();
+            }
+        } catch (IOException ex) {
+        } catch (NumberFormatException ex) {
+        }
+
+        peakHeapUsage = 0;
+        for (MemoryPoolMXBean memoryPool: ManagementFactory.getMemoryPoolMXBeans()) {
+            if (memoryPool.getType() == MemoryType.HEAP) {
+                peakHeapUsage += memoryPool.getPeakUsage().getUsed();
+            }
+        }
+        return peakHeapUsage;
+    }
+
+    /**
+     * Function processStartSequences processes all buckets whose start
+     * sequence begins with given start sequence. The rotation which consists
+     * of given start sequence followed by terminating character is
+     * lexicographically the smallest, so it comes first.
+     *
+     * @param startSequence     start sequence
+     * @throws ReportedException
+     * @throws IOException
+     */
+    private void processStartSequences(byte[] startSequence) throws ReportedException, IOException {
+
+        byte[] extendedStartSequence;
+        int tailRotation;
+        int bucket;
+        int runsBefore;
+        long duration;
+
+        /* process initial bucket */
+        if (startSequence.length >= initialStartSequenceLength) {
+            duration = System.currentTimeMillis();
+            runsBefore = noRuns;
+            bucket = rotationBucketizer.getBucketIndex(startSequence);
+            processRotations(new BucketRotationSource(bucket), startSequence.length);
+            updateProgress();
+            if (verbose && (rotationBucketizer.getBucketSize(bucket) > 0)) {
+                System.out.println( "Bucket \"" + getStartSequenceString(startSequence) + "\" ("
+                                    + Integer.toString(rotationBucketizer.getBucketSize(bucket)) + " rotations) sorted in "
+                                    + Integer.toString(noRuns - runsBefore) + " runs in "
+                                    + Long.toString(System.currentTimeMillis() - duration) + " ms");
+            }
+            return;
+        }
+
+        /* process rotation at the end of reference sequence and all extensions */
+        tailRotation = ((referenceSequenceLength - 1) - startSequence.length);
+        if (    (tailRotation >= 0)
+                && rotationSorter.rotationEquals(tailRotation, startSequence, startSequence.length)  ) {
+            writeBwtCharacter(getBwtCharacter(tailRotation));
+        }
+        for (byte i = 1; i <= alphabetSize; i++) {
+            extendedStartSequence = new byte[startSequence.length + 1];
+            System.arraycopy(startSequence, 0, extendedStartSequence, 0, startSequence.length);
+            extendedStartSequence[startSequence.length] = i;
+            processStartSequences(extendedStartSequence);
+        }
+    }
+
+    /**
+     * Function processRotations sorts rotations from given source, which
+     * are all equal at the first depth characters, and writes them as BW
+     * transform runs. If rotations do not fit into working set, they are
+     * divided by the next character into groups that fit, and each group
+     * is collected by streaming the source again. Rotations with the same
+     * next character that alone do not fit are spilled to separate source
+     * and processed recursively. If the next character does not divide
+     * rotations well, e.g. inside long runs of the same character, rotations
+     * are partitioned by sample rotations instead.
+     *
+     * @param rotationSource    source of rotations
+     * @param depth             number of characters equal in all rotations
+     * @throws ReportedException
+     * @throws IOException
+     */
+    private void processRotations(RotationSource rotationSource, int depth) throws ReportedException, IOException {
+
+        FileRotationSource subRotationSource;
+        int[] rotationBuffer;
+        int[] characterCount;
+        int noRotations;
+        int maximalCount;
+        int tailRotation;
+        int groupStart;
+        int groupEnd;
+        int groupSize;
+        int chunkSize;
+        byte character;
+
+        noRotations = rotationSource.getSize();
+        if (noRotations == 0) {
+            return;
+        }
+
+        /* sort rotations that fit into working set at once */
+        if (fitsWorkingSet(noRotations)) {
+            rotationBuffer = new int[noRotations];
+            allocateMemory(noRotations * 4);
+            collectRotations(rotationSource, depth, (byte) 0, (byte) alphabetSize, rotationBuffer);
+            sortAndWriteRun(rotationBuffer, noRotations, depth);
+            releaseMemory(noRotations * 4);
+            return;
+        }
+        noSplitBuckets++;
+
+        /* count rotations by the next character */
+        characterCount = new int[alphabetSize + 1];
+        tailRotation = -1;
+        rotationBuffer = new int[STREAM_CHUNK_SIZE];
+        allocateMemory(STREAM_CHUNK_SIZE * 4);
+        for (int i = 0; i < noRotations; i += STREAM_CHUNK_SIZE) {
+            checkCancel();
+            chunkSize = Math.min(STREAM_CHUNK_SIZE, (noRotations - i));
+            rotationSource.read(i, rotationBuffer, chunkSize);
+            for (int j = 0; j < chunkSize; j++) {
+                character = compactCodeBuffer[rotationBuffer[j] + depth];
+                characterCount[character]++;
+                if (character == 0) {
+                    tailRotation = rotationBuffer[j];
+                }
+            }
+        }
+        releaseMemory(STREAM_CHUNK_SIZE * 4);
+        rotationBuffer = null;
+        maximalCount = 0;
+        for (int i = 0; i <= alphabetSize; i++) {
+            maximalCount = Math.max(maximalCount, characterCount[i]);
+        }
+
+        /* partition rotations by sample rotations if the next character does not divide them well */
+        if (    ((((long) maximalCount) * 100) > (((long) noRotations) * SPLIT_EFFICIENCY_PERCENT))
+                || (depth >= START_SEQUENCE_BUFFER_SIZE)                                            ) {
+            partitionRotations(rotationSource, depth);
+            return;
+        }
+
+        /* rotation followed by terminating character is the smallest one */
+        if (tailRotation >= 0) {
+            writeBwtCharacter(getBwtCharacter(tailRotation));
+        }
+
+        /* process groups of next characters */
+        groupStart = 1;
+        while (groupStart <= alphabetSize) {
+            if (characterCount[groupStart] == 0) {
+                groupStart++;
+                continue;
+            }
+
+            /* rotations with the same next character do not fit, process them recursively */
+            if (!fitsWorkingSet(characterCount[groupStart])) {
+                subRotationSource = new FileRotationSource(RUN_FILE_BUFFER_SIZE);
+                try {
+                    spillRotations(rotationSource, depth, (byte) groupStart, subRotationSource);
+                    processRotations(subRotationSource, (depth + 1));
+                } finally {
+                    subRotationSource.close();
+                }
+                groupStart++;
+                continue;
+            }
+
+            /* find the biggest group of next characters that fits */
+            groupEnd = groupStart;
+            groupSize = characterCount[groupStart];
+            while (     (groupEnd < alphabetSize)
+                        && fitsWorkingSet(((long) groupSize) + characterCount[groupEnd + 1])  ) {
+                groupEnd++;
+                groupSize += characterCount[groupEnd];
+            }
+
+            /* collect, sort and write the group */
+            rotationBuffer = new int[groupSize];
+            allocateMemory(groupSize * 4);
+            collectRotations(rotationSource, depth, (byte) groupStart, (byte) groupEnd, rotationBuffer);
+            sortAndWriteRun(rotationBuffer, groupSize, depth);
+            releaseMemory(groupSize * 4);
+            rotationBuffer = null;
+            groupStart = (groupEnd + 1);
+        }
+    }
+
+    /**
+     * Function partitionRotations divides rotations from given source into
+     * lexicographically ordered ranges, which are spilled to separate sources
+     * in single pass and processed in order. Range bounds are chosen from
+     * sorted random sample of rotations. The greatest sample rotation is never
+     * chosen as a bound, so at least two ranges are not empty and every range
+     * is smaller than the source.
+     *
+     * @param rotationSource    source of rotations
+     * @param depth             number of characters equal in all rotations
+     * @throws ReportedException
+     * @throws IOException
+     */
+    private void partitionRotations(RotationSource rotationSource, int depth) throws ReportedException, IOException {
+
+        FileRotationSource[] rangeSources;
+        Random random;
+        int[] sampleBuffer;
+        int[] rangeBounds;
+        int[] chunkBuffer;
+        int noRotations;
+        int noRanges;
+        int noSamples;
+        int noDistinctSamples;
+        int noRangeBounds;
+        int rangeBufferSize;
+        int chunkSize;
+        int rotation;
+        int lowRange;
+        int highRange;
+        int middleRange;
+
+        /* choose range bounds from sorted sample of rotations */
+        noRotations = rotationSource.getSize();
+        noRanges = ((int) Math.min( MAXIMAL_PARTITION_RANGES,
+                                    (2 * ((getWorkingSetConsumption(noRotations) / workingSetSize) + 1))    ));
+        noSamples = (noRanges * SAMPLES_PER_RANGE);
+        sampleBuffer = new int[noSamples];
+        chunkBuffer = new int[1];
+        random = new Random(noRotations);
+        for (int i = 0; i < noSamples; i++) {
+            if (i == 0) {
+                rotationSource.read(0, chunkBuffer, 1);
+            } else if (i == 1) {
+                rotationSource.read((noRotations - 1), chunkBuffer, 1);
+            } else {
+                rotationSource.read(random.nextInt(noRotations), chunkBuffer, 1);
+            }
+            sampleBuffer[i] = chunkBuffer[0];
+        }
+
+        /* rotation sorter requires distinct rotations, so duplicate samples are removed first */
+        Arrays.sort(sampleBuffer);
+        noDistinctSamples = 1;
+        for (int i = 1; i < noSamples; i++) {
+            if (sampleBuffer[i] != sampleBuffer[noDistinctSamples - 1]) {
+                sampleBuffer[noDistinctSamples++] = sampleBuffer[i];
+            }
+        }
+        rotationSorter.sortRotations(sampleBuffer, noDistinctSamples, depth);
+        noRangeBounds = Math.min((noRanges - 1), (noDistinctSamples - 1));
+        rangeBounds = new int[noRangeBounds];
+        for (int i = 0; i < noRangeBounds; i++) {
+            rangeBounds[i] = sampleBuffer[(i * (noDistinctSamples - 1)) / noRangeBounds];
+        }
+        noRanges = (noRangeBounds + 1);
+        sampleBuffer = null;
+
+        /* distribute rotations into ranges, range i contains rotations greater than bound i-1 and not greater than bound i */
+        rangeSources = new FileRotationSource[noRanges];
+        rangeBufferSize = ((int) Math.max(  MINIMAL_PARTITION_BUFFER_SIZE,
+                                            Math.min(RUN_FILE_BUFFER_SIZE, (workingSetSize / (4 * noRanges)))  ));
+        try {
+            for (int i = 0; i < noRanges; i++) {
+                rangeSources[i] = new FileRotationSource(rangeBufferSize);
+            }
+            chunkBuffer = new int[STREAM_CHUNK_SIZE];
+            allocateMemory(STREAM_CHUNK_SIZE * 4);
+            for (int i = 0; i < noRotations; i += STREAM_CHUNK_SIZE) {
+                checkCancel();
+                chunkSize = Math.min(STREAM_CHUNK_SIZE, (noRotations - i));
+                rotationSource.read(i, chunkBuffer, chunkSize);
+                for (int j = 0; j < chunkSize; j++) {
+                    rotation = chunkBuffer[j];
+                    lowRange = 0;
+                    highRange = noRangeBounds;
+                    while (lowRange < highRange) {
+                        middleRange = ((lowRange + highRange) >>> 1);
+                        if (    (rotation == rangeBounds[middleRange])
+                                || !rotationSorter.isRotationGreater(rotation, rangeBounds[middleRange], depth)  ) {
+                            highRange = middleRange;
+                        } else {
+                            lowRange = (middleRange + 1);
+                        }
+                    }
+                    rangeSources[lowRange].write(rotation);
+                }
+            }
+            releaseMemory(STREAM_CHUNK_SIZE * 4);
+            chunkBuffer = null;
+            for (int i = 0; i < noRanges; i++) {
+                rangeSources[i].finishWriting();
+            }
+
+            /* process ranges in lexicographic order */
+            for (int i = 0; i < noRanges; i++) {
+                processRotations(rangeSources[i], depth);
+                rangeSources[i].close();
+            }
+        } finally {
+            for (int i = 0; i < noRanges; i++) {
+                if (rangeSources[i] != null) {
+                    rangeSources[i].close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Function spillRotations spills rotations from given source whose next
+     * character equals given character to given file source.
+     *
+     * @param rotationSource    source of rotations
+     * @param depth             position of the next character in rotations
+     * @param character         next character of spilled rotations
+     * @param fileSource        file source to spill rotations to
+     * @throws ReportedException
+     * @throws IOException
+     */
+    private void spillRotations(    RotationSource rotationSource,
+                                    int depth,
+                                    byte character,
+                                    FileRotationSource fileSource   ) throws ReportedException, IOException {
+
+        int[] chunkBuffer;
+        int noRotations;
+        int chunkSize;
+
+        noRotations = rotationSource.getSize();
+        chunkBuffer = new int[STREAM_CHUNK_SIZE];
+        allocateMemory(STREAM_CHUNK_SIZE * 4);
+        for (int i = 0; i < noRotations; i += STREAM_CHUNK_SIZE) {
+            checkCancel();
+            chunkSize = Math.min(STREAM_CHUNK_SIZE, (noRotations - i));
+            rotationSource.read(i, chunkBuffer, chunkSize);
+            for (int j = 0; j < chunkSize; j++) {
+                if (compactCodeBuffer[chunkBuffer[j] + depth] == character) {
+                    fileSource.write(chunkBuffer[j]);
+                }
+            }
+        }
+        releaseMemory(STREAM_CHUNK_SIZE * 4);
+        fileSource.finishWriting();
+    }
+
+    /**
+     * Function collectRotations collects rotations from given source whose
+     * next character is in given range.
+     *
+     * @param rotationSource    source of rotations
+     * @param depth             position of the next character in rotations
+     * @param lowCharacter      lowest next character
+     * @param highCharacter     highest next character
+     * @param rotationBuffer    buffer to collect rotations into
+     * @throws ReportedException
+     */
+    private void collectRotations(  RotationSource rotationSource,
+                                    int depth,
+                                    byte lowCharacter,
+                                    byte highCharacter,
+                                    int[] rotationBuffer    ) throws ReportedException {
+
+        int[] chunkBuffer;
+        int noRotations;
+        int chunkSize;
+        int rotationBufferIndex;
+        byte character;
+
+        noRotations = rotationSource.getSize();
+        chunkBuffer = new int[STREAM_CHUNK_SIZE];
+        allocateMemory(STREAM_CHUNK_SIZE * 4);
+        rotationBufferIndex = 0;
+        for (int i = 0; i < noRotations; i += STREAM_CHUNK_SIZE) {
+            checkCancel();
+            chunkSize = Math.min(STREAM_CHUNK_SIZE, (noRotations - i));
+            rotationSource.read(i, chunkBuffer, chunkSize);
+            for (int j = 0; j < chunkSize; j++) {
+                character = compactCodeBuffer[chunkBuffer[j] + depth];
+                if ((character >= lowCharacter) && (character <= highCharacter)) {
+                    rotationBuffer[rotationBufferIndex++] = chunkBuffer[j];
+                }
+            }
+        }
+        releaseMemory(STREAM_CHUNK_SIZE * 4);
+    }
+
+    /**
+     * Function sortAndWriteRun sorts given rotations and writes their BW
+     * transform as one run into run file.
+     *
+     * @param rotationBuffer    buffer containing rotations
+     * @param noRotations       number of rotations
+     * @param depth             number of characters equal in all rotations
+     * @throws ReportedException
+     * @throws IOException
+     */
+    private void sortAndWriteRun(int[] rotationBuffer, int noRotations, int depth) throws ReportedException, IOException {
+
+        byte[] bwtRun;
+
+        allocateMemory(rotationSorter.getSortMemoryConsumption(noRotations));
+        if (noRotations > 1) {
+            rotationSorter.sortRotations(rotationBuffer, noRotations, depth);
+        }
+        releaseMemory(rotationSorter.getSortMemoryConsumption(noRotations));
+        bwtRun = new byte[noRotations];
+        allocateMemory(noRotations);
+        for (int i = 0; i < noRotations; i++) {
+            bwtRun[i] = getBwtCharacter(rotationBuffer[i]);
+        }
+        runOutputStream.write(bwtRun);
+        bwtLength += noRotations;
+        bytesSpilled += noRotations;
+        noRuns++;
+        releaseMemory(noRotations);
+    }
+
+    /**
+     * Function writeBwtCharacter writes single BW transform character into
+     * run file.
+     *
+     * @param character     BW transform character
+     * @throws IOException
+     */
+    private void writeBwtCharacter(byte character) throws IOException {
+        runOutputStream.write(character);
+        bwtLength++;
+        bytesSpilled++;
+    }
+
+    /**
+     * Function fitsWorkingSet checks if given number of rotations can be
+     * sorted inside working set.
+     *
+     * @param noRotations       number of rotations
+     * @return                  true if rotations fit into working set
+     */
+    private boolean fitsWorkingSet(long noRotations) {
+        return (getWorkingSetConsumption(noRotations) <= workingSetSize);
+    }
+
+    /**
+     * Function getWorkingSetConsumption estimates memory needed to sort given
+     * number of rotations and to create their BW transform run.
+     *
+     * @param noRotations       number of rotations
+     * @return                  estimated memory consumption in bytes
+     */
+    private long getWorkingSetConsumption(long noRotations) {
+        return ((noRotations * 5) + (noRotations * rotationSorter.getSortMemoryConsumption(1)));
+    }
+
+    /**
+     * Function getBwtCharacter provides BW transform character for given
+     * rotation, that is, character preceding the rotation.
+     *
+     * @param rotation      rotation
+     * @return              BW transform character
+     */
+    private byte getBwtCharacter(int rotation) {
+        if (rotation == 0) {
+            return 0;
+        }
+        return compactCodeBuffer[rotation - 1];
+    }
+
+    /**
+     * Function getStartSequenceString provides printable form of start sequence.
+     *
+     * @param startSequence     start sequence
+     * @return                  printable form of start sequence
+     */
+    private String getStartSequenceString(byte[] startSequence) {
+
+        StringBuilder startSequenceString;
+
+        startSequenceString = new StringBuilder();
+        for (int i = 0; i < startSequence.length; i++) {
+            if (i > 0) {
+                startSequenceString.append(", ");
+            }
+            startSequenceString.append(Byte.toString(startSequence[i]));
+        }
+        return startSequenceString.toString();
+    }
+
+    /**
+     * Function updateProgress increments number of completed initial buckets
+     * and updates progress bar.
+     */
+    private void updateProgress() {
+
+        int completed;
+
+        completed = ++completedStartSequenceCombinations;
+        if (progressListener != null) {
+            progressListener.setProgressValue(completed);
+        }
+    }
+
+    /**
+     * Function allocateMemory updates memory consumption statistics after
+     * memory allocation.
+     *
+     * @param size      size of allocated memory in bytes
+     */
+    private void allocateMemory(long size) {
+        currentMemoryConsumption += size;
+        if (currentMemoryConsumption > maximalMemoryConsumption) {
+            maximalMemoryConsumption = currentMemoryConsumption;
+        }
+    }
+
+    /**
+     * Function releaseMemory updates memory consumption statistics after
+     * memory release.
+     *
+     * @param size      size of released memory in bytes
+     */
+    private void releaseMemory(long size) {
+        currentMemoryConsumption -= size;
+    }
+
+    /**
+     * Function getExceptionType provides the type of exception
+     *
+     * @param   ex    exception which type is to be determined
+     */
+    private String getExceptionType (Exception ex) {
+
+        String exceptionFullName;
+        int lastDotIndex;
+
+        exceptionFullName = ex.getClass().toString();
+        lastDotIndex = exceptionFullName.lastIndexOf('.');
+        if (lastDotIndex < 0) {
+            lastDotIndex = 0;
+        } else {
+            lastDotIndex++;
+        }
+        return exceptionFullName.substring(lastDotIndex);
+    }
+
+    /**
+     * Function checkCancel checks if reference sequence creation cancellation
+     * is requested. If so, creation is interrupted by ReportedException
+     * describing cancellation.
+     *
+     * @throws ReportedException
+     */
+    private void checkCancel() throws ReportedException {
+        if (Thread.interrupted()) {
+            throw new ReportedException("Kreiranje indeksa referentnog slijeda prekinuto na zahtjev korisnika!");
+        }
+    }
+    // </editor-fold>
+
+    // <editor-fold desc="Rotation source classes">
+
+    /**
+     * Class RotationSource provides uniform access to rotations stored on
+     * disk, regardless of the file they are stored in.
+     */
+    private abstract class RotationSource {
+
+        /**
+         * Function getSize provides number of rotations in source.
+         *
+         * @return      number of rotations
+         */
+        abstract int getSize();
+
+        /**
+         * Function read reads rotations from source into buffer.
+         *
+         * @param firstRotation     index of the first rotation to read
+         * @param rotationBuffer    buffer to read rotations into
+         * @param noRotations       number of rotations to read
+         * @throws ReportedException
+         */
+        abstract void read(int firstRotation, int[] rotationBuffer, int noRotations) throws ReportedException;
+    }
+
+    /** Class BucketRotationSource provides rotations of one initial bucket */
+    private class BucketRotationSource extends RotationSource {
+
+        /** Bucket index */
+        private final int bucket;
+
+        /**
+         * Class BucketRotationSource Constructor
+         *
+         * @param bucketIndex       bucket index
+         */
+        BucketRotationSource(int bucketIndex) {
+            bucket = bucketIndex;
+        }
+
+        @Override
+        int getSize() {
+            return rotationBucketizer.getBucketSize(bucket);
+        }
+
+        @Override
+        void read(int firstRotation, int[] rotationBuffer, int noRotations) throws ReportedException {
+            rotationBucketizer.readBucketRotations(bucket, firstRotation, rotationBuffer, noRotations);
+        }
+    }
+
+    /**
+     * Class FileRotationSource provides rotations of split bucket, which are
+     * spilled to separate temporary file. Rotations are written to the file
+     * first, and they can be read when writing is finished.
+     */
+    private class FileRotationSource extends RotationSource {
+
+        /** Temporary file containing rotations */
+        private File rotationFile;
+
+        /** Output stream used to write rotations */
+        private DataOutputStream rotationOutputStream;
+
+        /** Size of output stream buffer */
+        private final int bufferSize;
+
+        /** Random access file object for rotation file */
+        private RandomAccessFile rotationRandomAccessFile;
+
+        /** Channel used to read rotation file */
+        private FileChannel rotationChannel;
+
+        /** Number of rotations in file */
+        private int size;
+
+        /**
+         * Class FileRotationSource Constructor, creates empty temporary file
+         * ready for writing.
+         *
+         * @param outputBufferSize      size of output stream buffer
+         * @throws IOException
+         */
+        FileRotationSource(int outputBufferSize) throws IOException {
+            bufferSize = outputBufferSize;
+            size = 0;
+            rotationFile = File.createTempFile("FMIndexCount", ".bucket");
+            rotationFile.deleteOnExit();
+            rotationOutputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(rotationFile), bufferSize));
+            allocateMemory(bufferSize);
+        }
+
+        /**
+         * Function write appends rotation to the file.
+         *
+         * @param rotation      rotation to write
+         * @throws IOException
+         */
+        void write(int rotation) throws IOException {
+            rotationOutputStream.writeInt(rotation);
+            size++;
+        }
+
+        /**
+         * Function finishWriting closes output stream and prepares file for
+         * reading.
+         *
+         * @throws IOException
+         */
+        void finishWriting() throws IOException {
+            rotationOutputStream.close();
+            rotationOutputStream = null;
+            releaseMemory(bufferSize);
+            bytesSpilled += (((long) size) * 4);
+            rotationRandomAccessFile = new RandomAccessFile(rotationFile, "r");
+            rotationChannel = rotationRandomAccessFile.getChannel();
+        }
+
+        @Override
+        int getSize() {
+            return size;
+        }
+
+        @Override
+        void read(int firstRotation, int[] rotationBuffer, int noRotations) throws ReportedException {
+
+            ByteBuffer readBuffer;
+            long filePosition;
+
+            readBuffer = ByteBuffer.allocate(noRotations * 4);
+            filePosition = (((long) firstRotation) * 4);
+            try {
+                while (readBuffer.hasRemaining()) {
+                    if (rotationChannel.read(readBuffer, filePosition + readBuffer.position()) < 0) {
+                        throw new ReportedException("Neočekivani kraj privremene datoteke grupa rotacija!");
+                    }
+                }
+            } catch (IOException ex) {
+                throw new ReportedException(    "Greška tijekom čitanja privremene datoteke grupa rotacija ("
+                                                + getExceptionType(ex)
+                                                + "):\n\n    "
+                                                + ex.getMessage()                                               );
+            }
+            readBuffer.flip();
+            readBuffer.asIntBuffer().get(rotationBuffer, 0, noRotations);
+        }
+
+        /** Function close closes and deletes temporary file */
+        void close() {
+            if (rotationOutputStream != null) {
+                try {
+                    rotationOutputStream.close();
+                } catch (IOException ex) {
+                }
+                rotationOutputStream = null;
+                releaseMemory(bufferSize);
+            }
+            if (rotationRandomAccessFile != null) {
+                try {
+                    rotationRandomAccessFile.close();
+                } catch (IOException ex) {
+                }
+                rotationRandomAccessFile = null;
+                rotationChannel = null;
+            }
+            if (rotationFile != null) {
+                rotationFile.delete();
+                rotationFile = null;
+            }
+        }
+    }
+    // </editor-fold>
+}
@@ -10,7 +10,6 @@
 
 package FMIndex;
 
-import javax.swing.JOptionPane;
 
 /**
  * Class FMIndexBitString provides functionality of binary string used in
@@ -23,6 +22,7 @@ public class FMIndexBitString implements java.io.Serializable {
 
     // <editor-fold desc="Constants">
 
+    private static final long serialVersionUID = -3678021129396003238L;   // keeps saved indexes readable after methods were added
     final public int BUCKET_SIZE = 64;                              // bucket size
     final public int BUCKET_SIZE_SHIFT = 6;                         // bucktt size multiplication/divsion shift
     final public int BUCKET_REMINDER_BITMASK = (0x0000003f);        // bucket size multiplication/divsion shift
@@ -84,8 +84,7 @@ public class FMIndexBitString implements java.io.Serializable {
         bitStringIndex = (index >>> BUCKET_SIZE_SHIFT);
         bitMask = (1L << (index & BUCKET_REMINDER_BITMASK));
         if (bitStringIndex >= noBuckets) {
-            reportError ("Character to insert into wavelet tree node is invalid!");
-            throw new ReportedException();
+            throw new ReportedException("Character to insert into wavelet tree node is invalid!");
         }
         bits = bitString[bitStringIndex];
         if ((bits & bitMask) == 0) {
@@ -118,8 +117,7 @@ public class FMIndexBitString implements java.io.Serializable {
         bitStringIndex = (index >>> BUCKET_SIZE_SHIFT);
         bitMask = (1L << (index & BUCKET_REMINDER_BITMASK));
         if (bitStringIndex >= noBuckets) {
-            reportError ("Character to insert into wavelet tree node is invalid!");
-            throw new ReportedException();
+            throw new ReportedException("Character to insert into wavelet tree node is invalid!");
         }
         bits = bitString[bitStringIndex];
         if ((bits & bitMask) == 0) {
@@ -144,8 +142,7 @@ public class FMIndexBitString implements java.io.Serializable {
         bitStringIndex = (index >>> BUCKET_SIZE_SHIFT);
         bitMask = (1L << (index & BUCKET_REMINDER_BITMASK));
         if (bitStringIndex >= noBuckets) {
-            reportError ("Character to insert into wavelet tree node is invalid!");
-            throw new ReportedException();
+            throw new ReportedException("Character to insert into wavelet tree node is invalid!");
         }
         bits = bitString[bitStringIndex];
         if ((bits & bitMask) != 0) {
@@ -178,8 +175,7 @@ public class FMIndexBitString implements java.io.Serializable {
         bitStringIndex = (index >>> BUCKET_SIZE_SHIFT);
         bitMask = (1L << (index & BUCKET_REMINDER_BITMASK));
         if (bitStringIndex >= noBuckets) {
-            reportError ("Character to insert into wavelet tree node is invalid!");
-            throw new ReportedException();
+            throw new ReportedException("Character to insert into wavelet tree node is invalid!");
         }
         bits = bitString[bitStringIndex];
         if ((bits & bitMask) != 0) {
@@ -187,6 +183,59 @@ public class FMIndexBitString implements java.io.Serializable {
         }
     }
 
+    /**
+     * Function setWords fills bit string words from given characters, one
+     * word of 64 bits at a time. Bit is set for characters not lower than
+     * threshold character and reset for the others. Words are overwritten,
+     * so the last partial word gets zero bits after the last character. This
+     * function does not affect bucket and superbucket array.
+     * 
+     * @param characters            characters to convert into bits
+     * @param start                 index of the first character and bit, multiple of 64
+     * @param length                number of characters
+     * @param thresholdCharacter    the lowest character stored as binary 1
+     * @return                      number of set bits
+     * @throws ReportedException 
+     */
+    public int setWords(byte[] characters, int start, int length, int thresholdCharacter) throws ReportedException {
+
+        int bitStringIndex;
+        int wordEnd;
+        int end;
+        int thresholdMinusOne;
+        int noOnes;
+        long word;
+
+        end = (start + length);
+        if (    ((start & BUCKET_REMINDER_BITMASK) != 0)
+                || (((end + BUCKET_REMINDER_BITMASK) >>> BUCKET_SIZE_SHIFT) > noBuckets)    ) {
+            throw new ReportedException("Characters to insert into wavelet tree node are invalid!");
+        }
+        thresholdMinusOne = (thresholdCharacter - 1);
+        bitStringIndex = (start >>> BUCKET_SIZE_SHIFT);
+        noOnes = 0;
+        for (int i = start; i < end; i += BUCKET_SIZE) {
+            word = 0;
+            wordEnd = Math.min((i + BUCKET_SIZE), end);
+            for (int j = i; j < wordEnd; j++) {
+                word |= (((long) ((thresholdMinusOne - characters[j]) >>> 31)) << (j - i));
+            }
+            bitString[bitStringIndex++] = word;
+            noOnes += Long.bitCount(word);
+        }
+        return noOnes;
+    }
+
+    /**
+     * Function getBit provides bit at specified index.
+     * 
+     * @param index     index of bit
+     * @return          true if bit is set, false otherwise
+     */
+    public boolean getBit(int index) {
+        return ((bitString[index >>> BUCKET_SIZE_SHIFT] & (1L << (index & BUCKET_REMINDER_BITMASK))) != 0);
+    }
+
     /**
      * Function refreshBuckets refreshes bucket and superbucket array to reflect
      * bitstring array condition.
@@ -233,8 +282,7 @@ public class FMIndexBitString implements java.io.Serializable {
         int sum;
 
         if (index >= (noBuckets << BUCKET_SIZE_SHIFT)) {
-            reportError("Pokušaj dohvata broja jedinica do indeksa koji je prevelik!");
-            throw new ReportedException();
+            throw new ReportedException("Pokušaj dohvata broja jedinica do indeksa koji je prevelik!");
         }
 
         inx = (index >>> SUPER_BUCKET_SIZE_SHIFT);
@@ -250,22 +298,45 @@ public class FMIndexBitString implements java.io.Serializable {
     }
 
     /**
-     * Function getMemoryConsumption estimates memory consumption of this object.
-     * 
-     * @return returns      estimated memory consumption in bytes
+     * Function rank1Range provides number of ones before both ends of index
+     * range at once. Both ranks are computed without branching on range
+     * width, so loads of both ends are issued together and, for narrow ranges
+     * of backward search, read the same cache lines. Both counts are returned
+     * in one value, so no result object or array has to be written.
+     *
+     * @param lowIndex      lower index to count ones to
+     * @param highIndex     higher index to count ones to, not lower than lowIndex
+     * @return              number of ones up to highIndex in upper 32 bits
+     *                      and number of ones up to lowIndex in lower 32 bits
+     * @throws ReportedException
      */
-    public int getMemoryConsumption() {
-        return ((noSuperBuckets * 4) + (noBuckets * 10));
+    public long rank1Range(int lowIndex, int highIndex) throws ReportedException {
+
+        int lowInx;
+        int highInx;
+        int lowSum;
+        int highSum;
+
+        if (highIndex >= (noBuckets << BUCKET_SIZE_SHIFT)) {
+            throw new ReportedException("Pokušaj dohvata broja jedinica do indeksa koji je prevelik!");
+        }
+
+        lowInx = (lowIndex >>> BUCKET_SIZE_SHIFT);
+        highInx = (highIndex >>> BUCKET_SIZE_SHIFT);
+        lowSum = (superBucketArray[lowIndex >>> SUPER_BUCKET_SIZE_SHIFT] + bucketArray[lowInx]);
+        highSum = (superBucketArray[highIndex >>> SUPER_BUCKET_SIZE_SHIFT] + bucketArray[highInx]);
+        lowSum += Long.bitCount(bitString[lowInx] & ((1L << (lowIndex & BUCKET_REMINDER_BITMASK)) - 1));
+        highSum += Long.bitCount(bitString[highInx] & ((1L << (highIndex & BUCKET_REMINDER_BITMASK)) - 1));
+        return ((((long) highSum) << 32) | lowSum);
     }
 
     /**
-     * Function reportError reports execution errors by opening confirmation
-     * window with appropriate message.
+     * Function getMemoryConsumption estimates memory consumption of this object.
      * 
-     * @param   text    message to be reported in confirmation window
+     * @return returns      estimated memory consumption in bytes
      */
-    private void reportError (String text) {
-        JOptionPane.showConfirmDialog(null, text, "FMIndexCount", JOptionPane.DEFAULT_OPTION, JOptionPane.ERROR_MESSAGE);
+    public int getMemoryConsumption() {
+        return ((noSuperBuckets * 4) + (noBuckets * 10));
     }
     // </editor-fold>
 }
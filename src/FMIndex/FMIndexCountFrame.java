@@ -11,6 +11,8 @@
 package FMIndex;
 
 import java.awt.Font;
+import java.io.IOException;
+import java.util.Arrays;
 import javax.swing.JFileChooser;
 import javax.swing.JOptionPane;
 import javax.swing.UIManager;
@@ -25,7 +27,7 @@ import javax.swing.plaf.FontUIResource;
  * @version     V1.0                26.12.2013.
  * @author      Vedran Sabadoš
  */
-public class FMIndexCountFrame extends javax.swing.JFrame {
+public class FMIndexCountFrame extends javax.swing.JFrame implements ProgressListener {
 
     // <editor-fold desc="Fields">
 
@@ -41,9 +43,12 @@ public class FMIndexCountFrame extends javax.swing.JFrame {
     /** Filename of reference sequence file */
     private String inFilename;
 
+    /** Options controlling reference sequence index creation */
+    private ReferenceSequenceOptions referenceSequenceOptions;
+
 
     /** Fasta file format filter */
-    FileNameExtensionFilter filterFastaFileFormat = new FileNameExtensionFilter("Fasta datoteke (.fa)", "fa");
+    FileNameExtensionFilter filterFastaFileFormat = new FileNameExtensionFilter("Fasta i .2bit datoteke (.fa, .fa.gz, .2bit)", "fa", "gz", "2bit");
 
     /** Text file format filter */
     FileNameExtensionFilter filterTextFileFormat = new FileNameExtensionFilter("Tekst datoteke (.txt)", "txt");
@@ -64,6 +69,16 @@ public class FMIndexCountFrame extends javax.swing.JFrame {
      * Creates new form FMIndexCountFrame
      */
     public FMIndexCountFrame() {
+        this(new ReferenceSequenceOptions());
+    }
+
+    /**
+     * Creates new form FMIndexCountFrame
+     * 
+     * @param options   options controlling reference sequence index creation
+     */
+    public FMIndexCountFrame(ReferenceSequenceOptions options) {
+        referenceSequenceOptions = options;
         initComponents();
     }
 
@@ -463,6 +478,53 @@ public class FMIndexCountFrame extends javax.swing.JFrame {
         inFilename = filename.substring(0, lastDotIndex);
     }
 
+    /**
+     * Function selectFastaRecord offers records listed in record index saved
+     * next to Fasta file, or in index of .2bit file, so the reference sequence
+     * name can be selected without scanning the file. Nothing is offered if
+     * there is no valid record index.
+     * 
+     * @param filename      Fasta or .2bit filename
+     */
+    private void selectFastaRecord(String filename) {
+
+        FastaRecordIndex fastaRecordIndex;
+        TwoBitReader twoBitReader;
+        String[] recordNames;
+        Object selectedName;
+
+        if (filename.toLowerCase().endsWith(".2bit")) {
+            try {
+                twoBitReader = new TwoBitReader(filename);
+            } catch (IOException ex) {
+                return;
+            }
+            recordNames = twoBitReader.getSequenceNames();
+            twoBitReader.close();
+        } else {
+            fastaRecordIndex = FastaRecordIndex.load(filename);
+            if (fastaRecordIndex == null) {
+                return;
+            }
+            recordNames = fastaRecordIndex.getRecordNames();
+        }
+        if (recordNames.length == 0) {
+            return;
+        }
+        selectedName = JOptionPane.showInputDialog(     this,
+                                                        "Sekvence sadržane u datoteci:",
+                                                        "FMIndexCount",
+                                                        JOptionPane.QUESTION_MESSAGE,
+                                                        null,
+                                                        recordNames,
+                                                        Arrays.asList(recordNames).contains(referenceSequenceNameTextField.getText())
+                                                            ? referenceSequenceNameTextField.getText()
+                                                            : recordNames[0]                                                        );
+        if (selectedName != null) {
+            referenceSequenceNameTextField.setText(selectedName.toString());
+        }
+    }
+
     /**
      * Function setProgressBarValue sets reference sequence creation progress
      * bar position.
@@ -493,6 +555,70 @@ public class FMIndexCountFrame extends javax.swing.JFrame {
         referenceSequenceCreationProgressBar.setIndeterminate(indeterminate);
     }
 
+    /**
+     * Function setProgressMaximum sets progress bar value that corresponds to
+     * 100% from reference sequence creation thread.
+     * 
+     * @param maximum       Value that corresponds to 100%
+     */
+    @Override
+    public void setProgressMaximum(final int maximum) {
+        java.awt.EventQueue.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                setProgressBarMaximum(maximum);
+            }
+        });
+    }
+
+    /**
+     * Function setProgressValue sets progress bar position from reference
+     * sequence creation thread.
+     * 
+     * @param value     Value of the progress bar
+     */
+    @Override
+    public void setProgressValue(final int value) {
+        java.awt.EventQueue.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                setProgressBarValue(value);
+            }
+        });
+    }
+
+    /**
+     * Function setProgressIndeterminate sets the indeterminate status of
+     * progress bar from reference sequence creation thread.
+     * 
+     * @param indeterminate     indeterminate status of progress bar
+     */
+    @Override
+    public void setProgressIndeterminate(final boolean indeterminate) {
+        java.awt.EventQueue.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                setProgressBarIndeterminate(indeterminate);
+            }
+        });
+    }
+
+    /**
+     * Function reportStatistics shows reference sequence creation or query
+     * statistics in confirmation window opened from event dispatch thread.
+     * 
+     * @param statistics    statistics text
+     */
+    @Override
+    public void reportStatistics(final String statistics) {
+        java.awt.EventQueue.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                JOptionPane.showConfirmDialog(null, statistics, "FMIndexCount", JOptionPane.DEFAULT_OPTION, JOptionPane.INFORMATION_MESSAGE);
+            }
+        });
+    }
+
     /**
      * Function getExceptionType provides the type of exception
      * 
@@ -515,12 +641,17 @@ public class FMIndexCountFrame extends javax.swing.JFrame {
 
     /**
      * Function reportError reports execution errors by opening confirmation
-     * window with appropriate message.
+     * window with appropriate message from event dispatch thread.
      * 
      * @param   text    message to be reported in confirmation window
      */
-    private void reportError (String text) {
-        JOptionPane.showConfirmDialog(null, text, "FMIndexCount", JOptionPane.DEFAULT_OPTION, JOptionPane.ERROR_MESSAGE);
+    private void reportError (final String text) {
+        java.awt.EventQueue.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                JOptionPane.showConfirmDialog(null, text, "FMIndexCount", JOptionPane.DEFAULT_OPTION, JOptionPane.ERROR_MESSAGE);
+            }
+        });
     }
     // </editor-fold>
 
@@ -562,6 +693,11 @@ public class FMIndexCountFrame extends javax.swing.JFrame {
         if (returnValue == JFileChooser.APPROVE_OPTION) {
             filename = referenceSequenceFileChooser.getSelectedFile().getAbsolutePath();
             referenceSequenceFilenameTextField.setText(filename);
+            if (    fastaReferenceSequenceFileFormatRadioButton.isSelected()
+                    && (    (referenceSequenceOptions.fastaRecordLookup == ReferenceSequence.FastaRecordLookup.INDEXED)
+                            || filename.toLowerCase().endsWith(".2bit")                                                 )   ) {
+                selectFastaRecord(filename);
+            }
         }
     }//GEN-LAST:event_browseReferenceSequenceFilenameButtonActionPerformed
 
@@ -604,7 +740,9 @@ public class FMIndexCountFrame extends javax.swing.JFrame {
             filename = referenceSequenceFileChooser.getSelectedFile().getAbsolutePath();
             try {
                 referenceSequence.saveReferenceSequenceIndex(filename);
+                JOptionPane.showConfirmDialog(null, "Referentni slijed je uspješno spremljen!", "FMIndexCount", JOptionPane.DEFAULT_OPTION, JOptionPane.INFORMATION_MESSAGE);
             } catch (ReportedException ex) {
+                reportError(ex.getMessage());
             } catch (Exception ex) {
                 reportError(    "Neočekivana pogreška tijekom spremanja referentnog slijeda ("
                                 + getExceptionType(ex)
@@ -630,12 +768,13 @@ public class FMIndexCountFrame extends javax.swing.JFrame {
 
     private void querySequenceStartSearchButtonActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_querySequenceStartSearchButtonActionPerformed
 
-        int result;
+        long result;
 
         result = 0;
         try {
             result = referenceSequence.countQuerySequenceOccurrences(querySequenceTextArea.getText());
         } catch (ReportedException ex) {
+            reportError(ex.getMessage());
         } catch (Exception ex) {
             reportError(    "Neočekivana pogreška tijekom obrade upita ("
                             + getExceptionType(ex)
@@ -643,7 +782,7 @@ public class FMIndexCountFrame extends javax.swing.JFrame {
                             + ex.getMessage()                               );
             result = 0;
         }
-        querySequenceSearchResultTextField.setText(Integer.toString(result));
+        querySequenceSearchResultTextField.setText(Long.toString(result));
     }//GEN-LAST:event_querySequenceStartSearchButtonActionPerformed
 
     private void exitButtonActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_exitButtonActionPerformed
@@ -693,6 +832,9 @@ public class FMIndexCountFrame extends javax.swing.JFrame {
             referenceSequenceFormat = ReferenceSequence.ReferenceSequenceFormat.PREPROCESSED;
             if (rawReferenceSequenceFileFormatRadioButton.isSelected()) {
                 referenceSequenceFormat = ReferenceSequence.ReferenceSequenceFormat.FASTA;
+                if (referenceSequenceFilenameTextField.getText().toLowerCase().endsWith(".2bit")) {
+                    referenceSequenceFormat = ReferenceSequence.ReferenceSequenceFormat.TWO_BIT;
+                }
                 if (textReferenceSequenceFileFormatRadioButton.isSelected()) {
                     referenceSequenceFormat = ReferenceSequence.ReferenceSequenceFormat.TEXT;
                 }
@@ -704,8 +846,10 @@ public class FMIndexCountFrame extends javax.swing.JFrame {
                 referenceSequence = new ReferenceSequence(  referenceSequenceFilenameTextField.getText(),
                                                             referenceSequenceFormat,
                                                             referenceSequenceNameTextField.getText(),
+                                                            referenceSequenceOptions,
                                                             parentFrame                                     );
             } catch (ReportedException ex) {
+                reportError(ex.getMessage());
             } catch (Exception ex) {
                 reportError(    "Neočekivana pogreška tijekom kreiranja referentnog slijeda ("
                                 + getExceptionType(ex)
@@ -735,9 +879,12 @@ public class FMIndexCountFrame extends javax.swing.JFrame {
 
     // <editor-fold desc="main function">
     /**
-     * @param args the command line arguments
+     * @param args the command line arguments, options in form "-name=value"
      */
     public static void main(String args[]) {
+
+        final ReferenceSequenceOptions options;
+
         /* Set the Nimbus look and feel */
         //<editor-fold defaultstate="collapsed" desc=" Look and feel setting code (optional) ">
         /* If Nimbus (introduced in Java SE 6) is not available, stay with the default look and feel.
@@ -762,11 +909,22 @@ public class FMIndexCountFrame extends javax.swing.JFrame {
         }
         //</editor-fold>
 
+        /* Parse command line options */
+        options = new ReferenceSequenceOptions();
+        try {
+            for (String argument: args) {
+                options.parseArgument(argument);
+            }
+        } catch (ReportedException ex) {
+            JOptionPane.showConfirmDialog(null, ex.getMessage(), "FMIndexCount", JOptionPane.DEFAULT_OPTION, JOptionPane.ERROR_MESSAGE);
+            System.exit(1);
+        }
+
         /* Create and display the form */
         java.awt.EventQueue.invokeLater(new Runnable() {
             @SuppressWarnings("override")
             public void run() {
-                new FMIndexCountFrame().setVisible(true);
+                new FMIndexCountFrame(options).setVisible(true);
             }
         });
     }
@@ -0,0 +1,228 @@
+/*
+ * Author:
+ *
+ *      Vedran Sabadoš
+ *
+ * Version:
+ *
+ *      V1.0         26. 12. 2013
+ */
+
+package FMIndex;
+
+
+/**
+ * Class FMIndexLongBitString provides functionality of binary string used in
+ * conjunction with 64-bit addressed FM index occurrence wavelet tree. Bit
+ * string and bucket storage are divided into chunks, so bit strings longer
+ * than 2^31 bits do not need single huge arrays. Super bucket counts are
+ * stored as long values.
+ *
+ * @version     V1.0                26.12.2013.
+ * @author      Vedran Sabadoš
+ */
+public class FMIndexLongBitString implements java.io.Serializable {
+
+    // <editor-fold desc="Constants">
+
+    private static final long serialVersionUID = -4511094387859886755L;   // keeps saved indexes readable after methods were added
+    final public int BUCKET_SIZE = 64;                              // bucket size
+    final public int BUCKET_SIZE_SHIFT = 6;                         // bucket size multiplication/divsion shift
+    final public int BUCKET_REMINDER_BITMASK = (0x0000003f);        // bucket size reminder bitmask
+    final public int SUPER_BUCKET_SIZE = 4096;                      // super bucket size
+    final public int SUPER_BUCKET_SIZE_SHIFT = 12;                  // super bucket size multiplication/divsion shift
+    final public int CHUNK_SIZE_SHIFT = 24;                         // number of buckets in one storage chunk multiplication/divsion shift
+    final public int CHUNK_REMINDER_BITMASK = (0x00ffffff);         // number of buckets in one storage chunk reminder bitmask
+    // </editor-fold>
+
+    // <editor-fold desc="Fields">
+
+    /** Bit string storage chunks */
+    private final long[][] bitString;
+
+    /** Bucket storage chunks */
+    private final short[][] bucketArray;
+
+    /** Super bucket storage */
+    private final long[] superBucketArray;
+
+    /** Number of buckets */
+    private final long noBuckets;
+
+    /** Number of  superbuckets */
+    private final int noSuperBuckets;
+    // </editor-fold>
+
+    // <editor-fold desc="Constructor">
+
+    /**
+     *  Class FMIndexLongBitString Constructor
+     *
+     * @param size      size of bitstring
+     */
+    public FMIndexLongBitString(long size) {
+
+        int noChunks;
+        int chunkSize;
+
+        noSuperBuckets = ((int) ((size + (SUPER_BUCKET_SIZE - 1)) / SUPER_BUCKET_SIZE));
+        noBuckets = (((long) noSuperBuckets) * BUCKET_SIZE);
+        superBucketArray = new long[noSuperBuckets];
+        noChunks = ((int) ((noBuckets + CHUNK_REMINDER_BITMASK) >>> CHUNK_SIZE_SHIFT));
+        bitString = new long[noChunks][];
+        bucketArray = new short[noChunks][];
+        for (int i = 0; i < noChunks; i++) {
+            chunkSize = ((int) Math.min((CHUNK_REMINDER_BITMASK + 1), (noBuckets - (((long) i) << CHUNK_SIZE_SHIFT))));
+            bitString[i] = new long[chunkSize];
+            bucketArray[i] = new short[chunkSize];
+        }
+    }
+    // </editor-fold>
+
+    // <editor-fold desc="Methods">
+
+    /**
+     * Function setBitNoBucket sets bit at specified index. This function does
+     * not affects bucket and superbucket array.
+     *
+     * @param index     index to set bit
+     * @throws ReportedException
+     */
+    public void setBitNoBucket(long index) throws ReportedException {
+
+        long bitStringIndex;
+
+        bitStringIndex = (index >>> BUCKET_SIZE_SHIFT);
+        if (bitStringIndex >= noBuckets) {
+            throw new ReportedException("Character to insert into wavelet tree node is invalid!");
+        }
+        bitString[(int) (bitStringIndex >>> CHUNK_SIZE_SHIFT)][((int) bitStringIndex) & CHUNK_REMINDER_BITMASK]
+                |= (1L << (index & BUCKET_REMINDER_BITMASK));
+    }
+
+    /**
+     * Function resetBitNoBucket resets bit at specified index. This function
+     * does not affects bucket and superbucket array.
+     *
+     * @param index     index to reset bit
+     * @throws ReportedException
+     */
+    public void resetBitNoBucket(long index) throws ReportedException {
+
+        long bitStringIndex;
+
+        bitStringIndex = (index >>> BUCKET_SIZE_SHIFT);
+        if (bitStringIndex >= noBuckets) {
+            throw new ReportedException("Character to insert into wavelet tree node is invalid!");
+        }
+        bitString[(int) (bitStringIndex >>> CHUNK_SIZE_SHIFT)][((int) bitStringIndex) & CHUNK_REMINDER_BITMASK]
+                &= (~(1L << (index & BUCKET_REMINDER_BITMASK)));
+    }
+
+    /**
+     * Function refreshBuckets refreshes bucket and superbucket array to reflect
+     * bitstring array condition. Chunk size is multiple of super bucket size,
+     * so super bucket never crosses chunk boundary.
+     */
+    public void refreshBuckets() {
+
+        long[] bitStringChunk;
+        short[] bucketChunk;
+        long bucketIndex;
+        long superSum;
+        int chunkIndex;
+        short sum;
+
+        bucketIndex = 0;
+        superSum = 0;
+        for (int i = 0; i < noSuperBuckets; i++) {
+            bitStringChunk = bitString[(int) (bucketIndex >>> CHUNK_SIZE_SHIFT)];
+            bucketChunk = bucketArray[(int) (bucketIndex >>> CHUNK_SIZE_SHIFT)];
+            chunkIndex = (((int) bucketIndex) & CHUNK_REMINDER_BITMASK);
+            superBucketArray[i] = superSum;
+            sum = 0;
+            for (int j = 0; j < BUCKET_SIZE; j++) {
+                bucketChunk[chunkIndex] = sum;
+                sum += Long.bitCount(bitStringChunk[chunkIndex++]);
+            }
+            superSum += sum;
+            bucketIndex += BUCKET_SIZE;
+        }
+    }
+
+    /**
+     * Function rank1 provides number of ones in bitstring before specified index.
+     * The bit at specified index is not included in the sum.
+     *
+     * @param index     index to count ones to
+     * @return          number of ones up to index
+     * @throws ReportedException
+     */
+    public long rank1(long index) throws ReportedException {
+
+        long inx;
+        int chunk;
+        int chunkIndex;
+        long sum;
+
+        if (index >= (noBuckets << BUCKET_SIZE_SHIFT)) {
+            throw new ReportedException("Pokušaj dohvata broja jedinica do indeksa koji je prevelik!");
+        }
+
+        sum = superBucketArray[(int) (index >>> SUPER_BUCKET_SIZE_SHIFT)];
+        inx = (index >>> BUCKET_SIZE_SHIFT);
+        chunk = ((int) (inx >>> CHUNK_SIZE_SHIFT));
+        chunkIndex = (((int) inx) & CHUNK_REMINDER_BITMASK);
+        sum += bucketArray[chunk][chunkIndex];
+        sum += Long.bitCount(bitString[chunk][chunkIndex] & ((1L << (index & BUCKET_REMINDER_BITMASK)) - 1));
+        return sum;
+    }
+
+    /**
+     * Function rank1Range provides number of ones before both ends of index
+     * range at once. Both ranks are computed without branching on range
+     * width, so loads of both ends are issued together and, for narrow ranges
+     * of backward search, read the same cache lines.
+     *
+     * @param lowIndex      lower index to count ones to
+     * @param highIndex     higher index to count ones to, not lower than lowIndex
+     * @param ranks         receives number of ones up to lowIndex and up to highIndex
+     * @throws ReportedException
+     */
+    public void rank1Range(long lowIndex, long highIndex, long[] ranks) throws ReportedException {
+
+        long lowInx;
+        long highInx;
+        int lowChunk;
+        int lowChunkIndex;
+        int highChunk;
+        int highChunkIndex;
+
+        if (highIndex >= (noBuckets << BUCKET_SIZE_SHIFT)) {
+            throw new ReportedException("Pokušaj dohvata broja jedinica do indeksa koji je prevelik!");
+        }
+
+        lowInx = (lowIndex >>> BUCKET_SIZE_SHIFT);
+        highInx = (highIndex >>> BUCKET_SIZE_SHIFT);
+        lowChunk = ((int) (lowInx >>> CHUNK_SIZE_SHIFT));
+        lowChunkIndex = (((int) lowInx) & CHUNK_REMINDER_BITMASK);
+        highChunk = ((int) (highInx >>> CHUNK_SIZE_SHIFT));
+        highChunkIndex = (((int) highInx) & CHUNK_REMINDER_BITMASK);
+        ranks[0] = ( superBucketArray[(int) (lowIndex >>> SUPER_BUCKET_SIZE_SHIFT)]
+                     + bucketArray[lowChunk][lowChunkIndex]
+                     + Long.bitCount(bitString[lowChunk][lowChunkIndex] & ((1L << (lowIndex & BUCKET_REMINDER_BITMASK)) - 1))      );
+        ranks[1] = ( superBucketArray[(int) (highIndex >>> SUPER_BUCKET_SIZE_SHIFT)]
+                     + bucketArray[highChunk][highChunkIndex]
+                     + Long.bitCount(bitString[highChunk][highChunkIndex] & ((1L << (highIndex & BUCKET_REMINDER_BITMASK)) - 1))   );
+    }
+
+    /**
+     * Function getMemoryConsumption estimates memory consumption of this object.
+     *
+     * @return returns      estimated memory consumption in bytes
+     */
+    public long getMemoryConsumption() {
+        return ((((long) noSuperBuckets) * 8) + (noBuckets * 10) + (bitString.length * 32));
+    }
+    // </editor-fold>
+}
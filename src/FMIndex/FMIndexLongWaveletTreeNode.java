@@ -0,0 +1,289 @@
+/*
+ * Author:
+ *
+ *      Vedran Sabadoš
+ *
+ * Version:
+ *
+ *      V1.0         26. 12. 2013
+ */
+
+package FMIndex;
+
+
+/**
+ * Class FMIndexLongWaveletTreeNode provides functionality of 64-bit addressed
+ * wavelet tree node used in conjunction with FM index occurrence wavelet tree
+ * whose bit strings are not limited by maximal array size. Reference sequence
+ * it is created from is still read into one array, so its length is limited
+ * to 2^31 - 2 characters. Tree is populated by inserting BW transform
+ * characters sequentially.
+ *
+ * @version     V1.0                26.12.2013.
+ * @author      Vedran Sabadoš
+ */
+public class FMIndexLongWaveletTreeNode implements java.io.Serializable {
+
+    // <editor-fold desc="Constants">
+
+    private static final long serialVersionUID = -4850844947436843327L;   // keeps saved indexes readable after methods were added
+    // </editor-fold>
+
+    // <editor-fold desc="Fields">
+
+    /** Wavelet tree node underlaying bit string */
+    private FMIndexLongBitString waveletNodeBitString;
+
+    /** Left child wavelet tree node */
+    public FMIndexLongWaveletTreeNode leftChild;
+
+    /** Right child wavelet tree node */
+    public FMIndexLongWaveletTreeNode rightChild;
+
+    /** Lowest character number stored in this node */
+    private int lowCharacterNumber;
+
+    /** Highest character number stored in this node */
+    private int highCharacterNumber;
+
+    /** First character number stored in this node as binary 1 */
+    private int thresholdCharacterNumber;
+
+    /** Wavelet tree node size in bits */
+    private long nodeSize;
+
+    /** Wavelet tree node sequential access index */
+    private long sequentialIndex;
+    // </editor-fold>
+
+    // <editor-fold desc="Constructors">
+
+    /**
+     * Class FMIndexLongWaveletTreeNode constructor, creates empty wavelet tree.
+     *
+     * @param prefixSumTable    prefix-sum table for character string to be inserted
+     * @throws ReportedException
+     */
+    public FMIndexLongWaveletTreeNode(long[] prefixSumTable) throws ReportedException {
+        this(prefixSumTable, 0, (prefixSumTable.length - 2));
+    }
+
+    /**
+     * Class FMIndexLongWaveletTreeNode constructor, creates empty wavelet tree
+     * node.
+     *
+     * @param prefixSumTable    prefix-sum table for character string to be inserted
+     * @param lowChar           lowest character for this node
+     * @param highChar          highest character for this node
+     * @throws ReportedException
+     */
+    public FMIndexLongWaveletTreeNode(  long[] prefixSumTable,
+                                        int lowChar,
+                                        int highChar            ) throws ReportedException {
+
+        long midpoint;
+
+        lowCharacterNumber = lowChar;
+        highCharacterNumber = highChar;
+
+        /* calculate threshold character */
+        if ((highCharacterNumber - lowCharacterNumber) < 1) {
+            throw new ReportedException("Class FMIndexLongWaveletTreeNode construction error (highChar/lowCharacterNumber difference is less than 1)!");
+        }
+        midpoint = ((prefixSumTable[lowCharacterNumber] + prefixSumTable[highCharacterNumber + 1]) / 2);
+        thresholdCharacterNumber = lowCharacterNumber + 1;
+        while (prefixSumTable[thresholdCharacterNumber] < midpoint) {
+            thresholdCharacterNumber++;
+        }
+        if (    (prefixSumTable[thresholdCharacterNumber] - midpoint)
+                > (midpoint - prefixSumTable[thresholdCharacterNumber - 1]) ) {
+            thresholdCharacterNumber--;
+        }
+
+        /* create underlaying bitstring */
+        nodeSize = (prefixSumTable[highCharacterNumber + 1] - prefixSumTable[lowCharacterNumber]);
+        waveletNodeBitString = new FMIndexLongBitString(nodeSize + 1);
+
+        /* create left child node */
+        if ((thresholdCharacterNumber - lowCharacterNumber) >= 2) {
+            leftChild = new FMIndexLongWaveletTreeNode( prefixSumTable,
+                                                        lowCharacterNumber,
+                                                        (thresholdCharacterNumber - 1)  );
+        } else {
+            leftChild = null;
+        }
+
+        /* create right child node */
+        if ((highCharacterNumber - thresholdCharacterNumber) >= 1) {
+            rightChild = new FMIndexLongWaveletTreeNode(    prefixSumTable,
+                                                            thresholdCharacterNumber,
+                                                            highCharacterNumber         );
+        } else {
+            rightChild = null;
+        }
+    }
+    // </editor-fold>
+
+    // <editor-fold desc="Methods">
+
+    /**
+     * Function insertCharacter inserts a character to this wavelet tree node
+     * and all the nodes below, at the place defined by sequential index.
+     * Sequential index is incremented after this operation.
+     *
+     * @param characterToInsert     character to insert
+     * @throws ReportedException
+     */
+    final public void insertCharacter(byte characterToInsert) throws ReportedException {
+
+        /* check if character and sequential index are valid */
+        if (    (characterToInsert < lowCharacterNumber)
+                || (characterToInsert > highCharacterNumber)    ) {
+            throw new ReportedException("Character to insert into wavelet tree node is invalid!");
+        }
+        if (sequentialIndex >= nodeSize) {
+            throw new ReportedException("Traying to insert too many characters into wavelet tree node!");
+        }
+
+        if (characterToInsert < thresholdCharacterNumber) {
+            waveletNodeBitString.resetBitNoBucket(sequentialIndex++);
+            if (leftChild != null) {
+                leftChild.insertCharacter(characterToInsert);
+            }
+        } else {
+            waveletNodeBitString.setBitNoBucket(sequentialIndex++);
+            if (rightChild != null) {
+                rightChild.insertCharacter(characterToInsert);
+            }
+        }
+    }
+
+    /**
+     * Function resetSequentialIndex resets sequential access index for this node
+     * and all the nodes below.
+     */
+    final public void resetSequentialIndex() {
+        sequentialIndex = 0;
+        if (leftChild != null) {
+            leftChild.resetSequentialIndex();
+        }
+        if (rightChild != null) {
+            rightChild.resetSequentialIndex();
+        }
+    }
+
+    /**
+     * Function refreshBuckets refreshes bucket and superbucket arrays in
+     * underlaying bit strings for this node and all the nodes below.
+     */
+    final public void refreshBuckets() {
+        waveletNodeBitString.refreshBuckets();
+        if (leftChild != null) {
+            leftChild.refreshBuckets();
+        }
+        if (rightChild != null) {
+            rightChild.refreshBuckets();
+        }
+    }
+
+    /**
+     * Function Occ counts number of occurrences of given character in BW
+     * transform of reference sequence before given index. Character at given
+     * index position is not included in the sum.
+     *
+     * @param countedCharacter  character to count its occurrence
+     * @param index             index to count characters to
+     * @return                  number of occurrence of countedCharacter up to index position
+     * @throws ReportedException
+     */
+    public long Occ(byte countedCharacter, long index) throws ReportedException {
+
+        long childIndex;
+
+        if ((countedCharacter < lowCharacterNumber) || (countedCharacter > highCharacterNumber)) {
+            throw new ReportedException("Pokušaj dohvata broja znakova za znak koji ne postoji!");
+        }
+        if (index > nodeSize) {
+            throw new ReportedException("Pokušaj dohvata broja znakova za prevelik indeks!");
+        }
+
+        if (countedCharacter < thresholdCharacterNumber) {
+            childIndex = (index - waveletNodeBitString.rank1(index));
+            if (leftChild != null) {
+                return leftChild.Occ(countedCharacter, childIndex);
+            } else {
+                return childIndex;
+            }
+        } else {
+            childIndex = waveletNodeBitString.rank1(index);
+            if (rightChild != null) {
+                return rightChild.Occ(countedCharacter, childIndex);
+            } else {
+                return childIndex;
+            }
+        }
+    }
+
+    /**
+     * Function OccRange counts number of occurrences of given character in BW
+     * transform of reference sequence before both ends of index range. Both
+     * counts follow the same path from the root to the leaf, so the path is
+     * walked only once and both ranks of each node are computed together.
+     * Result equals Occ(countedCharacter, lowIndex) and
+     * Occ(countedCharacter, highIndex).
+     *
+     * @param countedCharacter  character to count its occurrence
+     * @param lowIndex          lower index to count characters to
+     * @param highIndex         higher index to count characters to, not lower than lowIndex
+     * @param occurrences       receives number of occurrences up to lowIndex and up to highIndex
+     * @throws ReportedException
+     */
+    public void OccRange(byte countedCharacter, long lowIndex, long highIndex, long[] occurrences) throws ReportedException {
+
+        FMIndexLongWaveletTreeNode node;
+
+        if ((countedCharacter < lowCharacterNumber) || (countedCharacter > highCharacterNumber)) {
+            throw new ReportedException("Pokušaj dohvata broja znakova za znak koji ne postoji!");
+        }
+        if ((highIndex > nodeSize) || (lowIndex > highIndex)) {
+            throw new ReportedException("Pokušaj dohvata broja znakova za prevelik indeks!");
+        }
+
+        occurrences[0] = lowIndex;
+        occurrences[1] = highIndex;
+        node = this;
+        while (node != null) {
+            node.waveletNodeBitString.rank1Range(occurrences[0], occurrences[1], occurrences);
+            if (countedCharacter < node.thresholdCharacterNumber) {
+                occurrences[0] = (lowIndex - occurrences[0]);
+                occurrences[1] = (highIndex - occurrences[1]);
+                node = node.leftChild;
+            } else {
+                node = node.rightChild;
+            }
+            lowIndex = occurrences[0];
+            highIndex = occurrences[1];
+        }
+    }
+
+    /**
+     * Function getMemoryConsumption estimates memory consumption of this node
+     * and all the nodes below.
+     *
+     * @return returns      estimated memory consumption in bytes
+     */
+    final public long getMemoryConsumption() {
+
+        long sum;
+
+        sum = waveletNodeBitString.getMemoryConsumption();
+        if (leftChild != null) {
+            sum += leftChild.getMemoryConsumption();
+        }
+        if (rightChild != null) {
+            sum += rightChild.getMemoryConsumption();
+        }
+        return sum;
+    }
+    // </editor-fold>
+}
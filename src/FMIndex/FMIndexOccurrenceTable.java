@@ -0,0 +1,57 @@
+/*
+ * Author:
+ *
+ *      Vedran Sabadoš
+ *
+ * Version:
+ *
+ *      V1.0         26. 12. 2013
+ */
+
+package FMIndex;
+
+/**
+ * Interface FMIndexOccurrenceTable counts occurrences of characters in BW
+ * transform of 32-bit reference sequence index. It is implemented by
+ * occurrence wavelet tree and by occurrence wavelet matrix, so backward
+ * search does not depend on structure chosen when index was created.
+ *
+ * @version     V1.0                26.12.2013.
+ * @author      Vedran Sabadoš
+ */
+public interface FMIndexOccurrenceTable {
+
+    /**
+     * Function Occ counts number of occurrences of given character in BW
+     * transform of reference sequence before given index. Character at given
+     * index position is not included in the sum.
+     *
+     * @param countedCharacter  character to count its occurrence
+     * @param index             index to count characters to
+     * @return                  number of occurrence of countedCharacter up to index position
+     * @throws ReportedException
+     */
+    int Occ(byte countedCharacter, int index) throws ReportedException;
+
+    /**
+     * Function OccRange counts number of occurrences of given character in BW
+     * transform of reference sequence before both ends of index range.
+     * Result equals Occ(countedCharacter, lowIndex) and
+     * Occ(countedCharacter, highIndex).
+     *
+     * @param countedCharacter  character to count its occurrence
+     * @param lowIndex          lower index to count characters to
+     * @param highIndex         higher index to count characters to, not lower than lowIndex
+     * @param occurrences       receives number of occurrences up to lowIndex and up to highIndex
+     * @throws ReportedException
+     */
+    void OccRange(byte countedCharacter, int lowIndex, int highIndex, int[] occurrences) throws ReportedException;
+
+    /**
+     * Function getMemoryConsumption estimates memory consumption of this
+     * occurrence table.
+     *
+     * @return returns      estimated memory consumption in bytes
+     */
+    int getMemoryConsumption();
+}
@@ -0,0 +1,560 @@
+/*
+ * Author:
+ *
+ *      Vedran Sabadoš
+ *
+ * Version:
+ *
+ *      V1.0         26. 12. 2013
+ */
+
+package FMIndex;
+
+
+/**
+ * Class FMIndexWaveletMatrix provides functionality of FM index occurrence
+ * wavelet matrix, an alternative to occurrence wavelet tree. Each level keeps
+ * one bit of level code for all characters of BW transform in one contiguous
+ * bit string, characters being stably reordered by bits of the levels above,
+ * so Occ is computed by one rank per level in a loop, without following node
+ * references. Rank counts are kept inside the bit string: each block of 512
+ * bits is preceded by header word holding number of binary 1 before the block
+ * and before each pair of words of the block, so one rank reads header and
+ * two words of the same block.
+ * Rare characters (terminating character, and e.g. N or separator if they
+ * are rare), which would add a level for all characters, are kept in
+ * exception list of their BW transform positions instead, so BW transform of
+ * A, C, G and T with few other characters needs two levels only.
+ *
+ * @version     V1.0                26.12.2013.
+ * @author      Vedran Sabadoš
+ */
+public class FMIndexWaveletMatrix implements FMIndexOccurrenceTable, java.io.Serializable {
+
+    // <editor-fold desc="Constants">
+
+    private static final long serialVersionUID = 5217438893605372107L;
+    final public static int BLOCK_WORDS = 8;                        // bit string words in one block
+    final public static int BLOCK_LONGS = 9;                        // header and bit string words of one block
+    final public static int BLOCK_SIZE_SHIFT = 9;                   // block size (512 bits) multiplication/division shift
+    final public static int BLOCK_WORD_BITMASK = (0x00000007);      // word index inside block bitmask
+    final public static int PAIR_WORD_BITMASK = (0x00000006);       // index of the first word of pair inside block bitmask
+    final public static int PAIR_COUNT_SHIFT = 23;                  // header shift of pair count, added to PAIR_COUNT_BITS * pair
+    final public static int PAIR_COUNT_BITS = 9;                    // header bits of one pair count
+    final public static long PAIR_COUNT_BITMASK = (0x000001ffL);    // pair count bitmask
+    final public static int WORD_SIZE = 64;                         // bit string word size
+    final public static int WORD_SIZE_SHIFT = 6;                    // bit string word size multiplication/division shift
+    final public static int WORD_REMINDER_BITMASK = (0x0000003f);   // bit index inside word bitmask
+    final public static int EXCEPTION_RATIO_SHIFT = 6;              // characters are kept as exceptions if they take at most 1/64 of BW transform
+    final public static int EXCEPTION_BLOCK_SIZE_SHIFT = 12;        // exception count block size (4096 positions) multiplication/division shift
+    // </editor-fold>
+
+    // <editor-fold desc="Fields">
+
+    /** Bit string of each level, divided into blocks of header and 8 words */
+    private final long[][] levelBitStrings;
+
+    /** Number of characters stored as binary 0 in each level */
+    private final int[] levelZeroCounts;
+
+    /** Level code of each character, or -1 if character is kept in exception list */
+    private final byte[] characterLevelCodes;
+
+    /** Position of the first character of each level code after the last level */
+    private final int[] levelCodeStarts;
+
+    /** Sorted BW transform positions of each character kept in exception list, null for other characters */
+    private final int[][] characterExceptionPositions;
+
+    /** Sorted BW transform positions of all exceptions, followed by Integer.MAX_VALUE */
+    private final int[] exceptionPositions;
+
+    /** Number of exceptions before each block of 4096 BW transform positions */
+    private final int[] exceptionBlockCounts;
+
+    /** Number of levels, i.e. bits of the highest level code */
+    private final int noLevels;
+
+    /** Highest character number stored in wavelet matrix */
+    private final int highestCharacterNumber;
+
+    /** Number of BW transform characters */
+    private final int bwtSize;
+
+    /** Number of characters stored in levels */
+    private final int matrixSize;
+
+    /** Number of blocks in bit string of each level */
+    private final int noBlocks;
+    // </editor-fold>
+
+    // <editor-fold desc="Constructors">
+
+    /**
+     * Class FMIndexWaveletMatrix constructor. Character string is used as
+     * working buffer while characters are reordered level by level, so its
+     * content is not preserved.
+     *
+     * @param characterString   character string wavelet matrix is to be constructed upon
+     * @param prefixSumTable    prefix-sum table for given character string
+     * @throws ReportedException
+     */
+    public FMIndexWaveletMatrix(    byte[] characterString,
+                                    int[] prefixSumTable    ) throws ReportedException {
+
+        byte[] sourceCharacters;
+        byte[] targetCharacters;
+        byte[] swapCharacters;
+        int[] exceptionCounts;
+        int invalidCharacters;
+        int noExceptions;
+        int zeroIndex;
+        int oneIndex;
+        int shift;
+        byte character;
+        byte code;
+
+        highestCharacterNumber = (prefixSumTable.length - 2);
+        bwtSize = prefixSumTable[prefixSumTable.length - 1];
+        if (characterString.length < bwtSize) {
+            throw new ReportedException("Class FMIndexWaveletMatrix construction error (character string is shorter than prefix-sum table total)!");
+        }
+        invalidCharacters = 0;
+        for (int i = 0; i < bwtSize; i++) {
+            invalidCharacters |= (characterString[i] | (highestCharacterNumber - characterString[i]));
+        }
+        if (invalidCharacters < 0) {
+            throw new ReportedException("Character to insert into wavelet matrix is invalid!");
+        }
+
+        /* choose characters stored in levels and characters kept as exceptions */
+        characterLevelCodes = new byte[highestCharacterNumber + 1];
+        noLevels = chooseLevelCodes(prefixSumTable, characterLevelCodes);
+        noExceptions = 0;
+        characterExceptionPositions = new int[highestCharacterNumber + 1][];
+        for (int c = 0; c <= highestCharacterNumber; c++) {
+            if (characterLevelCodes[c] < 0) {
+                characterExceptionPositions[c] = new int[prefixSumTable[c + 1] - prefixSumTable[c]];
+                noExceptions += characterExceptionPositions[c].length;
+            }
+        }
+        matrixSize = (bwtSize - noExceptions);
+
+        /* fill exception lists and replace characters by level codes */
+        exceptionPositions = new int[noExceptions + 1];
+        exceptionBlockCounts = new int[(bwtSize >>> EXCEPTION_BLOCK_SIZE_SHIFT) + 1];
+        exceptionCounts = new int[highestCharacterNumber + 1];
+        noExceptions = 0;
+        oneIndex = 0;
+        for (int i = 0; i < bwtSize; i++) {
+            if ((i & ((1 << EXCEPTION_BLOCK_SIZE_SHIFT) - 1)) == 0) {
+                exceptionBlockCounts[i >>> EXCEPTION_BLOCK_SIZE_SHIFT] = noExceptions;
+            }
+            character = characterString[i];
+            code = characterLevelCodes[character];
+            if (code < 0) {
+                characterExceptionPositions[character][exceptionCounts[character]++] = i;
+                exceptionPositions[noExceptions++] = i;
+            } else {
+                characterString[oneIndex++] = code;
+            }
+        }
+        if ((bwtSize & ((1 << EXCEPTION_BLOCK_SIZE_SHIFT) - 1)) == 0) {
+            exceptionBlockCounts[bwtSize >>> EXCEPTION_BLOCK_SIZE_SHIFT] = noExceptions;
+        }
+        exceptionPositions[noExceptions] = Integer.MAX_VALUE;
+
+        /* build levels from the highest bit, characters with binary 0 are moved in front of the others */
+        noBlocks = ((matrixSize >>> BLOCK_SIZE_SHIFT) + 1);
+        levelBitStrings = new long[noLevels][];
+        levelZeroCounts = new int[noLevels];
+        levelCodeStarts = new int[1 << noLevels];
+        sourceCharacters = characterString;
+        targetCharacters = null;
+        for (int level = 0; level < noLevels; level++) {
+            shift = (noLevels - 1 - level);
+            levelBitStrings[level] = new long[noBlocks * BLOCK_LONGS];
+            levelZeroCounts[level] = (matrixSize - setLevelBits(levelBitStrings[level], sourceCharacters, shift));
+            if (level < (noLevels - 1)) {
+                if (targetCharacters == null) {
+                    targetCharacters = new byte[matrixSize];
+                }
+                zeroIndex = 0;
+                oneIndex = levelZeroCounts[level];
+                for (int i = 0; i < matrixSize; i++) {
+                    character = sourceCharacters[i];
+                    if (((character >>> shift) & 1) == 0) {
+                        targetCharacters[zeroIndex++] = character;
+                    } else {
+                        targetCharacters[oneIndex++] = character;
+                    }
+                }
+                swapCharacters = sourceCharacters;
+                sourceCharacters = targetCharacters;
+                targetCharacters = swapCharacters;
+            }
+        }
+
+        /* position of each level code after the last level is where Occ of index 0 ends */
+        for (int levelCode = 0; levelCode < levelCodeStarts.length; levelCode++) {
+            levelCodeStarts[levelCode] = findLastLevelIndex(levelCode, 0);
+        }
+    }
+
+    /**
+     * Class FMIndexWaveletMatrix constructor, BW transform is read back from
+     * occurrence wavelet tree, e.g. when tree was created by pipelined,
+     * external or merged index creation.
+     *
+     * @param waveletTree       occurrence wavelet tree holding BW transform
+     * @param prefixSumTable    prefix-sum table of BW transform
+     * @throws ReportedException
+     */
+    public FMIndexWaveletMatrix(    FMIndexWaveletTreeNode waveletTree,
+                                    int[] prefixSumTable                ) throws ReportedException {
+        this(readCharacters(waveletTree), prefixSumTable);
+    }
+    // </editor-fold>
+
+    // <editor-fold desc="Methods">
+
+    /**
+     * Function readCharacters reads whole BW transform back from occurrence
+     * wavelet tree in order.
+     *
+     * @param waveletTree   occurrence wavelet tree
+     * @return              BW transform characters
+     * @throws ReportedException
+     */
+    private static byte[] readCharacters(FMIndexWaveletTreeNode waveletTree) throws ReportedException {
+
+        byte[] characters;
+
+        characters = new byte[waveletTree.getNodeSize()];
+        waveletTree.resetSequentialIndex();
+        for (int i = 0; i < characters.length; i++) {
+            characters[i] = waveletTree.readCharacter();
+        }
+        return characters;
+    }
+
+    /**
+     * Function chooseLevelCodes chooses the smallest number of levels for
+     * which characters left out of levels, the least frequent ones, take at
+     * most 1/64 of BW transform. Characters stored in levels get level codes
+     * in character order, the others are kept as exceptions.
+     *
+     * @param prefixSumTable        prefix-sum table of BW transform
+     * @param characterLevelCodes   receives level code of each character, or -1 for exception
+     * @return                      number of levels
+     */
+    private static int chooseLevelCodes(int[] prefixSumTable, byte[] characterLevelCodes) {
+
+        int[] counts;
+        int[] sortedCounts;
+        int noCharacters;
+        int noLevels;
+        int noLevelCharacters;
+        int noTiedCharacters;
+        int minimalCount;
+        long exceptionTotal;
+        byte levelCode;
+
+        noCharacters = characterLevelCodes.length;
+        counts = new int[noCharacters];
+        for (int c = 0; c < noCharacters; c++) {
+            counts[c] = (prefixSumTable[c + 1] - prefixSumTable[c]);
+        }
+        sortedCounts = counts.clone();
+        java.util.Arrays.sort(sortedCounts);
+
+        /* remove levels while the least frequent characters left out are rare enough */
+        noLevels = Math.max(1, (32 - Integer.numberOfLeadingZeros(noCharacters - 1)));
+        while (noLevels > 1) {
+            noLevelCharacters = Math.min(noCharacters, (1 << (noLevels - 1)));
+            exceptionTotal = 0;
+            for (int i = 0; i < (noCharacters - noLevelCharacters); i++) {
+                exceptionTotal += sortedCounts[i];
+            }
+            if (exceptionTotal > (prefixSumTable[noCharacters] >>> EXCEPTION_RATIO_SHIFT)) {
+                break;
+            }
+            noLevels--;
+        }
+
+        /* the most frequent characters get level codes, ties are broken by character order */
+        noLevelCharacters = Math.min(noCharacters, (1 << noLevels));
+        minimalCount = sortedCounts[noCharacters - noLevelCharacters];
+        noTiedCharacters = noLevelCharacters;
+        for (int c = 0; c < noCharacters; c++) {
+            if (counts[c] > minimalCount) {
+                noTiedCharacters--;
+            }
+        }
+        levelCode = 0;
+        for (int c = 0; c < noCharacters; c++) {
+            if ((counts[c] > minimalCount) || ((counts[c] == minimalCount) && (noTiedCharacters-- > 0))) {
+                characterLevelCodes[c] = levelCode++;
+            } else {
+                characterLevelCodes[c] = -1;
+            }
+        }
+        return noLevels;
+    }
+
+    /**
+     * Function setLevelBits fills bit string of one level with given bit of
+     * each character, 64 characters at a time, and fills block headers.
+     *
+     * @param bitString     bit string of the level
+     * @param characters    level codes in order of the level
+     * @param shift         position of bit stored in the level
+     * @return              number of characters stored as binary 1
+     */
+    private int setLevelBits(long[] bitString, byte[] characters, int shift) {
+
+        int blockIndex;
+        int wordStart;
+        int wordEnd;
+        int noOnes;
+        int blockOnes;
+        long header;
+        long word;
+
+        noOnes = 0;
+        for (int block = 0; block < noBlocks; block++) {
+            blockIndex = (block * BLOCK_LONGS);
+            header = noOnes;
+            blockOnes = 0;
+            for (int w = 0; w < BLOCK_WORDS; w++) {
+                if ((w > 0) && ((w & PAIR_WORD_BITMASK) == w)) {
+                    header |= (((long) blockOnes) << (PAIR_COUNT_SHIFT + (PAIR_COUNT_BITS * (w >>> 1))));
+                }
+                wordStart = ((block << BLOCK_SIZE_SHIFT) + (w << WORD_SIZE_SHIFT));
+                wordEnd = Math.min((wordStart + WORD_SIZE), matrixSize);
+                word = 0;
+                for (int j = wordStart; j < wordEnd; j++) {
+                    word |= (((long) ((characters[j] >>> shift) & 1)) << (j - wordStart));
+                }
+                bitString[blockIndex + 1 + w] = word;
+                blockOnes += Long.bitCount(word);
+            }
+            bitString[blockIndex] = header;
+            noOnes += blockOnes;
+        }
+        return noOnes;
+    }
+
+    /**
+     * Function rank1 counts binary 1 in bit string of one level before given
+     * index, from block header, pair count and two words of the pair, without
+     * branches.
+     *
+     * @param bitString     bit string of the level
+     * @param index         index to count binary 1 to
+     * @return              number of binary 1 before index
+     */
+    private static int rank1(long[] bitString, int index) {
+
+        int blockIndex;
+        int wordInBlock;
+        int pair;
+        int pairIndex;
+        long header;
+        long bitMask;
+        long oddMask;
+
+        blockIndex = ((index >>> BLOCK_SIZE_SHIFT) * BLOCK_LONGS);
+        header = bitString[blockIndex];
+        wordInBlock = ((index >>> WORD_SIZE_SHIFT) & BLOCK_WORD_BITMASK);
+        pair = (wordInBlock >>> 1);
+        pairIndex = (blockIndex + 1 + (wordInBlock & PAIR_WORD_BITMASK));
+
+        /* the first word of pair is counted whole if index is in the second one */
+        bitMask = ((1L << (index & WORD_REMINDER_BITMASK)) - 1);
+        oddMask = -((long) (wordInBlock & 1));
+        return (    ((int) header)
+                    + ((int) ((header >>> (PAIR_COUNT_SHIFT + (PAIR_COUNT_BITS * pair))) & (PAIR_COUNT_BITMASK & (-pair >> 31))))
+                    + Long.bitCount(bitString[pairIndex] & (bitMask | oddMask))
+                    + Long.bitCount(bitString[pairIndex + 1] & (bitMask & oddMask))                                            );
+    }
+
+    /**
+     * Function countExceptionsBefore counts exceptions before given BW
+     * transform index, which converts the index to index of the first level.
+     *
+     * @param index     BW transform index
+     * @return          number of exceptions before index
+     */
+    private int countExceptionsBefore(int index) {
+
+        int exceptionIndex;
+
+        exceptionIndex = exceptionBlockCounts[index >>> EXCEPTION_BLOCK_SIZE_SHIFT];
+        while (exceptionPositions[exceptionIndex] < index) {
+            exceptionIndex++;
+        }
+        return exceptionIndex;
+    }
+
+    /**
+     * Function countPositionsBefore counts positions of sorted exception list
+     * of one character before given BW transform index by binary search.
+     *
+     * @param positions     sorted BW transform positions of the character
+     * @param index         BW transform index
+     * @return              number of positions before index
+     */
+    private static int countPositionsBefore(int[] positions, int index) {
+
+        int low;
+        int high;
+        int middle;
+
+        low = 0;
+        high = positions.length;
+        while (low < high) {
+            middle = ((low + high) >>> 1);
+            if (positions[middle] < index) {
+                low = (middle + 1);
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Function findLastLevelIndex follows given index of given level code
+     * through all levels.
+     *
+     * @param levelCode     level code of character
+     * @param index         index in the first level
+     * @return              index after the last level
+     */
+    private int findLastLevelIndex(int levelCode, int index) {
+
+        int ones;
+        int oneMask;
+
+        for (int level = 0; level < noLevels; level++) {
+            ones = rank1(levelBitStrings[level], index);
+            oneMask = -((levelCode >>> (noLevels - 1 - level)) & 1);
+            index = (((levelZeroCounts[level] + ones) & oneMask) | ((index - ones) & ~oneMask));
+        }
+        return index;
+    }
+
+    /**
+     * Function Occ counts number of occurrences of given character in BW
+     * transform of reference sequence before given index. Character at given
+     * index position is not included in the sum.
+     *
+     * @param countedCharacter  character to count its occurrence
+     * @param index             index to count characters to
+     * @return                  number of occurrence of countedCharacter up to index position
+     * @throws ReportedException
+     */
+    @Override
+    public int Occ(byte countedCharacter, int index) throws ReportedException {
+
+        int levelCode;
+
+        if ((countedCharacter < 0) || (countedCharacter > highestCharacterNumber)) {
+            throw new ReportedException("Pokušaj dohvata broja znakova za znak koji ne postoji!");
+        }
+        if ((index < 0) || (index > bwtSize)) {
+            throw new ReportedException("Pokušaj dohvata broja znakova za prevelik indeks!");
+        }
+
+        levelCode = characterLevelCodes[countedCharacter];
+        if (levelCode < 0) {
+            return countPositionsBefore(characterExceptionPositions[countedCharacter], index);
+        }
+        index -= countExceptionsBefore(index);
+        return (findLastLevelIndex(levelCode, index) - levelCodeStarts[levelCode]);
+    }
+
+    /**
+     * Function OccRange counts number of occurrences of given character in BW
+     * transform of reference sequence before both ends of index range. Both
+     * ends are followed through the same levels together, two ranks of each
+     * level being read from the same bit string. Result equals
+     * Occ(countedCharacter, lowIndex) and Occ(countedCharacter, highIndex).
+     *
+     * @param countedCharacter  character to count its occurrence
+     * @param lowIndex          lower index to count characters to
+     * @param highIndex         higher index to count characters to, not lower than lowIndex
+     * @param occurrences       receives number of occurrences up to lowIndex and up to highIndex
+     * @throws ReportedException
+     */
+    @Override
+    public void OccRange(byte countedCharacter, int lowIndex, int highIndex, int[] occurrences) throws ReportedException {
+
+        long[] bitString;
+        int levelCode;
+        int lowOnes;
+        int highOnes;
+        int oneMask;
+
+        if ((countedCharacter < 0) || (countedCharacter > highestCharacterNumber)) {
+            throw new ReportedException("Pokušaj dohvata broja znakova za znak koji ne postoji!");
+        }
+        if ((highIndex > bwtSize) || (lowIndex < 0) || (lowIndex > highIndex)) {
+            throw new ReportedException("Pokušaj dohvata broja znakova za prevelik indeks!");
+        }
+
+        levelCode = characterLevelCodes[countedCharacter];
+        if (levelCode < 0) {
+            occurrences[0] = countPositionsBefore(characterExceptionPositions[countedCharacter], lowIndex);
+            occurrences[1] = countPositionsBefore(characterExceptionPositions[countedCharacter], highIndex);
+            return;
+        }
+        lowIndex -= countExceptionsBefore(lowIndex);
+        highIndex -= countExceptionsBefore(highIndex);
+        for (int level = 0; level < noLevels; level++) {
+            bitString = levelBitStrings[level];
+            lowOnes = rank1(bitString, lowIndex);
+            highOnes = rank1(bitString, highIndex);
+            oneMask = -((levelCode >>> (noLevels - 1 - level)) & 1);
+            lowIndex = (((levelZeroCounts[level] + lowOnes) & oneMask) | ((lowIndex - lowOnes) & ~oneMask));
+            highIndex = (((levelZeroCounts[level] + highOnes) & oneMask) | ((highIndex - highOnes) & ~oneMask));
+        }
+        occurrences[0] = (lowIndex - levelCodeStarts[levelCode]);
+        occurrences[1] = (highIndex - levelCodeStarts[levelCode]);
+    }
+
+    /**
+     * Function getNoLevels provides number of wavelet matrix levels.
+     *
+     * @return      number of levels
+     */
+    public int getNoLevels() {
+        return noLevels;
+    }
+
+    /**
+     * Function getNoExceptions provides number of BW transform characters
+     * kept in exception list.
+     *
+     * @return      number of exceptions
+     */
+    public int getNoExceptions() {
+        return (exceptionPositions.length - 1);
+    }
+
+    /**
+     * Function getMemoryConsumption estimates memory consumption of this
+     * wavelet matrix.
+     *
+     * @return returns      estimated memory consumption in bytes
+     */
+    @Override
+    public int getMemoryConsumption() {
+        return (    (noLevels * noBlocks * BLOCK_LONGS * 8)
+                    + ((noLevels + levelCodeStarts.length + exceptionBlockCounts.length) * 4)
+                    + (((2 * exceptionPositions.length) - 1) * 4)
+                    + characterLevelCodes.length                                                );
+    }
+    // </editor-fold>
+}
@@ -10,16 +10,28 @@
 
 package FMIndex;
 
-import javax.swing.JOptionPane;
 
 /**
  * Class FMIndexWaveletTreeNode provides functionality of wavelet tree node used
- * in conjunction with FM index occurrence wavelet tree.
+ * in conjunction with FM index occurrence wavelet tree. Tree is shaped either
+ * by splitting character range of each node at its prefix-sum midpoint, or by
+ * Huffman codes of characters, so frequent characters get short paths and
+ * average path approaches zeroth-order entropy of BW transform. Node of either
+ * shape splits contiguous range of character numbers; Huffman-shaped tree
+ * root keeps characters ordered by their canonical Huffman codes, so
+ * characters are replaced by their leaf codes at the root and read back at
+ * the root.
  *
  * @version     V1.0                26.12.2013.
  * @author      Vedran Sabadoš
  */
-public class FMIndexWaveletTreeNode implements java.io.Serializable {
+public class FMIndexWaveletTreeNode implements FMIndexOccurrenceTable, java.io.Serializable {
+
+    // <editor-fold desc="Constants">
+
+    private static final long serialVersionUID = 3064902467716545517L;    // keeps saved indexes readable after methods were added
+    final public static int HUFFMAN_CODE_ALIGNMENT = 62;                    // bits Huffman codes are left-aligned to, longer codes are not supported
+    // </editor-fold>
 
     // <editor-fold desc="Fields">
 
@@ -46,6 +58,12 @@ public class FMIndexWaveletTreeNode implements java.io.Serializable {
 
     /** Wavelet tree node sequential access index */
     private int sequentialIndex;
+
+    /** Leaf code of each character of Huffman-shaped tree root, null if characters are their own codes */
+    private byte[] characterCodes;
+
+    /** Character of each leaf code of Huffman-shaped tree root, null if characters are their own codes */
+    private byte[] codeCharacters;
     // </editor-fold>
 
     // <editor-fold desc="Constructors">
@@ -59,7 +77,21 @@ public class FMIndexWaveletTreeNode implements java.io.Serializable {
      */
     public FMIndexWaveletTreeNode(  byte[] characterString,
                                     int[] prefixSumTable    ) throws ReportedException {
-        this(characterString, prefixSumTable, 0, (prefixSumTable.length - 2));
+        this(characterString, prefixSumTable, 0, (prefixSumTable.length - 2), false);
+    }
+
+    /**
+     * Class FMIndexWaveletNode constructor.
+     * 
+     * @param characterString   character string wavelet tree is to be constructed upon
+     * @param prefixSumTable    prefix-sum table for given character string
+     * @param huffmanShaped     set if tree is to be shaped by Huffman codes of characters
+     * @throws ReportedException 
+     */
+    public FMIndexWaveletTreeNode(  byte[] characterString,
+                                    int[] prefixSumTable,
+                                    boolean huffmanShaped   ) throws ReportedException {
+        this(characterString, prefixSumTable, 0, (prefixSumTable.length - 2), huffmanShaped);
     }
 
     /**
@@ -75,17 +107,89 @@ public class FMIndexWaveletTreeNode implements java.io.Serializable {
                                     int[] prefixSumTable,
                                     int lowChar,
                                     int highChar            ) throws ReportedException {
+        this(characterString, prefixSumTable, lowChar, highChar, false);
+    }
 
-        int midpoint;
+    /**
+     * Class FMIndexWaveletNode constructor.
+     * 
+     * @param characterString   character string wavelet tree is to be constructed upon
+     * @param prefixSumTable    prefix-sum table for given character string
+     * @param lowChar           lowest character for this node
+     * @param highChar          highest character for this node
+     * @param huffmanShaped     set if tree is to be shaped by Huffman codes of all characters
+     * @throws ReportedException 
+     */
+    private FMIndexWaveletTreeNode( byte[] characterString,
+                                    int[] prefixSumTable,
+                                    int lowChar,
+                                    int highChar,
+                                    boolean huffmanShaped   ) throws ReportedException {
+
+        int[] codePrefixSumTable;
+        long[] alignedCodes;
 
         lowCharacterNumber = lowChar;
         highCharacterNumber = highChar;
 
         /* calculate threshold character */
         if ((highCharacterNumber - lowCharacterNumber) < 1) {
-            reportError ("Class FMIndexWaveletNode construction error (highChar/lowCharacterNumber difference is less than 1)!");
-            throw new ReportedException();
+            throw new ReportedException("Class FMIndexWaveletNode construction error (highChar/lowCharacterNumber difference is less than 1)!");
+        }
+        if (huffmanShaped) {
+            codePrefixSumTable = new int[prefixSumTable.length];
+            alignedCodes = new long[prefixSumTable.length - 1];
+            createHuffmanCodes(prefixSumTable, codePrefixSumTable, alignedCodes);
+            createHuffmanNode(codePrefixSumTable, alignedCodes, 0);
+        } else {
+            createMidpointNode(prefixSumTable);
+        }
+
+        /* populate wavelet tree */
+        if (characterString != null) {
+            resetSequentialIndex();
+            for (int i = 0; i < nodeSize; i++) {
+                insertCharacter(characterString[i]);
+            }
+            refreshBuckets();
         }
+    }
+
+    /**
+     * Class FMIndexWaveletNode constructor of Huffman-shaped tree node below
+     * the root.
+     * 
+     * @param codePrefixSumTable    prefix-sum table of leaf codes
+     * @param alignedCodes          left-aligned canonical Huffman code of each leaf code
+     * @param lowCode               lowest leaf code for this node
+     * @param highCode              highest leaf code for this node
+     * @param depth                 depth of this node, 0 for the root
+     * @throws ReportedException 
+     */
+    private FMIndexWaveletTreeNode( int[] codePrefixSumTable,
+                                    long[] alignedCodes,
+                                    int lowCode,
+                                    int highCode,
+                                    int depth                   ) throws ReportedException {
+        lowCharacterNumber = lowCode;
+        highCharacterNumber = highCode;
+        createHuffmanNode(codePrefixSumTable, alignedCodes, depth);
+    }
+    // </editor-fold>
+
+    // <editor-fold desc="Methods">
+
+    /**
+     * Function createMidpointNode splits character range of this node at
+     * prefix-sum midpoint and creates underlaying bit string and child nodes.
+     * 
+     * @param prefixSumTable    prefix-sum table of characters
+     * @throws ReportedException 
+     */
+    private void createMidpointNode(int[] prefixSumTable) throws ReportedException {
+
+        int midpoint;
+
         midpoint = ((prefixSumTable[lowCharacterNumber] + prefixSumTable[highCharacterNumber + 1]) / 2);
         thresholdCharacterNumber = lowCharacterNumber + 1;
         while (prefixSumTable[thresholdCharacterNumber] < midpoint) {
@@ -96,6 +200,9 @@ public class FMIndexWaveletTreeNode implements java.io.Serializable {
             thresholdCharacterNumber--;
         }
 
+        /* both children get at least one character, also if some characters have no occurrences */
+        thresholdCharacterNumber = Math.max((lowCharacterNumber + 1), Math.min(highCharacterNumber, thresholdCharacterNumber));
+
         /* create underlaying bitstring */
         nodeSize = (prefixSumTable[highCharacterNumber + 1] - prefixSumTable[lowCharacterNumber]);
         waveletNodeBitString = new FMIndexBitString(nodeSize + 1);
@@ -119,19 +226,132 @@ public class FMIndexWaveletTreeNode implements java.io.Serializable {
         } else {
             rightChild = null;
         }
+    }
 
-        /* populate wavelet tree */
-        if (characterString != null) {
-            resetSequentialIndex();
-            for (int i = 0; i < nodeSize; i++) {
-                insertCharacter(characterString[i]);
-            }
-            refreshBuckets();
+    /**
+     * Function createHuffmanNode splits leaf code range of this node where
+     * bit of canonical Huffman code at node depth changes from 0 to 1, and
+     * creates underlaying bit string and child nodes.
+     * 
+     * @param codePrefixSumTable    prefix-sum table of leaf codes
+     * @param alignedCodes          left-aligned canonical Huffman code of each leaf code
+     * @param depth                 depth of this node, 0 for the root
+     * @throws ReportedException 
+     */
+    private void createHuffmanNode(int[] codePrefixSumTable, long[] alignedCodes, int depth) throws ReportedException {
+
+        long rightCode;
+
+        /* the first leaf code of right subtree has code bit of this node set */
+        rightCode = (alignedCodes[lowCharacterNumber] + (1L << (HUFFMAN_CODE_ALIGNMENT - depth - 1)));
+        thresholdCharacterNumber = lowCharacterNumber + 1;
+        while ((thresholdCharacterNumber < highCharacterNumber) && (alignedCodes[thresholdCharacterNumber] < rightCode)) {
+            thresholdCharacterNumber++;
+        }
+
+        /* create underlaying bitstring */
+        nodeSize = (codePrefixSumTable[highCharacterNumber + 1] - codePrefixSumTable[lowCharacterNumber]);
+        waveletNodeBitString = new FMIndexBitString(nodeSize + 1);
+
+        /* create child nodes */
+        if ((thresholdCharacterNumber - lowCharacterNumber) >= 2) {
+            leftChild = new FMIndexWaveletTreeNode( codePrefixSumTable,
+                                                    alignedCodes,
+                                                    lowCharacterNumber,
+                                                    (thresholdCharacterNumber - 1),
+                                                    (depth + 1)                     );
+        } else {
+            leftChild = null;
+        }
+        if ((highCharacterNumber - thresholdCharacterNumber) >= 1) {
+            rightChild = new FMIndexWaveletTreeNode(    codePrefixSumTable,
+                                                        alignedCodes,
+                                                        thresholdCharacterNumber,
+                                                        highCharacterNumber,
+                                                        (depth + 1)                 );
+        } else {
+            rightChild = null;
         }
     }
-    // </editor-fold>
 
-    // <editor-fold desc="Methods">
+    /**
+     * Function createHuffmanCodes finds Huffman code length of each character
+     * and orders characters by canonical Huffman codes: shorter codes first,
+     * codes of the same length in character order. Character without
+     * occurrences is given weight 1, so its code is not longer than needed.
+     * 
+     * @param prefixSumTable        prefix-sum table of characters
+     * @param codePrefixSumTable    receives prefix-sum table of leaf codes
+     * @param alignedCodes          receives left-aligned canonical Huffman code of each leaf code
+     * @throws ReportedException 
+     */
+    private void createHuffmanCodes(    int[] prefixSumTable,
+                                        int[] codePrefixSumTable,
+                                        long[] alignedCodes         ) throws ReportedException {
+
+        int[] codeLengths;
+        int[] groups;
+        long[] groupWeights;
+        int noCharacters;
+        int first;
+        int second;
+        int code;
+        long alignedCode;
+
+        /* merge two lightest groups of characters until one group is left */
+        noCharacters = (prefixSumTable.length - 1);
+        codeLengths = new int[noCharacters];
+        groups = new int[noCharacters];
+        groupWeights = new long[noCharacters];
+        for (int c = 0; c < noCharacters; c++) {
+            groups[c] = c;
+            groupWeights[c] = Math.max(1, (prefixSumTable[c + 1] - prefixSumTable[c]));
+        }
+        for (int merge = 1; merge < noCharacters; merge++) {
+            first = -1;
+            second = -1;
+            for (int g = 0; g < noCharacters; g++) {
+                if (groupWeights[g] < 0) {
+                    continue;
+                }
+                if ((first < 0) || (groupWeights[g] < groupWeights[first])) {
+                    second = first;
+                    first = g;
+                } else if ((second < 0) || (groupWeights[g] < groupWeights[second])) {
+                    second = g;
+                }
+            }
+            for (int c = 0; c < noCharacters; c++) {
+                if ((groups[c] == first) || (groups[c] == second)) {
+                    groups[c] = first;
+                    codeLengths[c]++;
+                }
+            }
+            groupWeights[first] += groupWeights[second];
+            groupWeights[second] = -1;
+        }
+
+        /* assign canonical codes */
+        characterCodes = new byte[noCharacters];
+        codeCharacters = new byte[noCharacters];
+        code = 0;
+        alignedCode = 0;
+        for (int length = 1; length <= HUFFMAN_CODE_ALIGNMENT; length++) {
+            for (int c = 0; c < noCharacters; c++) {
+                if (codeLengths[c] == length) {
+                    characterCodes[c] = ((byte) code);
+                    codeCharacters[code] = ((byte) c);
+                    alignedCodes[code] = alignedCode;
+                    codePrefixSumTable[code + 1] = (codePrefixSumTable[code] + (prefixSumTable[c + 1] - prefixSumTable[c]));
+                    alignedCode += (1L << (HUFFMAN_CODE_ALIGNMENT - length));
+                    code++;
+                }
+            }
+        }
+        if (code != noCharacters) {
+            throw new ReportedException("Class FMIndexWaveletNode construction error (Huffman code is too long)!");
+        }
+    }
 
     /**
      * Function insertCharacter inserts a character to this wavelet tree node
@@ -146,12 +366,13 @@ public class FMIndexWaveletTreeNode implements java.io.Serializable {
         /* check if character and sequential index are valid */
         if (    (characterToInsert < lowCharacterNumber)
                 || (characterToInsert > highCharacterNumber)    ) {
-            reportError ("Character to insert into wavelet tree node is invalid!");
-            throw new ReportedException();
+            throw new ReportedException("Character to insert into wavelet tree node is invalid!");
         }
         if (sequentialIndex >= nodeSize) {
-            reportError ("Traying to insert too many characters into wavelet tree node!");
-            throw new ReportedException();
+            throw new ReportedException("Traying to insert too many characters into wavelet tree node!");
+        }
+        if (characterCodes != null) {
+            characterToInsert = characterCodes[characterToInsert];
         }
 
         if (characterToInsert < thresholdCharacterNumber) {
@@ -167,6 +388,74 @@ public class FMIndexWaveletTreeNode implements java.io.Serializable {
         }
     }
 
+    /**
+     * Function insertCharacters fills bit string of this node only from
+     * characters of this node, 64 characters at a time. Child nodes are not
+     * affected, characters reaching them are to be inserted separately.
+     * Characters given to Huffman-shaped tree root are replaced by their leaf
+     * codes, which are to be inserted into child nodes.
+     * 
+     * @param characters    characters of this node
+     * @param start         index of the first character, multiple of 64
+     * @param length        number of characters
+     * @return              number of characters stored as binary 1
+     * @throws ReportedException 
+     */
+    final public int insertCharacters(byte[] characters, int start, int length) throws ReportedException {
+
+        byte character;
+
+        if ((start + length) > nodeSize) {
+            throw new ReportedException("Traying to insert too many characters into wavelet tree node!");
+        }
+        if (characterCodes != null) {
+            for (int i = start; i < (start + length); i++) {
+                character = characters[i];
+                if ((character < lowCharacterNumber) || (character > highCharacterNumber)) {
+                    throw new ReportedException("Character to insert into wavelet tree node is invalid!");
+                }
+                characters[i] = characterCodes[character];
+            }
+        }
+        return waveletNodeBitString.setWords(characters, start, length, thresholdCharacterNumber);
+    }
+
+    /**
+     * Function readCharacter reads a character from this wavelet tree node
+     * and the nodes below, at the place defined by sequential index.
+     * Sequential index is incremented after this operation, so whole BW
+     * transform can be read back in order after resetSequentialIndex.
+     * 
+     * @return                      character read
+     * @throws ReportedException 
+     */
+    final public byte readCharacter() throws ReportedException {
+
+        byte character;
+
+        if (sequentialIndex >= nodeSize) {
+            throw new ReportedException("Traying to read too many characters from wavelet tree node!");
+        }
+
+        if (!waveletNodeBitString.getBit(sequentialIndex++)) {
+            if (leftChild != null) {
+                character = leftChild.readCharacter();
+            } else {
+                character = ((byte) lowCharacterNumber);
+            }
+        } else {
+            if (rightChild != null) {
+                character = rightChild.readCharacter();
+            } else {
+                character = ((byte) thresholdCharacterNumber);
+            }
+        }
+        if (codeCharacters != null) {
+            character = codeCharacters[character];
+        }
+        return character;
+    }
+
     /**
      * Function resetSequentialIndex resets sequential access index for this node
      * and all the nodes below.
@@ -195,6 +484,74 @@ public class FMIndexWaveletTreeNode implements java.io.Serializable {
         }
     }
 
+    /**
+     * Function setNodeSequentialIndex sets sequential access index of this
+     * node only, e.g. after its characters were inserted in bulk.
+     * 
+     * @param index     sequential access index
+     */
+    final public void setNodeSequentialIndex(int index) {
+        sequentialIndex = index;
+    }
+
+    /**
+     * Function refreshNodeBuckets refreshes bucket and superbucket arrays in
+     * underlaying bit string of this node only.
+     */
+    final public void refreshNodeBuckets() {
+        waveletNodeBitString.refreshBuckets();
+    }
+
+    /**
+     * Function getThresholdCharacterNumber provides the first character
+     * number stored in this node as binary 1.
+     * 
+     * @return      threshold character number
+     */
+    final public int getThresholdCharacterNumber() {
+        return thresholdCharacterNumber;
+    }
+
+    /**
+     * Function getNodeSize provides number of characters stored in this node.
+     * 
+     * @return      node size in bits
+     */
+    final public int getNodeSize() {
+        return nodeSize;
+    }
+
+    /**
+     * Function isHuffmanShaped checks if this tree is shaped by Huffman codes
+     * of characters.
+     * 
+     * @return      true if tree is Huffman-shaped
+     */
+    final public boolean isHuffmanShaped() {
+        return (characterCodes != null);
+    }
+
+    /**
+     * Function getStoredBits counts bits stored in this node and all the
+     * nodes below. Divided by number of characters it gives average path
+     * length, i.e. average number of rank operations of Occ.
+     * 
+     * @return      number of stored bits
+     */
+    final public long getStoredBits() {
+
+        long sum;
+
+        sum = nodeSize;
+        if (leftChild != null) {
+            sum += leftChild.getStoredBits();
+        }
+        if (rightChild != null) {
+            sum += rightChild.getStoredBits();
+        }
+        return sum;
+    }
+
     /**
      * Function Occ counts number of occurrences of given character in BW
      * transform of reference sequence before given index. Character at given
@@ -210,12 +567,13 @@ public class FMIndexWaveletTreeNode implements java.io.Serializable {
         int childIndex;
 
         if ((countedCharacter < lowCharacterNumber) || (countedCharacter > highCharacterNumber)) {
-            reportError("Pokušaj dohvata broja znakova za znak koji ne postoji!");
-            throw new ReportedException();
+            throw new ReportedException("Pokušaj dohvata broja znakova za znak koji ne postoji!");
         }
         if (index > nodeSize) {
-            reportError("Pokušaj dohvata broja znakova za prevelik indeks!");
-            throw new ReportedException();
+            throw new ReportedException("Pokušaj dohvata broja znakova za prevelik indeks!");
+        }
+        if (characterCodes != null) {
+            countedCharacter = characterCodes[countedCharacter];
         }
 
         if (countedCharacter < thresholdCharacterNumber) {
@@ -235,6 +593,52 @@ public class FMIndexWaveletTreeNode implements java.io.Serializable {
         }
     }
 
+    /**
+     * Function OccRange counts number of occurrences of given character in BW
+     * transform of reference sequence before both ends of index range. Both
+     * counts follow the same path from the root to the leaf, so the path is
+     * walked only once and both ranks of each node are computed together.
+     * Result equals Occ(countedCharacter, lowIndex) and
+     * Occ(countedCharacter, highIndex).
+     *
+     * @param countedCharacter  character to count its occurrence
+     * @param lowIndex          lower index to count characters to
+     * @param highIndex         higher index to count characters to, not lower than lowIndex
+     * @param occurrences       receives number of occurrences up to lowIndex and up to highIndex
+     * @throws ReportedException
+     */
+    public void OccRange(byte countedCharacter, int lowIndex, int highIndex, int[] occurrences) throws ReportedException {
+
+        FMIndexWaveletTreeNode node;
+        long ranks;
+
+        if ((countedCharacter < lowCharacterNumber) || (countedCharacter > highCharacterNumber)) {
+            throw new ReportedException("Pokušaj dohvata broja znakova za znak koji ne postoji!");
+        }
+        if ((highIndex > nodeSize) || (lowIndex > highIndex)) {
+            throw new ReportedException("Pokušaj dohvata broja znakova za prevelik indeks!");
+        }
+        if (characterCodes != null) {
+            countedCharacter = characterCodes[countedCharacter];
+        }
+
+        node = this;
+        while (node != null) {
+            ranks = node.waveletNodeBitString.rank1Range(lowIndex, highIndex);
+            if (countedCharacter < node.thresholdCharacterNumber) {
+                lowIndex -= ((int) ranks);
+                highIndex -= ((int) (ranks >>> 32));
+                node = node.leftChild;
+            } else {
+                lowIndex = ((int) ranks);
+                highIndex = ((int) (ranks >>> 32));
+                node = node.rightChild;
+            }
+        }
+        occurrences[0] = lowIndex;
+        occurrences[1] = highIndex;
+    }
+
     /**
      * Function getMemoryConsumption estimates memory consumption of this node
      * and all the nodes below.
@@ -254,15 +658,5 @@ public class FMIndexWaveletTreeNode implements java.io.Serializable {
         }
         return sum;
     }
-
-    /**
-     * Function reportError reports execution errors by opening confirmation
-     * window with appropriate message.
-     * 
-     * @param   text    message to be reported in confirmation window
-     */
-    private void reportError (String text) {
-        JOptionPane.showConfirmDialog(null, text, "FMIndexCount", JOptionPane.DEFAULT_OPTION, JOptionPane.ERROR_MESSAGE);
-    }
     // </editor-fold>
 }
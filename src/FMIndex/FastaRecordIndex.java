@@ -0,0 +1,268 @@
+/*
+ * Author:
+ *
+ *      Vedran Sabadoš
+ *
+ * Version:
+ *
+ *      V1.0         26. 12. 2013
+ */
+
+package FMIndex;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Class FastaRecordIndex contains position of each record of Fasta file, so
+ * record can be read without scanning the file from its beginning. For each
+ * record, its name, number of sequence characters, file offset of the first
+ * sequence character, number of sequence characters in one line and number
+ * of bytes in one line are kept. Index is saved next to Fasta file with
+ * ".fai" extension, in the tab separated format used by other sequence
+ * tools, so index created by them is read as well. Saved index is used only
+ * if it is not older than Fasta file.
+ *
+ * @version     V1.0                26.12.2013.
+ * @author      Vedran Sabadoš
+ */
+public class FastaRecordIndex {
+
+    // <editor-fold desc="Constants">
+
+    final public static String FILENAME_EXTENSION = ".fai";     // extension added to Fasta filename
+    final public static int NO_COLUMNS = 5;                     // number of columns in one index line
+    // </editor-fold>
+
+    // <editor-fold desc="Fields">
+
+    /** Record names in file order */
+    private final ArrayList<String> recordNames;
+
+    /** Number of sequence characters of each record, line ends excluded */
+    private final ArrayList<Long> recordLengths;
+
+    /** File offset of the first sequence character of each record */
+    private final ArrayList<Long> recordOffsets;
+
+    /** Number of sequence characters in one line of each record */
+    private final ArrayList<Integer> lineBases;
+
+    /** Number of bytes in one line of each record, line end included */
+    private final ArrayList<Integer> lineWidths;
+
+    /** Index of the first record with given name */
+    private final HashMap<String, Integer> recordLookup;
+    // </editor-fold>
+
+    // <editor-fold desc="Constructor">
+
+    /** Class FastaRecordIndex Constructor, creates empty index */
+    public FastaRecordIndex() {
+        recordNames = new ArrayList<>();
+        recordLengths = new ArrayList<>();
+        recordOffsets = new ArrayList<>();
+        lineBases = new ArrayList<>();
+        lineWidths = new ArrayList<>();
+        recordLookup = new HashMap<>();
+    }
+    // </editor-fold>
+
+    // <editor-fold desc="Methods">
+
+    /**
+     * Function load reads index saved next to given Fasta file.
+     *
+     * @param fastaFilename     Fasta filename
+     * @return                  index, or null if there is no valid index not older than Fasta file
+     */
+    public static FastaRecordIndex load(String fastaFilename) {
+
+        FastaRecordIndex fastaRecordIndex;
+        BufferedReader reader;
+        File fastaFile;
+        File indexFile;
+        String line;
+        String[] columns;
+
+        fastaFile = new File(fastaFilename);
+        indexFile = new File(fastaFilename + FILENAME_EXTENSION);
+        if ((!indexFile.isFile()) || (indexFile.lastModified() < fastaFile.lastModified())) {
+            return null;
+        }
+        fastaRecordIndex = new FastaRecordIndex();
+        reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(indexFile), Charset.forName("UTF-8")));
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                columns = line.split("\t");
+                if (columns.length < NO_COLUMNS) {
+                    return null;
+                }
+                fastaRecordIndex.addRecord( columns[0],
+                                            Long.parseLong(columns[1]),
+                                            Long.parseLong(columns[2]),
+                                            Integer.parseInt(columns[3]),
+                                            Integer.parseInt(columns[4])    );
+                if (fastaRecordIndex.getRecordOffset(fastaRecordIndex.getNoRecords() - 1) > fastaFile.length()) {
+                    return null;
+                }
+            }
+        } catch (IOException ex) {
+            return null;
+        } catch (NumberFormatException ex) {
+            return null;
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException ex) {
+                }
+            }
+        }
+        return fastaRecordIndex;
+    }
+
+    /**
+     * Function save writes index next to given Fasta file.
+     *
+     * @param fastaFilename     Fasta filename
+     * @throws IOException
+     */
+    public void save(String fastaFilename) throws IOException {
+
+        BufferedWriter writer;
+
+        writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(fastaFilename + FILENAME_EXTENSION), Charset.forName("UTF-8")));
+        try {
+            for (int i = 0; i < recordNames.size(); i++) {
+                writer.write(   recordNames.get(i) + "\t"
+                                + Long.toString(recordLengths.get(i)) + "\t"
+                                + Long.toString(recordOffsets.get(i)) + "\t"
+                                + Integer.toString(lineBases.get(i)) + "\t"
+                                + Integer.toString(lineWidths.get(i)) + "\n"    );
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Function addRecord appends record to the index.
+     *
+     * @param name          record name
+     * @param length        number of sequence characters, line ends excluded
+     * @param offset        file offset of the first sequence character
+     * @param bases         number of sequence characters in one line
+     * @param width         number of bytes in one line, line end included
+     */
+    public void addRecord(String name, long length, long offset, int bases, int width) {
+        if (!recordLookup.containsKey(name)) {
+            recordLookup.put(name, recordNames.size());
+        }
+        recordNames.add(name);
+        recordLengths.add(length);
+        recordOffsets.add(offset);
+        lineBases.add(bases);
+        lineWidths.add(width);
+    }
+
+    /**
+     * Function findRecord finds the first record with given name.
+     *
+     * @param name      record name
+     * @return          record index, or -1 if there is no such record
+     */
+    public int findRecord(String name) {
+
+        Integer record;
+
+        record = recordLookup.get(name);
+        return ((record != null) ? record : -1);
+    }
+
+    /**
+     * Function getNoRecords provides number of records.
+     *
+     * @return      number of records
+     */
+    public int getNoRecords() {
+        return recordNames.size();
+    }
+
+    /**
+     * Function getRecordNames provides names of all records in file order.
+     *
+     * @return      record names
+     */
+    public String[] getRecordNames() {
+        return recordNames.toArray(new String[recordNames.size()]);
+    }
+
+    /**
+     * Function getRecordName provides name of given record.
+     *
+     * @param record    record index
+     * @return          record name
+     */
+    public String getRecordName(int record) {
+        return recordNames.get(record);
+    }
+
+    /**
+     * Function getRecordLength provides number of sequence characters of
+     * given record, line ends excluded.
+     *
+     * @param record    record index
+     * @return          record length
+     */
+    public long getRecordLength(int record) {
+        return recordLengths.get(record);
+    }
+
+    /**
+     * Function getRecordOffset provides file offset of the first sequence
+     * character of given record.
+     *
+     * @param record    record index
+     * @return          file offset
+     */
+    public long getRecordOffset(int record) {
+        return recordOffsets.get(record);
+    }
+
+    /**
+     * Function getLineBases provides number of sequence characters in one
+     * line of given record.
+     *
+     * @param record    record index
+     * @return          number of characters in one line
+     */
+    public int getLineBases(int record) {
+        return lineBases.get(record);
+    }
+
+    /**
+     * Function getLineWidth provides number of bytes in one line of given
+     * record, line end included.
+     *
+     * @param record    record index
+     * @return          number of bytes in one line
+     */
+    public int getLineWidth(int record) {
+        return lineWidths.get(record);
+    }
+    // </editor-fold>
+}
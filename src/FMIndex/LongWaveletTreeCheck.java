@@ -0,0 +1,208 @@
+/*
+ * Author:
+ *
+ *      Vedran Sabadoš
+ *
+ * Version:
+ *
+ *      V1.0         26. 12. 2013
+ */
+
+package FMIndex;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Class LongWaveletTreeCheck checks 64-bit occurrence wavelet tree, which
+ * is used by -index=long and by merged index longer than 32-bit index, on BW
+ * transform long enough that bit string of the root node is stored in more
+ * than one chunk. BW transform is not stored: each character is given by hash
+ * of its position, so it is generated once to count prefix-sum table, once to
+ * fill the tree and once to count expected occurrences. Occ and OccRange of
+ * every character are compared with expected counts at positions around the
+ * first chunk boundary, around super bucket boundaries and at random
+ * positions.
+ *
+ * Usage: java -Xmx1536m -cp bin FMIndex.LongWaveletTreeCheck [BW transform length]
+ *
+ * @version     V1.0                26.12.2013.
+ * @author      Vedran Sabadoš
+ */
+public class LongWaveletTreeCheck {
+
+    // <editor-fold desc="Constants">
+
+    final static public long CHUNK_BITS = (1L << 30);                   // number of bits in one storage chunk of long bit string
+    final static public long DEFAULT_BWT_LENGTH = (CHUNK_BITS + (1L << 26));    // BW transform length used if none is given
+    final static public int ALPHABET_SIZE = 4;                          // number of characters besides terminating character
+    final static public int BOUNDARY_DISTANCE = 130;                    // positions checked on each side of a boundary
+    final static public int NO_RANDOM_POSITIONS = 10000;                // number of random positions checked
+    final static public long RANDOM_SEED = 26122013L;                   // seed of random positions
+    // </editor-fold>
+
+    // <editor-fold desc="Methods">
+
+    /**
+     * Check main function
+     *
+     * @param args      command line arguments, optional BW transform length
+     */
+    public static void main(String[] args) {
+
+        FMIndexLongWaveletTreeNode waveletTree;
+        long[] prefixSumTable;
+        long[] positions;
+        long[][] expectedOccurrences;
+        long[] occurrences;
+        long bwtLength;
+        long time;
+        int position;
+        int noErrors;
+
+        try {
+            bwtLength = ((args.length > 0) ? Long.parseLong(args[0]) : DEFAULT_BWT_LENGTH);
+            if (bwtLength <= (CHUNK_BITS + BOUNDARY_DISTANCE)) {
+                System.out.println("BW transform length has to be greater than " + Long.toString(CHUNK_BITS + BOUNDARY_DISTANCE));
+                System.exit(1);
+            }
+
+            /* count prefix-sum table */
+            prefixSumTable = new long[ALPHABET_SIZE + 2];
+            for (long i = 0; i < bwtLength; i++) {
+                prefixSumTable[getCharacter(i, bwtLength) + 1]++;
+            }
+            for (int c = 1; c < (ALPHABET_SIZE + 2); c++) {
+                prefixSumTable[c] += prefixSumTable[c - 1];
+            }
+
+            /* fill occurrence wavelet tree */
+            time = System.nanoTime();
+            waveletTree = new FMIndexLongWaveletTreeNode(prefixSumTable);
+            waveletTree.resetSequentialIndex();
+            for (long i = 0; i < bwtLength; i++) {
+                waveletTree.insertCharacter(getCharacter(i, bwtLength));
+            }
+            waveletTree.refreshBuckets();
+            System.out.println( "Occurrence wavelet tree of " + Long.toString(bwtLength) + " characters filled in "
+                                + Long.toString((System.nanoTime() - time) / 1000000) + " ms, "
+                                + Long.toString(waveletTree.getMemoryConsumption() >> 20) + " MB");
+
+            /* count expected occurrences at checked positions */
+            positions = getCheckedPositions(bwtLength);
+            expectedOccurrences = new long[positions.length][ALPHABET_SIZE + 1];
+            occurrences = new long[ALPHABET_SIZE + 1];
+            position = 0;
+            for (long i = 0; position < positions.length; i++) {
+                while ((position < positions.length) && (positions[position] == i)) {
+                    System.arraycopy(occurrences, 0, expectedOccurrences[position], 0, occurrences.length);
+                    position++;
+                }
+                if (i < bwtLength) {
+                    occurrences[getCharacter(i, bwtLength)]++;
+                }
+            }
+
+            /* compare Occ and OccRange with expected occurrences */
+            occurrences = new long[2];
+            noErrors = 0;
+            for (int p = 0; p < positions.length; p++) {
+                for (byte c = 0; c <= ALPHABET_SIZE; c++) {
+                    if (waveletTree.Occ(c, positions[p]) != expectedOccurrences[p][c]) {
+                        System.out.println( "Occ(" + Byte.toString(c) + ", " + Long.toString(positions[p]) + ") = "
+                                            + Long.toString(waveletTree.Occ(c, positions[p])) + ", expected "
+                                            + Long.toString(expectedOccurrences[p][c])                               );
+                        noErrors++;
+                    }
+                    if (p < (positions.length - 1)) {
+                        waveletTree.OccRange(c, positions[p], positions[p + 1], occurrences);
+                        if (    (occurrences[0] != expectedOccurrences[p][c])
+                                || (occurrences[1] != expectedOccurrences[p + 1][c])  ) {
+                            System.out.println( "OccRange(" + Byte.toString(c) + ", " + Long.toString(positions[p]) + ", "
+                                                + Long.toString(positions[p + 1]) + ") differs from expected occurrences");
+                            noErrors++;
+                        }
+                    }
+                }
+            }
+            if (noErrors > 0) {
+                System.out.println(Integer.toString(noErrors) + " occurrence counts differ!");
+                System.exit(1);
+            }
+            System.out.println( "Occ and OccRange of " + Integer.toString(ALPHABET_SIZE + 1) + " characters checked at "
+                                + Integer.toString(positions.length) + " positions, including "
+                                + Integer.toString(2 * BOUNDARY_DISTANCE) + " around chunk boundary at "
+                                + Long.toString(CHUNK_BITS) + ": OK"                                            );
+        } catch (NumberFormatException ex) {
+            System.out.println("BW transform length has to be an integer: " + ex.getMessage());
+            System.exit(1);
+        } catch (ReportedException ex) {
+            System.out.println(ex.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Function getCharacter provides compact coded character of generated BW
+     * transform at given position. Terminating character is placed in the
+     * middle of BW transform, other characters are given by hash of position.
+     *
+     * @param index         position in BW transform
+     * @param bwtLength     BW transform length
+     * @return              compact coded character
+     */
+    private static byte getCharacter(long index, long bwtLength) {
+
+        long hash;
+
+        if (index == (bwtLength >>> 1)) {
+            return 0;
+        }
+        hash = (index * 0x9e3779b97f4a7c15L);
+        hash = ((hash ^ (hash >>> 30)) * 0xbf58476d1ce4e5b9L);
+        hash = ((hash ^ (hash >>> 27)) * 0x94d049bb133111ebL);
+        hash = (hash ^ (hash >>> 31));
+        return ((byte) (1 + (hash >>> 62)));
+    }
+
+    /**
+     * Function getCheckedPositions provides sorted distinct positions at which
+     * occurrences are checked: both ends of BW transform, positions around
+     * the first chunk boundary and around super bucket boundaries next to it,
+     * and random positions.
+     *
+     * @param bwtLength     BW transform length
+     * @return              sorted checked positions
+     */
+    private static long[] getCheckedPositions(long bwtLength) {
+
+        Random random;
+        long[] positions;
+        int noPositions;
+
+        positions = new long[2 + (6 * BOUNDARY_DISTANCE) + NO_RANDOM_POSITIONS];
+        noPositions = 0;
+        positions[noPositions++] = 0;
+        positions[noPositions++] = bwtLength;
+        for (int d = -BOUNDARY_DISTANCE; d < BOUNDARY_DISTANCE; d++) {
+            positions[noPositions++] = (CHUNK_BITS + d);
+            positions[noPositions++] = (CHUNK_BITS - 4096 + d);
+            positions[noPositions++] = Math.min((CHUNK_BITS + 4096 + d), bwtLength);
+        }
+        random = new Random(RANDOM_SEED);
+        for (int i = 0; i < NO_RANDOM_POSITIONS; i++) {
+            positions[noPositions++] = ((random.nextLong() >>> 1) % (bwtLength + 1));
+        }
+        Arrays.sort(positions);
+
+        /* remove duplicate positions */
+        noPositions = 1;
+        for (int i = 1; i < positions.length; i++) {
+            if (positions[i] != positions[noPositions - 1]) {
+                positions[noPositions++] = positions[i];
+            }
+        }
+        return Arrays.copyOf(positions, noPositions);
+    }
+    // </editor-fold>
+}
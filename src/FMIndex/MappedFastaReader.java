@@ -0,0 +1,1010 @@
+/*
+ * Author:
+ *
+ *      Vedran Sabadoš
+ *
+ * Version:
+ *
+ *      V1.0         26. 12. 2013
+ */
+
+package FMIndex;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Class MappedFastaReader reads reference sequence from Fasta file mapped
+ * into memory. File is mapped in windows of up to 1 GB, so files bigger than
+ * maximal buffer size can be read as well. Mapped bytes are taken in chunks
+ * by bulk get and processed by tight loops over byte arrays, instead of
+ * calling a function for each character. Sequence is read in two passes:
+ * the first pass finds the end of sequence and counts characters and
+ * character runs, so the alphabet and exact sequence length are known; the
+ * second pass writes compact codes directly into compact code buffer of
+ * exact size. Sequence format is the same as the one read by
+ * ReferenceSequence: sequence starts after line beginning with ">name"
+ * followed by new line or space, new line characters are skipped, and
+ * sequence ends with the next ">" character or at the end of file.
+ * Both passes can be run by several threads: file is divided into segments
+ * of fixed size, which are taken by threads in file order. Each thread maps
+ * its segment and counts (or encodes) it with its own chunk, then counts of
+ * segments up to the sequence end are merged, and runs continuing over
+ * segment boundaries are counted once. Codes of each segment are written at
+ * offset given by the number of characters in preceding segments.
+ *
+ * @version     V1.0                26.12.2013.
+ * @author      Vedran Sabadoš
+ */
+public class MappedFastaReader {
+
+    // <editor-fold desc="Constants">
+
+    final public int NEW_LINE_CHARACTER = 0x0a;                 // \n character in UTF8
+    final public int SPACE_CHARACTER = 0x20;                    // space character in UTF8
+    final public int SEQUENCE_NAME_START_CHARACTER = 0x3e;      // > character in UTF8
+    final public int MAP_WINDOW_SIZE_SHIFT = 30;                // size of mapped window (1 GB) multiplication/division shift
+    final public int CHUNK_SIZE = 0x00100000;                   // number of bytes processed in one chunk
+    final public int SEGMENT_SIZE = 0x01000000;                 // number of bytes processed by one thread at once
+    final public int MAXIMAL_NAME_LINE_LENGTH = 1000;           // maximal number of name line bytes taken as record name
+    final public int CARRIAGE_RETURN_CHARACTER = 0x0d;          // \r character in UTF8
+    final public int TAB_CHARACTER = 0x09;                      // \t character in UTF8
+    // </editor-fold>
+
+    // <editor-fold desc="Fields">
+
+    /** Mapped Fasta file */
+    private final RandomAccessFile fastaFile;
+
+    /** Channel of mapped Fasta file */
+    private final FileChannel fastaChannel;
+
+    /** Fasta file length */
+    private final long fileLength;
+
+    /** Currently mapped window */
+    private MappedByteBuffer window;
+
+    /** Index of currently mapped window, or -1 if no window is mapped */
+    private long windowIndex;
+
+    /** Chunk of bytes taken from mapped window */
+    private final byte[] chunk;
+
+    /** Number of bytes taken from mapped file */
+    private long bytesRead;
+
+    /** Segments of sequences scanned in parallel by their start positions, used by parallel encoding */
+    private final HashMap<Long, ArrayList<SegmentCount>> segmentCounts;
+
+    /** Number of threads used by parallel passes */
+    private int noThreadsUsed;
+    // </editor-fold>
+
+    // <editor-fold desc="Constructor">
+
+    /**
+     * Class MappedFastaReader Constructor, opens Fasta file.
+     *
+     * @param filename      Fasta filename
+     * @throws IOException
+     */
+    public MappedFastaReader(String filename) throws IOException {
+        fastaFile = new RandomAccessFile(filename, "r");
+        fastaChannel = fastaFile.getChannel();
+        fileLength = fastaChannel.size();
+        window = null;
+        windowIndex = -1;
+        chunk = new byte[CHUNK_SIZE];
+        bytesRead = 0;
+        segmentCounts = new HashMap<>();
+        noThreadsUsed = 1;
+    }
+    // </editor-fold>
+
+    // <editor-fold desc="Methods">
+
+    /**
+     * Function findSequence finds the first line beginning with given
+     * sequence name followed by new line or by character ending record name.
+     *
+     * @param sequenceNameBuffer    sequence name preceded by ">" character
+     * @return                      position of the first sequence character, or -1 if sequence is not found
+     * @throws IOException
+     */
+    public long findSequence(byte[] sequenceNameBuffer) throws IOException {
+
+        byte[] nameLine;
+        boolean lineStart;
+        long position;
+        int length;
+        int nextChar;
+
+        nameLine = new byte[sequenceNameBuffer.length + 1];
+        lineStart = true;
+        position = 0;
+        while ((length = readChunk(position, fileLength)) > 0) {
+            for (int i = 0; i < length; i++) {
+                if (lineStart && (chunk[i] == SEQUENCE_NAME_START_CHARACTER)) {
+
+                    /* compare name line with sequence name */
+                    if (readBytes((position + i), nameLine) == nameLine.length) {
+                        nextChar = nameLine[sequenceNameBuffer.length];
+                        nameLine[sequenceNameBuffer.length] = 0;
+                        if (    ((nextChar == NEW_LINE_CHARACTER) || isNameEnd(nextChar))
+                                && isPrefix(sequenceNameBuffer, nameLine)                   ) {
+                            if (nextChar == NEW_LINE_CHARACTER) {
+                                return (position + i + nameLine.length);
+                            }
+                            return findLineEnd(position + i + nameLine.length);
+                        }
+                    }
+                }
+                lineStart = (chunk[i] == NEW_LINE_CHARACTER);
+            }
+            position += length;
+        }
+        return -1;
+    }
+
+    /**
+     * Function indexRecords finds all records of the file by one pass and
+     * adds their names, lengths, offsets and line layouts to given index.
+     * Record name is the part of name line after ">" character and before
+     * the first space, tab, carriage return or new line. Sequence lines are
+     * skipped by tight search for new line character, so only name lines are
+     * processed character by character.
+     *
+     * @param fastaRecordIndex      index to add records to
+     * @return                      number of records found
+     * @throws IOException
+     */
+    public int indexRecords(FastaRecordIndex fastaRecordIndex) throws IOException {
+
+        Charset utf8Charset;
+        byte[] nameBuffer;
+        String recordName;
+        boolean nameLine;
+        boolean nameEnded;
+        boolean firstLine;
+        long position;
+        long recordOffset;
+        long recordLength;
+        long lineLength;
+        int length;
+        int index;
+        int lineEnd;
+        int nameLength;
+        int lineBases;
+        int lineWidth;
+        int bases;
+        int noRecords;
+        byte lastByte;
+        byte character;
+
+        utf8Charset = Charset.forName("UTF-8");
+        nameBuffer = new byte[MAXIMAL_NAME_LINE_LENGTH];
+        recordName = null;
+        nameLine = false;
+        nameEnded = false;
+        firstLine = true;
+        recordOffset = 0;
+        recordLength = 0;
+        lineLength = 0;
+        nameLength = 0;
+        lineBases = 0;
+        lineWidth = 0;
+        noRecords = 0;
+        lastByte = 0;
+        position = 0;
+        while ((length = readChunk(position, fileLength)) > 0) {
+            index = 0;
+            while (index < length) {
+
+                /* name line is processed character by character */
+                if (nameLine) {
+                    character = chunk[index++];
+                    if (character == NEW_LINE_CHARACTER) {
+                        recordName = new String(nameBuffer, 0, nameLength, utf8Charset);
+                        recordOffset = (position + index);
+                        recordLength = 0;
+                        lineBases = 0;
+                        lineWidth = 0;
+                        firstLine = true;
+                        nameLine = false;
+                    } else if (!nameEnded) {
+                        if (isNameEnd(character)) {
+                            nameEnded = true;
+                        } else if (nameLength < MAXIMAL_NAME_LINE_LENGTH) {
+                            nameBuffer[nameLength++] = character;
+                        }
+                    }
+                    continue;
+                }
+                if ((lineLength == 0) && (chunk[index] == SEQUENCE_NAME_START_CHARACTER)) {
+                    if (recordName != null) {
+                        fastaRecordIndex.addRecord(recordName, recordLength, recordOffset, lineBases, lineWidth);
+                        noRecords++;
+                    }
+                    nameLine = true;
+                    nameEnded = false;
+                    nameLength = 0;
+                    index++;
+                    continue;
+                }
+
+                /* sequence line is skipped up to new line character */
+                lineEnd = index;
+                while ((lineEnd < length) && (chunk[lineEnd] != NEW_LINE_CHARACTER)) {
+                    lineEnd++;
+                }
+                if (lineEnd > index) {
+                    lineLength += (lineEnd - index);
+                    lastByte = chunk[lineEnd - 1];
+                }
+                index = lineEnd;
+                if (lineEnd < length) {
+                    index++;
+                    if (lineLength > 0) {
+                        bases = ((int) (lineLength - ((lastByte == CARRIAGE_RETURN_CHARACTER) ? 1 : 0)));
+                        recordLength += bases;
+                        if (firstLine) {
+                            lineBases = bases;
+                            lineWidth = ((int) (lineLength + 1));
+                            firstLine = false;
+                        }
+                    }
+                    lineLength = 0;
+                }
+            }
+            position += length;
+        }
+
+        /* the last line may not be terminated by new line character */
+        if (nameLine) {
+            recordName = new String(nameBuffer, 0, nameLength, utf8Charset);
+            recordOffset = fileLength;
+            recordLength = 0;
+            lineBases = 0;
+            lineWidth = 0;
+        } else if (lineLength > 0) {
+            bases = ((int) (lineLength - ((lastByte == CARRIAGE_RETURN_CHARACTER) ? 1 : 0)));
+            recordLength += bases;
+            if (firstLine) {
+                lineBases = bases;
+                lineWidth = ((int) lineLength);
+            }
+        }
+        if (recordName != null) {
+            fastaRecordIndex.addRecord(recordName, recordLength, recordOffset, lineBases, lineWidth);
+            noRecords++;
+        }
+        return noRecords;
+    }
+
+    /**
+     * Function scanSequence finds the end of sequence and counts characters
+     * and runs of the same character. Lower case characters are counted as
+     * upper case ones.
+     *
+     * @param start             position of the first sequence character
+     * @param characterCount    number of characters of each upper case raw code, 256 entries
+     * @param runCount          number of runs of the same character for each upper case raw code, 256 entries
+     * @return                  position after the last sequence character
+     * @throws IOException
+     */
+    public long scanSequence(long start, long[] characterCount, long[] runCount) throws IOException {
+
+        int[] upperCaseTable;
+        long position;
+        int length;
+        int previousCharacter;
+        int character;
+
+        /* upper case of each raw code, new line and sequence name start are marked by -1 */
+        upperCaseTable = new int[256];
+        for (int i = 0; i < 256; i++) {
+            upperCaseTable[i] = toUpperCase(i);
+        }
+        upperCaseTable[NEW_LINE_CHARACTER] = -1;
+        upperCaseTable[SEQUENCE_NAME_START_CHARACTER] = -1;
+
+        /* run is counted without branch, as neighbouring characters of random sequence differ unpredictably */
+        position = start;
+        previousCharacter = -1;
+        while ((length = readChunk(position, fileLength)) > 0) {
+            for (int i = 0; i < length; i++) {
+                character = upperCaseTable[chunk[i] & 0xff];
+                if (character < 0) {
+                    if (chunk[i] == SEQUENCE_NAME_START_CHARACTER) {
+                        return (position + i);
+                    }
+                    continue;
+                }
+                characterCount[character]++;
+                runCount[character] += ((character != previousCharacter) ? 1 : 0);
+                previousCharacter = character;
+            }
+            position += length;
+        }
+        return fileLength;
+    }
+
+    /**
+     * Function encodeSequence writes compact codes of sequence characters
+     * into compact code buffer.
+     *
+     * @param start             position of the first sequence character
+     * @param end               position after the last sequence character
+     * @param codeTable         compact code of each raw code, 256 entries
+     * @param compactCodeBuffer buffer to write compact codes to
+     * @param offset            position of the first code in compact code buffer
+     * @return                  number of written compact codes
+     * @throws IOException
+     */
+    public int encodeSequence(long start, long end, byte[] codeTable, byte[] compactCodeBuffer, int offset) throws IOException {
+
+        long position;
+        int length;
+        int compactCodeBufferIndex;
+        byte character;
+
+        position = start;
+        compactCodeBufferIndex = offset;
+        while ((length = readChunk(position, end)) > 0) {
+            for (int i = 0; i < length; i++) {
+                character = chunk[i];
+                if (character != NEW_LINE_CHARACTER) {
+                    compactCodeBuffer[compactCodeBufferIndex++] = codeTable[character & 0xff];
+                }
+            }
+            position += length;
+        }
+        return (compactCodeBufferIndex - offset);
+    }
+
+    /**
+     * Function encodeSequence appends compact codes of sequence characters
+     * to packed code buffer.
+     *
+     * @param start             position of the first sequence character
+     * @param end               position after the last sequence character
+     * @param codeTable         compact code of each raw code, 256 entries
+     * @param packedCodeBuffer  buffer to append compact codes to
+     * @return                  number of appended compact codes
+     * @throws IOException
+     */
+    public int encodeSequence(long start, long end, byte[] codeTable, PackedCodeBuffer packedCodeBuffer) throws IOException {
+
+        long position;
+        int length;
+        int noCodes;
+        byte character;
+
+        position = start;
+        noCodes = 0;
+        while ((length = readChunk(position, end)) > 0) {
+            for (int i = 0; i < length; i++) {
+                character = chunk[i];
+                if (character != NEW_LINE_CHARACTER) {
+                    packedCodeBuffer.appendCode(codeTable[character & 0xff]);
+                    noCodes++;
+                }
+            }
+            position += length;
+        }
+        return noCodes;
+    }
+
+    /**
+     * Function scanSequence finds the end of sequence and counts characters
+     * and runs of the same character with given number of threads. Lower
+     * case characters are counted as upper case ones. Segment counts are kept
+     * for parallel encoding of the same sequence.
+     *
+     * @param start             position of the first sequence character
+     * @param characterCount    number of characters of each upper case raw code, 256 entries
+     * @param runCount          number of runs of the same character for each upper case raw code, 256 entries
+     * @param noThreads         number of threads
+     * @return                  position after the last sequence character
+     * @throws IOException
+     */
+    public long scanSequence(long start, long[] characterCount, long[] runCount, int noThreads) throws IOException {
+
+        ArrayList<SegmentCount> segments;
+        ArrayList<RecursiveAction> tasks;
+        AtomicInteger nextSegment;
+        AtomicLong sequenceEnd;
+        int[] upperCaseTable;
+        long end;
+        int noSegments;
+        int previousCharacter;
+
+        segmentCounts.remove(start);
+        if ((noThreads <= 1) || ((fileLength - start) <= SEGMENT_SIZE)) {
+            return scanSequence(start, characterCount, runCount);
+        }
+
+        /* upper case of each raw code, new line and sequence name start are marked by -1 */
+        upperCaseTable = new int[256];
+        for (int i = 0; i < 256; i++) {
+            upperCaseTable[i] = toUpperCase(i);
+        }
+        upperCaseTable[NEW_LINE_CHARACTER] = -1;
+        upperCaseTable[SEQUENCE_NAME_START_CHARACTER] = -1;
+
+        /* count segments concurrently, segments after the first sequence end found are not taken */
+        noSegments = ((int) (((fileLength - start) + SEGMENT_SIZE - 1) / SEGMENT_SIZE));
+        segments = new ArrayList<>(noSegments);
+        for (int i = 0; i < noSegments; i++) {
+            segments.add(new SegmentCount(  (start + (((long) i) * SEGMENT_SIZE)),
+                                            Math.min(fileLength, (start + (((long) (i + 1)) * SEGMENT_SIZE)))  ));
+        }
+        nextSegment = new AtomicInteger();
+        sequenceEnd = new AtomicLong(fileLength);
+        tasks = new ArrayList<>(noThreads);
+        for (int i = 0; i < noThreads; i++) {
+            tasks.add(new ScanTask(segments, nextSegment, sequenceEnd, upperCaseTable));
+        }
+        runTasks(tasks);
+        noThreadsUsed = noThreads;
+
+        /* merge counts of segments up to sequence end */
+        end = sequenceEnd.get();
+        previousCharacter = -1;
+        for (SegmentCount segment: segments) {
+            if (segment.start >= end) {
+                break;
+            }
+            bytesRead += segment.bytesScanned;
+            if (segment.noCharacters == 0) {
+                continue;
+            }
+            for (int i = 0; i < 256; i++) {
+                characterCount[i] += segment.characterCount[i];
+                runCount[i] += segment.runCount[i];
+            }
+            if (segment.firstCharacter == previousCharacter) {
+                runCount[previousCharacter]--;
+            }
+            previousCharacter = segment.lastCharacter;
+        }
+        segmentCounts.put(start, segments);
+        return end;
+    }
+
+    /**
+     * Function encodeSequence writes compact codes of sequence characters
+     * into compact code buffer with given number of threads. Sequence must be
+     * scanned by parallel scanSequence first, otherwise it is encoded by one
+     * thread.
+     *
+     * @param start             position of the first sequence character
+     * @param end               position after the last sequence character
+     * @param codeTable         compact code of each raw code, 256 entries
+     * @param compactCodeBuffer buffer to write compact codes to
+     * @param offset            position of the first code in compact code buffer
+     * @param noThreads         number of threads
+     * @return                  number of written compact codes
+     * @throws IOException
+     */
+    public int encodeSequence(  long start,
+                                long end,
+                                byte[] codeTable,
+                                byte[] compactCodeBuffer,
+                                int offset,
+                                int noThreads               ) throws IOException {
+
+        ArrayList<SegmentCount> scannedSegments;
+        ArrayList<SegmentCount> segments;
+        ArrayList<RecursiveAction> tasks;
+        AtomicInteger nextSegment;
+        int compactCodeBufferIndex;
+
+        scannedSegments = segmentCounts.remove(start);
+        if ((noThreads <= 1) || (scannedSegments == null)) {
+            return encodeSequence(start, end, codeTable, compactCodeBuffer, offset);
+        }
+
+        /* offset of each segment is the number of characters in preceding segments */
+        segments = new ArrayList<>();
+        compactCodeBufferIndex = offset;
+        for (SegmentCount segment: scannedSegments) {
+            if (segment.start >= end) {
+                break;
+            }
+            segment.offset = compactCodeBufferIndex;
+            compactCodeBufferIndex += segment.noCharacters;
+            segment.end = Math.min(segment.end, end);
+            segments.add(segment);
+        }
+        if (compactCodeBufferIndex > compactCodeBuffer.length) {
+            return encodeSequence(start, end, codeTable, compactCodeBuffer, offset);
+        }
+        nextSegment = new AtomicInteger();
+        tasks = new ArrayList<>(noThreads);
+        for (int i = 0; i < noThreads; i++) {
+            tasks.add(new EncodeTask(segments, nextSegment, codeTable, compactCodeBuffer));
+        }
+        runTasks(tasks);
+        for (SegmentCount segment: segments) {
+            bytesRead += segment.bytesScanned;
+        }
+        noThreadsUsed = noThreads;
+        return (compactCodeBufferIndex - offset);
+    }
+
+    /**
+     * Function getFileLength provides Fasta file length.
+     *
+     * @return      file length in bytes
+     */
+    public long getFileLength() {
+        return fileLength;
+    }
+
+    /**
+     * Function getBytesRead provides number of bytes taken from mapped file
+     * by all passes.
+     *
+     * @return      number of bytes read
+     */
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * Function getNoThreadsUsed provides number of threads used by parallel
+     * passes over the file, or 1 if file was read by one thread.
+     *
+     * @return      number of threads
+     */
+    public int getNoThreadsUsed() {
+        return noThreadsUsed;
+    }
+
+    /**
+     * Function getMemoryConsumption estimates memory consumption of reader,
+     * mapped windows are not included as they are not kept on heap. Each
+     * thread of parallel pass uses its own chunk.
+     *
+     * @return      memory consumption in bytes
+     */
+    public long getMemoryConsumption() {
+        return ((long) CHUNK_SIZE) * Math.max(1, noThreadsUsed);
+    }
+
+    /** Function close closes Fasta file, mapped window is released by garbage collector */
+    public void close() {
+        window = null;
+        windowIndex = -1;
+        segmentCounts.clear();
+        try {
+            fastaFile.close();
+        } catch (IOException ex) {
+        }
+    }
+
+    /**
+     * Function findLineEnd finds position after the end of line.
+     *
+     * @param start     position inside line
+     * @return          position after new line character, or file length
+     * @throws IOException
+     */
+    private long findLineEnd(long start) throws IOException {
+
+        long position;
+        int length;
+
+        position = start;
+        while ((length = readChunk(position, fileLength)) > 0) {
+            for (int i = 0; i < length; i++) {
+                if (chunk[i] == NEW_LINE_CHARACTER) {
+                    return (position + i + 1);
+                }
+            }
+            position += length;
+        }
+        return fileLength;
+    }
+
+    /**
+     * Function isNameEnd checks if given name line character ends record
+     * name. Space, tab and carriage return end the name, as in record index
+     * written by other sequence tools, so record is found by the same name
+     * with and without record index.
+     *
+     * @param character     name line character
+     * @return              true if character ends record name
+     */
+    private boolean isNameEnd(int character) {
+        return (    (character == SPACE_CHARACTER) || (character == TAB_CHARACTER)
+                    || (character == CARRIAGE_RETURN_CHARACTER)                     );
+    }
+
+    /**
+     * Function isPrefix checks if given name line begins with sequence name.
+     *
+     * @param sequenceNameBuffer    sequence name preceded by ">" character
+     * @param nameLine              beginning of name line
+     * @return                      true if name line begins with sequence name
+     */
+    private boolean isPrefix(byte[] sequenceNameBuffer, byte[] nameLine) {
+        for (int i = 0; i < sequenceNameBuffer.length; i++) {
+            if (sequenceNameBuffer[i] != nameLine[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Function readBytes reads given number of bytes at given position without
+     * disturbing current chunk.
+     *
+     * @param position      file position
+     * @param buffer        buffer to fill
+     * @return              number of bytes read
+     * @throws IOException
+     */
+    private int readBytes(long position, byte[] buffer) throws IOException {
+
+        int length;
+        int count;
+
+        length = 0;
+        while (length < buffer.length) {
+            count = readMapped((position + length), buffer, length, (buffer.length - length));
+            if (count <= 0) {
+                break;
+            }
+            length += count;
+        }
+        return length;
+    }
+
+    /**
+     * Function readChunk fills chunk with bytes from given file position. Chunk
+     * is filled up unless given end position is reached.
+     *
+     * @param position      file position
+     * @param end           position after the last byte to read
+     * @return              number of bytes in chunk, 0 at the end position
+     * @throws IOException
+     */
+    private int readChunk(long position, long end) throws IOException {
+
+        int length;
+        int count;
+
+        length = 0;
+        while ((length < CHUNK_SIZE) && ((position + length) < end)) {
+            count = readMapped( (position + length),
+                                chunk,
+                                length,
+                                ((int) Math.min((CHUNK_SIZE - length), (end - (position + length))))  );
+            if (count <= 0) {
+                break;
+            }
+            length += count;
+        }
+        bytesRead += length;
+        return length;
+    }
+
+    /**
+     * Function readMapped reads bytes from window containing given file
+     * position, mapping the window if it is not mapped yet. Bytes are not
+     * read past the end of window.
+     *
+     * @param position      file position
+     * @param buffer        buffer to read bytes to
+     * @param offset        buffer offset
+     * @param length        maximal number of bytes
+     * @return              number of bytes read, 0 at the end of file
+     * @throws IOException
+     */
+    private int readMapped(long position, byte[] buffer, int offset, int length) throws IOException {
+
+        long index;
+        long windowStart;
+        int windowOffset;
+
+        if (position >= fileLength) {
+            return 0;
+        }
+        index = (position >>> MAP_WINDOW_SIZE_SHIFT);
+        windowStart = (index << MAP_WINDOW_SIZE_SHIFT);
+        if (index != windowIndex) {
+            window = fastaChannel.map(  FileChannel.MapMode.READ_ONLY,
+                                        windowStart,
+                                        Math.min((1L << MAP_WINDOW_SIZE_SHIFT), (fileLength - windowStart)));
+            windowIndex = index;
+        }
+        windowOffset = ((int) (position - windowStart));
+        length = Math.min(length, (window.limit() - windowOffset));
+        window.position(windowOffset);
+        window.get(buffer, offset, length);
+        return length;
+    }
+
+    /**
+     * Function runTasks runs each task on its own thread, each task takes
+     * segments until there are no more segments to process.
+     *
+     * @param tasks         tasks taking segments
+     * @throws IOException
+     */
+    private void runTasks(ArrayList<RecursiveAction> tasks) throws IOException {
+
+        ForkJoinPool forkJoinPool;
+        ArrayList<Future<Void>> futures;
+        Throwable cause;
+
+        forkJoinPool = new ForkJoinPool(tasks.size());
+        futures = new ArrayList<>(tasks.size());
+        try {
+            for (RecursiveAction task: tasks) {
+                futures.add(forkJoinPool.submit(task));
+            }
+            for (Future<Void> future: futures) {
+                future.get();
+            }
+        } catch (InterruptedException ex) {
+            throw new IOException("Čitanje datoteke prekinuto", ex);
+        } catch (ExecutionException ex) {
+
+            /* exception thrown in other thread may be wrapped more than once */
+            for (cause = ex.getCause(); cause != null; cause = cause.getCause()) {
+                if (cause instanceof IOException) {
+                    throw ((IOException) cause);
+                }
+            }
+            throw new IOException(ex.getCause());
+        } finally {
+            forkJoinPool.shutdownNow();
+        }
+    }
+
+    /**
+     * Function readSegmentChunk fills given chunk with bytes of mapped segment.
+     *
+     * @param segmentBuffer     mapped segment
+     * @param segmentChunk      chunk to fill
+     * @return                  number of bytes in chunk, 0 at the end of segment
+     */
+    private int readSegmentChunk(MappedByteBuffer segmentBuffer, byte[] segmentChunk) {
+
+        int length;
+
+        length = Math.min(segmentChunk.length, segmentBuffer.remaining());
+        segmentBuffer.get(segmentChunk, 0, length);
+        return length;
+    }
+
+    /**
+     * Function toUpperCase converts given character to upper case
+     *
+     * @param inChar        character to convert to upper case
+     * @return              upper case of given character
+     */
+    private int toUpperCase (int inChar) {
+        if ((inChar >= 'a') && (inChar <= 'z')) {
+            return (inChar & (~0x20));
+        }
+        return inChar;
+    }
+    // </editor-fold>
+
+    // <editor-fold desc="Segment classes">
+
+    /**
+     * Class SegmentCount keeps counts of one file segment.
+     */
+    private static class SegmentCount {
+
+        /** Position of the first segment byte */
+        final long start;
+
+        /** Position after the last segment byte, or after the last sequence character */
+        long end;
+
+        /** Number of characters of each upper case raw code */
+        final int[] characterCount;
+
+        /** Number of runs of each upper case raw code, runs continuing from previous segment included */
+        final int[] runCount;
+
+        /** Number of sequence characters in segment */
+        int noCharacters;
+
+        /** The first sequence character of segment, or -1 */
+        int firstCharacter;
+
+        /** The last sequence character of segment, or -1 */
+        int lastCharacter;
+
+        /** Number of bytes taken from mapped file */
+        long bytesScanned;
+
+        /** Position of the first segment character in compact code buffer */
+        int offset;
+
+        SegmentCount(long segmentStart, long segmentEnd) {
+            start = segmentStart;
+            end = segmentEnd;
+            characterCount = new int[256];
+            runCount = new int[256];
+            noCharacters = 0;
+            firstCharacter = -1;
+            lastCharacter = -1;
+            bytesScanned = 0;
+            offset = 0;
+        }
+    }
+
+    /**
+     * Class ScanTask counts segments taken in file order until sequence end
+     * is found before the next segment.
+     */
+    private class ScanTask extends RecursiveAction {
+
+        private final ArrayList<SegmentCount> segments;
+        private final AtomicInteger nextSegment;
+        private final AtomicLong sequenceEnd;
+        private final int[] upperCaseTable;
+
+        ScanTask(ArrayList<SegmentCount> segmentList, AtomicInteger next, AtomicLong end, int[] table) {
+            segments = segmentList;
+            nextSegment = next;
+            sequenceEnd = end;
+            upperCaseTable = table;
+        }
+
+        @Override
+        protected void compute() {
+
+            SegmentCount segment;
+            byte[] segmentChunk;
+            int index;
+
+            segmentChunk = new byte[CHUNK_SIZE];
+            try {
+                while ((index = nextSegment.getAndIncrement()) < segments.size()) {
+                    segment = segments.get(index);
+                    if (segment.start >= sequenceEnd.get()) {
+                        return;
+                    }
+                    scanSegment(segment, segmentChunk);
+                }
+            } catch (IOException ex) {
+                throw new RuntimeException(ex);
+            }
+        }
+
+        /**
+         * Function scanSegment counts characters and runs of one segment and
+         * lowers sequence end if sequence name start character is found.
+         *
+         * @param segment           segment to count
+         * @param segmentChunk      chunk of this thread
+         * @throws IOException
+         */
+        private void scanSegment(SegmentCount segment, byte[] segmentChunk) throws IOException {
+
+            MappedByteBuffer segmentBuffer;
+            int[] characterCount;
+            int[] runCount;
+            long position;
+            long end;
+            long currentEnd;
+            int length;
+            int previousCharacter;
+            int character;
+            int noCharacters;
+
+            segmentBuffer = fastaChannel.map(FileChannel.MapMode.READ_ONLY, segment.start, (segment.end - segment.start));
+            characterCount = segment.characterCount;
+            runCount = segment.runCount;
+            position = segment.start;
+            previousCharacter = -1;
+            noCharacters = 0;
+            while ((length = readSegmentChunk(segmentBuffer, segmentChunk)) > 0) {
+                segment.bytesScanned += length;
+                for (int i = 0; i < length; i++) {
+                    character = upperCaseTable[segmentChunk[i] & 0xff];
+                    if (character < 0) {
+                        if (segmentChunk[i] == SEQUENCE_NAME_START_CHARACTER) {
+                            end = (position + i);
+                            segment.end = end;
+                            segment.lastCharacter = previousCharacter;
+                            segment.noCharacters = noCharacters;
+                            currentEnd = sequenceEnd.get();
+                            while ((end < currentEnd) && !sequenceEnd.compareAndSet(currentEnd, end)) {
+                                currentEnd = sequenceEnd.get();
+                            }
+                            return;
+                        }
+                        continue;
+                    }
+                    if (previousCharacter < 0) {
+                        segment.firstCharacter = character;
+                    }
+                    noCharacters++;
+                    characterCount[character]++;
+                    runCount[character] += ((character != previousCharacter) ? 1 : 0);
+                    previousCharacter = character;
+                }
+                position += length;
+            }
+            segment.lastCharacter = previousCharacter;
+            segment.noCharacters = noCharacters;
+        }
+    }
+
+    /**
+     * Class EncodeTask encodes segments taken in file order at their offsets.
+     */
+    private class EncodeTask extends RecursiveAction {
+
+        private final ArrayList<SegmentCount> segments;
+        private final AtomicInteger nextSegment;
+        private final byte[] codeTable;
+        private final byte[] compactCodeBuffer;
+
+        EncodeTask(ArrayList<SegmentCount> segmentList, AtomicInteger next, byte[] table, byte[] buffer) {
+            segments = segmentList;
+            nextSegment = next;
+            codeTable = table;
+            compactCodeBuffer = buffer;
+        }
+
+        @Override
+        protected void compute() {
+
+            SegmentCount segment;
+            MappedByteBuffer segmentBuffer;
+            byte[] segmentChunk;
+            int compactCodeBufferIndex;
+            int index;
+            int length;
+            byte character;
+
+            segmentChunk = new byte[CHUNK_SIZE];
+            try {
+                while ((index = nextSegment.getAndIncrement()) < segments.size()) {
+                    segment = segments.get(index);
+                    segment.bytesScanned = 0;
+                    segmentBuffer = fastaChannel.map(   FileChannel.MapMode.READ_ONLY,
+                                                        segment.start,
+                                                        (segment.end - segment.start)   );
+                    compactCodeBufferIndex = segment.offset;
+                    while ((length = readSegmentChunk(segmentBuffer, segmentChunk)) > 0) {
+                        segment.bytesScanned += length;
+                        for (int i = 0; i < length; i++) {
+                            character = segmentChunk[i];
+                            if (character != NEW_LINE_CHARACTER) {
+                                compactCodeBuffer[compactCodeBufferIndex++] = codeTable[character & 0xff];
+                            }
+                        }
+                    }
+                }
+            } catch (IOException ex) {
+                throw new RuntimeException(ex);
+            }
+        }
+    }
+    // </editor-fold>
+}
@@ -0,0 +1,137 @@
+/*
+ * Author:
+ *
+ *      Vedran Sabadoš
+ *
+ * Version:
+ *
+ *      V1.0         26. 12. 2013
+ */
+
+package FMIndex;
+
+import java.util.Arrays;
+
+/**
+ * Class NRunTable contains runs of N characters removed from reference
+ * sequence before its index is created. Each run is replaced by one
+ * separator character, so query without N characters has the same number of
+ * occurrences, while BW transform and occurrence wavelet tree do not contain
+ * long runs of N characters. Query containing N does not match any
+ * occurrence overlapping a removed run. For each run, position of its separator in
+ * reference sequence and run length are kept, so position in reference
+ * sequence can be converted to position in original sequence.
+ *
+ * @version     V1.0                26.12.2013.
+ * @author      Vedran Sabadoš
+ */
+public class NRunTable implements java.io.Serializable {
+
+    // <editor-fold desc="Constants">
+
+    private static final long serialVersionUID = 2871440962913560378L;
+
+    final public static int N_CHARACTER = 0x4e;                 // N character in UTF8
+    // </editor-fold>
+
+    // <editor-fold desc="Fields">
+
+    /** Reference sequence position of separator replacing each run */
+    private final long[] runPositions;
+
+    /** Number of N characters of each run */
+    private final long[] runLengths;
+
+    /** Number of characters removed before each run, followed by number of all removed characters */
+    private final long[] removedCharacters;
+    // </editor-fold>
+
+    // <editor-fold desc="Constructor">
+
+    /**
+     * Class NRunTable Constructor
+     *
+     * @param positions     reference sequence positions of separators in increasing order
+     * @param lengths       run lengths
+     */
+    public NRunTable(long[] positions, long[] lengths) {
+        runPositions = Arrays.copyOf(positions, positions.length);
+        runLengths = Arrays.copyOf(lengths, lengths.length);
+        removedCharacters = new long[positions.length + 1];
+        for (int i = 0; i < positions.length; i++) {
+            removedCharacters[i + 1] = (removedCharacters[i] + lengths[i] - 1);
+        }
+    }
+    // </editor-fold>
+
+    // <editor-fold desc="Methods">
+
+    /**
+     * Function getNoRuns provides number of removed runs.
+     *
+     * @return      number of runs
+     */
+    public int getNoRuns() {
+        return runPositions.length;
+    }
+
+    /**
+     * Function getRunPosition provides reference sequence position of
+     * separator replacing given run.
+     *
+     * @param run       run index
+     * @return          separator position
+     */
+    public long getRunPosition(int run) {
+        return runPositions[run];
+    }
+
+    /**
+     * Function getRunLength provides number of N characters of given run.
+     *
+     * @param run       run index
+     * @return          run length
+     */
+    public long getRunLength(int run) {
+        return runLengths[run];
+    }
+
+    /**
+     * Function getNoRemovedCharacters provides number of characters removed
+     * from reference sequence, i.e. N characters not replaced by separator.
+     *
+     * @return      number of removed characters
+     */
+    public long getNoRemovedCharacters() {
+        return removedCharacters[runPositions.length];
+    }
+
+    /**
+     * Function getOriginalPosition converts reference sequence position to
+     * position in original sequence. Separator position is converted to
+     * position of the first N character of its run.
+     *
+     * @param position  reference sequence position
+     * @return          original sequence position
+     */
+    public long getOriginalPosition(long position) {
+
+        int run;
+
+        run = Arrays.binarySearch(runPositions, position);
+        if (run < 0) {
+            run = (-run - 1);
+        }
+        return (position + removedCharacters[run]);
+    }
+
+    /**
+     * Function getMemoryConsumption estimates memory consumption of run table.
+     *
+     * @return      estimated memory consumption in bytes
+     */
+    public long getMemoryConsumption() {
+        return ((runPositions.length + runLengths.length + removedCharacters.length) * 8);
+    }
+    // </editor-fold>
+}
@@ -0,0 +1,532 @@
+/*
+ * Author:
+ *
+ *      Vedran Sabadoš
+ *
+ * Version:
+ *
+ *      V1.0         26. 12. 2013
+ */
+
+package FMIndex;
+
+import java.util.Arrays;
+
+/**
+ * Class PackedCodeBuffer stores compact coded reference sequence with 2 or 3
+ * bits per character. If the alphabet does not fit into 2 bits, the four most
+ * frequent characters are packed and runs of all other characters (e.g. N or
+ * terminating character) are kept in exception list, unless 3 bits per
+ * character use less memory. Packed characters are stored from the most
+ * significant bits of each word and keep the order of compact codes, so
+ * several characters of two rotations are compared by single word comparison.
+ * Buffer is filled sequentially and only read afterwards.
+ *
+ * @version     V1.0                26.12.2013.
+ * @author      Vedran Sabadoš
+ */
+public class PackedCodeBuffer {
+
+    // <editor-fold desc="Constants">
+
+    final public int WORD_SIZE = 64;                            // number of bits in packed word
+    final public int MAXIMAL_PACKED_CHARACTERS = 4;             // number of characters packed with 2 bits per character
+    final public int EXCEPTION_BLOCK_SIZE_SHIFT = 6;            // exception block size (64 characters) multiplication/divsion shift
+    final public int EXCEPTION_RUN_SIZE = 9;                    // memory used by one exception run in bytes
+    // </editor-fold>
+
+    // <editor-fold desc="Fields">
+
+    /** Packed characters */
+    private final long[] packedWords;
+
+    /** Number of characters in buffer */
+    private final int bufferLength;
+
+    /** Number of bits per packed character */
+    private final int bitsPerCode;
+
+    /** Number of packed characters per word */
+    private final int codesPerWord;
+
+    /** Packed character for each compact code, -1 if compact code is kept in exception list */
+    private final byte[] packedCode;
+
+    /** Compact code for each packed character */
+    private final byte[] compactCode;
+
+    /** Start positions of exception runs */
+    private final int[] exceptionStart;
+
+    /** Lengths of exception runs */
+    private final int[] exceptionLength;
+
+    /** Compact codes of exception runs */
+    private final byte[] exceptionCode;
+
+    /** Bit per block of characters, set if block contains exception, or null if there are no exceptions */
+    private final long[] exceptionBlocks;
+
+    /** Number of characters of each compact code */
+    private final int[] codeCount;
+
+    /** Number of exception runs */
+    private int noExceptionRuns;
+
+    /** Number of characters appended to buffer */
+    private int appendIndex;
+    // </editor-fold>
+
+    // <editor-fold desc="Constructors">
+
+    /**
+     * Class PackedCodeBuffer Constructor, creates packed copy of compact
+     * coded reference sequence.
+     *
+     * @param codeBuffer        compact coded reference sequence terminated by character 0
+     * @param alphabetSize      number of characters in the alphabet
+     */
+    public PackedCodeBuffer(byte[] codeBuffer, int alphabetSize) {
+        this(codeBuffer.length, countCodes(codeBuffer, alphabetSize, false), countCodes(codeBuffer, alphabetSize, true));
+        for (int i = 0; i < codeBuffer.length; i++) {
+            appendCode(codeBuffer[i]);
+        }
+    }
+
+    /**
+     * Class PackedCodeBuffer Constructor, creates empty buffer to be filled
+     * by appendCode. Number of bits per character and exception list size
+     * are selected from character and character run counts.
+     *
+     * @param length        number of characters including terminating character
+     * @param count         number of characters of each compact code
+     * @param runCount      number of runs of the same character for each compact code
+     */
+    public PackedCodeBuffer(int length, int[] count, int[] runCount) {
+
+        boolean[] frequentCode;
+        int alphabetSize;
+        int mostFrequentCode;
+        int noRuns;
+        long twoBitSize;
+        long threeBitSize;
+        byte symbol;
+
+        bufferLength = length;
+        codeCount = Arrays.copyOf(count, count.length);
+        alphabetSize = (count.length - 1);
+
+        /* select the most frequent characters for 2 bits per character */
+        frequentCode = new boolean[alphabetSize + 1];
+        if ((alphabetSize + 1) <= MAXIMAL_PACKED_CHARACTERS) {
+            Arrays.fill(frequentCode, true);
+        } else {
+            for (int i = 0; i < MAXIMAL_PACKED_CHARACTERS; i++) {
+                mostFrequentCode = -1;
+                for (int j = alphabetSize; j >= 0; j--) {
+                    if ((!frequentCode[j]) && ((mostFrequentCode < 0) || (count[j] >= count[mostFrequentCode]))) {
+                        mostFrequentCode = j;
+                    }
+                }
+                frequentCode[mostFrequentCode] = true;
+            }
+        }
+        noRuns = 0;
+        for (int i = 0; i <= alphabetSize; i++) {
+            if (!frequentCode[i]) {
+                noRuns += runCount[i];
+            }
+        }
+
+        /* use 3 bits per character if exception list is too large */
+        twoBitSize = ((((long) length) / 4) + (((long) noRuns) * EXCEPTION_RUN_SIZE) + (length >>> 9));
+        threeBitSize = ((((long) length) / 21) * 8);
+        if (((alphabetSize + 1) <= 8) && (threeBitSize < twoBitSize)) {
+            bitsPerCode = 3;
+            Arrays.fill(frequentCode, true);
+            noRuns = 0;
+        } else {
+            bitsPerCode = 2;
+        }
+        codesPerWord = (WORD_SIZE / bitsPerCode);
+
+        /* packed characters keep order of compact codes */
+        packedCode = new byte[alphabetSize + 1];
+        compactCode = new byte[1 << bitsPerCode];
+        symbol = 0;
+        for (int i = 0; i <= alphabetSize; i++) {
+            if (frequentCode[i]) {
+                packedCode[i] = symbol;
+                compactCode[symbol++] = ((byte) i);
+            } else {
+                packedCode[i] = -1;
+            }
+        }
+
+        /* one padding word allows reading of two words at any position */
+        packedWords = new long[(length / codesPerWord) + 3];
+        exceptionStart = new int[noRuns];
+        exceptionLength = new int[noRuns];
+        exceptionCode = new byte[noRuns];
+        if (noRuns > 0) {
+            exceptionBlocks = new long[(length >>> (EXCEPTION_BLOCK_SIZE_SHIFT + 6)) + 1];
+        } else {
+            exceptionBlocks = null;
+        }
+        noExceptionRuns = 0;
+        appendIndex = 0;
+    }
+    // </editor-fold>
+
+    // <editor-fold desc="Methods">
+
+    /**
+     * Function appendCode appends compact code to the end of buffer.
+     *
+     * @param code      compact code to append
+     */
+    public void appendCode(byte code) {
+
+        long symbol;
+        int block;
+        int last;
+
+        symbol = packedCode[code];
+        if (symbol < 0) {
+            last = (noExceptionRuns - 1);
+            if (    (last >= 0)
+                    && (exceptionCode[last] == code)
+                    && ((exceptionStart[last] + exceptionLength[last]) == appendIndex)  ) {
+                exceptionLength[last]++;
+            } else {
+                exceptionStart[noExceptionRuns] = appendIndex;
+                exceptionLength[noExceptionRuns] = 1;
+                exceptionCode[noExceptionRuns++] = code;
+            }
+            block = (appendIndex >>> EXCEPTION_BLOCK_SIZE_SHIFT);
+            exceptionBlocks[block >>> 6] |= (1L << (block & 0x3f));
+            symbol = 0;
+        }
+        packedWords[appendIndex / codesPerWord] |= (symbol << (WORD_SIZE - (bitsPerCode * ((appendIndex % codesPerWord) + 1))));
+        appendIndex++;
+    }
+
+    /**
+     * Function getLength provides number of characters in buffer.
+     *
+     * @return      number of characters including terminating character
+     */
+    public int getLength() {
+        return bufferLength;
+    }
+
+    /**
+     * Function getBitsPerCode provides number of bits per packed character.
+     *
+     * @return      number of bits per packed character
+     */
+    public int getBitsPerCode() {
+        return bitsPerCode;
+    }
+
+    /**
+     * Function getNoExceptionRuns provides number of runs of characters kept
+     * in exception list.
+     *
+     * @return      number of exception runs
+     */
+    public int getNoExceptionRuns() {
+        return noExceptionRuns;
+    }
+
+    /**
+     * Function getCodeCount provides number of characters with given compact
+     * code.
+     *
+     * @param code      compact code
+     * @return          number of characters
+     */
+    public int getCodeCount(byte code) {
+        return codeCount[code];
+    }
+
+    /**
+     * Function getMemoryConsumption estimates memory consumption of this object.
+     *
+     * @return      estimated memory consumption in bytes
+     */
+    public long getMemoryConsumption() {
+
+        long sum;
+
+        sum = (((long) packedWords.length) * 8);
+        sum += (((long) exceptionStart.length) * EXCEPTION_RUN_SIZE);
+        if (exceptionBlocks != null) {
+            sum += (exceptionBlocks.length * 8);
+        }
+        sum += (codeCount.length * 6) + compactCode.length;
+        return sum;
+    }
+
+    /**
+     * Function getCode provides compact code at given position.
+     *
+     * @param position      character position
+     * @return              compact code
+     */
+    public byte getCode(int position) {
+
+        int block;
+        int run;
+
+        if (exceptionBlocks != null) {
+            block = (position >>> EXCEPTION_BLOCK_SIZE_SHIFT);
+            if ((exceptionBlocks[block >>> 6] & (1L << (block & 0x3f))) != 0) {
+                run = findExceptionRun(position);
+                if ((run < noExceptionRuns) && (exceptionStart[run] <= position)) {
+                    return exceptionCode[run];
+                }
+            }
+        }
+        return compactCode[(int) ((packedWords[position / codesPerWord]
+                                   >>> (WORD_SIZE - (bitsPerCode * ((position % codesPerWord) + 1))))
+                                  & ((1 << bitsPerCode) - 1))];
+    }
+
+    /**
+     * Function readCodes decodes given number of compact codes starting at
+     * given position into buffer.
+     *
+     * @param position      position of the first character
+     * @param buffer        buffer to store compact codes in
+     * @param length        number of characters to decode
+     */
+    public void readCodes(int position, byte[] buffer, int length) {
+
+        long word;
+        int wordIndex;
+        int remainingCodes;
+        int run;
+        int endPosition;
+
+        /* decode packed characters */
+        wordIndex = (position / codesPerWord);
+        remainingCodes = (codesPerWord - (position % codesPerWord));
+        word = (packedWords[wordIndex] << (bitsPerCode * (position % codesPerWord)));
+        for (int i = 0; i < length; i++) {
+            if (remainingCodes == 0) {
+                word = packedWords[++wordIndex];
+                remainingCodes = codesPerWord;
+            }
+            buffer[i] = compactCode[(int) (word >>> (WORD_SIZE - bitsPerCode))];
+            word <<= bitsPerCode;
+            remainingCodes--;
+        }
+
+        /* overwrite characters kept in exception list */
+        if (hasException(position, length)) {
+            endPosition = (position + length);
+            for (run = findExceptionRun(position); (run < noExceptionRuns) && (exceptionStart[run] < endPosition); run++) {
+                Arrays.fill(    buffer,
+                                (Math.max(exceptionStart[run], position) - position),
+                                (Math.min((exceptionStart[run] + exceptionLength[run]), endPosition) - position),
+                                exceptionCode[run]                                                                  );
+            }
+        }
+    }
+
+    /**
+     * Function codesEqual checks if characters starting at given position are
+     * equal to given compact codes. Characters are compared word by word
+     * unless they contain exceptions.
+     *
+     * @param position      position of the first character
+     * @param codes         compact codes to compare with
+     * @param length        number of compact codes
+     * @return              true if characters are equal to compact codes
+     */
+    public boolean codesEqual(int position, byte[] codes, int length) {
+
+        long packedCodes;
+        long symbol;
+        int noCodes;
+        int index;
+
+        /* compare characters one by one near exceptions and at the end of buffer */
+        if (((position + length) > bufferLength) || hasException(position, length)) {
+            for (int i = 0; i < length; i++) {
+                if (codes[i] != getCode(position + i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /* compare whole words */
+        index = 0;
+        while (index < length) {
+            noCodes = Math.min(codesPerWord, (length - index));
+            packedCodes = 0;
+            for (int i = 0; i < noCodes; i++) {
+                symbol = packedCode[codes[index + i]];
+                if (symbol < 0) {
+                    return false;
+                }
+                packedCodes |= (symbol << (WORD_SIZE - (bitsPerCode * (i + 1))));
+            }
+            if (packedCodes != getPackedCodes(position + index, noCodes)) {
+                return false;
+            }
+            index += noCodes;
+        }
+        return true;
+    }
+
+    /**
+     * Function getCommonPrefixLength calculates number of equal characters at
+     * the beginning of two rotations. Characters are compared word by word
+     * unless they contain exceptions. Rotations must differ before the end of
+     * buffer, which is guaranteed by unique terminating character.
+     *
+     * @param positionA         position of rotation A
+     * @param positionB         position of rotation B
+     * @param maximalLength     maximal number of characters to compare
+     * @return                  number of equal characters, maximalLength if all compared characters are equal
+     */
+    public int getCommonPrefixLength(int positionA, int positionB, int maximalLength) {
+
+        byte[] codesA;
+        byte[] codesB;
+        long difference;
+        int noCodes;
+        int length;
+
+        /* compare characters one by one near exceptions */
+        if (hasException(positionA, maximalLength) || hasException(positionB, maximalLength)) {
+            noCodes = Math.min(maximalLength, (bufferLength - Math.max(positionA, positionB)));
+            codesA = new byte[noCodes];
+            codesB = new byte[noCodes];
+            readCodes(positionA, codesA, noCodes);
+            readCodes(positionB, codesB, noCodes);
+            for (int i = 0; i < noCodes; i++) {
+                if (codesA[i] != codesB[i]) {
+                    return i;
+                }
+            }
+            return noCodes;
+        }
+
+        /* compare whole words, the first different bit gives the first different character */
+        length = 0;
+        while (length < maximalLength) {
+            noCodes = Math.min(codesPerWord, (maximalLength - length));
+            difference = (getPackedCodes((positionA + length), noCodes) ^ getPackedCodes((positionB + length), noCodes));
+            if (difference != 0) {
+                return (length + (Long.numberOfLeadingZeros(difference) / bitsPerCode));
+            }
+            length += noCodes;
+        }
+        return length;
+    }
+
+    /**
+     * Function getPackedCodes provides given number of packed characters
+     * starting at given position, aligned to the most significant bits of
+     * the result. The rest of the result is zero.
+     *
+     * @param position      position of the first character
+     * @param noCodes       number of characters, no more than number of characters per word
+     * @return              packed characters
+     */
+    private long getPackedCodes(int position, int noCodes) {
+
+        long codes;
+        int wordIndex;
+        int offset;
+
+        wordIndex = (position / codesPerWord);
+        offset = (position % codesPerWord);
+        codes = (packedWords[wordIndex] << (bitsPerCode * offset));
+        if ((offset + noCodes) > codesPerWord) {
+            codes |= (packedWords[wordIndex + 1] >>> (bitsPerCode * (codesPerWord - offset)));
+        }
+        if ((noCodes * bitsPerCode) < WORD_SIZE) {
+            codes &= (~(-1L >>> (noCodes * bitsPerCode)));
+        }
+        return codes;
+    }
+
+    /**
+     * Function hasException checks if characters in given range may contain
+     * exception. Range is checked by blocks, so the result may be true for
+     * range near exception.
+     *
+     * @param position      position of the first character
+     * @param length        number of characters
+     * @return              true if range may contain exception
+     */
+    private boolean hasException(int position, int length) {
+
+        int lastBlock;
+
+        if (exceptionBlocks == null) {
+            return false;
+        }
+        lastBlock = (Math.min((position + length), bufferLength) - 1) >>> EXCEPTION_BLOCK_SIZE_SHIFT;
+        for (int block = (position >>> EXCEPTION_BLOCK_SIZE_SHIFT); block <= lastBlock; block++) {
+            if ((exceptionBlocks[block >>> 6] & (1L << (block & 0x3f))) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Function findExceptionRun finds exception run containing given position
+     * or the first exception run after it.
+     *
+     * @param position      character position
+     * @return              index of exception run, noExceptionRuns if there is no such run
+     */
+    private int findExceptionRun(int position) {
+
+        int low;
+        int high;
+        int middle;
+
+        low = 0;
+        high = noExceptionRuns;
+        while (low < high) {
+            middle = ((low + high) >>> 1);
+            if ((exceptionStart[middle] + exceptionLength[middle]) <= position) {
+                low = (middle + 1);
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Function countCodes counts characters or runs of the same character for
+     * each compact code.
+     *
+     * @param codeBuffer        compact coded reference sequence
+     * @param alphabetSize      number of characters in the alphabet
+     * @param countRuns         true if runs are counted instead of characters
+     * @return                  count for each compact code
+     */
+    private static int[] countCodes(byte[] codeBuffer, int alphabetSize, boolean countRuns) {
+
+        int[] count;
+
+        count = new int[alphabetSize + 1];
+        for (int i = 0; i < codeBuffer.length; i++) {
+            if ((!countRuns) || (i == 0) || (codeBuffer[i] != codeBuffer[i - 1])) {
+                count[codeBuffer[i]]++;
+            }
+        }
+        return count;
+    }
+    // </editor-fold>
+}
@@ -0,0 +1,661 @@
+/*
+ * Author:
+ *
+ *      Vedran Sabadoš
+ *
+ * Version:
+ *
+ *      V1.0         26. 12. 2013
+ */
+
+package FMIndex;
+
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Class ParallelBwtBuilder creates reference sequence BW transform by sorting
+ * rotation buckets concurrently. Rotations are divided into buckets by their
+ * start sequence, the same way rotation sort does it, and each bucket is
+ * processed as separate task on fork-join pool, so idle threads steal buckets
+ * from busy ones. Buckets that are much bigger than average (e.g. long runs
+ * of the same character) are further split by the next character. Sorted
+ * buckets are stitched into BW transform in lexicographic order. Initial
+ * buckets are taken from rotation bucketizer if it is given, otherwise each
+ * of them is collected by scanning whole reference sequence.
+ *
+ * @version     V1.0                26.12.2013.
+ * @author      Vedran Sabadoš
+ */
+public class ParallelBwtBuilder {
+
+    // <editor-fold desc="Constants">
+
+    final public int MINIMAL_SPLIT_BUCKET_SIZE = 65536;         // buckets smaller than this are never split
+    final public int SPLIT_BUCKET_SIZE_DIVISOR = 8;             // buckets bigger than sequence size / (threads * divisor) are split
+    final public int SPLIT_EFFICIENCY_PERCENT = 90;             // bucket is not split if one sub-bucket would get more than given percentage of rotations
+    final public int START_SEQUENCE_BUFFER_SIZE = 1000;         // maximal start sequence length
+    final public int CANCEL_CHECK_INTERVAL = 0x00100000;        // number of scanned rotations between two cancellation checks
+    // </editor-fold>
+
+    // <editor-fold desc="Fields">
+
+    /** Compact coded reference sequence buffer */
+    private final byte[] compactCodeBuffer;
+
+    /** Number of characters in the alphabet */
+    private final int alphabetSize;
+
+    /** Reference sequence rotation sorter */
+    private final RotationSorter rotationSorter;
+
+    /** Initial rotation buckets, or null if they are collected by scanning */
+    private final RotationBucketizer rotationBucketizer;
+
+    /** Number of threads used to sort buckets */
+    private final int noThreads;
+
+    /** Start sequence length of initial buckets */
+    private final int initialStartSequenceLength;
+
+    /** Buckets bigger than this size are split further */
+    private final int splitBucketSize;
+
+    /** Listener receiving creation progress, or null if progress is not reported */
+    private final ProgressListener progressListener;
+
+    /** True if sort duration of each bucket is printed to standard output */
+    private final boolean verbose;
+
+    /** The first error which stopped bucket sort tasks */
+    private final AtomicReference<ReportedException> firstBucketSortException;
+
+    /** Number of completed initial buckets */
+    private final AtomicInteger completedStartSequenceCombinations;
+
+    /** Number of sorted buckets */
+    private final AtomicInteger noSortedBuckets;
+
+    /** Number of split buckets */
+    private final AtomicInteger noSplitBuckets;
+
+    /** Sum of all bucket sort durations in milliseconds */
+    private final AtomicLong totalBucketDuration;
+
+    /** Duration of the longest bucket sort in milliseconds */
+    private final AtomicLong maximalBucketDuration;
+
+    /** Number of passes over reference sequence */
+    private final AtomicLong noPasses;
+
+    /** Number of reference sequence bytes scanned */
+    private final AtomicLong bytesScanned;
+
+    /** Estimated memory consumption of currently allocated structures */
+    private final AtomicLong currentMemoryConsumption;
+
+    /** Estimated maximal memory consumption during construction */
+    private final AtomicLong maximalMemoryConsumption;
+    // </editor-fold>
+
+    // <editor-fold desc="Constructor">
+
+    /**
+     * Class ParallelBwtBuilder Constructor
+     *
+     * @param codeBuffer                compact coded reference sequence terminated by character 0
+     * @param noCharacters              number of characters in the alphabet
+     * @param sorter                    reference sequence rotation sorter
+     * @param bucketizer                initial rotation buckets, or null if they are to be collected by scanning
+     * @param threads                   number of threads used to sort buckets
+     * @param startSequenceLength       start sequence length of initial buckets
+     * @param listener                  listener receiving creation progress, or null
+     * @param verboseOutput             true if sort duration of each bucket is printed to standard output
+     */
+    public ParallelBwtBuilder(  byte[] codeBuffer,
+                                int noCharacters,
+                                RotationSorter sorter,
+                                RotationBucketizer bucketizer,
+                                int threads,
+                                int startSequenceLength,
+                                ProgressListener listener,
+                                boolean verboseOutput       ) {
+
+        compactCodeBuffer = codeBuffer;
+        alphabetSize = noCharacters;
+        rotationSorter = sorter;
+        rotationBucketizer = bucketizer;
+        noThreads = threads;
+        initialStartSequenceLength = startSequenceLength;
+        progressListener = listener;
+        verbose = verboseOutput;
+        splitBucketSize = Math.max( MINIMAL_SPLIT_BUCKET_SIZE,
+                                    (compactCodeBuffer.length / (noThreads * SPLIT_BUCKET_SIZE_DIVISOR))    );
+
+        firstBucketSortException = new AtomicReference<>();
+        completedStartSequenceCombinations = new AtomicInteger();
+        noSortedBuckets = new AtomicInteger();
+        noSplitBuckets = new AtomicInteger();
+        totalBucketDuration = new AtomicLong();
+        maximalBucketDuration = new AtomicLong();
+        noPasses = new AtomicLong();
+        bytesScanned = new AtomicLong();
+        currentMemoryConsumption = new AtomicLong();
+        maximalMemoryConsumption = new AtomicLong();
+    }
+    // </editor-fold>
+
+    // <editor-fold desc="Methods">
+
+    /**
+     * Function createBwt creates reference sequence BW transform.
+     *
+     * @return      reference sequence BW transform
+     * @throws ReportedException
+     */
+    public byte[] createBwt() throws ReportedException {
+
+        ForkJoinPool forkJoinPool;
+        Future<ArrayList<byte[]>> rootTask;
+        ArrayList<byte[]> bwtSegments;
+        byte[] bwtBuffer;
+        int bwtBufferIndex;
+
+        /* sort all buckets */
+        forkJoinPool = new ForkJoinPool(noThreads);
+        try {
+            rootTask = forkJoinPool.submit(new BucketSortTask(new byte[0], null, 0));
+            bwtSegments = rootTask.get();
+        } catch (InterruptedException ex) {
+            rotationSorter.cancel();
+            throw new ReportedException("Kreiranje indeksa referentnog slijeda prekinuto na zahtjev korisnika!");
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof BucketSortException) {
+                throw firstBucketSortException.get();
+            }
+            rotationSorter.cancel();
+            throw new ReportedException(    "Neočekivana pogreška tijekom paralelnog sortiranja rotacija ("
+                                            + getExceptionType(ex.getCause())
+                                            + "):\n\n    "
+                                            + ex.getCause().getMessage()                                    );
+        } finally {
+            forkJoinPool.shutdown();
+        }
+
+        /* stitch sorted buckets into BW transform */
+        bwtBuffer = new byte[compactCodeBuffer.length];
+        allocateMemory(compactCodeBuffer.length);
+        bwtBufferIndex = 0;
+        for (int i = 0; i < bwtSegments.size(); i++) {
+            System.arraycopy(bwtSegments.get(i), 0, bwtBuffer, bwtBufferIndex, bwtSegments.get(i).length);
+            bwtBufferIndex += bwtSegments.get(i).length;
+            releaseMemory(bwtSegments.get(i).length);
+            bwtSegments.set(i, null);
+        }
+        if (bwtBufferIndex != bwtBuffer.length) {
+            throw new ReportedException("Paralelno kreirana BW transformacija nije potpuna!");
+        }
+        releaseMemory(compactCodeBuffer.length);
+        return bwtBuffer;
+    }
+
+    /**
+     * Function getNoSortedBuckets provides number of sorted buckets.
+     *
+     * @return      number of sorted buckets
+     */
+    public int getNoSortedBuckets() {
+        return noSortedBuckets.get();
+    }
+
+    /**
+     * Function getNoSplitBuckets provides number of buckets that were split
+     * into smaller buckets.
+     *
+     * @return      number of split buckets
+     */
+    public int getNoSplitBuckets() {
+        return noSplitBuckets.get();
+    }
+
+    /**
+     * Function getTotalBucketDuration provides sum of all bucket sort durations.
+     *
+     * @return      sum of bucket sort durations in milliseconds
+     */
+    public long getTotalBucketDuration() {
+        return totalBucketDuration.get();
+    }
+
+    /**
+     * Function getMaximalBucketDuration provides duration of the longest
+     * bucket sort.
+     *
+     * @return      duration of the longest bucket sort in milliseconds
+     */
+    public long getMaximalBucketDuration() {
+        return maximalBucketDuration.get();
+    }
+
+    /**
+     * Function getNoPasses provides number of passes over reference sequence
+     * made to collect rotations.
+     *
+     * @return      number of passes over reference sequence
+     */
+    public long getNoPasses() {
+        return noPasses.get();
+    }
+
+    /**
+     * Function getBytesScanned provides number of reference sequence bytes
+     * scanned to collect rotations.
+     *
+     * @return      number of scanned bytes
+     */
+    public long getBytesScanned() {
+        return bytesScanned.get();
+    }
+
+    /**
+     * Function getMaximalMemoryConsumption provides estimated maximal memory
+     * consumption during BW transform creation.
+     *
+     * @return      estimated maximal memory consumption in bytes
+     */
+    public long getMaximalMemoryConsumption() {
+        return maximalMemoryConsumption.get();
+    }
+
+    /**
+     * Function getBwtCharacter provides BW transform character for given
+     * rotation, that is, character preceding the rotation.
+     *
+     * @param rotation      rotation
+     * @return              BW transform character
+     */
+    private byte getBwtCharacter(int rotation) {
+        if (rotation == 0) {
+            return 0;
+        }
+        return compactCodeBuffer[rotation - 1];
+    }
+
+    /**
+     * Function getStartSequenceString provides printable form of start sequence.
+     *
+     * @param startSequence     start sequence
+     * @return                  printable form of start sequence
+     */
+    private String getStartSequenceString(byte[] startSequence) {
+
+        StringBuilder startSequenceString;
+
+        startSequenceString = new StringBuilder();
+        for (int i = 0; i < startSequence.length; i++) {
+            if (i > 0) {
+                startSequenceString.append(", ");
+            }
+            startSequenceString.append(Byte.toString(startSequence[i]));
+        }
+        return startSequenceString.toString();
+    }
+
+    /**
+     * Function extendStartSequence creates new start sequence by appending
+     * a character to given start sequence.
+     *
+     * @param startSequence     start sequence to extend
+     * @param character         character to append
+     * @return                  extended start sequence
+     */
+    private byte[] extendStartSequence(byte[] startSequence, byte character) {
+
+        byte[] extendedStartSequence;
+
+        extendedStartSequence = new byte[startSequence.length + 1];
+        System.arraycopy(startSequence, 0, extendedStartSequence, 0, startSequence.length);
+        extendedStartSequence[startSequence.length] = character;
+        return extendedStartSequence;
+    }
+
+    /**
+     * Function updateProgress increments number of completed initial buckets
+     * and updates progress bar.
+     */
+    private void updateProgress() {
+
+        int completed;
+
+        completed = completedStartSequenceCombinations.incrementAndGet();
+        if (progressListener != null) {
+            progressListener.setProgressValue(completed);
+        }
+    }
+
+    /**
+     * Function recordBucketDuration updates bucket sort statistics and prints
+     * bucket sort duration if verbose output is requested.
+     *
+     * @param startSequence     bucket start sequence
+     * @param noRotations       number of rotations in bucket
+     * @param duration          bucket sort duration in milliseconds
+     */
+    private void recordBucketDuration(byte[] startSequence, int noRotations, long duration) {
+
+        long maximalDuration;
+
+        noSortedBuckets.incrementAndGet();
+        totalBucketDuration.addAndGet(duration);
+        maximalDuration = maximalBucketDuration.get();
+        while ((duration > maximalDuration) && !maximalBucketDuration.compareAndSet(maximalDuration, duration)) {
+            maximalDuration = maximalBucketDuration.get();
+        }
+        if (verbose) {
+            System.out.println( "Bucket \"" + getStartSequenceString(startSequence) + "\" ("
+                                + Integer.toString(noRotations) + " rotations) sorted in "
+                                + Long.toString(duration) + " ms by " + Thread.currentThread().getName());
+        }
+    }
+
+    /**
+     * Function allocateMemory updates memory consumption statistics after
+     * memory allocation.
+     *
+     * @param size      size of allocated memory in bytes
+     */
+    private void allocateMemory(long size) {
+
+        long current;
+        long maximal;
+
+        current = currentMemoryConsumption.addAndGet(size);
+        maximal = maximalMemoryConsumption.get();
+        while ((current > maximal) && !maximalMemoryConsumption.compareAndSet(maximal, current)) {
+            maximal = maximalMemoryConsumption.get();
+        }
+    }
+
+    /**
+     * Function releaseMemory updates memory consumption statistics after
+     * memory release.
+     *
+     * @param size      size of released memory in bytes
+     */
+    private void releaseMemory(long size) {
+        currentMemoryConsumption.addAndGet(-size);
+    }
+
+    /**
+     * Function checkCancel checks if BW transform creation is cancelled. The
+     * error which caused cancellation is thrown by the thread waiting for BW
+     * transform, so worker threads just stop processing.
+     *
+     * @throws ReportedException
+     */
+    private void checkCancel() throws ReportedException {
+        if (rotationSorter.isCancelled()) {
+            throw new ReportedException("Sortiranje rotacija je prekinuto!");
+        }
+    }
+
+    /**
+     * Function getExceptionType provides the type of exception
+     *
+     * @param   ex    exception which type is to be determined
+     */
+    private String getExceptionType (Throwable ex) {
+
+        String exceptionFullName;
+        int lastDotIndex;
+
+        exceptionFullName = ex.getClass().toString();
+        lastDotIndex = exceptionFullName.lastIndexOf('.');
+        if (lastDotIndex < 0) {
+            lastDotIndex = 0;
+        } else {
+            lastDotIndex++;
+        }
+        return exceptionFullName.substring(lastDotIndex);
+    }
+    // </editor-fold>
+
+    // <editor-fold desc="Bucket sort task">
+
+    /**
+     * Class BucketSortTask sorts all rotations beginning with given start
+     * sequence and provides BW transform of sorted rotations as list of
+     * segments in lexicographic order.
+     */
+    private class BucketSortTask extends RecursiveTask<ArrayList<byte[]>> {
+
+        /** Start sequence common to all rotations in bucket */
+        private final byte[] startSequence;
+
+        /** Rotations in bucket, or null if they are still not collected */
+        private int[] rotationBuffer;
+
+        /** Number of rotations in bucket */
+        private int noRotations;
+
+        /**
+         * Class BucketSortTask Constructor
+         *
+         * @param sequence      start sequence common to all rotations in bucket
+         * @param rotations     rotations in bucket, or null if they are to be collected
+         * @param count         number of rotations in bucket
+         */
+        BucketSortTask(byte[] sequence, int[] rotations, int count) {
+            startSequence = sequence;
+            rotationBuffer = rotations;
+            noRotations = count;
+        }
+
+        /** Task execution function */
+        @Override
+        protected ArrayList<byte[]> compute() {
+
+            ArrayList<byte[]> bwtSegments;
+
+            try {
+                if (rotationBuffer == null) {
+                    if (startSequence.length < initialStartSequenceLength) {
+                        return processStartSequences();
+                    }
+                    collectRotations();
+                    bwtSegments = processBucket();
+                    updateProgress();
+                    return bwtSegments;
+                }
+                return processBucket();
+            } catch (ReportedException ex) {
+                firstBucketSortException.compareAndSet(null, ex);
+                rotationSorter.cancel();
+                throw new BucketSortException();
+            }
+        }
+
+        /**
+         * Function processStartSequences processes all buckets whose start
+         * sequence begins with this task start sequence. The rotation which
+         * consists of this task start sequence followed by terminating
+         * character is lexicographically the smallest, so it comes first.
+         *
+         * @return      BW transform segments in lexicographic order
+         */
+        private ArrayList<byte[]> processStartSequences() {
+
+            ArrayList<BucketSortTask> subTasks;
+            ArrayList<byte[]> bwtSegments;
+            int tailRotation;
+
+            bwtSegments = new ArrayList<byte[]>();
+            tailRotation = ((compactCodeBuffer.length - 1) - startSequence.length);
+            if (    (tailRotation >= 0)
+                    && rotationSorter.rotationEquals(tailRotation, startSequence, startSequence.length)  ) {
+                bwtSegments.add(new byte[] {getBwtCharacter(tailRotation)});
+            }
+
+            subTasks = new ArrayList<BucketSortTask>();
+            for (byte i = 1; i <= alphabetSize; i++) {
+                subTasks.add(new BucketSortTask(extendStartSequence(startSequence, i), null, 0));
+            }
+            invokeAll(subTasks);
+            for (BucketSortTask subTask: subTasks) {
+                bwtSegments.addAll(subTask.join());
+            }
+            return bwtSegments;
+        }
+
+        /**
+         * Function collectRotations collects all rotations beginning with this
+         * task start sequence into rotation buffer, either from rotation
+         * bucketizer or by scanning reference sequence.
+         *
+         * @throws ReportedException
+         */
+        private void collectRotations() throws ReportedException {
+
+            int[] newRotationBuffer;
+            int referenceSequenceSize;
+            int startSequenceLength;
+
+            if (rotationBucketizer != null) {
+                checkCancel();
+                rotationBuffer = rotationBucketizer.getBucketRotations(rotationBucketizer.getBucketIndex(startSequence));
+                noRotations = rotationBuffer.length;
+                allocateMemory(rotationBuffer.length * 4);
+                return;
+            }
+
+            startSequenceLength = startSequence.length;
+            referenceSequenceSize = (compactCodeBuffer.length - startSequenceLength);
+            rotationBuffer = new int[1024];
+            allocateMemory(rotationBuffer.length * 4);
+            noRotations = 0;
+            for (int i = 0; i < referenceSequenceSize; i++) {
+                if ((i & (CANCEL_CHECK_INTERVAL - 1)) == 0) {
+                    checkCancel();
+                }
+                if (rotationSorter.rotationEquals(i, startSequence, startSequenceLength)) {
+                    if (noRotations >= rotationBuffer.length) {
+                        newRotationBuffer = new int[rotationBuffer.length * 2];
+                        allocateMemory(newRotationBuffer.length * 4);
+                        System.arraycopy(rotationBuffer, 0, newRotationBuffer, 0, noRotations);
+                        releaseMemory(rotationBuffer.length * 4);
+                        rotationBuffer = newRotationBuffer;
+                    }
+                    rotationBuffer[noRotations++] = i;
+                }
+            }
+            noPasses.incrementAndGet();
+            bytesScanned.addAndGet(referenceSequenceSize);
+        }
+
+        /**
+         * Function processBucket sorts collected rotations, splitting the
+         * bucket by the next character if it is too big.
+         *
+         * @return      BW transform segments in lexicographic order
+         * @throws ReportedException
+         */
+        private ArrayList<byte[]> processBucket() throws ReportedException {
+
+            ArrayList<BucketSortTask> subTasks;
+            ArrayList<byte[]> bwtSegments;
+            byte[] bwtSegment;
+            int[][] subRotationBuffers;
+            int[] characterCount;
+            int startSequenceLength;
+            int maximalCount;
+            int rotation;
+            byte character;
+            long duration;
+
+            bwtSegments = new ArrayList<byte[]>();
+            startSequenceLength = startSequence.length;
+            checkCancel();
+
+            /* split too big bucket by the next character */
+            if ((noRotations > splitBucketSize) && (startSequenceLength < START_SEQUENCE_BUFFER_SIZE)) {
+                characterCount = new int[alphabetSize + 1];
+                maximalCount = 0;
+                for (int i = 0; i < noRotations; i++) {
+                    character = compactCodeBuffer[rotationBuffer[i] + startSequenceLength];
+                    characterCount[character]++;
+                    if (characterCount[character] > maximalCount) {
+                        maximalCount = characterCount[character];
+                    }
+                }
+                if ((((long) maximalCount) * 100) <= (((long) noRotations) * SPLIT_EFFICIENCY_PERCENT)) {
+                    subRotationBuffers = new int[alphabetSize + 1][];
+                    for (int i = 0; i <= alphabetSize; i++) {
+                        subRotationBuffers[i] = new int[characterCount[i]];
+                        characterCount[i] = 0;
+                    }
+                    allocateMemory(noRotations * 4);
+                    for (int i = 0; i < noRotations; i++) {
+                        rotation = rotationBuffer[i];
+                        character = compactCodeBuffer[rotation + startSequenceLength];
+                        subRotationBuffers[character][characterCount[character]++] = rotation;
+                    }
+                    releaseMemory(rotationBuffer.length * 4);
+                    rotationBuffer = null;
+                    noSplitBuckets.incrementAndGet();
+
+                    /* rotation followed by terminating character is the smallest one */
+                    if (characterCount[0] > 0) {
+                        bwtSegments.add(new byte[] {getBwtCharacter(subRotationBuffers[0][0])});
+                        releaseMemory(4);
+                    }
+                    subTasks = new ArrayList<BucketSortTask>();
+                    for (byte i = 1; i <= alphabetSize; i++) {
+                        if (characterCount[i] > 0) {
+                            subTasks.add(new BucketSortTask(    extendStartSequence(startSequence, i),
+                                                                subRotationBuffers[i],
+                                                                characterCount[i]                       ));
+                        }
+                        subRotationBuffers[i] = null;
+                    }
+                    invokeAll(subTasks);
+                    for (BucketSortTask subTask: subTasks) {
+                        bwtSegments.addAll(subTask.join());
+                    }
+                    return bwtSegments;
+                }
+            }
+
+            /* sort bucket */
+            duration = System.currentTimeMillis();
+            if (noRotations > 1) {
+                rotationSorter.sortRotations(rotationBuffer, noRotations, startSequenceLength);
+            }
+            bwtSegment = new byte[noRotations];
+            allocateMemory(noRotations);
+            for (int i = 0; i < noRotations; i++) {
+                bwtSegment[i] = getBwtCharacter(rotationBuffer[i]);
+            }
+            releaseMemory(rotationBuffer.length * 4);
+            rotationBuffer = null;
+            if (noRotations > 0) {
+                bwtSegments.add(bwtSegment);
+                recordBucketDuration(startSequence, noRotations, (System.currentTimeMillis() - duration));
+            }
+            return bwtSegments;
+        }
+    }
+
+    /**
+     * Class BucketSortException is used to stop bucket sort tasks after error,
+     * the thread waiting for BW transform throws the first error instead.
+     */
+    private static class BucketSortException extends RuntimeException {
+    }
+    // </editor-fold>
+}
@@ -0,0 +1,55 @@
+/*
+ * Author:
+ *
+ *      Vedran Sabadoš
+ *
+ * Version:
+ *
+ *      V1.0         26. 12. 2013
+ */
+
+package FMIndex;
+
+/**
+ * Interface ProgressListener receives progress and statistics of reference
+ * sequence index creation and query counting. Functions are called from the
+ * thread which creates the index, or from sorting threads of parallel
+ * creation, so listener has to hand values over to its own thread if it
+ * needs to. Application frame shows them in progress bar and confirmation
+ * dialogs, while library clients may ignore them by passing null listener.
+ *
+ * @version     V1.0                26.12.2013.
+ * @author      Vedran Sabadoš
+ */
+public interface ProgressListener {
+
+    /**
+     * Function setProgressMaximum sets progress value which corresponds to
+     * completed creation.
+     *
+     * @param maximum       value that corresponds to 100%
+     */
+    void setProgressMaximum(int maximum);
+
+    /**
+     * Function setProgressValue sets current progress value.
+     *
+     * @param value         current progress value
+     */
+    void setProgressValue(int value);
+
+    /**
+     * Function setProgressIndeterminate tells if progress can be measured.
+     *
+     * @param indeterminate     true if progress can not be measured
+     */
+    void setProgressIndeterminate(boolean indeterminate);
+
+    /**
+     * Function reportStatistics receives statistics of completed index
+     * creation or query counting.
+     *
+     * @param statistics    statistics text
+     */
+    void reportStatistics(String statistics);
+}
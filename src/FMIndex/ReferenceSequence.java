@@ -14,9 +14,9 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
-import static java.lang.StrictMath.min;
 import static java.lang.StrictMath.pow;
 import static java.lang.StrictMath.round;
 import java.nio.charset.Charset;
@@ -24,8 +24,10 @@ import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
+import java.util.HashSet;
 import java.util.LinkedList;
-import javax.swing.JOptionPane;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
 
 /**
  * Class ReferenceSequence represents reference sequence to which all query
@@ -40,6 +42,8 @@ public class ReferenceSequence {
 
     final public int NEW_LINE_CHARACTER = 0x0a;                 // \n character in UTF8
     final public int SPACE_CHARACTER = 0x20;                    // space character in UTF8
+    final public int TAB_CHARACTER = 0x09;                      // \t character in UTF8
+    final public int CARRIAGE_RETURN_CHARACTER = 0x0d;          // \r character in UTF8
     final public int SEQUENCE_NAME_START_CHARACTER = 0x3e;      // > character in UTF8
     final public int LOWRCASE_A_CHARACTER = 0x61;               // a character in UTF8
     final public int LOWRCASE_Z_CHARACTER = 0x7a;               // z character in UTF8
@@ -50,10 +54,14 @@ public class ReferenceSequence {
 
     final public int READ_BUFFER_SIZE = 1000;                   // size of read buffer
     final public int LINKED_BUFFER_SIZE = 1000;                 // size of linked buffer
+    final public int GZIP_BUFFER_SIZE = 0x00010000;             // size of gzip stream input buffer
+    final public int N_RUN_CHUNK_SIZE = 0x00010000;             // number of characters moved at once when runs of N characters are replaced
+    final public int CHECKSUM_CHUNK_SIZE = 0x00100000;          // number of characters added to reference sequence checksum at once
     final public int START_SEQUENCE_BUFFER_SIZE = 1000;         // size of start sequence buffer
     final public int ROTATION_BUFFER_SIZE = 10000000;            // size of rotation buffer
-    final public int LONG_RUN_SEQUENCE_THRESHOLD = 100;         // size of rotation buffer
-    final public int TEST_LONG_RUN_SEQUENCE_AFTER = 10;         // test if long run sequence after specified number of passes when comaring two rotations
+    final public int EXPECTED_ROTATION_BUFFER_LEVELS = 4;        // number of recursion levels whose rotation buffers fit into memory budget
+    final public int MINIMAL_PACKING_RATIO = 2;                 // packed reference sequence is used if it is at least given times smaller
+    final public int MAXIMAL_REFERENCE_SEQUENCE_LENGTH = 0x7ffffffe;   // reference sequence and final character are kept in one array, also in 64-bit index, which exceeds it only by merge
     // </editor-fold>
 
     // <editor-fold desc="Fields">
@@ -63,12 +71,21 @@ public class ReferenceSequence {
      */
     private ReferenceSequenceIndex referenceSequenceIndex;
 
-    /** Parent frame reference */
-    FMIndexCountFrame parentFrame;
+    /** Options controlling reference sequence index creation */
+    private ReferenceSequenceOptions referenceSequenceOptions;
+
+    /** Reference sequence filename */
+    private String referenceSequenceFilename;
+
+    /** Listener receiving creation progress and statistics, or null if they are not reported */
+    private ProgressListener progressListener;
 
     /** Compact coded reference sequence buffer */
     private byte[] compactCodeBuffer;
 
+    /** Packed compact coded reference sequence buffer, used instead of compactCodeBuffer if not null */
+    private PackedCodeBuffer packedCodeBuffer;
+
     /** Reference sequence Burrows-Wheeler transform buffer */
     private byte[] bwtBuffer;
 
@@ -76,7 +93,7 @@ public class ReferenceSequence {
     int bwtBufferIndex;
 
     /** Reference sequence file read stream */
-    FileInputStream referenceSequenceStream;
+    InputStream referenceSequenceStream;
 
     /** Reference sequence file read intermediate buffer */
     private byte[] intermediateReadBuffer;
@@ -90,21 +107,86 @@ public class ReferenceSequence {
     /** Current start sequence buffer */
     private byte[] startSequenceBuffer;
 
-    /** Array with count of long run sequences per character */
-    private int[] longRunCount;
+    /** Reference sequence rotation sorter */
+    private RotationSorter rotationSorter;
+
+    /** Rotation buckets created by single pass bucketing, or null if rotations are collected by scanning */
+    private RotationBucketizer rotationBucketizer;
+
+    /** Method used to divide rotations into buckets, automatic method is resolved by available memory */
+    private RotationBucketingMethod rotationBucketingMethod;
+
+    /** Addressing of created index, indexes of merged sequences are 32-bit and merged index is addressed by options */
+    private IndexAddressing indexAddressing;
+
+    /** Arena of rotation, sort and key buffers reused by rotation sort */
+    private RotationBufferArena rotationBufferArena;
+
+    /** Memory consumption of rotation buffer arena included in current memory consumption */
+    private long arenaMemoryConsumption;
 
-    /** Array with start rotations of long run sequences per character */
-    private int[][] longRunStart;
+    /** External BW transform builder keeping BW transform runs on disk */
+    private ExternalBwtBuilder externalBwtBuilder;
 
-    /** Array with lengths of long run sequences per character */
-    private int[][] longRunLength;
+    /** Pipeline inserting BW transform into occurrence wavelet tree during rotation sort, or null if BWT buffer is used */
+    private BwtPipeline bwtPipeline;
+
+    /** Checkpoint of BW transform created by rotation sort, or null if checkpoints are not written */
+    private BwtCheckpoint bwtCheckpoint;
 
     /** Objects for reference sequence statistics */
+    private String creationStatistics;
     private SimpleDateFormat sdf;
     private String startTimeBuffer;
     private String fileReadTimeBuffer;
     private String bwtCreationTimeBuffer;
     private String indexCreationTimeBuffer;
+    private long bwtCreationDuration;
+    private int noSortedBuckets;
+    private int noSplitBuckets;
+    private long totalBucketDuration;
+    private long maximalBucketDuration;
+    private long noReferenceSequencePasses;
+    private long referenceSequenceBytesScanned;
+    private long bucketBytesSpilled;
+    private int noBwtRuns;
+    private long peakResidentSetSize;
+    private int packedBitsPerCharacter;
+    private int noPackedExceptionRuns;
+    private int noPeriodicRuns;
+    private int rotationBufferSize;
+    private long noBufferRequests;
+    private long noBufferAllocations;
+    private long bufferBytesAllocated;
+    private int noPipelineBlocks;
+    private long pipelineInsertDuration;
+    private long pipelineWaitDuration;
+    private int waveletTreeLevels;
+    private long waveletTreeBuildDuration;
+    private long waveletTreeThroughput;
+    private int waveletMatrixLevels;
+    private long waveletMatrixBuildDuration;
+    private String mergeTimeBuffer;
+    private long noMergedSymbols;
+    private long mergeDuration;
+    private long mergeSymbolsPerSecond;
+    private long fileReadDuration;
+    private long fileReadBytes;
+    private int fileReadThreads;
+    private String fastaRecordIndexStatus;
+    private String compressedInputFormat;
+    private long referenceSequenceBytesRead;
+    private long twoBitNBlocks;
+    private int noCollapsedNRuns;
+    private long nRunCollapseDuration;
+    private long twoBitMaskBlocks;
+    private int noBwtCheckpoints;
+    private String checkpointWriteError;
+    private long checkpointBytesWritten;
+    private long checkpointWriteDuration;
+    private long maximalCheckpointWriteDuration;
+    private int resumedStartSequenceCombination;
+    private int resumedBwtIndex;
     private int noStartSequenceCombinations;
     private int currentStartSequenceCombination;
     private long maximalPreprocessingMemoryConsumption;
@@ -121,35 +203,97 @@ public class ReferenceSequence {
      * @param filename      Reference sequence filename
      * @param format        Reference sequence file format
      * @param sequenceName  Reference sequence name (in case of Fasta format)
-     * @param parent        Reference for parent frame
+     * @param listener      Listener receiving creation progress and statistics, or null
+     * @throws ReportedException 
+     */
+    public ReferenceSequence(   String filename,
+                                ReferenceSequenceFormat format,
+                                String sequenceName,
+                                ProgressListener listener       ) throws ReportedException {
+        this(filename, format, sequenceName, new ReferenceSequenceOptions(), listener);
+    }
+
+    /**
+     * Class ReferenceSequence Constructor
+     * 
+     * @param filename      Reference sequence filename
+     * @param format        Reference sequence file format
+     * @param sequenceName  Reference sequence name (in case of Fasta format)
+     * @param options       Options controlling reference sequence index creation
+     * @param listener      Listener receiving creation progress and statistics, or null
      * @throws ReportedException 
      */
-    @SuppressWarnings({"BroadCatchBlock", "TooBroadCatch"})
     public ReferenceSequence(   String filename,
                                 ReferenceSequenceFormat format,
                                 String sequenceName,
-                                FMIndexCountFrame parent        ) throws ReportedException {
+                                ReferenceSequenceOptions options,
+                                ProgressListener listener           ) throws ReportedException {
+        this(filename, format, sequenceName, options, listener, false);
+    }
 
-        parentFrame = parent;
+    /**
+     * Class ReferenceSequence Constructor
+     * 
+     * @param filename      Reference sequence filename
+     * @param format        Reference sequence file format
+     * @param sequenceName  Reference sequence name (in case of Fasta format)
+     * @param options       Options controlling reference sequence index creation
+     * @param listener      Listener receiving creation progress and statistics, or null
+     * @param addedSequence true if sequence is to be merged into another index,
+     *                      such sequence is not merged further and its statistics are not reported
+     * @throws ReportedException 
+     */
+    @SuppressWarnings({"BroadCatchBlock", "TooBroadCatch"})
+    private ReferenceSequence(  String filename,
+                                ReferenceSequenceFormat format,
+                                String sequenceName,
+                                ReferenceSequenceOptions options,
+                                ProgressListener listener,
+                                boolean addedSequence               ) throws ReportedException {
+
+        progressListener = listener;
+        referenceSequenceOptions = options;
+        referenceSequenceFilename = filename;
+        rotationBucketingMethod = options.rotationBucketingMethod;
+        indexAddressing = ((options.mergeFilename != null) ? IndexAddressing.INT_32 : options.indexAddressing);
         sdf = new SimpleDateFormat("HH:mm:ss.SSS");
         startTimeBuffer = sdf.format(Calendar.getInstance().getTime());
-        System.out.println("Start time: " + startTimeBuffer);
+        printMessage("Start time: " + startTimeBuffer);
 
         /* initialize memory occupation fields */
         maximalPreprocessingMemoryConsumption = 0;
         currentPreprocessingMemoryConsumption = 0;
 
+        if (    (referenceSequenceOptions.occurrenceStructure == OccurrenceStructure.WAVELET_MATRIX)
+                && (referenceSequenceOptions.indexAddressing == IndexAddressing.LONG_64)            ) {
+            throw new ReportedException("Matrica valića podržana je samo za 32-bitno adresiranje indeksa!");
+        }
+        if (    (referenceSequenceOptions.occurrenceStructure == OccurrenceStructure.HUFFMAN_WAVELET_TREE)
+                && (referenceSequenceOptions.indexAddressing == IndexAddressing.LONG_64)                    ) {
+            throw new ReportedException("Huffmanovo stablo valića podržano je samo za 32-bitno adresiranje indeksa!");
+        }
+
         if (format == ReferenceSequenceFormat.FASTA) {
             try {
                 preprocessFastaReferenceSequence(filename, sequenceName);
             } catch (ReportedException ex) {
                 throw ex;
             } catch (Exception ex) {
-                reportError(    "Neočekivana pogreška tijekom predprocesiranja referentnog slijeda u fasta formatu ("
-                                + getExceptionType(ex)
-                                + "):\n\n    "
-                                + ex.getMessage()                                                                       );
-                throw new ReportedException();
+                throw new ReportedException(    "Neočekivana pogreška tijekom predprocesiranja referentnog slijeda u fasta formatu ("
+                                                + getExceptionType(ex)
+                                                + "):\n\n    "
+                                                + ex.getMessage()                                                                       );
+            }
+        } else if (format == ReferenceSequenceFormat.TWO_BIT) {
+            try {
+                preprocessTwoBitReferenceSequence(filename, sequenceName);
+            } catch (ReportedException ex) {
+                throw ex;
+            } catch (Exception ex) {
+                throw new ReportedException(    "Neočekivana pogreška tijekom predprocesiranja referentnog slijeda u .2bit formatu ("
+                                                + getExceptionType(ex)
+                                                + "):\n\n    "
+                                                + ex.getMessage()                                                                       );
             }
         } else if (format == ReferenceSequenceFormat.TEXT) {
             try {
@@ -157,11 +301,10 @@ public class ReferenceSequence {
             } catch (ReportedException ex) {
                 throw ex;
             } catch (Exception ex) {
-                reportError(    "Neočekivana pogreška tijekom predprocesiranja referentnog slijeda u tekst formatu ("
-                                + getExceptionType(ex)
-                                + "):\n\n    "
-                                + ex.getMessage()                                                                       );
-                throw new ReportedException();
+                throw new ReportedException(    "Neočekivana pogreška tijekom predprocesiranja referentnog slijeda u tekst formatu ("
+                                                + getExceptionType(ex)
+                                                + "):\n\n    "
+                                                + ex.getMessage()                                                                       );
             }
         } else {
             try {
@@ -169,16 +312,64 @@ public class ReferenceSequence {
             } catch (ReportedException ex) {
                 throw ex;
             } catch (Exception ex) {
-                reportError(    "Neočekivana pogreška tijekom učitavanja predprocesiranog referentnog slijeda ("
-                                + getExceptionType(ex)
-                                + "):\n\n    "
-                                + ex.getMessage()                                                                       );
-                throw new ReportedException();
+                throw new ReportedException(    "Neočekivana pogreška tijekom učitavanja predprocesiranog referentnog slijeda ("
+                                                + getExceptionType(ex)
+                                                + "):\n\n    "
+                                                + ex.getMessage()                                                                       );
+            }
+        }
+
+        /* merge added sequence into created index */
+        if ((!addedSequence) && (referenceSequenceOptions.mergeFilename != null)) {
+            try {
+                mergeReferenceSequence();
+            } catch (ReportedException ex) {
+                throw ex;
+            } catch (Exception ex) {
+                throw new ReportedException(    "Neočekivana pogreška tijekom spajanja dodanog slijeda ("
+                                                + getExceptionType(ex)
+                                                + "):\n\n    "
+                                                + ex.getMessage()                                           );
+            }
+        }
+
+        /* replace occurrence wavelet tree created by pipelined, external or merged creation, or read from file */
+        if (    (!addedSequence)
+                && (referenceSequenceOptions.occurrenceStructure == OccurrenceStructure.WAVELET_MATRIX)
+                && (referenceSequenceIndex.occurrenceWaveletTree != null)                               ) {
+            try {
+                convertToWaveletMatrix();
+            } catch (ReportedException ex) {
+                throw ex;
+            } catch (Exception ex) {
+                throw new ReportedException(    "Neočekivana pogreška tijekom kreiranja matrice valića ("
+                                                + getExceptionType(ex)
+                                                + "):\n\n    "
+                                                + ex.getMessage()                                           );
+            }
+        }
+
+        /* reshape occurrence wavelet tree read from file by Huffman codes */
+        if (    (!addedSequence)
+                && (referenceSequenceOptions.occurrenceStructure == OccurrenceStructure.HUFFMAN_WAVELET_TREE)
+                && (referenceSequenceIndex.occurrenceWaveletTree != null)
+                && (!referenceSequenceIndex.occurrenceWaveletTree.isHuffmanShaped())                            ) {
+            try {
+                convertToHuffmanWaveletTree();
+            } catch (ReportedException ex) {
+                throw ex;
+            } catch (Exception ex) {
+                throw new ReportedException(    "Neočekivana pogreška tijekom kreiranja Huffmanovog stabla valića ("
+                                                + getExceptionType(ex)
+                                                + "):\n\n    "
+                                                + ex.getMessage()                                                   );
             }
         }
 
         /* report statistics */
-        reportStatistics();
+        if (!addedSequence) {
+            reportStatistics();
+        }
 
         /* update maximal memory consumption field */
         maximalPreprocessingMemoryConsumption = currentPreprocessingMemoryConsumption;
@@ -199,14 +390,46 @@ public class ReferenceSequence {
                                                     String sequenceName ) throws ReportedException {
 
         File referenceSequenceFile;
+        MappedFastaReader mappedFastaReader;
+        FastaRecordIndex fastaRecordIndex;
+        BgzfInputStream bgzfInputStream;
+        FileInputStream compressedFileStream;
         Charset utf8Charset;
         byte[] sequenceNameBuffer;
         LinkedList<byte[]> linkedBufferList;
         byte[] linkedBuffer;
         long sequenceLength;
         int linkedBufferIndex;
+        int record;
         int nextChar;
-        int compactCodeBufferIndex;
+
+        /* compressed Fasta file can not be mapped or seeked by record offset, so it is read as stream */
+        compressedInputFormat = null;
+        try {
+            if (BgzfInputStream.isBgzfFile(filename)) {
+                compressedInputFormat = "BGZF";
+            } else if (BgzfInputStream.isGzipFile(filename)) {
+                compressedInputFormat = "gzip";
+            }
+        } catch (IOException ex) {
+            /* file is not readable, error is reported when it is opened */
+        }
+
+        if (referenceSequenceOptions.recordNames != null) {
+            if (compressedInputFormat != null) {
+                throw new ReportedException("Više zapisa Fasta datoteke ne može se indeksirati iz komprimirane datoteke!");
+            }
+            if (referenceSequenceOptions.fastaReading != FastaReading.MAPPED) {
+                throw new ReportedException("Više zapisa Fasta datoteke može se indeksirati samo uz opciju -reader=mapped!");
+            }
+            if (referenceSequenceOptions.mergeFilename != null) {
+                throw new ReportedException("Više zapisa Fasta datoteke ne može se indeksirati uz opciju -merge!");
+            }
+        }
+        if ((referenceSequenceOptions.fastaReading == FastaReading.MAPPED) && (compressedInputFormat == null)) {
+            preprocessMappedFastaReferenceSequence(filename, sequenceName);
+            return;
+        }
 
         /* Create reference sequence index */
         referenceSequenceIndex = new ReferenceSequenceIndex();
@@ -217,24 +440,37 @@ public class ReferenceSequence {
         }
 
         /* Set progress bar to indeterminate */
-        java.awt.EventQueue.invokeLater(new Runnable() {
-            @Override
-            public void run() {
-                parentFrame.setProgressBarIndeterminate(true);
-            }
-        });
+        if (progressListener != null) {
+            progressListener.setProgressIndeterminate(true);
+        }
 
         /* prepare sequence name buffer */
         utf8Charset = Charset.forName("UTF-8");
         sequenceNameBuffer = (">" + sequenceName).getBytes(utf8Charset);
         utf8Charset = null;
 
-        /* open reference sequence file */
+        /* open reference sequence file, length of compressed file content is not known in advance */
+        fileReadDuration = System.nanoTime();
+        bgzfInputStream = null;
+        compressedFileStream = null;
+        referenceSequenceBytesRead = 0;
         try {
             referenceSequenceFile = new File(filename);
             referenceSequenceNotRead = referenceSequenceFile.length();
             referenceSequenceStream = null;
-            referenceSequenceStream = new FileInputStream(referenceSequenceFile);
+            if (compressedInputFormat == null) {
+                referenceSequenceStream = new FileInputStream(referenceSequenceFile);
+            } else if (compressedInputFormat.equals("BGZF")) {
+                bgzfInputStream = new BgzfInputStream(filename, referenceSequenceOptions.constructionThreads);
+                referenceSequenceStream = bgzfInputStream;
+                referenceSequenceNotRead = Long.MAX_VALUE;
+                currentPreprocessingMemoryConsumption += bgzfInputStream.getMemoryConsumption();
+            } else {
+                compressedFileStream = new FileInputStream(referenceSequenceFile);
+                referenceSequenceStream = new GZIPInputStream(compressedFileStream, GZIP_BUFFER_SIZE);
+                referenceSequenceNotRead = Long.MAX_VALUE;
+                currentPreprocessingMemoryConsumption += GZIP_BUFFER_SIZE;
+            }
             intermediateReadBuffer = new byte[READ_BUFFER_SIZE];
             intermediateReadBufferIndex = READ_BUFFER_SIZE;
             currentPreprocessingMemoryConsumption += READ_BUFFER_SIZE;
@@ -242,19 +478,37 @@ public class ReferenceSequence {
                 maximalPreprocessingMemoryConsumption = currentPreprocessingMemoryConsumption;
             }
 
-            /* find start of given sequence */
-            while (!isSequenceName(sequenceNameBuffer)) {
-                checkCancel();
-                if (isEndOfFile()) {
-                    break;
+            /* find start of given sequence, by seeking to record offset if record index is available */
+            fastaRecordIndex = null;
+            if ((referenceSequenceOptions.fastaRecordLookup == FastaRecordLookup.INDEXED) && (compressedInputFormat == null)) {
+                mappedFastaReader = new MappedFastaReader(filename);
+                try {
+                    fastaRecordIndex = getFastaRecordIndex(filename, mappedFastaReader, false);
+                } finally {
+                    mappedFastaReader.close();
+                }
+            }
+            if (fastaRecordIndex != null) {
+                record = fastaRecordIndex.findRecord(sequenceName);
+                if (record >= 0) {
+                    ((FileInputStream) referenceSequenceStream).getChannel().position(fastaRecordIndex.getRecordOffset(record));
+                    referenceSequenceNotRead -= fastaRecordIndex.getRecordOffset(record);
+                } else {
+                    referenceSequenceNotRead = 0;
+                }
+            } else {
+                while (!isSequenceName(sequenceNameBuffer)) {
+                    checkCancel();
+                    if (isEndOfFile()) {
+                        break;
+                    }
                 }
             }
             if (isEndOfFile()) {
-                reportError(    "Sekvenca \""
-                                + sequenceName
-                                + "\" nije sadržana u datoteci:\n\n"
-                                + filename                          );
-                throw new ReportedException();
+                throw new ReportedException(    "Sekvenca \""
+                                                + sequenceName
+                                                + "\" nije sadržana u datoteci:\n\n"
+                                                + filename                          );
             }
 
             /* read given sequence */
@@ -275,19 +529,30 @@ public class ReferenceSequence {
                     checkCancel();
                     linkedBufferList.add(linkedBuffer);
                     sequenceLength += LINKED_BUFFER_SIZE;
+                    checkReferenceSequenceLength(sequenceLength, false);
                     linkedBufferIndex = 0;
                     linkedBuffer = new byte[LINKED_BUFFER_SIZE];
                 }
                 linkedBuffer[linkedBufferIndex++] = ((byte) nextChar);
             }
+
+            /* compressed bytes read so far */
+            if (bgzfInputStream != null) {
+                fileReadBytes = bgzfInputStream.getCompressedBytesRead();
+                fileReadThreads = bgzfInputStream.getNoThreads();
+                currentPreprocessingMemoryConsumption -= bgzfInputStream.getMemoryConsumption();
+            } else if (compressedFileStream != null) {
+                fileReadBytes = compressedFileStream.getChannel().position();
+                fileReadThreads = 1;
+                currentPreprocessingMemoryConsumption -= GZIP_BUFFER_SIZE;
+            }
         } catch (ReportedException ex) {
             throw ex;
         } catch (Exception ex) {
-            reportError(    "Greška tijekom otvaranja datoteke referentnog slijeda ("
-                            + getExceptionType(ex)
-                            + "):\n\n    "
-                            + ex.getMessage()                                           );
-            throw new ReportedException();
+            throw new ReportedException(    "Greška tijekom otvaranja datoteke referentnog slijeda ("
+                                            + getExceptionType(ex)
+                                            + "):\n\n    "
+                                            + ex.getMessage()                                           );
         } finally {
             if (referenceSequenceStream != null) {
                 try {
@@ -297,248 +562,820 @@ public class ReferenceSequence {
             }
         }
         sequenceLength += linkedBufferIndex;
-        if ((sequenceLength >= 0x7fffffff) || (sequenceLength < 2)) {     //leave place for final character
-            reportError(    "Referentni slijed je prevelik: "
-                            + Long.toString(sequenceLength)
-                            + " znakova!"                       );
-            throw new ReportedException();
+        fileReadDuration = ((System.nanoTime() - fileReadDuration) / 1000000);
+        checkReferenceSequenceLength(sequenceLength, true);
+
+        printMessage("Reference sequence readout completed at: " + sdf.format(Calendar.getInstance().getTime()));
+        if (compressedInputFormat != null) {
+            printMessage( compressedInputFormat + " Fasta file inflated with " + Integer.toString(fileReadThreads) + " threads: "
+                          + Long.toString(fileReadBytes) + " compressed bytes, "
+                          + Long.toString(referenceSequenceBytesRead) + " bytes in "
+                          + Long.toString(fileReadDuration) + " ms, "
+                          + String.format("%.2f", (referenceSequenceBytesRead / (1000.0 * Math.max(1, fileReadDuration)))) + " MB/s");
         }
 
-        System.out.println("Reference sequence readout completed at: " + sdf.format(Calendar.getInstance().getTime()));
-
 
         /* create compact code reference sequence buffer */
         currentPreprocessingMemoryConsumption -= READ_BUFFER_SIZE;
         referenceSequenceStream = null;
         intermediateReadBuffer = null;
         referenceSequenceIndex.alphabetDictionary.finalizeDictionary();
-        compactCodeBuffer = new byte[(int) (sequenceLength + 1)];
-        currentPreprocessingMemoryConsumption += (sequenceLength + 1);
-        currentPreprocessingMemoryConsumption += (linkedBufferList.size() * 8);
-        currentPreprocessingMemoryConsumption += (   (linkedBufferList.size() + 1)
-                                                    * LINKED_BUFFER_SIZE            );
-        if (currentPreprocessingMemoryConsumption > maximalPreprocessingMemoryConsumption) {
-            maximalPreprocessingMemoryConsumption = currentPreprocessingMemoryConsumption;
-        }
-
-        /* fill compact code reference sequence buffer */
-        compactCodeBufferIndex = 0;
-        for (byte[] buf: linkedBufferList) {
-            for (byte i: buf) {
-                compactCodeBuffer[compactCodeBufferIndex++] =
-                        referenceSequenceIndex.alphabetDictionary.getCompactCode(i);
-            }
-        }
-        for (int i = 0; i < linkedBufferIndex; i++) {
-            compactCodeBuffer[compactCodeBufferIndex++] =
-                    referenceSequenceIndex.alphabetDictionary.getCompactCode(linkedBuffer[i]);
-        }
-        compactCodeBuffer[compactCodeBufferIndex++] = 0;
-
-        /* release unused memory */
-        currentPreprocessingMemoryConsumption -= (linkedBufferList.size() * 8);
-        currentPreprocessingMemoryConsumption -= (   (linkedBufferList.size() + 1)
-                                                    * LINKED_BUFFER_SIZE            );
+        createCompactCodeBuffer(linkedBufferList, linkedBuffer, linkedBufferIndex, sequenceLength);
         linkedBufferList = null;
         linkedBuffer = null;
         checkCancel();
 
         fileReadTimeBuffer = sdf.format(Calendar.getInstance().getTime());
-        System.out.println("Reference sequence compact code buffer creation completed at: " + fileReadTimeBuffer);
+        printMessage("Reference sequence compact code buffer creation completed at: " + fileReadTimeBuffer);
 
         preprocessCompactReferenceSequence();
     }
 
 
     /**
-     * Function preprocessTextReferenceSequence preprocesses reference sequence
-     * from file in Text format.
+     * Function preprocessMappedFastaReferenceSequence preprocesses reference
+     * sequence from Fasta file mapped into memory. The first pass over mapped
+     * file finds the sequence end and counts characters, so compact code
+     * buffer of exact size is created and filled with compact codes by the
+     * second pass, without intermediate linked buffers. If records are
+     * selected by options, all selected records are concatenated in file
+     * order into one reference sequence, separated by separator character,
+     * and their boundaries are kept in record table of the index.
      * 
      * @param filename      Reference sequence filename
+     * @param sequenceName  Reference sequence name
      * @throws ReportedException 
      */
-    private void preprocessTextReferenceSequence(String filename) throws ReportedException {
-
-        File referenceSequenceFile;
-        LinkedList<byte[]> linkedBufferList;
-        byte[] linkedBuffer;
+    private void preprocessMappedFastaReferenceSequence(    String filename,
+                                                            String sequenceName ) throws ReportedException {
+
+        MappedFastaReader mappedFastaReader;
+        FastaRecordIndex fastaRecordIndex;
+        AlphabetDictionary alphabetDictionary;
+        ArrayList<String> recordNameList;
+        ArrayList<Long> recordStartList;
+        String[] recordNames;
+        byte[] sequenceNameBuffer;
+        byte[] codeTable;
+        long[] recordStarts;
+        long[] recordEnds;
+        long[] recordLengths;
+        long[] characterCount;
+        long[] runCount;
+        long sequenceStart;
         long sequenceLength;
-        int linkedBufferIndex;
-        int nextChar;
-        int compactCodeBufferIndex;
+        long previousSequenceLength;
+        long readerMemoryConsumption;
+        int noRecords;
+        int record;
+        int upperCaseCharacter;
+        int noCodes;
+        int noRecordCodes;
+        byte separatorCode;
 
         /* Create reference sequence index */
         referenceSequenceIndex = new ReferenceSequenceIndex();
         referenceSequenceIndex.alphabetDictionary = new AlphabetDictionary();
+        alphabetDictionary = referenceSequenceIndex.alphabetDictionary;
         currentPreprocessingMemoryConsumption += 128;
         if (currentPreprocessingMemoryConsumption > maximalPreprocessingMemoryConsumption) {
             maximalPreprocessingMemoryConsumption = currentPreprocessingMemoryConsumption;
         }
 
         /* Set progress bar to indeterminate */
-        java.awt.EventQueue.invokeLater(new Runnable() {
-            @Override
-            public void run() {
-                parentFrame.setProgressBarIndeterminate(true);
-            }
-        });
+        if (progressListener != null) {
+            progressListener.setProgressIndeterminate(true);
+        }
 
-        /* open reference sequence file */
+        fileReadDuration = System.nanoTime();
+        mappedFastaReader = null;
+        readerMemoryConsumption = 0;
         try {
-            referenceSequenceFile = new File(filename);
-            referenceSequenceNotRead = referenceSequenceFile.length();
-            referenceSequenceStream = null;
-            referenceSequenceStream = new FileInputStream(referenceSequenceFile);
-            intermediateReadBuffer = new byte[READ_BUFFER_SIZE];
-            intermediateReadBufferIndex = READ_BUFFER_SIZE;
-            currentPreprocessingMemoryConsumption += READ_BUFFER_SIZE;
-            if (currentPreprocessingMemoryConsumption > maximalPreprocessingMemoryConsumption) {
-                maximalPreprocessingMemoryConsumption = currentPreprocessingMemoryConsumption;
+            mappedFastaReader = new MappedFastaReader(filename);
+            readerMemoryConsumption = mappedFastaReader.getMemoryConsumption();
+            currentPreprocessingMemoryConsumption += readerMemoryConsumption;
+
+            /* find start of given sequence or of selected records, by record index if it is available */
+            fastaRecordIndex = getFastaRecordIndex(filename, mappedFastaReader, (referenceSequenceOptions.recordNames != null));
+            recordNameList = new ArrayList<>();
+            recordStartList = new ArrayList<>();
+            if (referenceSequenceOptions.recordNames == null) {
+                if (fastaRecordIndex != null) {
+                    record = fastaRecordIndex.findRecord(sequenceName);
+                    sequenceStart = ((record >= 0) ? fastaRecordIndex.getRecordOffset(record) : -1);
+                } else {
+                    sequenceNameBuffer = (">" + sequenceName).getBytes(Charset.forName("UTF-8"));
+                    sequenceStart = mappedFastaReader.findSequence(sequenceNameBuffer);
+                }
+                if ((sequenceStart < 0) || (sequenceStart >= mappedFastaReader.getFileLength())) {
+                    throw new ReportedException(    "Sekvenca \""
+                                                    + sequenceName
+                                                    + "\" nije sadržana u datoteci:\n\n"
+                                                    + filename                          );
+                }
+                recordNameList.add(sequenceName);
+                recordStartList.add(sequenceStart);
+            } else {
+                for (int selectedRecord: selectRecords(fastaRecordIndex.getRecordNames(), filename)) {
+                    recordNameList.add(fastaRecordIndex.getRecordName(selectedRecord));
+                    recordStartList.add(fastaRecordIndex.getRecordOffset(selectedRecord));
+                }
             }
-            if (isEndOfFile()) {
-                reportError(    "Datoteka \""
-                                + filename
-                                + "\" ne sadrži niti jedan znak\n\n");
-                throw new ReportedException();
+            noRecords = recordNameList.size();
+            recordNames = recordNameList.toArray(new String[noRecords]);
+            recordStarts = new long[noRecords];
+            for (int i = 0; i < noRecords; i++) {
+                recordStarts[i] = recordStartList.get(i);
             }
+            checkCancel();
 
-            /* read given sequence */
-            linkedBufferList = new LinkedList<byte[]>();
-            linkedBuffer = new byte[LINKED_BUFFER_SIZE];
+            /* find end of each record and count characters, records are separated by one separator character */
+            characterCount = new long[256];
+            runCount = new long[256];
+            recordEnds = new long[noRecords];
+            recordLengths = new long[noRecords];
             sequenceLength = 0;
-            linkedBufferIndex = 0;
-            while ((nextChar = getCharacter()) >= 0) {
-                if ((nextChar < 32) || (nextChar > 126)) {
-                    continue;
-                }
-                nextChar = toUpperCase(nextChar);
-                referenceSequenceIndex.alphabetDictionary.addCharacter(nextChar);
-                if (linkedBufferIndex >= LINKED_BUFFER_SIZE) {
-                    checkCancel();
-                    linkedBufferList.add(linkedBuffer);
-                    sequenceLength += LINKED_BUFFER_SIZE;
-                    linkedBufferIndex = 0;
-                    linkedBuffer = new byte[LINKED_BUFFER_SIZE];
+            for (int i = 0; i < noRecords; i++) {
+                recordEnds[i] = mappedFastaReader.scanSequence( recordStarts[i],
+                                                                characterCount,
+                                                                runCount,
+                                                                referenceSequenceOptions.constructionThreads    );
+                previousSequenceLength = sequenceLength;
+                sequenceLength = 0;
+                for (int j = 0; j < 256; j++) {
+                    sequenceLength += characterCount[j];
                 }
-                linkedBuffer[linkedBufferIndex++] = ((byte) nextChar);
+                recordLengths[i] = (sequenceLength - previousSequenceLength);
+                checkCancel();
             }
-        } catch (ReportedException ex) {
-            throw ex;
-        } catch (Exception ex) {
-            reportError(    "Greška tijekom otvaranja datoteke referentnog slijeda ("
-                            + getExceptionType(ex)
-                            + "):\n\n    "
-                            + ex.getMessage()                                           );
-            throw new ReportedException();
-        } finally {
-            if (referenceSequenceStream != null) {
-                try {
-                    referenceSequenceStream.close();
-                } catch (IOException ex) {
+            characterCount[SequenceRecordTable.SEPARATOR_CHARACTER] += (noRecords - 1);
+            runCount[SequenceRecordTable.SEPARATOR_CHARACTER] += (noRecords - 1);
+            sequenceLength += (noRecords - 1);
+
+            /* each reading thread uses its own chunk */
+            currentPreprocessingMemoryConsumption += (mappedFastaReader.getMemoryConsumption() - readerMemoryConsumption);
+            readerMemoryConsumption = mappedFastaReader.getMemoryConsumption();
+            for (int i = 0; i < 256; i++) {
+                if (characterCount[i] > 0) {
+                    alphabetDictionary.addCharacter(i);
                 }
             }
-        }
-        sequenceLength += linkedBufferIndex;
-        if ((sequenceLength >= 0x7fffffff) || (sequenceLength < 2)) {     //leave place for final character
-            reportError(    "Referentni slijed je prevelik: "
-                            + Long.toString(sequenceLength)
-                            + " znakova!"                       );
-            throw new ReportedException();
-        }
-
-        System.out.println("Reference sequence readout completed at: " + sdf.format(Calendar.getInstance().getTime()));
+            checkReferenceSequenceLength(sequenceLength, true);
+            checkCancel();
 
+            printMessage("Reference sequence readout completed at: " + sdf.format(Calendar.getInstance().getTime()));
 
-        /* create compact code reference sequence buffer */
-        currentPreprocessingMemoryConsumption -= READ_BUFFER_SIZE;
-        referenceSequenceStream = null;
-        intermediateReadBuffer = null;
-        referenceSequenceIndex.alphabetDictionary.finalizeDictionary();
-        compactCodeBuffer = new byte[(int) (sequenceLength + 1)];
-        currentPreprocessingMemoryConsumption += (sequenceLength + 1);
-        currentPreprocessingMemoryConsumption += (linkedBufferList.size() * 8);
-        currentPreprocessingMemoryConsumption += (   (linkedBufferList.size() + 1)
-                                                    * LINKED_BUFFER_SIZE            );
-        if (currentPreprocessingMemoryConsumption > maximalPreprocessingMemoryConsumption) {
-            maximalPreprocessingMemoryConsumption = currentPreprocessingMemoryConsumption;
-        }
+            /* prepare compact code of each raw character, lower case characters get upper case codes */
+            alphabetDictionary.finalizeDictionary();
+            codeTable = new byte[256];
+            for (int i = 0; i < 256; i++) {
+                upperCaseCharacter = toUpperCase(i);
+                if ((upperCaseCharacter < 128) && (characterCount[upperCaseCharacter] > 0)) {
+                    codeTable[i] = alphabetDictionary.getCompactCode((byte) upperCaseCharacter);
+                }
+            }
+            separatorCode = codeTable[SequenceRecordTable.SEPARATOR_CHARACTER];
+
+            /* fill compact code reference sequence buffer */
+            allocateCompactCodeBuffer(sequenceLength, characterCount, runCount);
+            noCodes = 0;
+            for (int i = 0; i < noRecords; i++) {
+                if (packedCodeBuffer != null) {
+                    noRecordCodes = mappedFastaReader.encodeSequence(recordStarts[i], recordEnds[i], codeTable, packedCodeBuffer);
+                } else {
+                    noRecordCodes = mappedFastaReader.encodeSequence(   recordStarts[i],
+                                                                        recordEnds[i],
+                                                                        codeTable,
+                                                                        compactCodeBuffer,
+                                                                        noCodes,
+                                                                        referenceSequenceOptions.constructionThreads    );
+                }
+                if (noRecordCodes != recordLengths[i]) {
+                    throw new ReportedException("Nepoznata greška tijekom čitanja datoteke referentnog slijeda!");
+                }
+                noCodes += noRecordCodes;
+                if (i < (noRecords - 1)) {
+                    if (packedCodeBuffer != null) {
+                        packedCodeBuffer.appendCode(separatorCode);
+                    } else {
+                        compactCodeBuffer[noCodes] = separatorCode;
+                    }
+                    noCodes++;
+                }
+                checkCancel();
+            }
+            if (packedCodeBuffer != null) {
+                packedCodeBuffer.appendCode((byte) 0);
+                packedBitsPerCharacter = packedCodeBuffer.getBitsPerCode();
+                noPackedExceptionRuns = packedCodeBuffer.getNoExceptionRuns();
+            } else {
+                compactCodeBuffer[noCodes] = 0;
+            }
+            if (noCodes != sequenceLength) {
+                throw new ReportedException("Nepoznata greška tijekom čitanja datoteke referentnog slijeda!");
+            }
+            fileReadBytes = mappedFastaReader.getBytesRead();
+            fileReadThreads = mappedFastaReader.getNoThreadsUsed();
 
-        /* fill compact code reference sequence buffer */
-        compactCodeBufferIndex = 0;
-        for (byte[] buf: linkedBufferList) {
-            for (byte i: buf) {
-                compactCodeBuffer[compactCodeBufferIndex++] =
-                        referenceSequenceIndex.alphabetDictionary.getCompactCode(i);
+            /* keep record boundaries */
+            if (referenceSequenceOptions.recordNames != null) {
+                referenceSequenceIndex.recordTable = new SequenceRecordTable(recordNames, recordLengths);
+                currentPreprocessingMemoryConsumption += referenceSequenceIndex.recordTable.getMemoryConsumption();
+            }
+        } catch (ReportedException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            throw new ReportedException(    "Greška tijekom čitanja datoteke referentnog slijeda ("
+                                            + getExceptionType(ex)
+                                            + "):\n\n    "
+                                            + ex.getMessage()                                           );
+        } finally {
+            if (mappedFastaReader != null) {
+                currentPreprocessingMemoryConsumption -= readerMemoryConsumption;
+                mappedFastaReader.close();
             }
         }
-        for (int i = 0; i < linkedBufferIndex; i++) {
-            compactCodeBuffer[compactCodeBufferIndex++] =
-                    referenceSequenceIndex.alphabetDictionary.getCompactCode(linkedBuffer[i]);
-        }
-        compactCodeBuffer[compactCodeBufferIndex++] = 0;
-
-        /* release unused memory */
-        currentPreprocessingMemoryConsumption -= (linkedBufferList.size() * 8);
-        currentPreprocessingMemoryConsumption -= (   (linkedBufferList.size() + 1)
-                                                    * LINKED_BUFFER_SIZE            );
-        linkedBufferList = null;
-        linkedBuffer = null;
+        fileReadDuration = ((System.nanoTime() - fileReadDuration) / 1000000);
         checkCancel();
 
-        System.out.println("Reference sequence compact code buffer creation completed at: " + sdf.format(Calendar.getInstance().getTime()));
+        fileReadTimeBuffer = sdf.format(Calendar.getInstance().getTime());
+        printMessage("Reference sequence compact code buffer creation completed at: " + fileReadTimeBuffer);
+        printMessage( "Mapped Fasta file read with " + Integer.toString(fileReadThreads) + " threads: "
+                      + Long.toString(fileReadBytes) + " bytes in "
+                      + Long.toString(fileReadDuration) + " ms, "
+                      + String.format("%.2f", (fileReadBytes / (1000000.0 * Math.max(1, fileReadDuration)))) + " GB/s");
 
         preprocessCompactReferenceSequence();
     }
 
     /**
-     * Function readPreprocessedReferenceSequence reads preprocessed and saved
-     * reference sequence index from file.
-     * 
-     * @param filename      Filename of file containing saved reference sequence index
-     * @throws ReportedException 
+     * Function preprocessTwoBitReferenceSequence preprocesses reference
+     * sequence from UCSC .2bit file mapped into memory. Alphabet of .2bit
+     * file is known, so characters are counted from packed nucleotides and N
+     * blocks without reading the file character by character, and packed
+     * nucleotides are decoded directly into compact code buffer of exact
+     * size. Lower case mask blocks are ignored, as lower case characters get
+     * upper case codes. If records are selected by options, all selected
+     * sequences are concatenated in file order into one reference sequence,
+     * separated by separator character, and their boundaries are kept in
+     * record table of the index.
+     *
+     * @param filename      Reference sequence filename
+     * @param sequenceName  Reference sequence name
+     * @throws ReportedException
      */
-    private void readPreprocessedReferenceSequence(String filename) throws ReportedException {
+    private void preprocessTwoBitReferenceSequence( String filename,
+                                                    String sequenceName ) throws ReportedException {
 
-        ObjectInputStream in = null;
+        TwoBitReader twoBitReader;
+        AlphabetDictionary alphabetDictionary;
+        ArrayList<Integer> recordList;
+        String[] recordNames;
+        byte[] codeTable;
+        int[] records;
+        long[] recordLengths;
+        long[] characterCount;
+        long[] runCount;
+        long sequenceLength;
+        long readerMemoryConsumption;
+        int noRecords;
+        int noCodes;
+        int noRecordCodes;
+        byte separatorCode;
+
+        if ((referenceSequenceOptions.recordNames != null) && (referenceSequenceOptions.mergeFilename != null)) {
+            throw new ReportedException("Više zapisa .2bit datoteke ne može se indeksirati uz opciju -merge!");
+        }
+
+        /* Create reference sequence index */
+        referenceSequenceIndex = new ReferenceSequenceIndex();
+        referenceSequenceIndex.alphabetDictionary = new AlphabetDictionary();
+        alphabetDictionary = referenceSequenceIndex.alphabetDictionary;
+        currentPreprocessingMemoryConsumption += 128;
+        if (currentPreprocessingMemoryConsumption > maximalPreprocessingMemoryConsumption) {
+            maximalPreprocessingMemoryConsumption = currentPreprocessingMemoryConsumption;
+        }
+
+        /* Set progress bar to indeterminate */
+        if (progressListener != null) {
+            progressListener.setProgressIndeterminate(true);
+        }
 
+        fileReadDuration = System.nanoTime();
+        twoBitReader = null;
+        readerMemoryConsumption = 0;
         try {
-            in = new ObjectInputStream(new FileInputStream(filename));
-            try {
-                referenceSequenceIndex = new ReferenceSequenceIndex();
-                referenceSequenceIndex = (ReferenceSequenceIndex) in.readObject();
+            twoBitReader = new TwoBitReader(filename);
+            readerMemoryConsumption = twoBitReader.getMemoryConsumption();
+            currentPreprocessingMemoryConsumption += readerMemoryConsumption;
+
+            /* find given sequence or selected records in .2bit index */
+            if (referenceSequenceOptions.recordNames == null) {
+                recordList = new ArrayList<>();
+                recordList.add(twoBitReader.findSequence(sequenceName));
+                if (recordList.get(0) < 0) {
+                    throw new ReportedException(    "Sekvenca \""
+                                                    + sequenceName
+                                                    + "\" nije sadržana u datoteci:\n\n"
+                                                    + filename                          );
+                }
+            } else {
+                recordList = selectRecords(twoBitReader.getSequenceNames(), filename);
+            }
+            noRecords = recordList.size();
+            records = new int[noRecords];
+            recordNames = new String[noRecords];
+            for (int i = 0; i < noRecords; i++) {
+                records[i] = recordList.get(i);
+                recordNames[i] = twoBitReader.getSequenceName(records[i]);
+            }
+            checkCancel();
 
-                /* estimate occurence wavelet node memory consumption */
-                currentPreprocessingMemoryConsumption = 128;
-                currentPreprocessingMemoryConsumption += (referenceSequenceIndex.prefixSumTable.length * 4);
-                currentPreprocessingMemoryConsumption += referenceSequenceIndex.occurrenceWaveletTree.getMemoryConsumption();
-                maximalPreprocessingMemoryConsumption = currentPreprocessingMemoryConsumption;
-            } catch (Exception ex) {
-                reportError(    "Greška tijekom učitavanja predprocesirane datoteke referentnog slijeda ("
-                                + getExceptionType(ex)
-                                + "):\n\n    "
-                                + ex.getMessage()                                           );
-                throw new ReportedException();
+            /* count characters and runs, records are separated by one separator character */
+            characterCount = new long[256];
+            runCount = new long[256];
+            recordLengths = new long[noRecords];
+            sequenceLength = 0;
+            for (int i = 0; i < noRecords; i++) {
+                twoBitReader.countCharacters(records[i], characterCount, runCount);
+                recordLengths[i] = twoBitReader.getSequenceLength(records[i]);
+                sequenceLength += recordLengths[i];
+                twoBitNBlocks += twoBitReader.getNoNBlocks(records[i]);
+                twoBitMaskBlocks += twoBitReader.getNoMaskBlocks(records[i]);
+                checkCancel();
             }
-        } catch (ReportedException ex) {
-            throw ex;
-        } catch (Exception ex) {
-            reportError(    "Greška tijekom otvaranja datoteke za učitavanje predprocesiranog referentnog slijeda ("
-                            + getExceptionType(ex)
-                            + "):\n\n    "
-                            + ex.getMessage()                                           );
-            throw new ReportedException();
-        } finally {
-            if (in != null) {
-                try {
-                    in.close();
-                } catch (IOException ex) {
+            characterCount[SequenceRecordTable.SEPARATOR_CHARACTER] += (noRecords - 1);
+            runCount[SequenceRecordTable.SEPARATOR_CHARACTER] += (noRecords - 1);
+            sequenceLength += (noRecords - 1);
+            for (int i = 0; i < 256; i++) {
+                if (characterCount[i] > 0) {
+                    alphabetDictionary.addCharacter(i);
                 }
             }
-        }
+            checkReferenceSequenceLength(sequenceLength, true);
+            checkCancel();
 
-        indexCreationTimeBuffer = sdf.format(Calendar.getInstance().getTime());
-        System.out.println("Reference sequence index creation completed at: " + indexCreationTimeBuffer);
-    }
+            printMessage("Reference sequence readout completed at: " + sdf.format(Calendar.getInstance().getTime()));
+
+            /* prepare compact code of each raw character */
+            alphabetDictionary.finalizeDictionary();
+            codeTable = new byte[256];
+            for (int i = 0; i < 128; i++) {
+                if (characterCount[i] > 0) {
+                    codeTable[i] = alphabetDictionary.getCompactCode((byte) i);
+                }
+            }
+            separatorCode = codeTable[SequenceRecordTable.SEPARATOR_CHARACTER];
+
+            /* fill compact code reference sequence buffer */
+            allocateCompactCodeBuffer(sequenceLength, characterCount, runCount);
+            noCodes = 0;
+            for (int i = 0; i < noRecords; i++) {
+                noRecordCodes = twoBitReader.decodeSequence(records[i], codeTable, compactCodeBuffer, noCodes, packedCodeBuffer);
+                noCodes += noRecordCodes;
+                if (i < (noRecords - 1)) {
+                    if (packedCodeBuffer != null) {
+                        packedCodeBuffer.appendCode(separatorCode);
+                    } else {
+                        compactCodeBuffer[noCodes] = separatorCode;
+                    }
+                    noCodes++;
+                }
+                checkCancel();
+            }
+            if (packedCodeBuffer != null) {
+                packedCodeBuffer.appendCode((byte) 0);
+                packedBitsPerCharacter = packedCodeBuffer.getBitsPerCode();
+                noPackedExceptionRuns = packedCodeBuffer.getNoExceptionRuns();
+            } else {
+                compactCodeBuffer[noCodes] = 0;
+            }
+            if (noCodes != sequenceLength) {
+                throw new ReportedException("Nepoznata greška tijekom čitanja datoteke referentnog slijeda!");
+            }
+            fileReadBytes = twoBitReader.getBytesRead();
+            fileReadThreads = 1;
+
+            /* keep record boundaries */
+            if (referenceSequenceOptions.recordNames != null) {
+                referenceSequenceIndex.recordTable = new SequenceRecordTable(recordNames, recordLengths);
+                currentPreprocessingMemoryConsumption += referenceSequenceIndex.recordTable.getMemoryConsumption();
+            }
+        } catch (ReportedException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            throw new ReportedException(    "Greška tijekom čitanja datoteke referentnog slijeda ("
+                                            + getExceptionType(ex)
+                                            + "):\n\n    "
+                                            + ex.getMessage()                                           );
+        } finally {
+            if (twoBitReader != null) {
+                currentPreprocessingMemoryConsumption -= readerMemoryConsumption;
+                twoBitReader.close();
+            }
+        }
+        fileReadDuration = ((System.nanoTime() - fileReadDuration) / 1000000);
+        checkCancel();
+
+        fileReadTimeBuffer = sdf.format(Calendar.getInstance().getTime());
+        printMessage("Reference sequence compact code buffer creation completed at: " + fileReadTimeBuffer);
+        printMessage( ".2bit file read: "
+                      + Long.toString(fileReadBytes) + " bytes in "
+                      + Long.toString(fileReadDuration) + " ms, "
+                      + String.format("%.2f", (fileReadBytes / (1000000.0 * Math.max(1, fileReadDuration)))) + " GB/s, "
+                      + Long.toString(twoBitNBlocks) + " N blocks, "
+                      + Long.toString(twoBitMaskBlocks) + " mask blocks"                                              );
+
+        preprocessCompactReferenceSequence();
+    }
+
+    /**
+     * Function allocateCompactCodeBuffer creates compact code buffer of exact
+     * size for reference sequence whose characters are already counted.
+     * Packed buffer is selected from character and run counts if packing is
+     * requested and efficient, otherwise one byte per character is used.
+     *
+     * @param sequenceLength    Reference sequence length, final character excluded
+     * @param characterCount    number of characters of each raw code, 256 entries
+     * @param runCount          upper bound of number of runs of each raw code, 256 entries
+     * @throws ReportedException
+     */
+    private void allocateCompactCodeBuffer(long sequenceLength, long[] characterCount, long[] runCount) throws ReportedException {
+
+        AlphabetDictionary alphabetDictionary;
+        int[] codeCount;
+        int[] codeRunCount;
+        byte code;
+
+        /* select packing from character and run counts */
+        alphabetDictionary = referenceSequenceIndex.alphabetDictionary;
+        packedCodeBuffer = null;
+        if (    (referenceSequenceOptions.textPacking == TextPacking.PACKED)
+                && (referenceSequenceOptions.bwtConstructionMethod == BwtConstructionMethod.ROTATION_SORT)  ) {
+            codeCount = new int[alphabetDictionary.getAlphabetSize() + 1];
+            codeRunCount = new int[alphabetDictionary.getAlphabetSize() + 1];
+            for (int i = 1; i < 128; i++) {
+                if (characterCount[i] > 0) {
+                    code = alphabetDictionary.getCompactCode((byte) i);
+                    codeCount[code] = ((int) characterCount[i]);
+                    codeRunCount[code] = ((int) runCount[i]);
+                }
+            }
+            codeCount[0]++;
+            codeRunCount[0]++;
+            packedCodeBuffer = new PackedCodeBuffer((int) (sequenceLength + 1), codeCount, codeRunCount);
+            if ((packedCodeBuffer.getMemoryConsumption() * MINIMAL_PACKING_RATIO) > (sequenceLength + 1)) {
+                packedCodeBuffer = null;
+                printMessage("Reference sequence can not be packed efficiently, one byte per character is used");
+            }
+        }
+
+        /* allocate compact code reference sequence buffer */
+        if (packedCodeBuffer != null) {
+            currentPreprocessingMemoryConsumption += packedCodeBuffer.getMemoryConsumption();
+        } else {
+            compactCodeBuffer = new byte[(int) (sequenceLength + 1)];
+            currentPreprocessingMemoryConsumption += (sequenceLength + 1);
+        }
+        if (currentPreprocessingMemoryConsumption > maximalPreprocessingMemoryConsumption) {
+            maximalPreprocessingMemoryConsumption = currentPreprocessingMemoryConsumption;
+        }
+    }
+
+    /**
+     * Function selectRecords finds records selected by options. All records
+     * are selected if no record names are given, otherwise each given name
+     * must be found. Records are selected in file order.
+     *
+     * @param fileRecordNames       names of all records of the file in file order
+     * @param filename              Reference sequence filename
+     * @return                      indexes of selected records
+     * @throws ReportedException
+     */
+    private ArrayList<Integer> selectRecords(String[] fileRecordNames, String filename) throws ReportedException {
+
+        ArrayList<Integer> selectedRecords;
+        HashSet<String> selectedNames;
+        HashSet<String> foundNames;
+
+        selectedRecords = new ArrayList<>();
+        selectedNames = new HashSet<>(Arrays.asList(referenceSequenceOptions.recordNames));
+        foundNames = new HashSet<>();
+        for (int i = 0; i < fileRecordNames.length; i++) {
+            if (selectedNames.isEmpty() || selectedNames.contains(fileRecordNames[i])) {
+                selectedRecords.add(i);
+                foundNames.add(fileRecordNames[i]);
+            }
+        }
+        for (String recordName: selectedNames) {
+            if (!foundNames.contains(recordName)) {
+                throw new ReportedException(    "Sekvenca \""
+                                                + recordName
+                                                + "\" nije sadržana u datoteci:\n\n"
+                                                + filename                          );
+            }
+        }
+        if (selectedRecords.isEmpty()) {
+            throw new ReportedException("Datoteka ne sadrži niti jedan zapis:\n\n" + filename);
+        }
+        return selectedRecords;
+    }
+
+    /**
+     * Function getFastaRecordIndex provides record index of Fasta file. If
+     * records are looked up by index, index saved next to Fasta file is
+     * loaded, or it is created by one pass over the file and saved for the
+     * next use. If records are looked up by scanning, index is created only
+     * if it is required and it is not saved.
+     *
+     * @param filename              Reference sequence filename
+     * @param mappedFastaReader     reader of mapped Fasta file
+     * @param required              true if index must be provided even if records are looked up by scanning
+     * @return                      record index, or null if records are looked up by scanning
+     * @throws IOException
+     */
+    private FastaRecordIndex getFastaRecordIndex(   String filename,
+                                                    MappedFastaReader mappedFastaReader,
+                                                    boolean required                    ) throws IOException {
+
+        FastaRecordIndex fastaRecordIndex;
+        long duration;
+
+        duration = System.nanoTime();
+        if (referenceSequenceOptions.fastaRecordLookup == FastaRecordLookup.INDEXED) {
+            fastaRecordIndex = FastaRecordIndex.load(filename);
+            if (fastaRecordIndex != null) {
+                fastaRecordIndexStatus = "učitan";
+                printMessage( "Fasta record index " + filename + FastaRecordIndex.FILENAME_EXTENSION + " loaded: "
+                              + Integer.toString(fastaRecordIndex.getNoRecords()) + " records in "
+                              + Long.toString((System.nanoTime() - duration) / 1000000) + " ms"           );
+                return fastaRecordIndex;
+            }
+        } else if (!required) {
+            return null;
+        }
+        fastaRecordIndex = new FastaRecordIndex();
+        mappedFastaReader.indexRecords(fastaRecordIndex);
+        fastaRecordIndexStatus = "kreiran";
+        printMessage( "Fasta record index created: " + Integer.toString(fastaRecordIndex.getNoRecords())
+                      + " records in " + Long.toString((System.nanoTime() - duration) / 1000000) + " ms");
+        if (referenceSequenceOptions.fastaRecordLookup == FastaRecordLookup.INDEXED) {
+            try {
+                fastaRecordIndex.save(filename);
+                fastaRecordIndexStatus = "kreiran i spremljen";
+                printMessage("Fasta record index saved to " + filename + FastaRecordIndex.FILENAME_EXTENSION);
+            } catch (IOException ex) {
+                printMessage("Fasta record index could not be saved (" + ex.getMessage() + ")");
+            }
+        }
+        return fastaRecordIndex;
+    }
+
+    /**
+     * Function preprocessTextReferenceSequence preprocesses reference sequence
+     * from file in Text format.
+     * 
+     * @param filename      Reference sequence filename
+     * @throws ReportedException 
+     */
+    private void preprocessTextReferenceSequence(String filename) throws ReportedException {
+
+        File referenceSequenceFile;
+        LinkedList<byte[]> linkedBufferList;
+        byte[] linkedBuffer;
+        long sequenceLength;
+        int linkedBufferIndex;
+        int nextChar;
+
+        /* Create reference sequence index */
+        referenceSequenceIndex = new ReferenceSequenceIndex();
+        referenceSequenceIndex.alphabetDictionary = new AlphabetDictionary();
+        currentPreprocessingMemoryConsumption += 128;
+        if (currentPreprocessingMemoryConsumption > maximalPreprocessingMemoryConsumption) {
+            maximalPreprocessingMemoryConsumption = currentPreprocessingMemoryConsumption;
+        }
+
+        /* Set progress bar to indeterminate */
+        if (progressListener != null) {
+            progressListener.setProgressIndeterminate(true);
+        }
+
+        /* open reference sequence file */
+        try {
+            referenceSequenceFile = new File(filename);
+            referenceSequenceNotRead = referenceSequenceFile.length();
+            referenceSequenceStream = null;
+            referenceSequenceStream = new FileInputStream(referenceSequenceFile);
+            intermediateReadBuffer = new byte[READ_BUFFER_SIZE];
+            intermediateReadBufferIndex = READ_BUFFER_SIZE;
+            currentPreprocessingMemoryConsumption += READ_BUFFER_SIZE;
+            if (currentPreprocessingMemoryConsumption > maximalPreprocessingMemoryConsumption) {
+                maximalPreprocessingMemoryConsumption = currentPreprocessingMemoryConsumption;
+            }
+            if (isEndOfFile()) {
+                throw new ReportedException(    "Datoteka \""
+                                                + filename
+                                                + "\" ne sadrži niti jedan znak\n\n");
+            }
+
+            /* read given sequence */
+            linkedBufferList = new LinkedList<byte[]>();
+            linkedBuffer = new byte[LINKED_BUFFER_SIZE];
+            sequenceLength = 0;
+            linkedBufferIndex = 0;
+            while ((nextChar = getCharacter()) >= 0) {
+                if ((nextChar < 32) || (nextChar > 126)) {
+                    continue;
+                }
+                nextChar = toUpperCase(nextChar);
+                referenceSequenceIndex.alphabetDictionary.addCharacter(nextChar);
+                if (linkedBufferIndex >= LINKED_BUFFER_SIZE) {
+                    checkCancel();
+                    linkedBufferList.add(linkedBuffer);
+                    sequenceLength += LINKED_BUFFER_SIZE;
+                    checkReferenceSequenceLength(sequenceLength, false);
+                    linkedBufferIndex = 0;
+                    linkedBuffer = new byte[LINKED_BUFFER_SIZE];
+                }
+                linkedBuffer[linkedBufferIndex++] = ((byte) nextChar);
+            }
+        } catch (ReportedException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            throw new ReportedException(    "Greška tijekom otvaranja datoteke referentnog slijeda ("
+                                            + getExceptionType(ex)
+                                            + "):\n\n    "
+                                            + ex.getMessage()                                           );
+        } finally {
+            if (referenceSequenceStream != null) {
+                try {
+                    referenceSequenceStream.close();
+                } catch (IOException ex) {
+                }
+            }
+        }
+        sequenceLength += linkedBufferIndex;
+        checkReferenceSequenceLength(sequenceLength, true);
+
+        printMessage("Reference sequence readout completed at: " + sdf.format(Calendar.getInstance().getTime()));
+
+
+        /* create compact code reference sequence buffer */
+        currentPreprocessingMemoryConsumption -= READ_BUFFER_SIZE;
+        referenceSequenceStream = null;
+        intermediateReadBuffer = null;
+        referenceSequenceIndex.alphabetDictionary.finalizeDictionary();
+        createCompactCodeBuffer(linkedBufferList, linkedBuffer, linkedBufferIndex, sequenceLength);
+        linkedBufferList = null;
+        linkedBuffer = null;
+        checkCancel();
+
+        printMessage("Reference sequence compact code buffer creation completed at: " + sdf.format(Calendar.getInstance().getTime()));
+
+        preprocessCompactReferenceSequence();
+    }
+
+    /**
+     * Function createCompactCodeBuffer codes reference sequence from linked
+     * buffers with compact code. If packed reference sequence is requested
+     * for rotation sort and it is small enough, characters are stored into
+     * packed buffer with 2 or 3 bits per character, otherwise into
+     * compactCodeBuffer with one byte per character.
+     * 
+     * @param linkedBufferList      list of full linked buffers
+     * @param linkedBuffer          last linked buffer
+     * @param linkedBufferIndex     number of characters in last linked buffer
+     * @param sequenceLength        reference sequence length
+     * @throws ReportedException 
+     */
+    private void createCompactCodeBuffer(   LinkedList<byte[]> linkedBufferList,
+                                            byte[] linkedBuffer,
+                                            int linkedBufferIndex,
+                                            long sequenceLength         ) throws ReportedException {
+
+        AlphabetDictionary alphabetDictionary;
+        int[] codeCount;
+        int[] runCount;
+        int noLinkedBuffers;
+        int compactCodeBufferIndex;
+        int alphabetSize;
+        byte previousCode;
+        byte code;
+
+        alphabetDictionary = referenceSequenceIndex.alphabetDictionary;
+        alphabetSize = alphabetDictionary.getAlphabetSize();
+        noLinkedBuffers = linkedBufferList.size();
+        currentPreprocessingMemoryConsumption += (noLinkedBuffers * 8);
+        currentPreprocessingMemoryConsumption += ((noLinkedBuffers + 1) * LINKED_BUFFER_SIZE);
+        linkedBufferList.add(Arrays.copyOf(linkedBuffer, linkedBufferIndex));
+
+        /* count characters and runs of the same character to select packing */
+        packedCodeBuffer = null;
+        if (    (referenceSequenceOptions.textPacking == TextPacking.PACKED)
+                && (referenceSequenceOptions.bwtConstructionMethod == BwtConstructionMethod.ROTATION_SORT)  ) {
+            codeCount = new int[alphabetSize + 1];
+            runCount = new int[alphabetSize + 1];
+            previousCode = -1;
+            for (byte[] buf: linkedBufferList) {
+                for (byte i: buf) {
+                    code = alphabetDictionary.getCompactCode(i);
+                    codeCount[code]++;
+                    if (code != previousCode) {
+                        runCount[code]++;
+                        previousCode = code;
+                    }
+                }
+            }
+            codeCount[0]++;
+            runCount[0]++;
+            packedCodeBuffer = new PackedCodeBuffer((int) (sequenceLength + 1), codeCount, runCount);
+            if ((packedCodeBuffer.getMemoryConsumption() * MINIMAL_PACKING_RATIO) > (sequenceLength + 1)) {
+                packedCodeBuffer = null;
+                printMessage("Reference sequence can not be packed efficiently, one byte per character is used");
+            }
+        }
+
+        /* create compact code reference sequence buffer */
+        if (packedCodeBuffer != null) {
+            currentPreprocessingMemoryConsumption += packedCodeBuffer.getMemoryConsumption();
+        } else {
+            compactCodeBuffer = new byte[(int) (sequenceLength + 1)];
+            currentPreprocessingMemoryConsumption += (sequenceLength + 1);
+        }
+        if (currentPreprocessingMemoryConsumption > maximalPreprocessingMemoryConsumption) {
+            maximalPreprocessingMemoryConsumption = currentPreprocessingMemoryConsumption;
+        }
+
+        /* fill compact code reference sequence buffer */
+        compactCodeBufferIndex = 0;
+        for (byte[] buf: linkedBufferList) {
+            for (byte i: buf) {
+                if (packedCodeBuffer != null) {
+                    packedCodeBuffer.appendCode(alphabetDictionary.getCompactCode(i));
+                } else {
+                    compactCodeBuffer[compactCodeBufferIndex++] = alphabetDictionary.getCompactCode(i);
+                }
+            }
+        }
+        if (packedCodeBuffer != null) {
+            packedCodeBuffer.appendCode((byte) 0);
+            packedBitsPerCharacter = packedCodeBuffer.getBitsPerCode();
+            noPackedExceptionRuns = packedCodeBuffer.getNoExceptionRuns();
+        } else {
+            compactCodeBuffer[compactCodeBufferIndex++] = 0;
+        }
+
+        /* release unused memory */
+        currentPreprocessingMemoryConsumption -= (noLinkedBuffers * 8);
+        currentPreprocessingMemoryConsumption -= ((noLinkedBuffers + 1) * LINKED_BUFFER_SIZE);
+    }
+
+    /**
+     * Function readPreprocessedReferenceSequence reads preprocessed and saved
+     * reference sequence index from file.
+     * 
+     * @param filename      Filename of file containing saved reference sequence index
+     * @throws ReportedException 
+     */
+    private void readPreprocessedReferenceSequence(String filename) throws ReportedException {
+
+        ObjectInputStream in = null;
+
+        try {
+            in = new ObjectInputStream(new FileInputStream(filename));
+            try {
+                referenceSequenceIndex = new ReferenceSequenceIndex();
+                referenceSequenceIndex = (ReferenceSequenceIndex) in.readObject();
+
+                /* estimate occurence wavelet node memory consumption */
+                currentPreprocessingMemoryConsumption = 128;
+                currentPreprocessingMemoryConsumption += referenceSequenceIndex.getMemoryConsumption();
+                maximalPreprocessingMemoryConsumption = currentPreprocessingMemoryConsumption;
+            } catch (Exception ex) {
+                throw new ReportedException(    "Greška tijekom učitavanja predprocesirane datoteke referentnog slijeda ("
+                                                + getExceptionType(ex)
+                                                + "):\n\n    "
+                                                + ex.getMessage()                                           );
+            }
+        } catch (ReportedException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            throw new ReportedException(    "Greška tijekom otvaranja datoteke za učitavanje predprocesiranog referentnog slijeda ("
+                                            + getExceptionType(ex)
+                                            + "):\n\n    "
+                                            + ex.getMessage()                                           );
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ex) {
+                }
+            }
+        }
+
+        indexCreationTimeBuffer = sdf.format(Calendar.getInstance().getTime());
+        printMessage("Reference sequence index creation completed at: " + indexCreationTimeBuffer);
+    }
 
     /**
      * Function preprocessCompactReferenceSequence preprocesses reference sequence
@@ -546,13 +1383,386 @@ public class ReferenceSequence {
      * defined by alphabetDictionary object.
      */
     private void preprocessCompactReferenceSequence() throws ReportedException {
-        createBwt();
-        createIndex();
+
+        /* replace long runs of N characters by separator */
+        if (referenceSequenceOptions.minimalNRunLength > 0) {
+            collapseNRuns();
+        }
+        if (referenceSequenceIndex.recordTable != null) {
+            for (int i = 0; i < referenceSequenceIndex.recordTable.getNoRecords(); i++) {
+                printMessage( "Record " + referenceSequenceIndex.recordTable.getRecordName(i) + " at "
+                              + Long.toString(referenceSequenceIndex.recordTable.getRecordStart(i)) + ", "
+                              + Long.toString(referenceSequenceIndex.recordTable.getRecordLength(i)) + " characters");
+            }
+        }
+
+        bwtCreationDuration = Calendar.getInstance().getTimeInMillis();
+        try {
+            if (referenceSequenceOptions.bwtConstructionMethod == BwtConstructionMethod.SA_IS) {
+                createSaisBwt();
+            } else if (referenceSequenceOptions.bwtConstructionMethod == BwtConstructionMethod.PARALLEL_ROTATION_SORT) {
+                createParallelBwt();
+            } else if (referenceSequenceOptions.bwtConstructionMethod == BwtConstructionMethod.EXTERNAL_ROTATION_SORT) {
+                createExternalBwt();
+            } else {
+                createBwt();
+            }
+            bwtCreationDuration = (Calendar.getInstance().getTimeInMillis() - bwtCreationDuration);
+            if (noReferenceSequencePasses > 0) {
+                printMessage( "Reference sequence scanned in " + Long.toString(noReferenceSequencePasses)
+                              + " passes, " + Long.toString(referenceSequenceBytesScanned) + " bytes scanned, "
+                              + Long.toString(bucketBytesSpilled) + " bytes spilled to disk");
+            }
+            if (externalBwtBuilder != null) {
+                createExternalIndex();
+            } else if (bwtPipeline != null) {
+                finishPipelinedIndex();
+            } else {
+                createIndex();
+            }
+        } finally {
+            releaseRotationBuckets();
+            if (bwtCheckpoint != null) {
+                bwtCheckpoint.close();
+                bwtCheckpoint = null;
+            }
+            if (bwtPipeline != null) {
+                bwtPipeline.close();
+                bwtPipeline = null;
+            }
+            if (externalBwtBuilder != null) {
+                externalBwtBuilder.close();
+                externalBwtBuilder = null;
+            }
+        }
+
+        /* estimate memory consumption */
+        currentPreprocessingMemoryConsumption = 128;
+        currentPreprocessingMemoryConsumption += referenceSequenceIndex.getMemoryConsumption();
+    }
+
+    /**
+     * Function collapseNRuns replaces each run of N characters, which is not
+     * shorter than given by options, by one separator character before BW
+     * transform is created. Query without N characters can not match across
+     * such run, so its number of occurrences is not changed, while sorted
+     * rotations, BW transform and occurrence wavelet tree get smaller. N
+     * characters of replaced runs are no longer in reference sequence, so
+     * query containing N matches only N characters outside replaced runs:
+     * every occurrence which overlaps a replaced run, not only one crossing
+     * it, is lost. Separator is the same character which separates records,
+     * so reference sequence read as text must not contain it, and query must
+     * not contain it either. The first pass finds runs and counts
+     * characters, the second one moves remaining characters towards the
+     * beginning of reference sequence. If separator is not in the alphabet,
+     * it is added, N is removed from it if all N characters were replaced,
+     * and characters get new compact codes. Replaced runs are kept in N run
+     * table of the index.
+     *
+     * @throws ReportedException
+     */
+    private void collapseNRuns() throws ReportedException {
+
+        AlphabetDictionary alphabetDictionary;
+        AlphabetDictionary collapsedAlphabetDictionary;
+        PackedCodeBuffer collapsedPackedCodeBuffer;
+        ArrayList<Long> runStartList;
+        ArrayList<Long> runLengthList;
+        String[] recordNames;
+        long[] recordLengths;
+        long[] runPositions;
+        long[] runLengths;
+        byte[] codeTable;
+        byte[] chunk;
+        int[] codeCount;
+        int[] codeRunCount;
+        int[] collapsedCodeCount;
+        int[] collapsedCodeRunCount;
+        long duration;
+        long removedNCharacters;
+        int sequenceLength;
+        int collapsedLength;
+        int noRuns;
+        int runLength;
+        int chunkLength;
+        int end;
+        int readIndex;
+        int writeIndex;
+        int alphabetSize;
+        byte nCode;
+        byte previousCode;
+        byte separatorCode;
+
+        alphabetDictionary = referenceSequenceIndex.alphabetDictionary;
+        nCode = alphabetDictionary.getCompactCode((byte) NRunTable.N_CHARACTER);
+        if (nCode == 0) {
+            return;
+        }
+        if (referenceSequenceOptions.mergeFilename != null) {
+            throw new ReportedException("Nizovi znakova N ne mogu se zamijeniti razdjelnikom uz opciju -merge!");
+        }
+        if (    (referenceSequenceIndex.recordTable == null)
+                && (alphabetDictionary.getCompactCode((byte) SequenceRecordTable.SEPARATOR_CHARACTER) != 0) ) {
+            throw new ReportedException("Referentni slijed sadrži znak > koji uz opciju -nruns zamjenjuje nizove znakova N!");
+        }
+        duration = System.nanoTime();
+
+        /* find runs to be replaced and count characters and runs of each code */
+        alphabetSize = alphabetDictionary.getAlphabetSize();
+        sequenceLength = (getReferenceSequenceLength() - 1);
+        chunk = new byte[N_RUN_CHUNK_SIZE];
+        codeCount = new int[alphabetSize + 1];
+        codeRunCount = new int[alphabetSize + 1];
+        runStartList = new ArrayList<>();
+        runLengthList = new ArrayList<>();
+        previousCode = 0;
+        runLength = 0;
+        for (int position = 0; position < sequenceLength; position += chunkLength) {
+            chunkLength = Math.min(N_RUN_CHUNK_SIZE, (sequenceLength - position));
+            readCompactCodes(position, chunk, chunkLength);
+            for (int i = 0; i < chunkLength; i++) {
+                codeCount[chunk[i]]++;
+                if (chunk[i] != previousCode) {
+                    codeRunCount[chunk[i]]++;
+                    if ((previousCode == nCode) && (runLength >= referenceSequenceOptions.minimalNRunLength)) {
+                        runStartList.add((long) (position + i - runLength));
+                        runLengthList.add((long) runLength);
+                    }
+                    previousCode = chunk[i];
+                    runLength = 0;
+                }
+                runLength++;
+            }
+        }
+        if ((previousCode == nCode) && (runLength >= referenceSequenceOptions.minimalNRunLength)) {
+            runStartList.add((long) (sequenceLength - runLength));
+            runLengthList.add((long) runLength);
+        }
+        noRuns = runStartList.size();
+        if (noRuns == 0) {
+            printMessage( "No run of at least " + Integer.toString(referenceSequenceOptions.minimalNRunLength)
+                          + " N characters found"                                                             );
+            return;
+        }
+        checkCancel();
+
+        /*
+         * add separator to the alphabet, if it is not already there, and
+         * remove N if all its characters were in replaced runs, so no
+         * character of collapsed alphabet has zero occurrences
+         */
+        removedNCharacters = 0;
+        for (int i = 0; i < noRuns; i++) {
+            removedNCharacters += runLengthList.get(i);
+        }
+        collapsedAlphabetDictionary = alphabetDictionary;
+        codeTable = new byte[alphabetSize + 1];
+        for (int i = 0; i <= alphabetSize; i++) {
+            codeTable[i] = ((byte) i);
+        }
+        if (    (alphabetDictionary.getCompactCode((byte) SequenceRecordTable.SEPARATOR_CHARACTER) == 0)
+                || (removedNCharacters == codeCount[nCode])                                             ) {
+            collapsedAlphabetDictionary = new AlphabetDictionary();
+            for (int i = 1; i < 128; i++) {
+                if (    (i == SequenceRecordTable.SEPARATOR_CHARACTER)
+                        || ((i == NRunTable.N_CHARACTER) && (removedNCharacters < codeCount[nCode]))
+                        || ((i != NRunTable.N_CHARACTER) && (alphabetDictionary.getCompactCode((byte) i) != 0))  ) {
+                    collapsedAlphabetDictionary.addCharacter(i);
+                }
+            }
+            collapsedAlphabetDictionary.finalizeDictionary();
+            for (int i = 1; i < 128; i++) {
+                if (alphabetDictionary.getCompactCode((byte) i) != 0) {
+                    codeTable[alphabetDictionary.getCompactCode((byte) i)] = collapsedAlphabetDictionary.getCompactCode((byte) i);
+                }
+            }
+        }
+        separatorCode = collapsedAlphabetDictionary.getCompactCode((byte) SequenceRecordTable.SEPARATOR_CHARACTER);
+
+        /* count characters and runs of collapsed reference sequence */
+        collapsedCodeCount = new int[collapsedAlphabetDictionary.getAlphabetSize() + 1];
+        collapsedCodeRunCount = new int[collapsedAlphabetDictionary.getAlphabetSize() + 1];
+        for (int i = 1; i <= alphabetSize; i++) {
+            if (codeTable[i] != 0) {
+                collapsedCodeCount[codeTable[i]] = codeCount[i];
+                collapsedCodeRunCount[codeTable[i]] = codeRunCount[i];
+            }
+        }
+        collapsedLength = (int) (sequenceLength - removedNCharacters + noRuns);
+        if (codeTable[nCode] != 0) {
+            collapsedCodeCount[codeTable[nCode]] -= removedNCharacters;
+            collapsedCodeRunCount[codeTable[nCode]] -= noRuns;
+        }
+        collapsedCodeCount[separatorCode] += noRuns;
+        collapsedCodeRunCount[separatorCode] += noRuns;
+        collapsedCodeCount[0]++;
+        collapsedCodeRunCount[0]++;
+
+        /* move remaining characters, replacing each run by separator */
+        collapsedPackedCodeBuffer = null;
+        if (packedCodeBuffer != null) {
+            collapsedPackedCodeBuffer = new PackedCodeBuffer((collapsedLength + 1), collapsedCodeCount, collapsedCodeRunCount);
+            currentPreprocessingMemoryConsumption += collapsedPackedCodeBuffer.getMemoryConsumption();
+            if (currentPreprocessingMemoryConsumption > maximalPreprocessingMemoryConsumption) {
+                maximalPreprocessingMemoryConsumption = currentPreprocessingMemoryConsumption;
+            }
+        }
+        runPositions = new long[noRuns];
+        runLengths = new long[noRuns];
+        readIndex = 0;
+        writeIndex = 0;
+        for (int run = 0; run <= noRuns; run++) {
+            end = ((run < noRuns) ? ((int) (long) runStartList.get(run)) : sequenceLength);
+            while (readIndex < end) {
+                chunkLength = Math.min(N_RUN_CHUNK_SIZE, (end - readIndex));
+                readCompactCodes(readIndex, chunk, chunkLength);
+                for (int i = 0; i < chunkLength; i++) {
+                    chunk[i] = codeTable[chunk[i]];
+                }
+                if (collapsedPackedCodeBuffer != null) {
+                    for (int i = 0; i < chunkLength; i++) {
+                        collapsedPackedCodeBuffer.appendCode(chunk[i]);
+                    }
+                } else {
+                    System.arraycopy(chunk, 0, compactCodeBuffer, writeIndex, chunkLength);
+                }
+                readIndex += chunkLength;
+                writeIndex += chunkLength;
+            }
+            if (run < noRuns) {
+                runPositions[run] = writeIndex;
+                runLengths[run] = runLengthList.get(run);
+                if (collapsedPackedCodeBuffer != null) {
+                    collapsedPackedCodeBuffer.appendCode(separatorCode);
+                } else {
+                    compactCodeBuffer[writeIndex] = separatorCode;
+                }
+                readIndex += runLengths[run];
+                writeIndex++;
+            }
+        }
+        if (collapsedPackedCodeBuffer != null) {
+            collapsedPackedCodeBuffer.appendCode((byte) 0);
+            currentPreprocessingMemoryConsumption -= packedCodeBuffer.getMemoryConsumption();
+            packedCodeBuffer = collapsedPackedCodeBuffer;
+            packedBitsPerCharacter = packedCodeBuffer.getBitsPerCode();
+            noPackedExceptionRuns = packedCodeBuffer.getNoExceptionRuns();
+        } else {
+            currentPreprocessingMemoryConsumption += (collapsedLength + 1);
+            if (currentPreprocessingMemoryConsumption > maximalPreprocessingMemoryConsumption) {
+                maximalPreprocessingMemoryConsumption = currentPreprocessingMemoryConsumption;
+            }
+            compactCodeBuffer = Arrays.copyOf(compactCodeBuffer, (collapsedLength + 1));
+            compactCodeBuffer[collapsedLength] = 0;
+            currentPreprocessingMemoryConsumption -= (sequenceLength + 1);
+        }
+        referenceSequenceIndex.alphabetDictionary = collapsedAlphabetDictionary;
+        referenceSequenceIndex.nRunTable = new NRunTable(runPositions, runLengths);
+        currentPreprocessingMemoryConsumption += referenceSequenceIndex.nRunTable.getMemoryConsumption();
+
+        /* record boundaries move by characters removed from preceding records, runs do not cross records */
+        if (referenceSequenceIndex.recordTable != null) {
+            recordNames = new String[referenceSequenceIndex.recordTable.getNoRecords()];
+            recordLengths = new long[recordNames.length];
+            for (int i = 0; i < recordNames.length; i++) {
+                recordNames[i] = referenceSequenceIndex.recordTable.getRecordName(i);
+                recordLengths[i] = referenceSequenceIndex.recordTable.getRecordLength(i);
+            }
+            for (int i = 0; i < noRuns; i++) {
+                recordLengths[referenceSequenceIndex.recordTable.findRecord(runStartList.get(i))] -= (runLengths[i] - 1);
+            }
+            referenceSequenceIndex.recordTable = new SequenceRecordTable(recordNames, recordLengths);
+        }
+
+        noCollapsedNRuns = noRuns;
+        nRunCollapseDuration = ((System.nanoTime() - duration) / 1000000);
+        printMessage( "N runs of at least " + Integer.toString(referenceSequenceOptions.minimalNRunLength)
+                      + " characters replaced by separator: " + Integer.toString(noRuns) + " runs, "
+                      + Long.toString(referenceSequenceIndex.nRunTable.getNoRemovedCharacters()) + " characters removed in "
+                      + Long.toString(nRunCollapseDuration) + " ms"                                                       );
+        checkCancel();
+    }
+
+    /**
+     * Function readCompactCodes copies compact codes of reference sequence
+     * starting at given position into buffer, either from packed buffer or
+     * not.
+     *
+     * @param position      position of the first character
+     * @param buffer        buffer to store compact codes in
+     * @param length        number of characters to copy
+     */
+    private void readCompactCodes(int position, byte[] buffer, int length) {
+        if (packedCodeBuffer != null) {
+            packedCodeBuffer.readCodes(position, buffer, length);
+        } else {
+            System.arraycopy(compactCodeBuffer, position, buffer, 0, length);
+        }
+    }
+
+    /**
+     * Function mergeReferenceSequence creates index of sequence given by merge
+     * options and merges it into reference sequence index. File format of
+     * added sequence is selected by its extension.
+     * 
+     * @throws ReportedException 
+     */
+    private void mergeReferenceSequence() throws ReportedException {
+
+        ReferenceSequence addedSequence;
+        ReferenceSequenceFormat addedSequenceFormat;
+        BwtMerger bwtMerger;
+        String filename;
+
+        /* create index of added sequence */
+        filename = referenceSequenceOptions.mergeFilename;
+        if (filename.toLowerCase().endsWith(".rfix")) {
+            addedSequenceFormat = ReferenceSequenceFormat.PREPROCESSED;
+        } else if (filename.toLowerCase().endsWith(".txt")) {
+            addedSequenceFormat = ReferenceSequenceFormat.TEXT;
+        } else if (filename.toLowerCase().endsWith(".2bit")) {
+            addedSequenceFormat = ReferenceSequenceFormat.TWO_BIT;
+        } else {
+            addedSequenceFormat = ReferenceSequenceFormat.FASTA;
+        }
+        printMessage("Added sequence " + filename + " index creation started");
+        addedSequence = new ReferenceSequence(  filename,
+                                                addedSequenceFormat,
+                                                referenceSequenceOptions.mergeSequenceName,
+                                                referenceSequenceOptions,
+                                                progressListener,
+                                                true                                        );
+
+        /* set progress bar to indeterminate */
+        if (progressListener != null) {
+            progressListener.setProgressIndeterminate(true);
+        }
+
+        /* merge BW transforms */
+        printMessage("BWT merge started at: " + sdf.format(Calendar.getInstance().getTime()));
+        bwtMerger = new BwtMerger(referenceSequenceIndex, addedSequence.referenceSequenceIndex, referenceSequenceOptions.indexAddressing);
+        referenceSequenceIndex = bwtMerger.merge();
+        noMergedSymbols = bwtMerger.getNoMergedSymbols();
+        mergeDuration = bwtMerger.getMergeDuration();
+        mergeSymbolsPerSecond = bwtMerger.getSymbolsPerSecond();
 
         /* estimate memory consumption */
+        if (    (currentPreprocessingMemoryConsumption + addedSequence.currentPreprocessingMemoryConsumption + bwtMerger.getMaximalMemoryConsumption())
+                > maximalPreprocessingMemoryConsumption                                                                                                 ) {
+            maximalPreprocessingMemoryConsumption = (   currentPreprocessingMemoryConsumption
+                                                        + addedSequence.currentPreprocessingMemoryConsumption
+                                                        + bwtMerger.getMaximalMemoryConsumption()               );
+        }
+        if (addedSequence.maximalPreprocessingMemoryConsumption > maximalPreprocessingMemoryConsumption) {
+            maximalPreprocessingMemoryConsumption = addedSequence.maximalPreprocessingMemoryConsumption;
+        }
         currentPreprocessingMemoryConsumption = 128;
-        currentPreprocessingMemoryConsumption += (referenceSequenceIndex.prefixSumTable.length * 4);
-        currentPreprocessingMemoryConsumption += referenceSequenceIndex.occurrenceWaveletTree.getMemoryConsumption();
+        currentPreprocessingMemoryConsumption += referenceSequenceIndex.getMemoryConsumption();
+
+        mergeTimeBuffer = sdf.format(Calendar.getInstance().getTime());
+        printMessage( "BWT merge completed at: " + mergeTimeBuffer + " (" + Long.toString(noMergedSymbols)
+                      + " symbols merged in " + Long.toString(mergeDuration) + " ms, "
+                      + Long.toString(mergeSymbolsPerSecond) + " symbols/s)"                             );
     }
 
     /**
@@ -562,46 +1772,490 @@ public class ReferenceSequence {
      */
     private void createBwt() throws ReportedException {
 
-        int[][] rotationBuffers;
+        int[][] rotationBuffers;
+        int compactCodeBufferSize;
+        long compactCodeMemoryConsumption;
+        int alphabetSize;
+        int initial_start_sequence_length;
+        int changeDepth;
+        int checkpointChangeDepth;
+        int checkpointBwtIndex;
+        String startSequenceString;
+
+
+
+//        testBwtBuffer = new int[compactCodeBuffer.length];
+
+
+        compactCodeBufferSize = getReferenceSequenceLength();
+        alphabetSize = referenceSequenceIndex.alphabetDictionary.getAlphabetSize();
+        if (    (referenceSequenceOptions.indexPipelining == IndexPipelining.PIPELINED)
+                && (referenceSequenceOptions.checkpointInterval == 0)                   ) {
+
+            /* BWT characters are inserted into occurrence wavelet tree as they are emitted */
+            startBwtPipeline(alphabetSize);
+            bwtPipeline.insertCharacter(getCompactCode(compactCodeBufferSize - 2));
+        } else {
+            bwtBuffer = new byte[compactCodeBufferSize];
+            bwtBuffer[0] = getCompactCode(compactCodeBufferSize - 2);
+
+            /* initialize prefix-sum table */
+            referenceSequenceIndex.prefixSumTable = new int[alphabetSize + 2];
+            referenceSequenceIndex.prefixSumTable[0] = 0;
+            referenceSequenceIndex.prefixSumTable[alphabetSize + 1] = compactCodeBufferSize;    // last entry contains reference sequence length
+        }
+        bwtBufferIndex = 1;
+
+
+
+//        testBwtBuffer[0] = compactCodeBufferSize - 1;
+
+
+
+        /* prepare start sequence buffer */
+        startSequenceBuffer = new byte[START_SEQUENCE_BUFFER_SIZE];
+        Arrays.fill(startSequenceBuffer, (byte) 1);
+
+        /* prepare rotation buffers array */
+        rotationBuffers = new int[START_SEQUENCE_BUFFER_SIZE + 1][];
+
+        /* detect long periodic runs */
+        if (packedCodeBuffer != null) {
+            rotationSorter = new RotationSorter(    packedCodeBuffer,
+                                                    alphabetSize,
+                                                    referenceSequenceOptions.rotationSortAlgorithm,
+                                                    referenceSequenceOptions.maximalRepeatPeriod    );
+            compactCodeMemoryConsumption = packedCodeBuffer.getMemoryConsumption();
+        } else {
+            rotationSorter = new RotationSorter(    compactCodeBuffer,
+                                                    alphabetSize,
+                                                    referenceSequenceOptions.rotationSortAlgorithm,
+                                                    referenceSequenceOptions.maximalRepeatPeriod    );
+            compactCodeMemoryConsumption = compactCodeBufferSize;
+        }
+        currentPreprocessingMemoryConsumption += rotationSorter.getMemoryConsumption();
+        noPeriodicRuns = rotationSorter.getNoPeriodicRuns();
+
+        /* prepare rotation buffer arena, buffers are allocated when first used */
+        rotationBufferArena = new RotationBufferArena(  ROTATION_BUFFER_SIZE,
+                                                        compactCodeBufferSize,
+                                                        referenceSequenceOptions.workingSetSize,
+                                                        EXPECTED_ROTATION_BUFFER_LEVELS,
+                                                        START_SEQUENCE_BUFFER_SIZE              );
+        arenaMemoryConsumption = 0;
+
+        /* calculate initial start sequence length */
+        initial_start_sequence_length = getInitialStartSequenceLength(alphabetSize);
+
+        /* divide rotations into buckets in single pass */
+        createRotationBuckets(alphabetSize, initial_start_sequence_length);
+
+        /* update progress bar */
+        noStartSequenceCombinations = ((int) round(pow( alphabetSize,
+                                                        initial_start_sequence_length   )));
+        currentStartSequenceCombination = 0;
+
+        /* resume from checkpoint, checkpoints keep BW transform in BWT buffer */
+        changeDepth = 1;
+        if (referenceSequenceOptions.checkpointInterval > 0) {
+            changeDepth = restoreBwtCheckpoint(alphabetSize, initial_start_sequence_length);
+        }
+        if (progressListener != null) {
+            progressListener.setProgressMaximum(noStartSequenceCombinations);
+            progressListener.setProgressValue(currentStartSequenceCombination);
+            progressListener.setProgressIndeterminate(false);
+        }
+
+        /* update statistics */
+        if (bwtPipeline == null) {
+            currentPreprocessingMemoryConsumption += compactCodeBufferSize;
+        }
+        currentPreprocessingMemoryConsumption += START_SEQUENCE_BUFFER_SIZE;
+        currentPreprocessingMemoryConsumption += ((START_SEQUENCE_BUFFER_SIZE + 1) * 8);
+        if (currentPreprocessingMemoryConsumption > maximalPreprocessingMemoryConsumption) {
+            maximalPreprocessingMemoryConsumption = currentPreprocessingMemoryConsumption;
+        }
+
+        /* process each start sequence */
+        do {
+            checkpointChangeDepth = changeDepth;
+            checkpointBwtIndex = bwtBufferIndex;
+            try {
+
+                /* fill prefix-sum table, pipelined creation counted it in advance */
+                if ((changeDepth == 1) && (bwtPipeline == null)) {
+                    referenceSequenceIndex.prefixSumTable[startSequenceBuffer[0]] = bwtBufferIndex;
+                }
+
+                /*
+                 * process sequences that are shorter than initial sequence length.
+                 * They are located at the end of reference sequence.
+                 */
+                for (; changeDepth < initial_start_sequence_length; changeDepth++) {
+                    checkTail(changeDepth);
+                }
+
+
+                startSequenceString = Byte.toString(startSequenceBuffer[0]);
+                for (int i = 1; i < initial_start_sequence_length; i++) {
+                    startSequenceString += (", " + Byte.toString(startSequenceBuffer[i]));
+                }
+                printMessage("Starting sequence \"" + startSequenceString + "\" at: " + sdf.format(Calendar.getInstance().getTime()));
+
+
+                /* proces all rotations starting with sequence from start sequence buffer */
+                if (rotationBucketizer != null) {
+                    sortRotationBucket(initial_start_sequence_length);
+                } else {
+                    findRotations(initial_start_sequence_length, 0, rotationBuffers);
+                }
+            } catch (ReportedException ex) {
+
+                /* keep start sequences completed before cancellation */
+                if (bwtCheckpoint != null) {
+                    writeBwtCheckpoint(checkpointBwtIndex, checkpointChangeDepth);
+                }
+                throw ex;
+            }
+
+            /* update progress bar */
+            currentStartSequenceCombination++;
+            if (progressListener != null) {
+                progressListener.setProgressValue(currentStartSequenceCombination);
+            }
+
+            /* calculate next start sequence */
+            for (changeDepth = initial_start_sequence_length; changeDepth > 0; changeDepth--) {
+                startSequenceBuffer[changeDepth - 1]++;
+                if (startSequenceBuffer[changeDepth - 1] <= alphabetSize) {
+                    break;
+                }
+                startSequenceBuffer[changeDepth - 1] = 1;
+            }
+
+            /* write checkpoint if enough time has passed since the previous one */
+            if ((changeDepth > 0) && (bwtCheckpoint != null) && bwtCheckpoint.isDue()) {
+                writeBwtCheckpoint(bwtBufferIndex, changeDepth);
+            }
+        } while (changeDepth > 0);
+
+        /* BW transform is completed, checkpoint is not needed any more */
+        if (bwtCheckpoint != null) {
+            bwtCheckpoint.delete();
+            bwtCheckpoint = null;
+        }
+
+
+
+//        System.out.println("BWT test started at: " + sdf.format(Calendar.getInstance().getTime()));
+//        testBwt();
+
+
+
+        /* release unused objects */
+        releaseRotationBuckets();
+        rotationBufferSize = rotationBufferArena.getRotationBufferSize();
+        noBufferRequests = rotationBufferArena.getNoRequests();
+        noBufferAllocations = rotationBufferArena.getNoAllocations();
+        bufferBytesAllocated = rotationBufferArena.getAllocatedBytes();
+        currentPreprocessingMemoryConsumption -= arenaMemoryConsumption;
+        arenaMemoryConsumption = 0;
+        rotationBufferArena = null;
+        currentPreprocessingMemoryConsumption -= rotationSorter.getMemoryConsumption();
+        rotationSorter = null;
+        compactCodeBuffer = null;
+        packedCodeBuffer = null;
+        startSequenceBuffer = null;
+        rotationBuffers = null;
+        currentPreprocessingMemoryConsumption -= compactCodeMemoryConsumption;
+        currentPreprocessingMemoryConsumption -= START_SEQUENCE_BUFFER_SIZE;
+        currentPreprocessingMemoryConsumption -= ((START_SEQUENCE_BUFFER_SIZE + 1) * 8);
+
+        bwtCreationTimeBuffer = sdf.format(Calendar.getInstance().getTime());
+        printMessage("Reference sequence BWT creation completed at: " + bwtCreationTimeBuffer);
+        printMessage( "Rotation buffers: " + Long.toString(noBufferRequests) + " requests, "
+                      + Long.toString(noBufferAllocations) + " allocations, "
+                      + Long.toString(bufferBytesAllocated) + " bytes allocated");
+    }
+
+    /**
+     * Function createSaisBwt creates reference sequence BW transform from
+     * suffix array constructed by induced sorting (SA-IS) algorithm. Unlike
+     * rotation sorting, construction time does not depend on repetitiveness
+     * of reference sequence.
+     * 
+     * @throws ReportedException 
+     */
+    private void createSaisBwt() throws ReportedException {
+
+        SuffixArrayBuilder suffixArrayBuilder;
+        int[] suffixArray;
+        int compactCodeBufferSize;
+        int alphabetSize;
+        int rotation;
+
+        compactCodeBufferSize = compactCodeBuffer.length;
+        alphabetSize = referenceSequenceIndex.alphabetDictionary.getAlphabetSize();
+
+        /* construct suffix array */
+        suffixArrayBuilder = new SuffixArrayBuilder();
+        suffixArray = suffixArrayBuilder.buildSuffixArray(compactCodeBuffer, (alphabetSize + 1));
+        if ((currentPreprocessingMemoryConsumption + suffixArrayBuilder.getMaximalMemoryConsumption()) > maximalPreprocessingMemoryConsumption) {
+            maximalPreprocessingMemoryConsumption = (currentPreprocessingMemoryConsumption + suffixArrayBuilder.getMaximalMemoryConsumption());
+        }
+        currentPreprocessingMemoryConsumption += (compactCodeBufferSize * 4);
+        checkCancel();
+
+        printMessage("Reference sequence suffix array creation completed at: " + sdf.format(Calendar.getInstance().getTime()));
+
+        /* fill BWT buffer */
+        bwtBuffer = new byte[compactCodeBufferSize];
+        currentPreprocessingMemoryConsumption += compactCodeBufferSize;
+        if (currentPreprocessingMemoryConsumption > maximalPreprocessingMemoryConsumption) {
+            maximalPreprocessingMemoryConsumption = currentPreprocessingMemoryConsumption;
+        }
+        for (int i = 0; i < compactCodeBufferSize; i++) {
+            rotation = suffixArray[i];
+            if (rotation == 0) {
+                bwtBuffer[i] = 0;
+            } else {
+                bwtBuffer[i] = compactCodeBuffer[rotation - 1];
+            }
+        }
+        bwtBufferIndex = compactCodeBufferSize;
+
+        /* fill prefix-sum table */
+        createPrefixSumTable(alphabetSize);
+
+        /* release unused objects */
+        suffixArray = null;
+        compactCodeBuffer = null;
+        currentPreprocessingMemoryConsumption -= (compactCodeBufferSize * 4);
+        currentPreprocessingMemoryConsumption -= compactCodeBufferSize;
+
+        bwtCreationTimeBuffer = sdf.format(Calendar.getInstance().getTime());
+        printMessage("Reference sequence BWT creation completed at: " + bwtCreationTimeBuffer);
+    }
+
+    /**
+     * Function createParallelBwt creates reference sequence BW transform by
+     * sorting start sequence buckets concurrently on multiple threads.
+     * 
+     * @throws ReportedException 
+     */
+    private void createParallelBwt() throws ReportedException {
+
+        ParallelBwtBuilder parallelBwtBuilder;
+        int compactCodeBufferSize;
+        int alphabetSize;
+        int initial_start_sequence_length;
+
+        compactCodeBufferSize = compactCodeBuffer.length;
+        alphabetSize = referenceSequenceIndex.alphabetDictionary.getAlphabetSize();
+
+        /* detect long periodic runs */
+        rotationSorter = new RotationSorter(    compactCodeBuffer,
+                                                alphabetSize,
+                                                referenceSequenceOptions.rotationSortAlgorithm,
+                                                referenceSequenceOptions.maximalRepeatPeriod    );
+        currentPreprocessingMemoryConsumption += rotationSorter.getMemoryConsumption();
+        noPeriodicRuns = rotationSorter.getNoPeriodicRuns();
+
+        /* divide rotations into buckets in single pass */
+        initial_start_sequence_length = getInitialStartSequenceLength(alphabetSize);
+        createRotationBuckets(alphabetSize, initial_start_sequence_length);
+
+        /* update progress bar */
+        noStartSequenceCombinations = ((int) round(pow( alphabetSize,
+                                                        initial_start_sequence_length   )));
+        currentStartSequenceCombination = 0;
+        if (progressListener != null) {
+            progressListener.setProgressMaximum(noStartSequenceCombinations);
+            progressListener.setProgressValue(currentStartSequenceCombination);
+            progressListener.setProgressIndeterminate(false);
+        }
+
+        /* sort buckets */
+        printMessage( "Parallel BWT creation with " + Integer.toString(referenceSequenceOptions.constructionThreads)
+                      + " threads started at: " + sdf.format(Calendar.getInstance().getTime()));
+        parallelBwtBuilder = new ParallelBwtBuilder(    compactCodeBuffer,
+                                                        alphabetSize,
+                                                        rotationSorter,
+                                                        rotationBucketizer,
+                                                        referenceSequenceOptions.constructionThreads,
+                                                        initial_start_sequence_length,
+                                                        progressListener,
+                                                        referenceSequenceOptions.verbose                );
+        bwtBuffer = parallelBwtBuilder.createBwt();
+        bwtBufferIndex = bwtBuffer.length;
+        noReferenceSequencePasses += parallelBwtBuilder.getNoPasses();
+        referenceSequenceBytesScanned += parallelBwtBuilder.getBytesScanned();
+        releaseRotationBuckets();
+        if ((currentPreprocessingMemoryConsumption + parallelBwtBuilder.getMaximalMemoryConsumption()) > maximalPreprocessingMemoryConsumption) {
+            maximalPreprocessingMemoryConsumption = (currentPreprocessingMemoryConsumption + parallelBwtBuilder.getMaximalMemoryConsumption());
+        }
+        currentPreprocessingMemoryConsumption += compactCodeBufferSize;
+        noSortedBuckets = parallelBwtBuilder.getNoSortedBuckets();
+        noSplitBuckets = parallelBwtBuilder.getNoSplitBuckets();
+        totalBucketDuration = parallelBwtBuilder.getTotalBucketDuration();
+        maximalBucketDuration = parallelBwtBuilder.getMaximalBucketDuration();
+
+        /* fill prefix-sum table */
+        createPrefixSumTable(alphabetSize);
+
+        /* release unused objects */
+        currentPreprocessingMemoryConsumption -= rotationSorter.getMemoryConsumption();
+        rotationSorter = null;
+        compactCodeBuffer = null;
+        currentPreprocessingMemoryConsumption -= compactCodeBufferSize;
+
+        bwtCreationTimeBuffer = sdf.format(Calendar.getInstance().getTime());
+        printMessage("Reference sequence BWT creation completed at: " + bwtCreationTimeBuffer);
+    }
+
+    /**
+     * Function createExternalBwt creates reference sequence BW transform
+     * keeping only configured working set of rotations in memory. BW transform
+     * is written to disk in sorted runs, which are later streamed into
+     * occurrence wavelet tree by createExternalIndex.
+     * 
+     * @throws ReportedException 
+     */
+    private void createExternalBwt() throws ReportedException {
+
         int compactCodeBufferSize;
         int alphabetSize;
         int initial_start_sequence_length;
-        int changeDepth;
-        String startSequenceString;
 
+        compactCodeBufferSize = compactCodeBuffer.length;
+        alphabetSize = referenceSequenceIndex.alphabetDictionary.getAlphabetSize();
 
+        /* detect long periodic runs */
+        rotationSorter = new RotationSorter(    compactCodeBuffer,
+                                                alphabetSize,
+                                                referenceSequenceOptions.rotationSortAlgorithm,
+                                                referenceSequenceOptions.maximalRepeatPeriod    );
+        currentPreprocessingMemoryConsumption += rotationSorter.getMemoryConsumption();
+        noPeriodicRuns = rotationSorter.getNoPeriodicRuns();
+        currentPreprocessingMemoryConsumption += compactCodeBufferSize;
 
-//        testBwtBuffer = new int[compactCodeBuffer.length];
+        /* fill prefix-sum table */
+        createPrefixSumTable(alphabetSize);
 
+        /* update progress bar */
+        initial_start_sequence_length = getInitialStartSequenceLength(alphabetSize);
+        noStartSequenceCombinations = ((int) round(pow( alphabetSize,
+                                                        initial_start_sequence_length   )));
+        currentStartSequenceCombination = 0;
+        if (progressListener != null) {
+            progressListener.setProgressMaximum(noStartSequenceCombinations);
+            progressListener.setProgressValue(currentStartSequenceCombination);
+            progressListener.setProgressIndeterminate(false);
+        }
 
-        compactCodeBufferSize = compactCodeBuffer.length;
-        bwtBuffer = new byte[compactCodeBufferSize];
-        bwtBuffer[0] = compactCodeBuffer[compactCodeBufferSize - 2];
-        bwtBufferIndex = 1;
+        /* sort rotations and write BW transform runs */
+        printMessage( "External BWT creation with working set of " + Long.toString(referenceSequenceOptions.workingSetSize >> 20)
+                      + " MB started at: " + sdf.format(Calendar.getInstance().getTime()));
+        externalBwtBuilder = new ExternalBwtBuilder(    compactCodeBuffer,
+                                                        alphabetSize,
+                                                        rotationSorter,
+                                                        referenceSequenceOptions.workingSetSize,
+                                                        initial_start_sequence_length,
+                                                        progressListener,
+                                                        referenceSequenceOptions.verbose            );
+        externalBwtBuilder.createBwt();
+        if ((currentPreprocessingMemoryConsumption + externalBwtBuilder.getMaximalMemoryConsumption()) > maximalPreprocessingMemoryConsumption) {
+            maximalPreprocessingMemoryConsumption = (currentPreprocessingMemoryConsumption + externalBwtBuilder.getMaximalMemoryConsumption());
+        }
+        noBwtRuns = externalBwtBuilder.getNoRuns();
+        noSplitBuckets = externalBwtBuilder.getNoSplitBuckets();
+        noReferenceSequencePasses += externalBwtBuilder.getNoPasses();
+        referenceSequenceBytesScanned += externalBwtBuilder.getBytesScanned();
+        bucketBytesSpilled += externalBwtBuilder.getBytesSpilled();
 
+        /* release unused objects */
+        currentPreprocessingMemoryConsumption -= rotationSorter.getMemoryConsumption();
+        rotationSorter = null;
+        compactCodeBuffer = null;
+        currentPreprocessingMemoryConsumption -= compactCodeBufferSize;
 
+        bwtCreationTimeBuffer = sdf.format(Calendar.getInstance().getTime());
+        printMessage( "Reference sequence BWT creation completed at: " + bwtCreationTimeBuffer
+                      + " (" + Integer.toString(noBwtRuns) + " runs written to disk)");
+    }
 
-//        testBwtBuffer[0] = compactCodeBufferSize - 1;
+    /**
+     * Function createExternalIndex creates reference sequence index by
+     * streaming BW transform runs from disk into occurrence wavelet tree.
+     * 
+     * @throws ReportedException 
+     */
+    private void createExternalIndex() throws ReportedException {
+        if (indexAddressing == IndexAddressing.LONG_64) {
+            createLongWaveletTree();
+            externalBwtBuilder.insertBwt(referenceSequenceIndex.longOccurrenceWaveletTree);
+        } else {
+            createWaveletTree();
+            externalBwtBuilder.insertBwt(referenceSequenceIndex.occurrenceWaveletTree);
+        }
+
+        /* estimate occurence wavelet node memory consumption */
+        currentPreprocessingMemoryConsumption += referenceSequenceIndex.getMemoryConsumption();
+        if (currentPreprocessingMemoryConsumption > maximalPreprocessingMemoryConsumption) {
+            maximalPreprocessingMemoryConsumption = currentPreprocessingMemoryConsumption;
+        }
+        peakResidentSetSize = ExternalBwtBuilder.getPeakResidentSetSize();
 
+        indexCreationTimeBuffer = sdf.format(Calendar.getInstance().getTime());
+        printMessage("Reference sequence index creation completed at: " + indexCreationTimeBuffer);
+        printMessage( "Peak resident set size: " + Long.toString(peakResidentSetSize >> 10) + " KB, "
+                      + Long.toString(bucketBytesSpilled) + " bytes spilled to disk");
+    }
 
+    /**
+     * Function createWaveletTree creates empty 32-bit occurrence wavelet tree
+     * upon prefix-sum table, shaped by Huffman codes of characters if
+     * requested by options.
+     *
+     * @throws ReportedException
+     */
+    private void createWaveletTree() throws ReportedException {
+        referenceSequenceIndex.occurrenceWaveletTree = new FMIndexWaveletTreeNode(  null,
+                                                                                    referenceSequenceIndex.prefixSumTable,
+                                                                                    (referenceSequenceOptions.occurrenceStructure == OccurrenceStructure.HUFFMAN_WAVELET_TREE)  );
+    }
 
-        /* initialize prefix-sum table */
-        alphabetSize = referenceSequenceIndex.alphabetDictionary.getAlphabetSize();
-        referenceSequenceIndex.prefixSumTable = new int[alphabetSize + 2];
-        referenceSequenceIndex.prefixSumTable[0] = 0;
-        referenceSequenceIndex.prefixSumTable[alphabetSize + 1] = compactCodeBufferSize;    // last entry contains reference sequence length
+    /**
+     * Function createLongWaveletTree replaces 32-bit prefix-sum table with
+     * 64-bit one and creates empty 64-bit occurrence wavelet tree upon it.
+     *
+     * @throws ReportedException
+     */
+    private void createLongWaveletTree() throws ReportedException {
 
-        /* prepare start sequence buffer */
-        startSequenceBuffer = new byte[START_SEQUENCE_BUFFER_SIZE];
-        Arrays.fill(startSequenceBuffer, (byte) 1);
+        int[] prefixSumTable;
 
-        /* prepare rotation buffers array */
-        rotationBuffers = new int[START_SEQUENCE_BUFFER_SIZE + 1][];
+        prefixSumTable = referenceSequenceIndex.prefixSumTable;
+        referenceSequenceIndex.longPrefixSumTable = new long[prefixSumTable.length];
+        for (int i = 0; i < prefixSumTable.length; i++) {
+            referenceSequenceIndex.longPrefixSumTable[i] = prefixSumTable[i];
+        }
+        referenceSequenceIndex.prefixSumTable = null;
+        referenceSequenceIndex.occurrenceWaveletTree = null;
+        referenceSequenceIndex.longOccurrenceWaveletTree = new FMIndexLongWaveletTreeNode(referenceSequenceIndex.longPrefixSumTable);
+    }
 
-        /* detect long runs of same character */
-        detectLongRuns();
+    /**
+     * Function getInitialStartSequenceLength calculates length of start
+     * sequences used to divide rotations into initial buckets.
+     * 
+     * @param alphabetSize      number of characters in the alphabet
+     * @return                  initial start sequence length
+     */
+    private int getInitialStartSequenceLength(int alphabetSize) {
+
+        int initial_start_sequence_length;
 
-        /* calculate initial start sequence length */
         initial_start_sequence_length = INITIAL_START_SEQUENCE_LENGTH_5;
         if (alphabetSize > 5) {
             initial_start_sequence_length = INITIAL_START_SEQUENCE_LENGTH_10;
@@ -609,93 +2263,293 @@ public class ReferenceSequence {
         if (alphabetSize > 10) {
             initial_start_sequence_length = INITIAL_START_SEQUENCE_LENGTH_10_PLUS;
         }
+        return initial_start_sequence_length;
+    }
 
-        /* update progress bar */
-        noStartSequenceCombinations = ((int) round(pow( alphabetSize,
-                                                        initial_start_sequence_length   )));
-        currentStartSequenceCombination = 0;
-        java.awt.EventQueue.invokeLater(new Runnable() {
-            @Override
-            public void run() {
-                parentFrame.setProgressBarMaximum(noStartSequenceCombinations);
-                parentFrame.setProgressBarValue(currentStartSequenceCombination);
-                parentFrame.setProgressBarIndeterminate(false);
+    /**
+     * Function createRotationBuckets divides all reference sequence rotations
+     * into buckets by their initial start sequence in single pass, if it is
+     * requested by reference sequence options. Otherwise rotations are
+     * collected later by scanning reference sequence for each start sequence.
+     * Automatic bucketing keeps buckets in memory only if they fit into
+     * working set and into quarter of free heap, so the rest is left to
+     * rotation sort, otherwise they are spilled to disk.
+     * 
+     * @param alphabetSize                  number of characters in the alphabet
+     * @param initialStartSequenceLength    initial start sequence length
+     * @throws ReportedException 
+     */
+    private void createRotationBuckets(int alphabetSize, int initialStartSequenceLength) throws ReportedException {
+
+        Runtime runtime;
+        long bucketMemory;
+        long freeMemory;
+
+        if (rotationBucketingMethod == RotationBucketingMethod.AUTO) {
+            runtime = Runtime.getRuntime();
+            bucketMemory = (4L * getReferenceSequenceLength());
+            freeMemory = (runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory()));
+            if (bucketMemory <= Math.min(referenceSequenceOptions.workingSetSize, (freeMemory / 4))) {
+                rotationBucketingMethod = RotationBucketingMethod.MEMORY;
+            } else {
+                rotationBucketingMethod = RotationBucketingMethod.DISK;
+            }
+        }
+        if (rotationBucketingMethod == RotationBucketingMethod.SCAN) {
+            return;
+        }
+        try {
+            if (packedCodeBuffer != null) {
+                rotationBucketizer = new RotationBucketizer(    packedCodeBuffer,
+                                                                alphabetSize,
+                                                                initialStartSequenceLength,
+                                                                (rotationBucketingMethod == RotationBucketingMethod.DISK)   );
+            } else {
+                rotationBucketizer = new RotationBucketizer(    compactCodeBuffer,
+                                                                alphabetSize,
+                                                                initialStartSequenceLength,
+                                                                (rotationBucketingMethod == RotationBucketingMethod.DISK)   );
             }
-        });
+        } catch (OutOfMemoryError ex) {
+            throw new ReportedException(    "Nedovoljno memorije za grupiranje rotacija referentnog slijeda u memoriji, "
+                                            + "potrebno je povećati memoriju ili koristiti opciju -bucketing=disk ili -bucketing=scan!" );
+        }
+        if ((currentPreprocessingMemoryConsumption + rotationBucketizer.getMaximalMemoryConsumption()) > maximalPreprocessingMemoryConsumption) {
+            maximalPreprocessingMemoryConsumption = (currentPreprocessingMemoryConsumption + rotationBucketizer.getMaximalMemoryConsumption());
+        }
+        currentPreprocessingMemoryConsumption += rotationBucketizer.getMemoryConsumption();
+        noReferenceSequencePasses += rotationBucketizer.getNoPasses();
+        referenceSequenceBytesScanned += rotationBucketizer.getBytesScanned();
+        bucketBytesSpilled += rotationBucketizer.getBytesSpilled();
 
-        /* update statistics */
-        currentPreprocessingMemoryConsumption += compactCodeBufferSize;
-        currentPreprocessingMemoryConsumption += START_SEQUENCE_BUFFER_SIZE;
-        currentPreprocessingMemoryConsumption += ((START_SEQUENCE_BUFFER_SIZE + 1) * 8);
-        if (currentPreprocessingMemoryConsumption > maximalPreprocessingMemoryConsumption) {
-            maximalPreprocessingMemoryConsumption = currentPreprocessingMemoryConsumption;
+        printMessage("Reference sequence rotation bucketing completed at: " + sdf.format(Calendar.getInstance().getTime()));
+    }
+
+    /**
+     * Function releaseRotationBuckets releases rotation buckets and deletes
+     * their temporary file, if any.
+     */
+    private void releaseRotationBuckets() {
+        if (rotationBucketizer != null) {
+            currentPreprocessingMemoryConsumption -= rotationBucketizer.getMemoryConsumption();
+            rotationBucketizer.close();
+            rotationBucketizer = null;
         }
+    }
 
-        /* process each start sequence */
-        changeDepth = 1;
-        do {
+    /**
+     * Function restoreBwtCheckpoint prepares checkpoint of BW transform
+     * creation and, if previous creation of the same reference sequence was
+     * interrupted, restores BW transform, prefix-sum table and start sequence
+     * saved by its last checkpoint. Reference sequence is identified by its
+     * length and checksum.
+     * 
+     * @param alphabetSize                  number of characters in the alphabet
+     * @param initialStartSequenceLength    initial start sequence length
+     * @return                              depth of the first changed character of start sequence to process
+     */
+    private int restoreBwtCheckpoint(int alphabetSize, int initialStartSequenceLength) {
 
-            /* fill prefix-sum table */
-            if (changeDepth == 1) {
-                referenceSequenceIndex.prefixSumTable[startSequenceBuffer[0]] = bwtBufferIndex;
-            }
+        CRC32 checksum;
+        byte[] checksumBuffer;
+        int compactCodeBufferSize;
+        int chunkSize;
+        int restoredBwtIndex;
+
+        /* calculate reference sequence checksum */
+        compactCodeBufferSize = getReferenceSequenceLength();
+        checksum = new CRC32();
+        checksumBuffer = new byte[Math.min(CHECKSUM_CHUNK_SIZE, compactCodeBufferSize)];
+        for (int position = 0; position < compactCodeBufferSize; position += chunkSize) {
+            chunkSize = Math.min(CHECKSUM_CHUNK_SIZE, (compactCodeBufferSize - position));
+            readCompactCodes(position, checksumBuffer, chunkSize);
+            checksum.update(checksumBuffer, 0, chunkSize);
+        }
 
-            /*
-             * process sequences that are shorter than initial sequence length.
-             * They are located at the end of reference sequence.
-             */
-            for (; changeDepth < initial_start_sequence_length; changeDepth++) {
-                checkTail(changeDepth);
-            }
+        bwtCheckpoint = new BwtCheckpoint(  referenceSequenceOptions.checkpointDirectory,
+                                            referenceSequenceFilename,
+                                            checksum.getValue(),
+                                            compactCodeBufferSize,
+                                            initialStartSequenceLength,
+                                            referenceSequenceOptions.checkpointInterval,
+                                            referenceSequenceOptions.verbose            );
+        printMessage( "BWT creation checkpoints are written to " + bwtCheckpoint.getStateFilename()
+                      + " at least " + Integer.toString(referenceSequenceOptions.checkpointInterval) + " s apart");
+        restoredBwtIndex = bwtCheckpoint.restore(bwtBuffer, alphabetSize);
+        if (restoredBwtIndex == 0) {
+            return 1;
+        }
 
+        /* continue where checkpointed creation stopped */
+        bwtBufferIndex = restoredBwtIndex;
+        System.arraycopy(bwtCheckpoint.getRestoredStartSequence(), 0, startSequenceBuffer, 0, initialStartSequenceLength);
+        referenceSequenceIndex.prefixSumTable = bwtCheckpoint.getRestoredPrefixSumTable();
+        currentStartSequenceCombination = bwtCheckpoint.getRestoredStartSequenceCombination();
+        resumedStartSequenceCombination = currentStartSequenceCombination;
+        resumedBwtIndex = bwtBufferIndex;
+        printMessage( "BWT creation resumed from checkpoint: " + Integer.toString(currentStartSequenceCombination) + " of "
+                      + Integer.toString(noStartSequenceCombinations) + " start sequences, "
+                      + Integer.toString(bwtBufferIndex) + " characters restored");
+        return bwtCheckpoint.getRestoredChangeDepth();
+    }
 
-            startSequenceString = Byte.toString(startSequenceBuffer[0]);
-            for (int i = 1; i < initial_start_sequence_length; i++) {
-                startSequenceString += (", " + Byte.toString(startSequenceBuffer[i]));
-            }
-            System.out.println("Starting sequence \"" + startSequenceString + "\" at: " + sdf.format(Calendar.getInstance().getTime()));
+    /**
+     * Function writeBwtCheckpoint writes checkpoint of BW transform created
+     * before start sequence from startSequenceBuffer.
+     * 
+     * @param bwtIndex          number of BW transform characters created before start sequence
+     * @param changeDepth       depth of the first changed character of start sequence
+     */
+    private void writeBwtCheckpoint(int bwtIndex, int changeDepth) {
+        bwtCheckpoint.write(    bwtBuffer,
+                                bwtIndex,
+                                startSequenceBuffer,
+                                changeDepth,
+                                currentStartSequenceCombination,
+                                referenceSequenceIndex.prefixSumTable   );
+        noBwtCheckpoints = bwtCheckpoint.getNoCheckpoints();
+        checkpointBytesWritten = bwtCheckpoint.getBytesWritten();
+        checkpointWriteDuration = bwtCheckpoint.getWriteDuration();
+        maximalCheckpointWriteDuration = bwtCheckpoint.getMaximalWriteDuration();
+        checkpointWriteError = bwtCheckpoint.getWriteError();
+    }
 
+    /**
+     * Function sortRotationBucket sorts all rotations from the bucket of start
+     * sequence from startSequenceBuffer and fills BWT buffer.
+     * 
+     * @param startSequenceLength       depth of start sequence
+     * @throws ReportedException 
+     */
+    private void sortRotationBucket(int startSequenceLength) throws ReportedException {
 
-            /* proces all rotations starting with sequence from start sequence buffer */
-            findRotations(initial_start_sequence_length, 0, rotationBuffers);
+        int[] rotationBuffer;
+        int bucket;
+        int noRotations;
 
-            /* update progress bar */
-            currentStartSequenceCombination++;
-            java.awt.EventQueue.invokeLater(new Runnable() {
-                @Override
-                public void run() {
-                    parentFrame.setProgressBarValue(currentStartSequenceCombination);
-                }
-            });
+        checkCancel();
+        bucket = rotationBucketizer.getBucketIndex(startSequenceBuffer);
+        noRotations = rotationBucketizer.getBucketSize(bucket);
+        rotationBuffer = rotationBufferArena.getSortBuffer(noRotations);
+        rotationBucketizer.readBucketRotations(bucket, 0, rotationBuffer, noRotations);
 
-            /* calculate next start sequence */
-            for (changeDepth = initial_start_sequence_length; changeDepth > 0; changeDepth--) {
-                startSequenceBuffer[changeDepth - 1]++;
-                if (startSequenceBuffer[changeDepth - 1] <= alphabetSize) {
-                    break;
-                }
-                startSequenceBuffer[changeDepth - 1] = 1;
+        /* sort rotations */
+        if (noRotations > 1) {
+            rotationSorter.sortRotations(rotationBuffer, noRotations, startSequenceLength, rotationBufferArena);
+        }
+        updateArenaMemoryConsumption();
+
+        /* insert sorted rotations into BWT buffer */
+        if (noRotations > 0) {
+            insertBwt(rotationBuffer, noRotations);
+        }
+    }
+
+    /**
+     * Function updateArenaMemoryConsumption includes memory of buffers
+     * allocated by rotation buffer arena since the last update into memory
+     * consumption statistics.
+     */
+    private void updateArenaMemoryConsumption() {
+        currentPreprocessingMemoryConsumption += (rotationBufferArena.getMemoryConsumption() - arenaMemoryConsumption);
+        arenaMemoryConsumption = rotationBufferArena.getMemoryConsumption();
+        if (currentPreprocessingMemoryConsumption > maximalPreprocessingMemoryConsumption) {
+            maximalPreprocessingMemoryConsumption = currentPreprocessingMemoryConsumption;
+        }
+    }
+
+    /**
+     * Function createPrefixSumTable creates prefix-sum table by counting
+     * characters of compact coded reference sequence. Terminating character
+     * is counted as well, so the first rotation begining with character c is
+     * placed at the BWT index given by prefix-sum table entry c. Packed
+     * reference sequence already keeps character counts.
+     * 
+     * @param alphabetSize      number of characters in the alphabet
+     */
+    private void createPrefixSumTable(int alphabetSize) {
+
+        int[] characterCount;
+        int compactCodeBufferSize;
+
+        characterCount = new int[alphabetSize + 1];
+        if (packedCodeBuffer != null) {
+            for (int i = 0; i <= alphabetSize; i++) {
+                characterCount[i] = packedCodeBuffer.getCodeCount((byte) i);
             }
-        } while (changeDepth > 0);
+        } else {
+            compactCodeBufferSize = compactCodeBuffer.length;
+            for (int i = 0; i < compactCodeBufferSize; i++) {
+                characterCount[compactCodeBuffer[i]]++;
+            }
+        }
+        referenceSequenceIndex.prefixSumTable = new int[alphabetSize + 2];
+        referenceSequenceIndex.prefixSumTable[0] = 0;
+        for (int i = 1; i <= (alphabetSize + 1); i++) {
+            referenceSequenceIndex.prefixSumTable[i] = (referenceSequenceIndex.prefixSumTable[i - 1] + characterCount[i - 1]);
+        }
+    }
 
+    /**
+     * Function startBwtPipeline creates empty occurrence wavelet tree upon
+     * prefix-sum table counted in advance and starts pipeline which inserts
+     * BW transform into it while rotations are sorted.
+     * 
+     * @param alphabetSize      number of characters in the alphabet
+     * @throws ReportedException 
+     */
+    private void startBwtPipeline(int alphabetSize) throws ReportedException {
+        createPrefixSumTable(alphabetSize);
+        if (indexAddressing == IndexAddressing.LONG_64) {
+            createLongWaveletTree();
+            bwtPipeline = new BwtPipeline(  null,
+                                            referenceSequenceIndex.longOccurrenceWaveletTree,
+                                            getReferenceSequenceLength()                        );
+        } else {
+            createWaveletTree();
+            bwtPipeline = new BwtPipeline(  referenceSequenceIndex.occurrenceWaveletTree,
+                                            null,
+                                            getReferenceSequenceLength()                    );
+        }
 
+        /* estimate occurence wavelet node and pipeline memory consumption */
+        currentPreprocessingMemoryConsumption += referenceSequenceIndex.getMemoryConsumption();
+        currentPreprocessingMemoryConsumption += bwtPipeline.getMemoryConsumption();
+        if (currentPreprocessingMemoryConsumption > maximalPreprocessingMemoryConsumption) {
+            maximalPreprocessingMemoryConsumption = currentPreprocessingMemoryConsumption;
+        }
+    }
 
-//        System.out.println("BWT test started at: " + sdf.format(Calendar.getInstance().getTime()));
-//        testBwt();
+    /**
+     * Function finishPipelinedIndex waits until pipeline inserts the rest of
+     * BW transform into occurrence wavelet tree.
+     * 
+     * @throws ReportedException 
+     */
+    private void finishPipelinedIndex() throws ReportedException {
 
+        long waitDuration;
 
+        waitDuration = System.nanoTime();
+        bwtPipeline.finish();
+        waitDuration = ((System.nanoTime() - waitDuration) / 1000000);
+        if (bwtPipeline.getNoCharacters() != bwtBufferIndex) {
+            throw new ReportedException("BW transformacija nije potpuno umetnuta u stablo valića!");
+        }
+        noPipelineBlocks = bwtPipeline.getNoBlocks();
+        pipelineInsertDuration = bwtPipeline.getInsertDuration();
+        pipelineWaitDuration = bwtPipeline.getProducerWaitDuration();
 
         /* release unused objects */
-        releaseLongRunMemory();
-        compactCodeBuffer = null;
-        startSequenceBuffer = null;
-        rotationBuffers = null;
-        currentPreprocessingMemoryConsumption -= compactCodeBufferSize;
-        currentPreprocessingMemoryConsumption -= START_SEQUENCE_BUFFER_SIZE;
-        currentPreprocessingMemoryConsumption -= ((START_SEQUENCE_BUFFER_SIZE + 1) * 8);
+        currentPreprocessingMemoryConsumption -= bwtPipeline.getMemoryConsumption();
+        bwtPipeline = null;
 
-        bwtCreationTimeBuffer = sdf.format(Calendar.getInstance().getTime());
-        System.out.println("Reference sequence BWT creation completed at: " + bwtCreationTimeBuffer);
+        indexCreationTimeBuffer = sdf.format(Calendar.getInstance().getTime());
+        printMessage("Reference sequence index creation completed at: " + indexCreationTimeBuffer);
+        printMessage( "Pipelined index creation: " + Integer.toString(noPipelineBlocks) + " blocks inserted in "
+                      + Long.toString(pipelineInsertDuration) + " ms, sorting waited "
+                      + Long.toString(pipelineWaitDuration) + " ms for free blocks, "
+                      + Long.toString(waitDuration) + " ms waited for insertion after sorting");
     }
 
     /**
@@ -705,10 +2559,38 @@ public class ReferenceSequence {
      * @throws ReportedException 
      */
     private void createIndex() throws ReportedException {
-        referenceSequenceIndex.occurrenceWaveletTree = new FMIndexWaveletTreeNode(bwtBuffer, referenceSequenceIndex.prefixSumTable);
+
+        WaveletTreeBuilder waveletTreeBuilder;
+
+        waveletTreeBuilder = null;
+        if (indexAddressing == IndexAddressing.LONG_64) {
+            createLongWaveletTree();
+            referenceSequenceIndex.longOccurrenceWaveletTree.resetSequentialIndex();
+            for (int i = 0; i < bwtBuffer.length; i++) {
+                referenceSequenceIndex.longOccurrenceWaveletTree.insertCharacter(bwtBuffer[i]);
+            }
+            referenceSequenceIndex.longOccurrenceWaveletTree.refreshBuckets();
+        } else if (     (referenceSequenceOptions.occurrenceStructure == OccurrenceStructure.WAVELET_MATRIX)
+                        && (referenceSequenceOptions.mergeFilename == null)                                 ) {
+            waveletMatrixBuildDuration = System.nanoTime();
+            referenceSequenceIndex.occurrenceWaveletMatrix = new FMIndexWaveletMatrix(bwtBuffer, referenceSequenceIndex.prefixSumTable);
+            reportWaveletMatrixBuild();
+        } else {
+            createWaveletTree();
+            waveletTreeBuilder = new WaveletTreeBuilder(referenceSequenceOptions.constructionThreads);
+            waveletTreeBuilder.build(referenceSequenceIndex.occurrenceWaveletTree, bwtBuffer);
+        }
 
         /* estimate occurence wavelet node memory consumption */
-        currentPreprocessingMemoryConsumption += referenceSequenceIndex.occurrenceWaveletTree.getMemoryConsumption();
+        currentPreprocessingMemoryConsumption += referenceSequenceIndex.getMemoryConsumption();
+        if (    (waveletTreeBuilder != null)
+                && ((currentPreprocessingMemoryConsumption + waveletTreeBuilder.getMaximalMemoryConsumption()) > maximalPreprocessingMemoryConsumption)) {
+            maximalPreprocessingMemoryConsumption = (currentPreprocessingMemoryConsumption + waveletTreeBuilder.getMaximalMemoryConsumption());
+        }
+        if (    (referenceSequenceIndex.occurrenceWaveletMatrix != null)
+                && ((currentPreprocessingMemoryConsumption + bwtBuffer.length) > maximalPreprocessingMemoryConsumption)) {
+            maximalPreprocessingMemoryConsumption = (currentPreprocessingMemoryConsumption + bwtBuffer.length);
+        }
         if (currentPreprocessingMemoryConsumption > maximalPreprocessingMemoryConsumption) {
             maximalPreprocessingMemoryConsumption = currentPreprocessingMemoryConsumption;
         }
@@ -718,7 +2600,116 @@ public class ReferenceSequence {
         bwtBuffer = null;
 
         indexCreationTimeBuffer = sdf.format(Calendar.getInstance().getTime());
-        System.out.println("Reference sequence index creation completed at: " + indexCreationTimeBuffer);
+        printMessage("Reference sequence index creation completed at: " + indexCreationTimeBuffer);
+        if (waveletTreeBuilder != null) {
+            reportWaveletTreeBuild(waveletTreeBuilder);
+        }
+    }
+
+    /**
+     * Function reportWaveletTreeBuild prints number of characters, processing
+     * time and throughput of each wavelet tree level built in bulk.
+     * 
+     * @param waveletTreeBuilder    builder which built occurrence wavelet tree
+     */
+    private void reportWaveletTreeBuild(WaveletTreeBuilder waveletTreeBuilder) {
+
+        long noCharacters;
+
+        noCharacters = 0;
+        for (int level = 0; level < waveletTreeBuilder.getNoLevels(); level++) {
+            printMessage( "Wavelet tree level " + Integer.toString(level) + ": "
+                          + Long.toString(waveletTreeBuilder.getLevelCharacters(level)) + " characters in "
+                          + Long.toString(waveletTreeBuilder.getLevelDuration(level)) + " ms, "
+                          + Long.toString(waveletTreeBuilder.getLevelThroughput(level)) + " characters/s");
+            noCharacters += waveletTreeBuilder.getLevelCharacters(level);
+        }
+        waveletTreeLevels = waveletTreeBuilder.getNoLevels();
+        waveletTreeBuildDuration = waveletTreeBuilder.getBuildDuration();
+        waveletTreeThroughput = ((noCharacters * 1000) / Math.max(1, waveletTreeBuildDuration));
+        printMessage( "Wavelet tree built with " + Integer.toString(referenceSequenceOptions.constructionThreads)
+                      + " threads in " + Long.toString(waveletTreeBuildDuration) + " ms, "
+                      + Long.toString(waveletTreeThroughput) + " characters/s over all levels");
+    }
+
+    /**
+     * Function convertToWaveletMatrix replaces occurrence wavelet tree of
+     * 32-bit index by occurrence wavelet matrix. BW transform is read back
+     * from the tree, so the tree, BW transform and two matrix working buffers
+     * are kept in memory together.
+     *
+     * @throws ReportedException
+     */
+    private void convertToWaveletMatrix() throws ReportedException {
+
+        long treeMemoryConsumption;
+
+        treeMemoryConsumption = referenceSequenceIndex.getMemoryConsumption();
+        waveletMatrixBuildDuration = System.nanoTime();
+        referenceSequenceIndex.occurrenceWaveletMatrix = new FMIndexWaveletMatrix(  referenceSequenceIndex.occurrenceWaveletTree,
+                                                                                    referenceSequenceIndex.prefixSumTable       );
+        referenceSequenceIndex.occurrenceWaveletTree = null;
+        reportWaveletMatrixBuild();
+
+        /* estimate memory consumption */
+        if (    (currentPreprocessingMemoryConsumption + referenceSequenceIndex.occurrenceWaveletMatrix.getMemoryConsumption() + (2 * referenceSequenceIndex.getBwtLength()))
+                > maximalPreprocessingMemoryConsumption                                                                                                                     ) {
+            maximalPreprocessingMemoryConsumption = (   currentPreprocessingMemoryConsumption
+                                                        + referenceSequenceIndex.occurrenceWaveletMatrix.getMemoryConsumption()
+                                                        + (2 * referenceSequenceIndex.getBwtLength())                           );
+        }
+        currentPreprocessingMemoryConsumption += (referenceSequenceIndex.getMemoryConsumption() - treeMemoryConsumption);
+    }
+
+    /**
+     * Function convertToHuffmanWaveletTree replaces occurrence wavelet tree of
+     * 32-bit index, e.g. read from file, by Huffman-shaped one. BW transform
+     * is read back from the tree, so both trees and BW transform are kept in
+     * memory together.
+     *
+     * @throws ReportedException
+     */
+    private void convertToHuffmanWaveletTree() throws ReportedException {
+
+        WaveletTreeBuilder waveletTreeBuilder;
+        FMIndexWaveletTreeNode waveletTree;
+        byte[] bwt;
+        long treeMemoryConsumption;
+
+        treeMemoryConsumption = referenceSequenceIndex.getMemoryConsumption();
+        waveletTree = referenceSequenceIndex.occurrenceWaveletTree;
+        bwt = new byte[waveletTree.getNodeSize()];
+        waveletTree.resetSequentialIndex();
+        for (int i = 0; i < bwt.length; i++) {
+            bwt[i] = waveletTree.readCharacter();
+        }
+        createWaveletTree();
+        waveletTreeBuilder = new WaveletTreeBuilder(referenceSequenceOptions.constructionThreads);
+        waveletTreeBuilder.build(referenceSequenceIndex.occurrenceWaveletTree, bwt);
+        reportWaveletTreeBuild(waveletTreeBuilder);
+
+        /* estimate memory consumption */
+        if (    (currentPreprocessingMemoryConsumption + referenceSequenceIndex.getMemoryConsumption() + bwt.length + waveletTreeBuilder.getMaximalMemoryConsumption())
+                > maximalPreprocessingMemoryConsumption                                                                                                                 ) {
+            maximalPreprocessingMemoryConsumption = (   currentPreprocessingMemoryConsumption
+                                                        + referenceSequenceIndex.getMemoryConsumption()
+                                                        + bwt.length
+                                                        + waveletTreeBuilder.getMaximalMemoryConsumption()  );
+        }
+        currentPreprocessingMemoryConsumption += (referenceSequenceIndex.getMemoryConsumption() - treeMemoryConsumption);
+    }
+
+    /**
+     * Function reportWaveletMatrixBuild completes duration of wavelet matrix
+     * creation, started by setting waveletMatrixBuildDuration to nanoTime, and
+     * prints number of levels and memory consumption of the matrix.
+     */
+    private void reportWaveletMatrixBuild() {
+        waveletMatrixBuildDuration = ((System.nanoTime() - waveletMatrixBuildDuration) / 1000000);
+        waveletMatrixLevels = referenceSequenceIndex.occurrenceWaveletMatrix.getNoLevels();
+        printMessage( "Wavelet matrix built with " + Integer.toString(waveletMatrixLevels) + " levels in "
+                      + Long.toString(waveletMatrixBuildDuration) + " ms, "
+                      + Integer.toString(referenceSequenceIndex.occurrenceWaveletMatrix.getMemoryConsumption()) + " bytes");
     }
 
     /**
@@ -739,6 +2730,7 @@ public class ReferenceSequence {
 
         int[] rotationBuffer;
         int rotationBufferIndex;
+        int rotationBufferLength;
         int[] previousRotationBuffer;
         int previousRotationBufferSize;
         int referenceSeqIndex;
@@ -746,25 +2738,25 @@ public class ReferenceSequence {
         int totalRotations;
         int rotation;
 
-        /* initialize rotation buffer */
+        /* initialize rotation buffer, buffer of this recursion level is reused */
         checkCancel();
-        rotationBuffer = new int[ROTATION_BUFFER_SIZE];
+        rotationBuffer = rotationBufferArena.getLevelBuffer(startSequenceLength);
+        rotationBufferLength = rotationBufferArena.getRotationBufferSize();
         rotationBuffers[startSequenceLength] = rotationBuffer;
         rotationBufferIndex = 0;
-        currentPreprocessingMemoryConsumption += (ROTATION_BUFFER_SIZE * 4);
-        if (currentPreprocessingMemoryConsumption > maximalPreprocessingMemoryConsumption) {
-            maximalPreprocessingMemoryConsumption = currentPreprocessingMemoryConsumption;
-        }
+        updateArenaMemoryConsumption();
 
         /* check the rest of reference sequence for matching start sequences */
-        referenceSequenceSize = (compactCodeBuffer.length - startSequenceLength);
+        referenceSequenceSize = (getReferenceSequenceLength() - startSequenceLength);
         referenceSeqIndex = startRotation;
-        while ((referenceSeqIndex < referenceSequenceSize) && (rotationBufferIndex < ROTATION_BUFFER_SIZE)) {
-            if (rotationEquals(referenceSeqIndex, startSequenceLength)) {
+        while ((referenceSeqIndex < referenceSequenceSize) && (rotationBufferIndex < rotationBufferLength)) {
+            if (rotationSorter.rotationEquals(referenceSeqIndex, startSequenceBuffer, startSequenceLength)) {
                 rotationBuffer[rotationBufferIndex++] = referenceSeqIndex;
             }
             referenceSeqIndex++;
         }
+        noReferenceSequencePasses++;
+        referenceSequenceBytesScanned += (referenceSeqIndex - startRotation);
         checkCancel();
 
         /* check if all matching sequences from reference sequence are now in rotation buffer */
@@ -781,7 +2773,7 @@ public class ReferenceSequence {
                     for (int j = 0; j < previousRotationBufferSize; j++) {
                         rotation = previousRotationBuffer[j];
                         if (rotation >= 0) {
-                            if (rotationEquals(rotation, startSequenceLength)) {
+                            if (rotationSorter.rotationEquals(rotation, startSequenceBuffer, startSequenceLength)) {
                                 totalRotations++;
                             }
                         }
@@ -799,11 +2791,8 @@ public class ReferenceSequence {
                 int sortBufferIndex;
                 
                 /* move matching rotations from all previous levels to sort buffer */
-                sortBuffer = new int[totalRotations];
-                currentPreprocessingMemoryConsumption += (totalRotations * 4);
-                if (currentPreprocessingMemoryConsumption > maximalPreprocessingMemoryConsumption) {
-                    maximalPreprocessingMemoryConsumption = currentPreprocessingMemoryConsumption;
-                }
+                sortBuffer = rotationBufferArena.getSortBuffer(totalRotations);
+                updateArenaMemoryConsumption();
                 sortBufferIndex = 0;
                 for (int i = 1; i < startSequenceLength; i++) {
                     previousRotationBuffer = rotationBuffers[i];
@@ -812,7 +2801,7 @@ public class ReferenceSequence {
                         for (int j = 0; j < previousRotationBufferSize; j++) {
                             rotation = previousRotationBuffer[j];
                             if (rotation >= 0) {
-                                if (rotationEquals(rotation, startSequenceLength)) {
+                                if (rotationSorter.rotationEquals(rotation, startSequenceBuffer, startSequenceLength)) {
                                     sortBuffer[sortBufferIndex++] = rotation;
                                     previousRotationBuffer[j] = -1;
                                 }
@@ -829,14 +2818,11 @@ public class ReferenceSequence {
 
                 /* all matching rotations from reference sequence are now in sort buffer */
                 /* sort rotations */
-                sortRotations(sortBuffer, totalRotations, startSequenceLength);
+                rotationSorter.sortRotations(sortBuffer, totalRotations, startSequenceLength, rotationBufferArena);
+                updateArenaMemoryConsumption();
 
                 /* insert sorted rotations into BWT buffer */
                 insertBwt(sortBuffer, totalRotations);
-
-                /* release sort buffer */
-                sortBuffer = null;
-                currentPreprocessingMemoryConsumption -= (totalRotations * 4);
             } else {
 
                 /* there is no matching rotations in previous levels */
@@ -846,7 +2832,8 @@ public class ReferenceSequence {
 
                     /* sort rotations */
                     if (rotationBufferIndex > 1) {
-                        sortRotations(rotationBuffer, rotationBufferIndex, startSequenceLength);
+                        rotationSorter.sortRotations(rotationBuffer, rotationBufferIndex, startSequenceLength, rotationBufferArena);
+                        updateArenaMemoryConsumption();
                     }
 
                     /* insert sorted rotations into BWT buffer */
@@ -856,133 +2843,40 @@ public class ReferenceSequence {
         } else {
  
             /* not all matching rotations from reference sequence are taken */
-            /* increase start sequence length and do recursion for each possible extension */
-            if (startSequenceLength >= START_SEQUENCE_BUFFER_SIZE) {
-                reportError("Referentna sekvenca je prevelika!");
-                throw new ReportedException();
-            }
-            checkTail(startSequenceLength);
-            for (byte i = 1; i <= referenceSequenceIndex.alphabetDictionary.getAlphabetSize(); i++) {
-                startSequenceBuffer[startSequenceLength] = i;
-                findRotations(startSequenceLength + 1, referenceSeqIndex, rotationBuffers);
-            }
-        }
-
-        /* release unused objects and update statistics */
-        rotationBuffers[startSequenceLength] = null;
-        currentPreprocessingMemoryConsumption -= (ROTATION_BUFFER_SIZE * 4);
-    }
-
-    /**
-     * Function sortRotations sorts given rotations using heap sort algorithm
-     * 
-     * @param rotationBuffer        buffer containing rotations to sort
-     * @param noRotations           number of rotations to sort
-     * @param startSequenceLength   number of characters guaranteed to be the same
-     *                              at the beginning of each rotation 
-     * @throws ReportedException 
-     */
-    private void sortRotations( int[] rotationBuffer,
-                                int noRotations,
-                                int startSequenceLength ) throws ReportedException {
-
-        int Child;
-        int Parent;
-        int CurrentParent;
-        int PreviousParent;
-        int LeftChild;
-        int RightChild;
-        int tmp;
-        int cnt;
-
-        /* heapify rotations */
-        Parent = 0;
-        Child = 1;
-        while(Child < noRotations) {
-            checkCancel();
-            if (isRotationGreater(rotationBuffer[Child], rotationBuffer[Parent], startSequenceLength)) {
-                tmp = rotationBuffer[Child];
-                PreviousParent = Child;
-                CurrentParent = Parent;
-
-                do {
-                    rotationBuffer[PreviousParent] = rotationBuffer[CurrentParent];
-                    PreviousParent = CurrentParent;
-                    if (CurrentParent < 1) {
-                        break;
-                    }
-                    CurrentParent = ((PreviousParent - 1) / 2);
-                } while (isRotationGreater(tmp, rotationBuffer[CurrentParent], startSequenceLength));
-
-                rotationBuffer[PreviousParent] = tmp;
-            }
-
-            Child++;
-            Parent = ((Child - 1) / 2);
-        }
-
-        /* sort rotations */
-        cnt = noRotations - 1;
-        while(cnt > 0) {
-            checkCancel();
-            tmp = rotationBuffer[cnt];
-            rotationBuffer[cnt] = rotationBuffer[0];
-
-            Parent = 0;
-            LeftChild = 1;
-            RightChild = 2;
-
-            while (true) {
-                if (RightChild < cnt) {
-                    if (isRotationGreater(rotationBuffer[LeftChild], rotationBuffer[RightChild], startSequenceLength)) {
-                        if (isRotationGreater(rotationBuffer[LeftChild], tmp, startSequenceLength)) {
-                            rotationBuffer[Parent] = rotationBuffer[LeftChild];
-                            Parent = LeftChild;
-                        } else {
-                            rotationBuffer[Parent] = tmp;
-                            break;
-                        }
-                    } else {
-                        if (isRotationGreater(rotationBuffer[RightChild], tmp, startSequenceLength)) {
-                            rotationBuffer[Parent] = rotationBuffer[RightChild];
-                            Parent = RightChild;
-                        } else {
-                            rotationBuffer[Parent] = tmp;
-                            break;
-                        }
-                    }
-                } else {
-                    if (LeftChild < cnt) {
-                        if (isRotationGreater(rotationBuffer[LeftChild], tmp, startSequenceLength)) {
-                            rotationBuffer[Parent] = rotationBuffer[LeftChild];
-                            rotationBuffer[LeftChild] = tmp;
-                            break;
-                        } else {
-                            rotationBuffer[Parent] = tmp;
-                            break;
-                        }
-                    } else {
-                        rotationBuffer[Parent] = tmp;
-                        break;
-                    }
-                }
-
-                LeftChild = (Parent * 2) + 1;
-                RightChild = LeftChild + 1;
+            /* increase start sequence length and do recursion for each possible extension */
+            if (startSequenceLength >= START_SEQUENCE_BUFFER_SIZE) {
+                throw new ReportedException("Referentna sekvenca je prevelika!");
+            }
+            checkTail(startSequenceLength);
+            for (byte i = 1; i <= referenceSequenceIndex.alphabetDictionary.getAlphabetSize(); i++) {
+                startSequenceBuffer[startSequenceLength] = i;
+                findRotations(startSequenceLength + 1, referenceSeqIndex, rotationBuffers);
             }
-            cnt--;
         }
+
+        /* rotation buffer of this recursion level is no longer in use */
+        rotationBuffers[startSequenceLength] = null;
     }
 
     /**
-     * Function insertBwt converts rotation number to BWT character and inserts it into BWT buffer.
+     * Function insertBwt converts rotation number to BWT character and inserts it into BWT buffer,
+     * or hands it over to pipeline inserting it into occurrence wavelet tree.
      * 
      * @param sortBuffer    buffer containing sorted rotations
+     * @throws ReportedException 
      */
-    private void insertBwt(int[] sortBuffer, int noRotations) {
+    private void insertBwt(int[] sortBuffer, int noRotations) throws ReportedException {
 
         int rotation;
 
+        if (bwtPipeline != null) {
+            for (int i = 0; i < noRotations; i++) {
+                rotation = sortBuffer[i];
+                bwtPipeline.insertCharacter((rotation == 0) ? 0 : getCompactCode(rotation - 1));
+            }
+            bwtBufferIndex += noRotations;
+            return;
+        }
         for (int i = 0; i < noRotations; i++) {
             rotation = sortBuffer[i];
 
@@ -995,7 +2889,7 @@ public class ReferenceSequence {
             if (rotation == 0) {
                 bwtBuffer[bwtBufferIndex++] = 0;
             } else {
-                bwtBuffer[bwtBufferIndex++] = compactCodeBuffer[rotation - 1];
+                bwtBuffer[bwtBufferIndex++] = getCompactCode(rotation - 1);
             }
         }
     }
@@ -1007,272 +2901,65 @@ public class ReferenceSequence {
      * associated character is placed into BWT buffer.
      * 
      * @param tailSize      the length of sequence in start sequence buffer
+     * @throws ReportedException 
      */
-    private void checkTail(int tailSize) {
+    private void checkTail(int tailSize) throws ReportedException {
 
         int startSequenceIndex;
         int referenceSeqIndex;
 
         startSequenceIndex = 0;
-        referenceSeqIndex = ((compactCodeBuffer.length - 1) - tailSize);
+        referenceSeqIndex = ((getReferenceSequenceLength() - 1) - tailSize);
         for (int i = tailSize; i > 0; i--) {
-            if (startSequenceBuffer[startSequenceIndex++] != compactCodeBuffer[referenceSeqIndex++]) {
+            if (startSequenceBuffer[startSequenceIndex++] != getCompactCode(referenceSeqIndex++)) {
                 return;
             }
         }
-        referenceSeqIndex = ((compactCodeBuffer.length - 2) - tailSize);
-        bwtBuffer[bwtBufferIndex++] = compactCodeBuffer[referenceSeqIndex];
-
-
-
-//        testBwtBuffer[bwtBufferIndex - 1] = ((compactCodeBuffer.length - 1) - tailSize);
-    }
-
-    /**
-     * Function detectLongRuns detects long sequences of same character in reference
-     * sequence and prepares data structures to efficiently sort reference sequence
-     * rotations.
-     * 
-     * @throws ReportedException 
-     */
-    private void detectLongRuns() throws ReportedException {
-
-        ArrayList<Integer>[] start;
-        ArrayList<Integer>[] length;
-        int referenceSequenceLength;
-        byte startCharacter;
-        int startRotation;
-        int noChar;
-        int count;
-
-        /* create empty data structures */
-        noChar = referenceSequenceIndex.alphabetDictionary.getAlphabetSize();
-        longRunCount = new int[noChar + 1];
-        longRunStart = new int[noChar + 1][];
-        longRunLength = new int[noChar + 1][];
-        currentPreprocessingMemoryConsumption += ((noChar + 1) * 12);
-        if (currentPreprocessingMemoryConsumption > maximalPreprocessingMemoryConsumption) {
-            maximalPreprocessingMemoryConsumption = currentPreprocessingMemoryConsumption;
-        }
-        start = new ArrayList[noChar + 1];
-        length = new ArrayList[noChar + 1];
-        for (int i = 1; i <= noChar; i++) {
-            start[i] = new ArrayList();
-            length[i] = new ArrayList();
-        }
-
-        /* find long run sequences */
-        referenceSequenceLength = compactCodeBuffer.length;
-        startCharacter = 0;
-        startRotation = 0;
-        count = 1;
-        for (int i = 0; i < referenceSequenceLength; i++) {
-            if (compactCodeBuffer[i] == startCharacter) {
-                count++;
-            } else {
-                if (count >= LONG_RUN_SEQUENCE_THRESHOLD) {
-                    start[startCharacter].ensureCapacity(longRunCount[startCharacter] + 1);
-                    start[startCharacter].add(startRotation);
-                    length[startCharacter].ensureCapacity(longRunCount[startCharacter] + 1);
-                    length[startCharacter].add(count);
-                    longRunCount[startCharacter]++;
-                }
-                startCharacter = compactCodeBuffer[i];
-                startRotation = i;
-                count = 1;
-            }
-        }
-        if (count >= LONG_RUN_SEQUENCE_THRESHOLD) {
-            start[startCharacter].ensureCapacity(longRunCount[startCharacter] + 1);
-            start[startCharacter].add(startRotation);
-            length[startCharacter].ensureCapacity(longRunCount[startCharacter] + 1);
-            length[startCharacter].add(count);
-            longRunCount[startCharacter]++;
-        }
-
-        /* move found long run sequences to reference sequence object fields */
-        for (int i = 1; i <= noChar; i++) {
-            if (longRunCount[i] > 0) {
-                longRunStart[i] = new int[longRunCount[i]];
-                longRunLength[i] = new int[longRunCount[i]];
-                currentPreprocessingMemoryConsumption += (longRunCount[i] * 8);
-                if (currentPreprocessingMemoryConsumption > maximalPreprocessingMemoryConsumption) {
-                    maximalPreprocessingMemoryConsumption = currentPreprocessingMemoryConsumption;
-                }
-                for (int j = 0; j < longRunCount[i]; j++) {
-                    longRunStart[i][j] = start[i].get(j);
-                    longRunLength[i][j] = length[i].get(j);
-                }
-            }
-        }
-    }
-
-    /**
-     * Function releaseLongRunMemory releases memory used by long run data
-     * structures.
-     * 
-     * @throws ReportedException 
-     */
-    private void releaseLongRunMemory() throws ReportedException {
-
-        int noChar;
-
-        noChar = referenceSequenceIndex.alphabetDictionary.getAlphabetSize();
-        for (int i = 1; i <= noChar; i++) {
-            if (longRunCount[i] > 0) {
-                longRunStart[i] = null;
-                longRunLength[i] = null;
-                currentPreprocessingMemoryConsumption -= (longRunCount[i] * 8);
-            }
+        referenceSeqIndex = ((getReferenceSequenceLength() - 2) - tailSize);
+        if (bwtPipeline != null) {
+            bwtPipeline.insertCharacter(getCompactCode(referenceSeqIndex));
+            bwtBufferIndex++;
+        } else {
+            bwtBuffer[bwtBufferIndex++] = getCompactCode(referenceSeqIndex);
         }
-    }
 
-    /**
-     * Function rotationEquals checks if given rotation of reference sequence
-     * begins with sequence in start sequence buffer.
-     * 
-     * @param rotation      rotation to check against start sequence buffer
-     * @param length        length of sequence
-     * @return              true if given rotation matches the rotation from start sequence buffer
-     */
-    private boolean rotationEquals(int rotation, int length) {
 
-        int startSequenceIndex;
 
-        for (startSequenceIndex = 0; startSequenceIndex < length; startSequenceIndex++) {
-            if (startSequenceBuffer[startSequenceIndex] != compactCodeBuffer[rotation++]) {
-                return false;
-            }
-        }
-        return true;
+//        testBwtBuffer[bwtBufferIndex - 1] = ((compactCodeBuffer.length - 1) - tailSize);
     }
 
     /**
-     * Function isRotationGreater checks if rotation A of reference sequence is
-     * greater than rotation B. Rotations are guaranteed to be equal at first
-     * startSequenceLength places.
+     * Function getReferenceSequenceLength provides length of compact coded
+     * reference sequence, either packed or not.
      * 
-     * @param rotationA             rotation A
-     * @param rotationB             rotation B
-     * @param startSequenceLength   number of places at the beginning that are guaranteed to be equal
-     * @return                      true if rotation A is greater than rotation B
+     * @return      reference sequence length including terminating character
      */
-    private boolean isRotationGreater(int rotationA, int rotationB,  int startSequenceLength) {
-
-        int charactersToSkip;
-
-        rotationA += startSequenceLength;
-        rotationB += startSequenceLength;
-        for (int i = 0; i < TEST_LONG_RUN_SEQUENCE_AFTER; i++) {
-            if (compactCodeBuffer[rotationA++] != compactCodeBuffer[rotationB++]) {
-                if (compactCodeBuffer[--rotationA] > compactCodeBuffer[--rotationB]) {
-                    return true;
-                }
-                return false;
-            }
-        }
-
-        /* check if comparing two long run rotations */
-        charactersToSkip = checkLongRunSequence(rotationA, rotationB);
-        rotationA += charactersToSkip;
-        rotationB += charactersToSkip;
-
-        while (compactCodeBuffer[rotationA++] == compactCodeBuffer[rotationB++]) {
-        }
-        if (compactCodeBuffer[--rotationA] > compactCodeBuffer[--rotationB]) {
-            return true;
+    private int getReferenceSequenceLength() {
+        if (packedCodeBuffer != null) {
+            return packedCodeBuffer.getLength();
         }
-        return false;
+        return compactCodeBuffer.length;
     }
 
     /**
-     * Function checkLongRunSequence checks if both input rotations are inside
-     * long run sequence for the same character, and calculate for how many
-     * following characters the rotations will stay equal.
+     * Function getCompactCode provides compact code of reference sequence
+     * character at given position, either from packed buffer or not.
      * 
-     * @param rotationA     rotation A
-     * @param rotationB     rotation B
-     * @return              number of characters rotation A and B will stay equal
+     * @param position      character position
+     * @return              compact code of character
      */
-    private int checkLongRunSequence(int rotationA, int rotationB) {
-
-        int characterCode;
-        int rotationALength;
-        int rotationBLength;
-        int sequenceCount;
-        int sequenceIndex;
-        int sequenceIndexLow;
-        int sequenceIndexHigh;
-        int longRunSequenceStart;
-        int longRunSequenceLength;
-
-        /* check if characters are equal and if character has long run sequences */
-        characterCode = compactCodeBuffer[rotationA];
-        if (characterCode != compactCodeBuffer[rotationB]) {
-            return 0;
-        }
-        sequenceCount = longRunCount[characterCode];
-        if (sequenceCount <= 0) {
-            return 0;
-        }
-
-        /* checks rotation A */
-        sequenceIndexHigh = (sequenceCount - 1);
-        sequenceIndexLow = 0;
-        while (true) {
-            sequenceIndex = ((sequenceIndexHigh + sequenceIndexLow) / 2);
-            longRunSequenceStart = longRunStart[characterCode][sequenceIndex];
-            longRunSequenceLength = longRunLength[characterCode][sequenceIndex];
-            if (longRunSequenceStart > rotationA) {
-                sequenceIndexHigh = (sequenceIndex - 1);
-                if (sequenceIndexHigh < sequenceIndexLow) {
-                    return 0;
-                }
-            } else {
-                if ((longRunSequenceStart + longRunSequenceLength) > rotationA) {
-                    break;
-                } else {
-                    sequenceIndexLow = (sequenceIndex + 1);
-                    if (sequenceIndexHigh < sequenceIndexLow) {
-                        return 0;
-                    }
-                }
-            }
-        }
-        rotationALength = ((longRunSequenceLength) - (rotationA - longRunSequenceStart));
-
-        /* checks rotation B */
-        sequenceIndexHigh = (sequenceCount - 1);
-        sequenceIndexLow = 0;
-        while (true) {
-            sequenceIndex = ((sequenceIndexHigh + sequenceIndexLow) / 2);
-            longRunSequenceStart = longRunStart[characterCode][sequenceIndex];
-            longRunSequenceLength = longRunLength[characterCode][sequenceIndex];
-            if (longRunSequenceStart > rotationB) {
-                sequenceIndexHigh = (sequenceIndex - 1);
-                if (sequenceIndexHigh < sequenceIndexLow) {
-                    return 0;
-                }
-            } else {
-                if ((longRunSequenceStart + longRunSequenceLength) > rotationB) {
-                    break;
-                } else {
-                    sequenceIndexLow = (sequenceIndex + 1);
-                    if (sequenceIndexHigh < sequenceIndexLow) {
-                        return 0;
-                    }
-                }
-            }
+    private byte getCompactCode(int position) {
+        if (packedCodeBuffer != null) {
+            return packedCodeBuffer.getCode(position);
         }
-        rotationBLength = ((longRunSequenceLength) - (rotationB - longRunSequenceStart));
-
-        return min(rotationALength, rotationBLength);
+        return compactCodeBuffer[position];
     }
 
     /**
      * Function isSequenceName reads next line from reference sequence Fasta
      * file and checks if it is sequence start line for sequence given by
-     * sequenceNameBuffer parameter.
+     * sequenceNameBuffer parameter. Sequence name is ended by space, tab or
+     * carriage return, as by MappedFastaReader.
      * 
      * @param inStream              FileInputStream object associated with reference sequence file.
      * @param sequenceNameBuffer    sequence name buffer.
@@ -1299,7 +2986,8 @@ public class ReferenceSequence {
             return true;
         }
         discardLine();
-        if (nextChar != SPACE_CHARACTER) {
+        if (    (nextChar != SPACE_CHARACTER) && (nextChar != TAB_CHARACTER)
+                && (nextChar != CARRIAGE_RETURN_CHARACTER)                      ) {
             return false;
         }
         return true;
@@ -1335,6 +3023,7 @@ public class ReferenceSequence {
 
         int charactersRead;
         int charactersRequested;
+        int bytesRead;
 
         if (intermediateReadBufferIndex >= READ_BUFFER_SIZE) {
             if (referenceSequenceNotRead <= 0) {
@@ -1346,21 +3035,40 @@ public class ReferenceSequence {
             }
             charactersRequested = (READ_BUFFER_SIZE - intermediateReadBufferIndex);
             try {
-                charactersRead = referenceSequenceStream.read(  intermediateReadBuffer,
-                                                                intermediateReadBufferIndex,
-                                                                charactersRequested             );
+                charactersRead = 0;
+                do {
+                    bytesRead = referenceSequenceStream.read(   intermediateReadBuffer,
+                                                                (intermediateReadBufferIndex + charactersRead),
+                                                                (charactersRequested - charactersRead)          );
+                    if (bytesRead > 0) {
+                        charactersRead += bytesRead;
+                    }
+                } while ((bytesRead >= 0) && (charactersRead < charactersRequested));
             } catch (Exception ex) {
-                reportError(    "Greška tijekom čitanja datoteke referentnog slijeda ("
-                                + getExceptionType(ex)
-                                + "):\n\n    "
-                                + ex.getMessage()                                           );
-                throw new ReportedException();
+                throw new ReportedException(    "Greška tijekom čitanja datoteke referentnog slijeda ("
+                                                + getExceptionType(ex)
+                                                + "):\n\n    "
+                                                + ex.getMessage()                                           );
             }
-            if (charactersRead != charactersRequested) {
-                reportError("Nepoznata greška tijekom čitanja datoteke referentnog slijeda!");
-                throw new ReportedException();
+            referenceSequenceBytesRead += charactersRead;
+            if ((charactersRead != charactersRequested) && (compressedInputFormat != null)) {
+
+                /* end of compressed file content, move read characters to the end of buffer */
+                System.arraycopy(   intermediateReadBuffer,
+                                    intermediateReadBufferIndex,
+                                    intermediateReadBuffer,
+                                    (READ_BUFFER_SIZE - charactersRead),
+                                    charactersRead                          );
+                intermediateReadBufferIndex = (READ_BUFFER_SIZE - charactersRead);
+                referenceSequenceNotRead = 0;
+                if (charactersRead == 0) {
+                    return -1;
+                }
+            } else if (charactersRead != charactersRequested) {
+                throw new ReportedException("Nepoznata greška tijekom čitanja datoteke referentnog slijeda!");
+            } else {
+                referenceSequenceNotRead -= charactersRead;
             }
-            referenceSequenceNotRead -= charactersRead;
         }
 
         return (intermediateReadBuffer[intermediateReadBufferIndex++] & 0x000000ff);
@@ -1393,6 +3101,44 @@ public class ReferenceSequence {
         return inChar;
     }
 
+    /**
+     * Function checkReferenceSequenceLength checks that reference sequence
+     * together with final character fits into compact code buffer. The buffer
+     * is one array for both index addressings, so longer 64-bit index is
+     * created only by merging sequences which fit into it.
+     * 
+     * @param sequenceLength    Reference sequence length, final character excluded
+     * @param complete          true if whole reference sequence is read, so too short sequence is reported as well
+     * @throws ReportedException 
+     */
+    private void checkReferenceSequenceLength(long sequenceLength, boolean complete) throws ReportedException {
+        if (sequenceLength > MAXIMAL_REFERENCE_SEQUENCE_LENGTH) {
+            throw new ReportedException(    "Referentni slijed je prevelik: "
+                                            + (complete ? "" : "najmanje ")
+                                            + Long.toString(sequenceLength)
+                                            + " znakova, a najviše je "
+                                            + Integer.toString(MAXIMAL_REFERENCE_SEQUENCE_LENGTH)
+                                            + " znakova, dulji slijed potrebno je podijeliti i spojiti opcijama -index=long i -merge!");
+        }
+        if (complete && (sequenceLength < 2)) {
+            throw new ReportedException(    "Referentni slijed je prekratak: "
+                                            + Long.toString(sequenceLength)
+                                            + " znakova!"                       );
+        }
+    }
+
+    /**
+     * Function printMessage prints creation or query progress message to
+     * standard output if verbose output is requested by options.
+     * 
+     * @param message       progress message
+     */
+    private void printMessage(String message) {
+        if (referenceSequenceOptions.verbose) {
+            System.out.println(message);
+        }
+    }
+
     /**
      * Function getExceptionType provides the type of exception
      * 
@@ -1415,15 +3161,14 @@ public class ReferenceSequence {
 
     /**
      * Function checkCancel checks if reference sequence creation cancellation
-     * is requested. If so, confirmation window is opened and creation is
-     * interrupted.
+     * is requested. If so, creation is interrupted by ReportedException
+     * describing cancellation.
      * 
      * @throws ReportedException 
      */
     private void checkCancel() throws ReportedException {
         if (Thread.interrupted()) {
-            reportError("Kreiranje indeksa referentnog slijeda prekinuto na zahtjev korisnika!");
-            throw new ReportedException();
+            throw new ReportedException("Kreiranje indeksa referentnog slijeda prekinuto na zahtjev korisnika!");
         }
     }
 
@@ -1443,20 +3188,18 @@ public class ReferenceSequence {
             try {
                 out.writeObject(referenceSequenceIndex);
             } catch (Exception ex) {
-                reportError(    "Greška tijekom spremanja predprocesirane datoteke referentnog slijeda ("
-                                + getExceptionType(ex)
-                                + "):\n\n    "
-                                + ex.getMessage()                                           );
-                throw new ReportedException();
+                throw new ReportedException(    "Greška tijekom spremanja predprocesirane datoteke referentnog slijeda ("
+                                                + getExceptionType(ex)
+                                                + "):\n\n    "
+                                                + ex.getMessage()                                           );
             }
         } catch (ReportedException ex) {
             throw ex;
         } catch (Exception ex) {
-            reportError(    "Greška tijekom otvaranja datoteke za spremanje predprocesiranog referentnog slijeda ("
-                            + getExceptionType(ex)
-                            + "):\n\n    "
-                            + ex.getMessage()                                           );
-            throw new ReportedException();
+            throw new ReportedException(    "Greška tijekom otvaranja datoteke za spremanje predprocesiranog referentnog slijeda ("
+                                            + getExceptionType(ex)
+                                            + "):\n\n    "
+                                            + ex.getMessage()                                           );
         } finally {
             if (out != null) {
                 try {
@@ -1465,84 +3208,190 @@ public class ReferenceSequence {
                 }
             }
         }
-
-        JOptionPane.showConfirmDialog(null, "Referentni slijed je uspješno spremljen!", "FMIndexCount", JOptionPane.DEFAULT_OPTION, JOptionPane.INFORMATION_MESSAGE);
     }
 
     /**
      * Function countQuerySequenceOccurrences counts occurrences of given query
-     * sequence in reference sequence.
+     * sequence in reference sequence, prints query start and end time and
+     * hands query statistics over to progress listener.
      * 
      * @param qurySeq       string representing query sequence
      * @return              number of occurrences of query sequence in reference sequence
      * @throws ReportedException 
      */
-    public int countQuerySequenceOccurrences (String qurySeq) throws ReportedException {
+    public long countQuerySequenceOccurrences (String qurySeq) throws ReportedException {
 
-        Charset utf8Charset;
         Calendar calendar;
         String queryStartTimeBuffer;
         String queryEndTimeBuffer;
         String statistics;
         byte[] querySequenceBuffer;
         long countDuration;
-        int queryCharacter;
-        int queryIndex;
-        int queryLength;
-        int lowIndex;
-        int lowIndexShift;
-        int highIndex;
-        int highIndexShift;
-        byte characterToProcess;
+        long noMatches;
 
         /* get query start time */
         calendar = Calendar.getInstance();
         countDuration = calendar.getTimeInMillis();
         queryStartTimeBuffer = sdf.format(calendar.getTime());
-        System.out.println("Query start time: " + queryStartTimeBuffer);
+        printMessage("Query start time: " + queryStartTimeBuffer);
+
+        /* count matches */
+        querySequenceBuffer = encodeQuerySequence(qurySeq);
+        noMatches = findSuffixArrayInterval(querySequenceBuffer).getCount();
+
+        /* get query end time */
+        calendar = Calendar.getInstance();
+        countDuration = (calendar.getTimeInMillis() - countDuration);
+        queryEndTimeBuffer = sdf.format(calendar.getTime());
+        printMessage("Query start time: " + queryEndTimeBuffer);
+
+        /* report statistics */
+        statistics = "Statistika brojanja ponavljanja upita u referentnoj sekvenci:\n";
+        statistics += (  "\n    Vrijeme početka brojanja:                           " + queryStartTimeBuffer);
+        statistics += (  "\n    Vrijeme završetka brojanja:                         " + queryEndTimeBuffer);
+        statistics += (  "\n    Ukupno vrijeme brojanja:                            " + Long.toString(countDuration) + " ms");
+
+        statistics += ("\n\n    Dužina referentnog slijede:                         " + Long.toString(referenceSequenceIndex.getBwtLength() - 1));
+        if (referenceSequenceIndex.recordTable != null) {
+            statistics += ( "\n    Broj zapisa referentnog slijeda:                    " + Integer.toString(referenceSequenceIndex.recordTable.getNoRecords()));
+        }
+        statistics += (  "\n    Dužina upitnog slijede:                             " + Integer.toString(querySequenceBuffer.length));
+
+        statistics += ("\n\n    Broj pronađenih podudaranja:                        " + Long.toString(noMatches));
+
+        statistics += ("\n\n    Maksimalno zauzeće memorije tijekom brojanja:       " + Integer.toString((int) ((maximalPreprocessingMemoryConsumption + querySequenceBuffer.length) / 1000)) + " KB");
+
+        if (progressListener != null) {
+            progressListener.reportStatistics(statistics);
+        }
+        return noMatches;
+    }
+
+    /**
+     * Function countOccurrences counts occurrences of given query sequence in
+     * reference sequence. Unlike countQuerySequenceOccurrences, it neither
+     * prints nor reports anything, and it may be called from several threads
+     * at once.
+     * 
+     * @param querySequence     string representing query sequence
+     * @return                  number of occurrences of query sequence in reference sequence
+     * @throws ReportedException 
+     */
+    public long countOccurrences(String querySequence) throws ReportedException {
+        return findSuffixArrayInterval(encodeQuerySequence(querySequence)).getCount();
+    }
+
+    /**
+     * Function findSuffixArrayInterval finds interval of sorted reference
+     * sequence rotations which begin with given query sequence. It may be
+     * called from several threads at once.
+     * 
+     * @param querySequence     string representing query sequence
+     * @return                  interval of rotations beginning with query sequence
+     * @throws ReportedException 
+     */
+    public SuffixArrayInterval findSuffixArrayInterval(String querySequence) throws ReportedException {
+        return findSuffixArrayInterval(encodeQuerySequence(querySequence));
+    }
+
+    /**
+     * Function encodeQuerySequence converts query sequence to compact codes.
+     * Characters outside printable range, like line ends, are skipped.
+     * 
+     * @param qurySeq       string representing query sequence
+     * @return              compact coded query sequence
+     * @throws ReportedException 
+     */
+    private byte[] encodeQuerySequence(String qurySeq) throws ReportedException {
+
+        Charset utf8Charset;
+        byte[] querySequenceBuffer;
+        int queryCharacter;
+        int queryIndex;
+        int queryLength;
 
-        /* prepare query buffer */
         queryLength = qurySeq.length();
         if (queryLength <= 0) {
-            reportError("Prazan upitni slijed!");
-            throw new ReportedException();
+            throw new ReportedException("Prazan upitni slijed!");
         }
-        querySequenceBuffer = new byte[queryLength];
         utf8Charset = Charset.forName("UTF-8");
         querySequenceBuffer = qurySeq.getBytes(utf8Charset);
-        utf8Charset = null;
+        queryLength = querySequenceBuffer.length;
         queryIndex = 0;
         for (int i = 0; i < queryLength; i++) {
             queryCharacter = querySequenceBuffer[i];
             if ((queryCharacter >= 32) && (queryCharacter <= 126)) {
                 queryCharacter = toUpperCase(queryCharacter);
+                if (    (referenceSequenceIndex.recordTable != null)
+                        && (queryCharacter == SequenceRecordTable.SEPARATOR_CHARACTER)  ) {
+                    throw new ReportedException("Znak (" + ((char) queryCharacter) + ") iz upitnog slijeda razdvaja zapise referentnog slijeda!");
+                }
+                if (    (referenceSequenceIndex.nRunTable != null)
+                        && (queryCharacter == SequenceRecordTable.SEPARATOR_CHARACTER)  ) {
+                    throw new ReportedException("Znak (" + ((char) queryCharacter) + ") iz upitnog slijeda zamjenjuje nizove znakova N referentnog slijeda!");
+                }
                 queryCharacter = referenceSequenceIndex.alphabetDictionary.getCompactCode((byte) queryCharacter);
                 if (queryCharacter == 0) {
-                    reportError("Znak (" + qurySeq.substring(i, i + 1) + ") iz upitnog slijeda ne nalazi se u referentnom slijedu!");
-                    throw new ReportedException();
+                    throw new ReportedException("Znak (" + ((char) querySequenceBuffer[i]) + ") iz upitnog slijeda ne nalazi se u referentnom slijedu!");
                 }
                 querySequenceBuffer[queryIndex++] = ((byte) queryCharacter);
             }
         }
-        queryLength = queryIndex;
-        if (queryLength <= 0) {
-            reportError("Prazan upitni slijed!");
-            throw new ReportedException();
+        if (queryIndex <= 0) {
+            throw new ReportedException("Prazan upitni slijed!");
+        }
+        return Arrays.copyOf(querySequenceBuffer, queryIndex);
+    }
+
+    /**
+     * Function findSuffixArrayInterval finds interval of rotations beginning
+     * with compact coded query sequence in 32-bit or 64-bit index.
+     * 
+     * @param querySequenceBuffer   compact coded query sequence
+     * @return                      interval of rotations beginning with query sequence
+     * @throws ReportedException 
+     */
+    private SuffixArrayInterval findSuffixArrayInterval(byte[] querySequenceBuffer) throws ReportedException {
+        if (referenceSequenceIndex.isLongIndex()) {
+            return countLongIndexMatches(querySequenceBuffer, querySequenceBuffer.length);
         }
+        return countMatches(querySequenceBuffer, querySequenceBuffer.length);
+    }
 
-        /* count matches */
+    /**
+     * Function countMatches counts matches of compact coded query sequence
+     * by backward search in 32-bit index.
+     * 
+     * @param querySequenceBuffer   compact coded query sequence
+     * @param queryLength           query sequence length
+     * @return                      interval of rotations beginning with query sequence
+     * @throws ReportedException 
+     */
+    private SuffixArrayInterval countMatches(byte[] querySequenceBuffer, int queryLength) throws ReportedException {
+
+        FMIndexOccurrenceTable occurrenceTable;
+        int[] occurrences;
+        int lowIndex;
+        int lowIndexShift;
+        int highIndex;
+        int highIndexShift;
+        byte characterToProcess;
+
+        occurrences = new int[2];
+        occurrenceTable = referenceSequenceIndex.getOccurrenceTable();
         characterToProcess = querySequenceBuffer[queryLength - 1];
         lowIndex =  referenceSequenceIndex.C(characterToProcess);
         highIndex = (   referenceSequenceIndex.C((byte) (characterToProcess + 1)) - 1);
         for (int i = (queryLength - 2); i >= 0; i--) {
             characterToProcess = querySequenceBuffer[i];
+            occurrenceTable.OccRange(characterToProcess, lowIndex, (highIndex + 1), occurrences);
 
-            lowIndexShift = referenceSequenceIndex.occurrenceWaveletTree.Occ(characterToProcess, lowIndex);
+            lowIndexShift = occurrences[0];
             lowIndex =  referenceSequenceIndex.C(characterToProcess);
             lowIndex += lowIndexShift;
 
             highIndexShift = referenceSequenceIndex.getCharacterTotal(characterToProcess);
-            highIndexShift -= referenceSequenceIndex.occurrenceWaveletTree.Occ(characterToProcess, (highIndex + 1));
+            highIndexShift -= occurrences[1];
             highIndex = (   referenceSequenceIndex.C((byte) (characterToProcess + 1)) - 1);
             highIndex -= highIndexShift;
 
@@ -1550,35 +3399,49 @@ public class ReferenceSequence {
                 break;
             }
         }
-        highIndex -= lowIndex;
-        highIndex++;
-
-        /* get query end time */
-        calendar = Calendar.getInstance();
-        countDuration = (calendar.getTimeInMillis() - countDuration);
-        queryEndTimeBuffer = sdf.format(calendar.getTime());
-        System.out.println("Query start time: " + queryEndTimeBuffer);
+        return new SuffixArrayInterval(lowIndex, highIndex);
+    }
 
-        /* report statistics */
-        statistics = "Statistika brojanja ponavljanja upita u referentnoj sekvenci:\n";
-        statistics += (  "\n    Vrijeme početka brojanja:                           " + queryStartTimeBuffer);
-        statistics += (  "\n    Vrijeme završetka brojanja:                         " + queryEndTimeBuffer);
-        statistics += (  "\n    Ukupno vrijeme brojanja:                            " + Long.toString(countDuration) + " ms");
+    /**
+     * Function countLongIndexMatches counts matches of compact coded query
+     * sequence by backward search in 64-bit index.
+     * 
+     * @param querySequenceBuffer   compact coded query sequence
+     * @param queryLength           query sequence length
+     * @return                      interval of rotations beginning with query sequence
+     * @throws ReportedException 
+     */
+    private SuffixArrayInterval countLongIndexMatches(byte[] querySequenceBuffer, int queryLength) throws ReportedException {
 
-        statistics += ("\n\n    Dužina referentnog slijede:                         " + Integer.toString(referenceSequenceIndex.prefixSumTable[referenceSequenceIndex.prefixSumTable.length - 1] - 1));
-        statistics += (  "\n    Dužina upitnog slijede:                             " + Integer.toString(queryLength));
+        long[] occurrences;
+        long lowIndex;
+        long lowIndexShift;
+        long highIndex;
+        long highIndexShift;
+        byte characterToProcess;
 
-        statistics += ("\n\n    Broj pronađenih podudaranja:                        " + Integer.toString(highIndex));
+        occurrences = new long[2];
+        characterToProcess = querySequenceBuffer[queryLength - 1];
+        lowIndex =  referenceSequenceIndex.longC(characterToProcess);
+        highIndex = (   referenceSequenceIndex.longC((byte) (characterToProcess + 1)) - 1);
+        for (int i = (queryLength - 2); i >= 0; i--) {
+            characterToProcess = querySequenceBuffer[i];
+            referenceSequenceIndex.longOccurrenceWaveletTree.OccRange(characterToProcess, lowIndex, (highIndex + 1), occurrences);
 
-        statistics += ("\n\n    Maksimalno zauzeće memorije tijekom brojanja:       " + Integer.toString((int) ((maximalPreprocessingMemoryConsumption + querySequenceBuffer.length) / 1000)) + " KB");
+            lowIndexShift = occurrences[0];
+            lowIndex =  referenceSequenceIndex.longC(characterToProcess);
+            lowIndex += lowIndexShift;
 
-        JOptionPane.showConfirmDialog(null, statistics, "FMIndexCount", JOptionPane.DEFAULT_OPTION, JOptionPane.INFORMATION_MESSAGE);
+            highIndexShift = referenceSequenceIndex.getLongCharacterTotal(characterToProcess);
+            highIndexShift -= occurrences[1];
+            highIndex = (   referenceSequenceIndex.longC((byte) (characterToProcess + 1)) - 1);
+            highIndex -= highIndexShift;
 
-        if (highIndex <= 0) {
-            return 0;
-        } else {
-            return highIndex;
+            if (highIndex < lowIndex) {
+                break;
+            }
         }
+        return new SuffixArrayInterval(lowIndex, highIndex);
     }
     
     /** Function reportStatistics reports reference sequence creation statistics */
@@ -1595,22 +3458,128 @@ public class ReferenceSequence {
             statistics += ( "\n    Vrijeme završetka kreiranja BW transformacije:                " + bwtCreationTimeBuffer);
         }
         statistics += (     "\n    Vrijeme završetka kreiranja:                                  " + indexCreationTimeBuffer);
+        if (fileReadBytes > 0) {
+            statistics += ( "\n    Pročitano bajtova / trajanje čitanja datoteke:                " + Long.toString(fileReadBytes) + " / " + Long.toString(fileReadDuration) + " ms");
+            statistics += ( "\n    Broj dretvi za čitanje datoteke:                              " + Integer.toString(fileReadThreads));
+        }
+        if (fastaRecordIndexStatus != null) {
+            statistics += ( "\n    Indeks zapisa Fasta datoteke:                                 " + fastaRecordIndexStatus);
+        }
+        if (noCollapsedNRuns > 0) {
+            statistics += ( "\n    Zamijenjeni nizovi N / uklonjeno znakova / trajanje:          " + Integer.toString(noCollapsedNRuns) + " / " + Long.toString(referenceSequenceIndex.nRunTable.getNoRemovedCharacters()) + " / " + Long.toString(nRunCollapseDuration) + " ms");
+        }
+        if (compressedInputFormat != null) {
+            statistics += ( "\n    Komprimirani ulaz / raspakirano bajtova:                      " + compressedInputFormat + " / " + Long.toString(referenceSequenceBytesRead));
+        }
+        if ((twoBitNBlocks > 0) || (twoBitMaskBlocks > 0)) {
+            statistics += ( "\n    Broj N blokova / blokova maske .2bit datoteke:                " + Long.toString(twoBitNBlocks) + " / " + Long.toString(twoBitMaskBlocks));
+        }
+        if (mergeTimeBuffer != null) {
+            statistics += ( "\n    Vrijeme završetka spajanja dodanog slijeda:                   " + mergeTimeBuffer);
+            statistics += ( "\n    Dodani slijed:                                                " + referenceSequenceOptions.mergeFilename);
+            statistics += ( "\n    Trajanje spajanja BW transformacija:                          " + Long.toString(mergeDuration) + " ms");
+            statistics += ( "\n    Brzina spajanja BW transformacija:                            " + Long.toString(mergeSymbolsPerSecond) + " simbola/s");
+        }
+        if (bwtCreationTimeBuffer != null) {
+            statistics += ( "\n    Metoda kreiranja BW transformacije:                           " + referenceSequenceOptions.bwtConstructionMethod.toString());
+            statistics += ( "\n    Trajanje kreiranja BW transformacije:                         " + Long.toString(bwtCreationDuration) + " ms");
+        }
+        if (noBwtCheckpoints > 0) {
+            statistics += ( "\n    Kontrolne točke / zapisano bajtova / trajanje zapisivanja:    " + Integer.toString(noBwtCheckpoints) + " / " + Long.toString(checkpointBytesWritten) + " / " + Long.toString(checkpointWriteDuration) + " ms");
+            statistics += ( "\n    Najdulje zapisivanje kontrolne točke:                         " + Long.toString(maximalCheckpointWriteDuration) + " ms");
+        }
+        if (checkpointWriteError != null) {
+            statistics += ( "\n    Kontrolne točke isključene zbog greške:                       " + checkpointWriteError);
+        }
+        if (resumedBwtIndex > 0) {
+            statistics += ( "\n    Nastavljeno od kontrolne točke (grupa / znakova BWT):         " + Integer.toString(resumedStartSequenceCombination) + " / " + Integer.toString(resumedBwtIndex));
+        }
+        if (noBwtRuns > 0) {
+            statistics += ( "\n    Radni skup vanjskog kreiranja BW transformacije:              " + Long.toString(referenceSequenceOptions.workingSetSize >> 20) + " MB");
+            statistics += ( "\n    Broj zapisanih dijelova / podijeljenih grupa rotacija:        " + Integer.toString(noBwtRuns) + " / " + Integer.toString(noSplitBuckets));
+            statistics += ( "\n    Vršno zauzeće fizičke memorije procesa:                       " + Long.toString(peakResidentSetSize / 1000) + " KB");
+        }
+        if (bwtCreationTimeBuffer != null) {
+            statistics += ( "\n    Adresiranje indeksa:                                          " + referenceSequenceOptions.indexAddressing.toString());
+        }
+        if (waveletTreeLevels > 0) {
+            statistics += ( "\n    Razine / trajanje kreiranja stabla valića:                    " + Integer.toString(waveletTreeLevels) + " / " + Long.toString(waveletTreeBuildDuration) + " ms");
+            statistics += ( "\n    Brzina kreiranja stabla valića (sve razine):                  " + Long.toString(waveletTreeThroughput) + " znakova/s");
+        }
+        if (waveletMatrixLevels > 0) {
+            statistics += ( "\n    Razine / trajanje kreiranja matrice valića:                   " + Integer.toString(waveletMatrixLevels) + " / " + Long.toString(waveletMatrixBuildDuration) + " ms");
+        }
+        if (!referenceSequenceIndex.isLongIndex()) {
+            statistics += ( "\n    Struktura pojavljivanja / zauzeće memorije:                   " + getOccurrenceStructure().toString() + " / " + Integer.toString(referenceSequenceIndex.getOccurrenceTable().getMemoryConsumption() / 1000) + " KB");
+        }
+        if (referenceSequenceIndex.occurrenceWaveletTree != null) {
+            statistics += ( "\n    Prosječna dubina stabla valića / entropija H0:                " + String.format("%.3f", ((double) referenceSequenceIndex.occurrenceWaveletTree.getStoredBits()) / referenceSequenceIndex.getBwtLength()) + " / " + String.format("%.3f", referenceSequenceIndex.getZeroOrderEntropy()) + " bita");
+        }
+        if (noPipelineBlocks > 0) {
+            statistics += ( "\n    Broj blokova / trajanje umetanja BWT u stablo valića:         " + Integer.toString(noPipelineBlocks) + " / " + Long.toString(pipelineInsertDuration) + " ms");
+            statistics += ( "\n    Čekanje sortiranja na slobodan blok:                          " + Long.toString(pipelineWaitDuration) + " ms");
+        }
+        if (packedBitsPerCharacter > 0) {
+            statistics += ( "\n    Bitova po znaku / nizova iznimaka pakiranog slijeda:          " + Integer.toString(packedBitsPerCharacter) + " / " + Integer.toString(noPackedExceptionRuns));
+        }
+        if (noReferenceSequencePasses > 0) {
+            statistics += ( "\n    Algoritam sortiranja rotacija:                                " + referenceSequenceOptions.rotationSortAlgorithm.toString());
+            if (noBufferRequests > 0) {
+                statistics += ( "\n    Veličina međuspremnika rotacija:                              " + Integer.toString(rotationBufferSize));
+                statistics += ( "\n    Zahtjevi / alokacije / alocirano bajtova međuspremnika:       " + Long.toString(noBufferRequests) + " / " + Long.toString(noBufferAllocations) + " / " + Long.toString(bufferBytesAllocated));
+            }
+            statistics += ( "\n    Najveći period / broj dugih periodičnih nizova:               " + Integer.toString(referenceSequenceOptions.maximalRepeatPeriod) + " / " + Integer.toString(noPeriodicRuns));
+        }
+        if (noSortedBuckets > 0) {
+            statistics += ( "\n    Broj dretvi za kreiranje BW transformacije:                   " + Integer.toString(referenceSequenceOptions.constructionThreads));
+            statistics += ( "\n    Broj sortiranih / podijeljenih grupa rotacija:                " + Integer.toString(noSortedBuckets) + " / " + Integer.toString(noSplitBuckets));
+            statistics += ( "\n    Ukupno / najdulje trajanje sortiranja grupe rotacija:         " + Long.toString(totalBucketDuration) + " / " + Long.toString(maximalBucketDuration) + " ms");
+        }
+        if (noReferenceSequencePasses > 0) {
+            statistics += ( "\n    Metoda grupiranja rotacija:                                   " + rotationBucketingMethod.toString());
+            statistics += ( "\n    Broj prolaza / pročitano bajtova referentnog slijeda:         " + Long.toString(noReferenceSequencePasses) + " / " + Long.toString(referenceSequenceBytesScanned));
+            if (bucketBytesSpilled > 0) {
+                statistics += ( "\n    Zapisano bajtova na disk:                                     " + Long.toString(bucketBytesSpilled));
+            }
+        }
 
-        statistics += (   "\n\n    Dužina referentnog slijede:                                   " + Integer.toString(referenceSequenceIndex.prefixSumTable[referenceSequenceIndex.prefixSumTable.length - 1] - 1));
+        statistics += (   "\n\n    Dužina referentnog slijede:                                   " + Long.toString(referenceSequenceIndex.getBwtLength() - 1));
+        if (referenceSequenceIndex.recordTable != null) {
+            statistics += ( "\n    Broj zapisa referentnog slijeda:                              " + Integer.toString(referenceSequenceIndex.recordTable.getNoRecords()));
+        }
 
         statistics += (   "\n\n    Maksimalno zauzeće memorije tijekom kreiranja:                " + Integer.toString((int) (maximalPreprocessingMemoryConsumption / 1000)) + " KB");
 
-        JOptionPane.showConfirmDialog(null, statistics, "FMIndexCount", JOptionPane.DEFAULT_OPTION, JOptionPane.INFORMATION_MESSAGE);
+        creationStatistics = statistics;
+        if (progressListener != null) {
+            progressListener.reportStatistics(statistics);
+        }
+    }
+
+    /**
+     * Function getCreationStatistics provides statistics of reference
+     * sequence index creation, the same text which is handed over to progress
+     * listener.
+     * 
+     * @return      creation statistics, or null if index is loaded from preprocessed file
+     */
+    public String getCreationStatistics() {
+        return creationStatistics;
     }
 
     /**
-     * Function reportError reports execution errors by opening confirmation
-     * window with appropriate message.
+     * Function getOccurrenceStructure provides structure counting occurrences
+     * of characters in BW transform of 32-bit index.
      * 
-     * @param   text    message to be reported in confirmation window
+     * @return      occurrence structure of the index
      */
-    private void reportError (String text) {
-        JOptionPane.showConfirmDialog(null, text, "FMIndexCount", JOptionPane.DEFAULT_OPTION, JOptionPane.ERROR_MESSAGE);
+    private OccurrenceStructure getOccurrenceStructure() {
+        if (referenceSequenceIndex.occurrenceWaveletMatrix != null) {
+            return OccurrenceStructure.WAVELET_MATRIX;
+        } else if (referenceSequenceIndex.occurrenceWaveletTree.isHuffmanShaped()) {
+            return OccurrenceStructure.HUFFMAN_WAVELET_TREE;
+        }
+        return OccurrenceStructure.WAVELET_TREE;
     }
     // </editor-fold>
 
@@ -1659,8 +3628,59 @@ public class ReferenceSequence {
     // <editor-fold desc="Enumerations">
     public enum ReferenceSequenceFormat {
 		FASTA,
+		TWO_BIT,
 		TEXT,
 		PREPROCESSED
 	}
+
+    public enum BwtConstructionMethod {
+		ROTATION_SORT,
+		PARALLEL_ROTATION_SORT,
+		SA_IS,
+		EXTERNAL_ROTATION_SORT
+	}
+
+    public enum RotationBucketingMethod {
+		SCAN,
+		MEMORY,
+		DISK,
+		AUTO
+	}
+
+    public enum RotationSortAlgorithm {
+		HEAP_SORT,
+		MULTIKEY_QUICKSORT
+	}
+
+    public enum IndexAddressing {
+		INT_32,
+		LONG_64
+	}
+
+    public enum OccurrenceStructure {
+		WAVELET_TREE,
+		HUFFMAN_WAVELET_TREE,
+		WAVELET_MATRIX
+	}
+
+    public enum TextPacking {
+		BYTE,
+		PACKED
+	}
+
+    public enum IndexPipelining {
+		SEQUENTIAL,
+		PIPELINED
+	}
+
+    public enum FastaReading {
+		STREAM,
+		MAPPED
+	}
+
+    public enum FastaRecordLookup {
+		SCAN,
+		INDEXED
+	}
     // </editor-fold>
 }
@@ -10,7 +10,6 @@
 
 package FMIndex;
 
-import javax.swing.JOptionPane;
 
 /**
  * Class ReferenceSequenceIndex contains all data structures constructed
@@ -22,6 +21,11 @@ import javax.swing.JOptionPane;
  */
 public class ReferenceSequenceIndex implements java.io.Serializable {
 
+    // <editor-fold desc="Constants">
+
+    private static final long serialVersionUID = 7331204156271637816L;   // keeps indexes saved before 64-bit index was added readable
+    // </editor-fold>
+
     // <editor-fold desc="Fields">
 
     /** Actual alphabet dictionary contains one byte for each possible character */
@@ -30,8 +34,23 @@ public class ReferenceSequenceIndex implements java.io.Serializable {
     /** Prefix-sum array */
     public int[] prefixSumTable;
 
-    /** Occurrence Wavelet tree */
+    /** Occurrence Wavelet tree, or null if index uses occurrence wavelet matrix */
     public FMIndexWaveletTreeNode occurrenceWaveletTree;
+
+    /** Prefix-sum array of 64-bit index, or null if index is 32-bit */
+    public long[] longPrefixSumTable;
+
+    /** Occurrence Wavelet tree of 64-bit index, or null if index is 32-bit */
+    public FMIndexLongWaveletTreeNode longOccurrenceWaveletTree;
+
+    /** Boundaries of Fasta records indexed into reference sequence, or null if index contains one sequence */
+    public SequenceRecordTable recordTable;
+
+    /** Runs of N characters replaced by separator in reference sequence, or null if no run is replaced */
+    public NRunTable nRunTable;
+
+    /** Occurrence wavelet matrix, or null if index uses occurrence wavelet tree */
+    public FMIndexWaveletMatrix occurrenceWaveletMatrix;
     // </editor-fold>
 
     // <editor-fold desc="Methods">
@@ -47,8 +66,7 @@ public class ReferenceSequenceIndex implements java.io.Serializable {
      */
     public int C(byte characterToCount) throws ReportedException {
         if (characterToCount > (alphabetDictionary.getAlphabetSize()) + 1) {
-            reportError("Pokušaj dohvata broja nižih znakova za znak veći od dopuštenog!");
-            throw new ReportedException();
+            throw new ReportedException("Pokušaj dohvata broja nižih znakova za znak veći od dopuštenog!");
         }
         return prefixSumTable[characterToCount];
     }
@@ -63,20 +81,123 @@ public class ReferenceSequenceIndex implements java.io.Serializable {
      */
     public int getCharacterTotal(byte characterToGet) throws ReportedException {
         if (characterToGet > alphabetDictionary.getAlphabetSize()) {
-            reportError("Pokušaj dohvata broja znakova za znak koji ne postoji!");
-            throw new ReportedException();
+            throw new ReportedException("Pokušaj dohvata broja znakova za znak koji ne postoji!");
         }
         return prefixSumTable[characterToGet + 1] - prefixSumTable[characterToGet];
     }
 
     /**
-     * Function reportError reports execution errors by opening confirmation
-     * window with appropriate message.
-     * 
-     * @param   text    message to be reported in confirmation window
+     * Function longC provides total number of characters which are
+     * lexicographically smaller than given character in 64-bit index. If given
+     * character is for 1 greater than the greatest character, than total number
+     * of characters in BWT is returned.
+     *
+     * @param characterToCount      character to which to count
+     * @return                      total number of lexicographically smaller characters
+     * @throws ReportedException
+     */
+    public long longC(byte characterToCount) throws ReportedException {
+        if (characterToCount > (alphabetDictionary.getAlphabetSize()) + 1) {
+            throw new ReportedException("Pokušaj dohvata broja nižih znakova za znak veći od dopuštenog!");
+        }
+        return longPrefixSumTable[characterToCount];
+    }
+
+    /**
+     * Function getLongCharacterTotal provides how many times specified
+     * character is contained into reference sequence of 64-bit index.
+     *
+     * @param characterToGet    character whose occurrence is requested
+     * @return                  number how many times characterToGet is contained in reference sequence
+     * @throws ReportedException
+     */
+    public long getLongCharacterTotal(byte characterToGet) throws ReportedException {
+        if (characterToGet > alphabetDictionary.getAlphabetSize()) {
+            throw new ReportedException("Pokušaj dohvata broja znakova za znak koji ne postoji!");
+        }
+        return longPrefixSumTable[characterToGet + 1] - longPrefixSumTable[characterToGet];
+    }
+
+    /**
+     * Function isLongIndex checks if this index is 64-bit index.
+     *
+     * @return      true if index is 64-bit, false if it is 32-bit
      */
-    private void reportError (String text) {
-        JOptionPane.showConfirmDialog(null, text, "FMIndexCount", JOptionPane.DEFAULT_OPTION, JOptionPane.ERROR_MESSAGE);
+    public boolean isLongIndex() {
+        return (longOccurrenceWaveletTree != null);
+    }
+
+    /**
+     * Function getOccurrenceTable provides occurrence table of 32-bit index,
+     * occurrence wavelet matrix if index uses it, otherwise occurrence
+     * wavelet tree.
+     *
+     * @return      occurrence table
+     */
+    public FMIndexOccurrenceTable getOccurrenceTable() {
+        if (occurrenceWaveletMatrix != null) {
+            return occurrenceWaveletMatrix;
+        }
+        return occurrenceWaveletTree;
+    }
+
+    /**
+     * Function getBwtLength provides length of BW transform, i.e. reference
+     * sequence length including terminating character.
+     *
+     * @return      length of BW transform
+     */
+    public long getBwtLength() {
+        if (longPrefixSumTable != null) {
+            return longPrefixSumTable[longPrefixSumTable.length - 1];
+        }
+        return prefixSumTable[prefixSumTable.length - 1];
+    }
+
+    /**
+     * Function getZeroOrderEntropy calculates zeroth-order entropy of BW
+     * transform, i.e. the smallest average number of bits per character any
+     * code of single characters can reach.
+     *
+     * @return      zeroth-order entropy in bits per character
+     */
+    public double getZeroOrderEntropy() {
+
+        double entropy;
+        double probability;
+        int noCharacters;
+        long bwtLength;
+        long count;
+
+        entropy = 0;
+        bwtLength = getBwtLength();
+        noCharacters = (((longPrefixSumTable != null) ? longPrefixSumTable.length : prefixSumTable.length) - 1);
+        for (int c = 0; c < noCharacters; c++) {
+            count = ((longPrefixSumTable != null) ? (longPrefixSumTable[c + 1] - longPrefixSumTable[c]) : (prefixSumTable[c + 1] - prefixSumTable[c]));
+            if (count > 0) {
+                probability = (((double) count) / bwtLength);
+                entropy -= (probability * (Math.log(probability) / Math.log(2)));
+            }
+        }
+        return entropy;
+    }
+
+    /**
+     * Function getMemoryConsumption estimates memory consumption of prefix-sum
+     * table, occurrence wavelet tree or matrix and record table.
+     *
+     * @return      estimated memory consumption in bytes
+     */
+    public long getMemoryConsumption() {
+
+        long recordTableMemoryConsumption;
+
+        recordTableMemoryConsumption = ((recordTable != null) ? recordTable.getMemoryConsumption() : 0);
+        recordTableMemoryConsumption += ((nRunTable != null) ? nRunTable.getMemoryConsumption() : 0);
+        if (isLongIndex()) {
+            return ((longPrefixSumTable.length * 8) + longOccurrenceWaveletTree.getMemoryConsumption() + recordTableMemoryConsumption);
+        }
+        return ((prefixSumTable.length * 4) + getOccurrenceTable().getMemoryConsumption() + recordTableMemoryConsumption);
     }
     // </editor-fold>
 }
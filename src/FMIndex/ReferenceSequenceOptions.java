@@ -0,0 +1,289 @@
+/*
+ * Author:
+ *
+ *      Vedran Sabadoš
+ *
+ * Version:
+ *
+ *      V1.0         26. 12. 2013
+ */
+
+package FMIndex;
+
+
+/**
+ * Class ReferenceSequenceOptions contains options which control how reference
+ * sequence index is created. Options are usually given as application command
+ * line arguments in form "-name=value".
+ *
+ * @version     V1.0                26.12.2013.
+ * @author      Vedran Sabadoš
+ */
+public class ReferenceSequenceOptions {
+
+    // <editor-fold desc="Fields">
+
+    /** Method used to create reference sequence BW transform */
+    public ReferenceSequence.BwtConstructionMethod bwtConstructionMethod;
+
+    /** Number of threads used for parallel BW transform creation */
+    public int constructionThreads;
+
+    /** Method used to divide rotations into buckets for rotation sort */
+    public ReferenceSequence.RotationBucketingMethod rotationBucketingMethod;
+
+    /** Algorithm used to sort rotations inside one bucket */
+    public ReferenceSequence.RotationSortAlgorithm rotationSortAlgorithm;
+
+    /** Maximal period of periodic runs skipped when comparing rotations */
+    public int maximalRepeatPeriod;
+
+    /** Maximal memory in bytes used for rotations being sorted by external BW transform creation */
+    public long workingSetSize;
+
+    /** Addressing of occurrence structures of created reference sequence index, reference sequence itself is limited to 2^31 - 2 characters */
+    public ReferenceSequence.IndexAddressing indexAddressing;
+
+    /** Structure counting occurrences of characters in BW transform of 32-bit index */
+    public ReferenceSequence.OccurrenceStructure occurrenceStructure;
+
+    /** Representation of compact coded reference sequence during rotation sort */
+    public ReferenceSequence.TextPacking textPacking;
+
+    /** Insertion of BW transform created by rotation sort into occurrence wavelet tree */
+    public ReferenceSequence.IndexPipelining indexPipelining;
+
+    /** Reading of reference sequence from Fasta file */
+    public ReferenceSequence.FastaReading fastaReading;
+
+    /** Lookup of Fasta records, by scanning the file or by record index saved next to it (written only if requested) */
+    public ReferenceSequence.FastaRecordLookup fastaRecordLookup;
+
+    /** Names of Fasta records indexed into one reference sequence, empty if all records are indexed, or null if only named sequence is indexed */
+    public String[] recordNames;
+
+    /** Minimal length of run of N characters replaced by one separator character, or 0 if runs are not replaced */
+    public int minimalNRunLength;
+
+    /** Minimal interval in seconds between checkpoints of BW transform created by rotation sort, or 0 if checkpoints are not written */
+    public int checkpointInterval;
+
+    /** Directory in which checkpoints of BW transform created by rotation sort are written */
+    public String checkpointDirectory;
+
+    /** File containing sequence merged into created index, or null if no sequence is merged */
+    public String mergeFilename;
+
+    /** Name of merged sequence (in case of Fasta format) */
+    public String mergeSequenceName;
+
+    /** True if creation and query progress is printed to standard output */
+    public boolean verbose;
+    // </editor-fold>
+
+    // <editor-fold desc="Constructor">
+
+    /** Class ReferenceSequenceOptions Constructor, all options get default values */
+    public ReferenceSequenceOptions() {
+        bwtConstructionMethod = ReferenceSequence.BwtConstructionMethod.ROTATION_SORT;
+        constructionThreads = Runtime.getRuntime().availableProcessors();
+        rotationBucketingMethod = ReferenceSequence.RotationBucketingMethod.AUTO;
+        rotationSortAlgorithm = ReferenceSequence.RotationSortAlgorithm.MULTIKEY_QUICKSORT;
+        maximalRepeatPeriod = RotationSorter.DEFAULT_MAXIMAL_REPEAT_PERIOD;
+        workingSetSize = (256L << 20);
+        indexAddressing = ReferenceSequence.IndexAddressing.INT_32;
+        occurrenceStructure = ReferenceSequence.OccurrenceStructure.WAVELET_TREE;
+        textPacking = ReferenceSequence.TextPacking.BYTE;
+        indexPipelining = ReferenceSequence.IndexPipelining.PIPELINED;
+        fastaReading = ReferenceSequence.FastaReading.MAPPED;
+        fastaRecordLookup = ReferenceSequence.FastaRecordLookup.SCAN;
+        recordNames = null;
+        minimalNRunLength = 0;
+        checkpointInterval = 0;
+        checkpointDirectory = System.getProperty("java.io.tmpdir");
+        mergeFilename = null;
+        mergeSequenceName = "";
+        verbose = false;
+    }
+    // </editor-fold>
+
+    // <editor-fold desc="Methods">
+
+    /**
+     * Function parseArgument sets option given by command line argument in
+     * form "-name=value".
+     *
+     * @param argument      command line argument
+     * @throws ReportedException
+     */
+    public void parseArgument(String argument) throws ReportedException {
+
+        String name;
+        String value;
+        int equalsIndex;
+
+        equalsIndex = argument.indexOf('=');
+        if ((!argument.startsWith("-")) || (equalsIndex < 0)) {
+            throw new ReportedException("Neispravan argument komandne linije: " + argument);
+        }
+        name = argument.substring(1, equalsIndex);
+        value = argument.substring(equalsIndex + 1);
+
+        if (name.equals("bwt")) {
+            if (value.equals("rotation")) {
+                bwtConstructionMethod = ReferenceSequence.BwtConstructionMethod.ROTATION_SORT;
+            } else if (value.equals("parallel")) {
+                bwtConstructionMethod = ReferenceSequence.BwtConstructionMethod.PARALLEL_ROTATION_SORT;
+            } else if (value.equals("sais")) {
+                bwtConstructionMethod = ReferenceSequence.BwtConstructionMethod.SA_IS;
+            } else if (value.equals("external")) {
+                bwtConstructionMethod = ReferenceSequence.BwtConstructionMethod.EXTERNAL_ROTATION_SORT;
+            } else {
+                throw new ReportedException("Nepoznata metoda kreiranja BW transformacije: " + value);
+            }
+        } else if (name.equals("threads")) {
+            constructionThreads = parsePositiveInteger(name, value);
+        } else if (name.equals("repeatperiod")) {
+            maximalRepeatPeriod = parsePositiveInteger(name, value);
+            if (maximalRepeatPeriod > RotationSorter.MAXIMAL_REPEAT_PERIOD) {
+                throw new ReportedException(    "Vrijednost opcije " + name + " ne smije biti veća od "
+                                                + Integer.toString(RotationSorter.MAXIMAL_REPEAT_PERIOD) + ": " + value);
+            }
+        } else if (name.equals("workingset")) {
+            workingSetSize = (((long) parsePositiveInteger(name, value)) << 20);
+        } else if (name.equals("bucketing")) {
+            if (value.equals("scan")) {
+                rotationBucketingMethod = ReferenceSequence.RotationBucketingMethod.SCAN;
+            } else if (value.equals("memory")) {
+                rotationBucketingMethod = ReferenceSequence.RotationBucketingMethod.MEMORY;
+            } else if (value.equals("disk")) {
+                rotationBucketingMethod = ReferenceSequence.RotationBucketingMethod.DISK;
+            } else if (value.equals("auto")) {
+                rotationBucketingMethod = ReferenceSequence.RotationBucketingMethod.AUTO;
+            } else {
+                throw new ReportedException("Nepoznata metoda grupiranja rotacija: " + value);
+            }
+        } else if (name.equals("sort")) {
+            if (value.equals("heap")) {
+                rotationSortAlgorithm = ReferenceSequence.RotationSortAlgorithm.HEAP_SORT;
+            } else if (value.equals("multikey")) {
+                rotationSortAlgorithm = ReferenceSequence.RotationSortAlgorithm.MULTIKEY_QUICKSORT;
+            } else {
+                throw new ReportedException("Nepoznati algoritam sortiranja rotacija: " + value);
+            }
+        } else if (name.equals("index")) {
+            if (value.equals("int")) {
+                indexAddressing = ReferenceSequence.IndexAddressing.INT_32;
+            } else if (value.equals("long")) {
+                indexAddressing = ReferenceSequence.IndexAddressing.LONG_64;
+            } else {
+                throw new ReportedException("Nepoznato adresiranje indeksa: " + value);
+            }
+        } else if (name.equals("occ")) {
+            if (value.equals("tree")) {
+                occurrenceStructure = ReferenceSequence.OccurrenceStructure.WAVELET_TREE;
+            } else if (value.equals("huffman")) {
+                occurrenceStructure = ReferenceSequence.OccurrenceStructure.HUFFMAN_WAVELET_TREE;
+            } else if (value.equals("matrix")) {
+                occurrenceStructure = ReferenceSequence.OccurrenceStructure.WAVELET_MATRIX;
+            } else {
+                throw new ReportedException("Nepoznata struktura brojanja pojavljivanja znakova: " + value);
+            }
+        } else if (name.equals("text")) {
+            if (value.equals("byte")) {
+                textPacking = ReferenceSequence.TextPacking.BYTE;
+            } else if (value.equals("packed")) {
+                textPacking = ReferenceSequence.TextPacking.PACKED;
+            } else {
+                throw new ReportedException("Nepoznat zapis referentnog slijeda: " + value);
+            }
+        } else if (name.equals("pipeline")) {
+            if (value.equals("on")) {
+                indexPipelining = ReferenceSequence.IndexPipelining.PIPELINED;
+            } else if (value.equals("off")) {
+                indexPipelining = ReferenceSequence.IndexPipelining.SEQUENTIAL;
+            } else {
+                throw new ReportedException("Nepoznata vrijednost opcije " + name + ": " + value);
+            }
+        } else if (name.equals("reader")) {
+            if (value.equals("mapped")) {
+                fastaReading = ReferenceSequence.FastaReading.MAPPED;
+            } else if (value.equals("stream")) {
+                fastaReading = ReferenceSequence.FastaReading.STREAM;
+            } else {
+                throw new ReportedException("Nepoznat način čitanja Fasta datoteke: " + value);
+            }
+        } else if (name.equals("fai")) {
+            if (value.equals("on")) {
+                fastaRecordLookup = ReferenceSequence.FastaRecordLookup.INDEXED;
+            } else if (value.equals("off")) {
+                fastaRecordLookup = ReferenceSequence.FastaRecordLookup.SCAN;
+            } else {
+                throw new ReportedException("Nepoznata vrijednost opcije " + name + ": " + value);
+            }
+        } else if (name.equals("records")) {
+            if (value.equals("all")) {
+                recordNames = new String[0];
+            } else {
+                recordNames = value.split(",");
+                for (String recordName: recordNames) {
+                    if (recordName.isEmpty()) {
+                        throw new ReportedException("Neispravan popis zapisa Fasta datoteke: " + value);
+                    }
+                }
+            }
+        } else if (name.equals("nruns")) {
+            if (value.equals("off")) {
+                minimalNRunLength = 0;
+            } else {
+                minimalNRunLength = parsePositiveInteger(name, value);
+            }
+        } else if (name.equals("checkpoint")) {
+            if (value.equals("off")) {
+                checkpointInterval = 0;
+            } else {
+                checkpointInterval = parsePositiveInteger(name, value);
+            }
+        } else if (name.equals("checkpointdir")) {
+            checkpointDirectory = value;
+        } else if (name.equals("merge")) {
+            mergeFilename = value;
+        } else if (name.equals("mergename")) {
+            mergeSequenceName = value;
+        } else if (name.equals("verbose")) {
+            if (value.equals("on")) {
+                verbose = true;
+            } else if (value.equals("off")) {
+                verbose = false;
+            } else {
+                throw new ReportedException("Nepoznata vrijednost opcije " + name + ": " + value);
+            }
+        } else {
+            throw new ReportedException("Nepoznata opcija komandne linije: " + name);
+        }
+    }
+
+    /**
+     * Function parsePositiveInteger converts option value to positive integer.
+     *
+     * @param name          option name
+     * @param value         option value
+     * @return              option value as positive integer
+     * @throws ReportedException
+     */
+    private int parsePositiveInteger(String name, String value) throws ReportedException {
+
+        int number;
+
+        try {
+            number = Integer.parseInt(value);
+        } catch (NumberFormatException ex) {
+            number = 0;
+        }
+        if (number <= 0) {
+            throw new ReportedException("Vrijednost opcije " + name + " mora biti pozitivan cijeli broj: " + value);
+        }
+        return number;
+    }
+    // </editor-fold>
+}
@@ -12,11 +12,22 @@ package FMIndex;
 
 /**
  * Class ReportedException is exception used to report error to the function
- * caller. This exception tells to the caller that the error and its cause is
- * already reported to the user, usually by means of confirmation dialog.
+ * caller. Exception message describes the error and its cause, so the caller
+ * decides how to report it to the user. Application frame shows it in
+ * confirmation dialog, while library clients may log it or return it as
+ * status of their own request.
  * 
  * @version     V1.0                26.12.2013.
  * @author      Vedran Sabadoš
  */
 public class ReportedException extends Exception {
+
+    /**
+     * Class ReportedException Constructor
+     * 
+     * @param message       message describing the error
+     */
+    public ReportedException(String message) {
+        super(message);
+    }
 }
@@ -0,0 +1,575 @@
+/*
+ * Author:
+ *
+ *      Vedran Sabadoš
+ *
+ * Version:
+ *
+ *      V1.0         26. 12. 2013
+ */
+
+package FMIndex;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Class RotationBucketizer divides reference sequence rotations into buckets
+ * by their start sequence of fixed length using counting sort. The first pass
+ * over reference sequence counts rotations per start sequence and the second
+ * one places each rotation into its bucket, so reference sequence is scanned
+ * only twice regardless of number of buckets. Bucketed rotations are kept in
+ * memory or spilled into temporary file, which is read back one bucket at a
+ * time. Rotations whose start sequence contains terminating character are not
+ * bucketed. Packed reference sequence is scanned by decoding it in parts.
+ *
+ * @version     V1.0                26.12.2013.
+ * @author      Vedran Sabadoš
+ */
+public class RotationBucketizer {
+
+    // <editor-fold desc="Constants">
+
+    final static public int DEFAULT_SPILL_BUFFER_MEMORY = 0x02000000;   // default total memory of bucket write buffers used for spilling to disk
+    final public int MINIMAL_SPILL_BUFFER_SIZE = 1024;          // minimal size of one bucket write buffer
+    final public int CANCEL_CHECK_INTERVAL = 0x00100000;        // number of scanned characters between two cancellation checks
+    final public int PACKED_SCAN_BUFFER_SIZE = 0x00010000;      // number of packed characters decoded at once
+    // </editor-fold>
+
+    // <editor-fold desc="Fields">
+
+    /** Compact coded reference sequence buffer, or null if packed buffer is used */
+    private final byte[] compactCodeBuffer;
+
+    /** Packed compact coded reference sequence buffer, or null if byte buffer is used */
+    private final PackedCodeBuffer packedCodeBuffer;
+
+    /** Reference sequence length including terminating character */
+    private final int referenceSequenceLength;
+
+    /** Number of bytes read in one pass over reference sequence */
+    private final long bytesPerPass;
+
+    /** Number of characters in the alphabet */
+    private final int alphabetSize;
+
+    /** Length of start sequence used to divide rotations into buckets */
+    private final int startSequenceLength;
+
+    /** Number of buckets */
+    private final int noBuckets;
+
+    /** Total memory of bucket write buffers used for spilling to disk */
+    private final int spillBufferMemory;
+
+    /** Index of the first rotation of each bucket, last entry contains total number of rotations */
+    private final int[] bucketStart;
+
+    /** Bucketed rotations if they are kept in memory */
+    private int[] bucketRotationBuffer;
+
+    /** Buffer of decoded packed characters */
+    private byte[] scanBuffer;
+
+    /** Position of the first character in buffer of decoded packed characters */
+    private int scanBufferStart;
+
+    /** Temporary file containing bucketed rotations if they are spilled to disk */
+    private File spillFile;
+
+    /** Random access file object for spill file */
+    private RandomAccessFile spillRandomAccessFile;
+
+    /** Channel used to read and write spill file */
+    private FileChannel spillChannel;
+
+    /** Number of passes over reference sequence */
+    private int noPasses;
+
+    /** Number of reference sequence bytes scanned */
+    private long bytesScanned;
+
+    /** Number of bytes spilled to disk */
+    private long bytesSpilled;
+
+    /** Estimated memory consumption */
+    private long memoryConsumption;
+
+    /** Estimated maximal memory consumption */
+    private long maximalMemoryConsumption;
+    // </editor-fold>
+
+    // <editor-fold desc="Constructor">
+
+    /**
+     * Class RotationBucketizer Constructor. Rotations are divided into buckets
+     * during construction.
+     *
+     * @param codeBuffer        compact coded reference sequence terminated by character 0
+     * @param noCharacters      number of characters in the alphabet
+     * @param sequenceLength    length of start sequence used to divide rotations into buckets
+     * @param spillToDisk       true if bucketed rotations are to be spilled to temporary file
+     * @throws ReportedException
+     */
+    public RotationBucketizer(  byte[] codeBuffer,
+                                int noCharacters,
+                                int sequenceLength,
+                                boolean spillToDisk ) throws ReportedException {
+        this(codeBuffer, noCharacters, sequenceLength, spillToDisk, DEFAULT_SPILL_BUFFER_MEMORY);
+    }
+
+    /**
+     * Class RotationBucketizer Constructor. Rotations are divided into buckets
+     * during construction.
+     *
+     * @param codeBuffer        compact coded reference sequence terminated by character 0
+     * @param noCharacters      number of characters in the alphabet
+     * @param sequenceLength    length of start sequence used to divide rotations into buckets
+     * @param spillToDisk       true if bucketed rotations are to be spilled to temporary file
+     * @param bufferMemory      total memory of bucket write buffers used for spilling to disk
+     * @throws ReportedException
+     */
+    public RotationBucketizer(  byte[] codeBuffer,
+                                int noCharacters,
+                                int sequenceLength,
+                                boolean spillToDisk,
+                                int bufferMemory    ) throws ReportedException {
+        this(codeBuffer, null, noCharacters, sequenceLength, spillToDisk, bufferMemory);
+    }
+
+    /**
+     * Class RotationBucketizer Constructor, reference sequence is given as
+     * packed buffer. Rotations are divided into buckets during construction.
+     *
+     * @param packedBuffer      packed compact coded reference sequence terminated by character 0
+     * @param noCharacters      number of characters in the alphabet
+     * @param sequenceLength    length of start sequence used to divide rotations into buckets
+     * @param spillToDisk       true if bucketed rotations are to be spilled to temporary file
+     * @throws ReportedException
+     */
+    public RotationBucketizer(  PackedCodeBuffer packedBuffer,
+                                int noCharacters,
+                                int sequenceLength,
+                                boolean spillToDisk ) throws ReportedException {
+        this(null, packedBuffer, noCharacters, sequenceLength, spillToDisk, DEFAULT_SPILL_BUFFER_MEMORY);
+    }
+
+    /**
+     * Class RotationBucketizer Constructor. Rotations are divided into buckets
+     * during construction.
+     *
+     * @param codeBuffer        compact coded reference sequence, or null if packed buffer is given
+     * @param packedBuffer      packed compact coded reference sequence, or null if code buffer is given
+     * @param noCharacters      number of characters in the alphabet
+     * @param sequenceLength    length of start sequence used to divide rotations into buckets
+     * @param spillToDisk       true if bucketed rotations are to be spilled to temporary file
+     * @param bufferMemory      total memory of bucket write buffers used for spilling to disk
+     * @throws ReportedException
+     */
+    private RotationBucketizer( byte[] codeBuffer,
+                                PackedCodeBuffer packedBuffer,
+                                int noCharacters,
+                                int sequenceLength,
+                                boolean spillToDisk,
+                                int bufferMemory    ) throws ReportedException {
+
+        int bucketCount;
+
+        compactCodeBuffer = codeBuffer;
+        packedCodeBuffer = packedBuffer;
+        if (packedCodeBuffer != null) {
+            referenceSequenceLength = packedCodeBuffer.getLength();
+            bytesPerPass = ((((long) referenceSequenceLength) * packedCodeBuffer.getBitsPerCode()) / 8);
+            scanBuffer = new byte[PACKED_SCAN_BUFFER_SIZE];
+        } else {
+            referenceSequenceLength = compactCodeBuffer.length;
+            bytesPerPass = referenceSequenceLength;
+        }
+        alphabetSize = noCharacters;
+        startSequenceLength = sequenceLength;
+        spillBufferMemory = bufferMemory;
+        bucketCount = 1;
+        for (int i = 0; i < startSequenceLength; i++) {
+            bucketCount *= alphabetSize;
+        }
+        noBuckets = bucketCount;
+        bucketStart = new int[noBuckets + 1];
+        memoryConsumption = ((noBuckets + 1) * 4);
+        maximalMemoryConsumption = memoryConsumption;
+
+        countRotations();
+        if (spillToDisk) {
+            spillRotations();
+        } else {
+            placeRotations();
+        }
+        scanBuffer = null;
+    }
+    // </editor-fold>
+
+    // <editor-fold desc="Methods">
+
+    /**
+     * Function getBucketIndex provides index of bucket containing rotations
+     * beginning with given start sequence.
+     *
+     * @param startSequence     start sequence buffer
+     * @return                  bucket index
+     */
+    public int getBucketIndex(byte[] startSequence) {
+
+        int bucket;
+
+        bucket = 0;
+        for (int i = 0; i < startSequenceLength; i++) {
+            bucket = ((bucket * alphabetSize) + (startSequence[i] - 1));
+        }
+        return bucket;
+    }
+
+    /**
+     * Function getBucketSize provides number of rotations in given bucket.
+     *
+     * @param bucket    bucket index
+     * @return          number of rotations in bucket
+     */
+    public int getBucketSize(int bucket) {
+        return (bucketStart[bucket + 1] - bucketStart[bucket]);
+    }
+
+    /**
+     * Function getBucketRotations provides all rotations from given bucket in
+     * newly allocated buffer.
+     *
+     * @param bucket    bucket index
+     * @return          buffer containing rotations from bucket
+     * @throws ReportedException
+     */
+    public int[] getBucketRotations(int bucket) throws ReportedException {
+
+        int[] rotationBuffer;
+
+        rotationBuffer = new int[getBucketSize(bucket)];
+        readBucketRotations(bucket, 0, rotationBuffer, rotationBuffer.length);
+        return rotationBuffer;
+    }
+
+    /**
+     * Function readBucketRotations reads part of rotations from given bucket
+     * into given buffer, so big buckets can be processed in smaller chunks.
+     *
+     * @param bucket            bucket index
+     * @param firstRotation     index of the first rotation to read inside the bucket
+     * @param rotationBuffer    buffer to read rotations into
+     * @param noRotations       number of rotations to read
+     * @throws ReportedException
+     */
+    public void readBucketRotations(    int bucket,
+                                        int firstRotation,
+                                        int[] rotationBuffer,
+                                        int noRotations     ) throws ReportedException {
+
+        ByteBuffer readBuffer;
+        long filePosition;
+
+        if (bucketRotationBuffer != null) {
+            System.arraycopy(bucketRotationBuffer, (bucketStart[bucket] + firstRotation), rotationBuffer, 0, noRotations);
+            return;
+        }
+
+        readBuffer = ByteBuffer.allocate(noRotations * 4);
+        filePosition = ((((long) bucketStart[bucket]) + firstRotation) * 4);
+        try {
+            while (readBuffer.hasRemaining()) {
+                if (spillChannel.read(readBuffer, filePosition + readBuffer.position()) < 0) {
+                    throw new ReportedException("Neočekivani kraj privremene datoteke grupa rotacija!");
+                }
+            }
+        } catch (IOException ex) {
+            throw new ReportedException(    "Greška tijekom čitanja privremene datoteke grupa rotacija ("
+                                            + getExceptionType(ex)
+                                            + "):\n\n    "
+                                            + ex.getMessage()                                               );
+        }
+        readBuffer.flip();
+        readBuffer.asIntBuffer().get(rotationBuffer, 0, noRotations);
+    }
+
+    /**
+     * Function close releases bucketed rotations and deletes temporary file.
+     */
+    public void close() {
+        bucketRotationBuffer = null;
+        if (spillChannel != null) {
+            try {
+                spillRandomAccessFile.close();
+            } catch (IOException ex) {
+            }
+            spillChannel = null;
+            spillRandomAccessFile = null;
+        }
+        if (spillFile != null) {
+            spillFile.delete();
+            spillFile = null;
+        }
+    }
+
+    /**
+     * Function getNoPasses provides number of passes over reference sequence.
+     *
+     * @return      number of passes over reference sequence
+     */
+    public int getNoPasses() {
+        return noPasses;
+    }
+
+    /**
+     * Function getBytesScanned provides number of reference sequence bytes
+     * scanned during bucketing.
+     *
+     * @return      number of scanned bytes
+     */
+    public long getBytesScanned() {
+        return bytesScanned;
+    }
+
+    /**
+     * Function getBytesSpilled provides number of bytes spilled to disk.
+     *
+     * @return      number of bytes spilled to disk
+     */
+    public long getBytesSpilled() {
+        return bytesSpilled;
+    }
+
+    /**
+     * Function getMemoryConsumption estimates memory consumption of bucketed
+     * rotations kept in memory.
+     *
+     * @return      estimated memory consumption in bytes
+     */
+    public long getMemoryConsumption() {
+        return memoryConsumption;
+    }
+
+    /**
+     * Function getMaximalMemoryConsumption estimates maximal memory consumption
+     * during bucketing.
+     *
+     * @return      estimated maximal memory consumption in bytes
+     */
+    public long getMaximalMemoryConsumption() {
+        return maximalMemoryConsumption;
+    }
+
+    /**
+     * Function countRotations counts rotations in each bucket and calculates
+     * the first rotation index of each bucket.
+     *
+     * @throws ReportedException
+     */
+    private void countRotations() throws ReportedException {
+
+        int bucket;
+        int sum;
+        int count;
+
+        bucket = 0;
+        for (int i = 0; i < (referenceSequenceLength - 1); i++) {
+            if ((i & (CANCEL_CHECK_INTERVAL - 1)) == 0) {
+                checkCancel();
+            }
+            bucket = (((bucket * alphabetSize) + (getCharacter(i) - 1)) % noBuckets);
+            if (i >= (startSequenceLength - 1)) {
+                bucketStart[bucket]++;
+            }
+        }
+        sum = 0;
+        for (int i = 0; i <= noBuckets; i++) {
+            count = bucketStart[i];
+            bucketStart[i] = sum;
+            sum += count;
+        }
+        noPasses++;
+        bytesScanned += bytesPerPass;
+    }
+
+    /**
+     * Function placeRotations places each rotation into its bucket in memory.
+     *
+     * @throws ReportedException
+     */
+    private void placeRotations() throws ReportedException {
+
+        int[] bucketIndex;
+        int bucket;
+
+        bucketRotationBuffer = new int[bucketStart[noBuckets]];
+        bucketIndex = new int[noBuckets];
+        memoryConsumption += ((bucketRotationBuffer.length * 4) + (noBuckets * 4));
+        updateMaximalMemoryConsumption();
+        System.arraycopy(bucketStart, 0, bucketIndex, 0, noBuckets);
+
+        bucket = 0;
+        for (int i = 0; i < (referenceSequenceLength - 1); i++) {
+            if ((i & (CANCEL_CHECK_INTERVAL - 1)) == 0) {
+                checkCancel();
+            }
+            bucket = (((bucket * alphabetSize) + (getCharacter(i) - 1)) % noBuckets);
+            if (i >= (startSequenceLength - 1)) {
+                bucketRotationBuffer[bucketIndex[bucket]++] = (i - (startSequenceLength - 1));
+            }
+        }
+        memoryConsumption -= (noBuckets * 4);
+        noPasses++;
+        bytesScanned += bytesPerPass;
+    }
+
+    /**
+     * Function spillRotations writes each rotation into its bucket in
+     * temporary file. Every bucket has its own small write buffer which is
+     * flushed to bucket position in the file when it gets full.
+     *
+     * @throws ReportedException
+     */
+    private void spillRotations() throws ReportedException {
+
+        ByteBuffer[] writeBuffers;
+        long[] filePosition;
+        int writeBufferSize;
+        int bucket;
+
+        writeBufferSize = Math.max(MINIMAL_SPILL_BUFFER_SIZE, ((spillBufferMemory / noBuckets) & (~3)));
+        writeBuffers = new ByteBuffer[noBuckets];
+        filePosition = new long[noBuckets];
+        memoryConsumption += (((long) noBuckets) * (writeBufferSize + 8));
+        updateMaximalMemoryConsumption();
+        for (int i = 0; i < noBuckets; i++) {
+            filePosition[i] = (((long) bucketStart[i]) * 4);
+        }
+
+        try {
+            spillFile = File.createTempFile("FMIndexCount", ".bucket");
+            spillFile.deleteOnExit();
+            spillRandomAccessFile = new RandomAccessFile(spillFile, "rw");
+            spillChannel = spillRandomAccessFile.getChannel();
+
+            bucket = 0;
+            for (int i = 0; i < (referenceSequenceLength - 1); i++) {
+                if ((i & (CANCEL_CHECK_INTERVAL - 1)) == 0) {
+                    checkCancel();
+                }
+                bucket = (((bucket * alphabetSize) + (getCharacter(i) - 1)) % noBuckets);
+                if (i >= (startSequenceLength - 1)) {
+                    if (writeBuffers[bucket] == null) {
+                        writeBuffers[bucket] = ByteBuffer.allocate(writeBufferSize);
+                    }
+                    writeBuffers[bucket].putInt(i - (startSequenceLength - 1));
+                    if (!writeBuffers[bucket].hasRemaining()) {
+                        filePosition[bucket] = flushWriteBuffer(writeBuffers[bucket], filePosition[bucket]);
+                    }
+                }
+            }
+            for (int i = 0; i < noBuckets; i++) {
+                if (writeBuffers[i] != null) {
+                    filePosition[i] = flushWriteBuffer(writeBuffers[i], filePosition[i]);
+                    writeBuffers[i] = null;
+                }
+            }
+        } catch (ReportedException ex) {
+            close();
+            throw ex;
+        } catch (IOException ex) {
+            close();
+            throw new ReportedException(    "Greška tijekom zapisivanja privremene datoteke grupa rotacija ("
+                                            + getExceptionType(ex)
+                                            + "):\n\n    "
+                                            + ex.getMessage()                                               );
+        }
+        memoryConsumption -= (((long) noBuckets) * (writeBufferSize + 8));
+        noPasses++;
+        bytesScanned += bytesPerPass;
+    }
+
+    /**
+     * Function flushWriteBuffer writes content of bucket write buffer to the
+     * spill file and empties the buffer.
+     *
+     * @param writeBuffer       bucket write buffer
+     * @param filePosition      file position to write buffer content to
+     * @return                  file position following written content
+     * @throws IOException
+     */
+    private long flushWriteBuffer(ByteBuffer writeBuffer, long filePosition) throws IOException {
+        writeBuffer.flip();
+        while (writeBuffer.hasRemaining()) {
+            filePosition += spillChannel.write(writeBuffer, filePosition);
+        }
+        bytesSpilled += writeBuffer.limit();
+        writeBuffer.clear();
+        return filePosition;
+    }
+
+    /**
+     * Function getCharacter provides reference sequence character at given
+     * position. Packed reference sequence is decoded in parts as it is
+     * scanned sequentially.
+     *
+     * @param position      character position
+     * @return              compact code of character
+     */
+    private byte getCharacter(int position) {
+        if (packedCodeBuffer == null) {
+            return compactCodeBuffer[position];
+        }
+        if ((position == 0) || ((position - scanBufferStart) >= PACKED_SCAN_BUFFER_SIZE)) {
+            scanBufferStart = position;
+            packedCodeBuffer.readCodes(position, scanBuffer, Math.min(PACKED_SCAN_BUFFER_SIZE, (referenceSequenceLength - position)));
+        }
+        return scanBuffer[position - scanBufferStart];
+    }
+
+    /** Function updateMaximalMemoryConsumption updates maximal memory consumption */
+    private void updateMaximalMemoryConsumption() {
+        if (memoryConsumption > maximalMemoryConsumption) {
+            maximalMemoryConsumption = memoryConsumption;
+        }
+    }
+
+    /**
+     * Function getExceptionType provides the type of exception
+     *
+     * @param   ex    exception which type is to be determined
+     */
+    private String getExceptionType (Exception ex) {
+
+        String exceptionFullName;
+        int lastDotIndex;
+
+        exceptionFullName = ex.getClass().toString();
+        lastDotIndex = exceptionFullName.lastIndexOf('.');
+        if (lastDotIndex < 0) {
+            lastDotIndex = 0;
+        } else {
+            lastDotIndex++;
+        }
+        return exceptionFullName.substring(lastDotIndex);
+    }
+
+    /**
+     * Function checkCancel checks if reference sequence creation cancellation
+     * is requested. If so, creation is interrupted by ReportedException
+     * describing cancellation.
+     *
+     * @throws ReportedException
+     */
+    private void checkCancel() throws ReportedException {
+        if (Thread.interrupted()) {
+            throw new ReportedException("Kreiranje indeksa referentnog slijeda prekinuto na zahtjev korisnika!");
+        }
+    }
+    // </editor-fold>
+}
@@ -0,0 +1,224 @@
+/*
+ * Author:
+ *
+ *      Vedran Sabadoš
+ *
+ * Version:
+ *
+ *      V1.0         26. 12. 2013
+ */
+
+package FMIndex;
+
+/**
+ * Class RotationBufferArena keeps rotation, sort and key buffers used by
+ * rotation sort, so they are allocated once and reused for every start
+ * sequence and every recursion level instead of being allocated anew. Each
+ * recursion level gets its own rotation buffer, because rotations of previous
+ * levels stay in use during recursion. Rotation buffer size is selected once
+ * from memory budget and reference sequence length. Sort and key buffers grow
+ * to the biggest requested size and are never shrunk. Allocation counters
+ * show how many buffers were actually allocated and how many requests were
+ * served by reused buffers. Arena is not thread safe.
+ *
+ * @version     V1.0                26.12.2013.
+ * @author      Vedran Sabadoš
+ */
+public class RotationBufferArena {
+
+    // <editor-fold desc="Constants">
+
+    final public int MINIMAL_ROTATION_BUFFER_SIZE = 1024;      // minimal size of rotation buffer of one recursion level
+    final public int SORT_BUFFER_GROWTH_SHIFT = 3;             // sort and key buffers grow by at least 1/8 of their size
+    // </editor-fold>
+
+    // <editor-fold desc="Fields">
+
+    /** Size of rotation buffer of one recursion level */
+    private final int rotationBufferSize;
+
+    /** Rotation buffers of recursion levels, allocated when first requested */
+    private final int[][] levelBuffers;
+
+    /** Buffer of rotations to sort */
+    private int[] sortBuffer;
+
+    /** Buffer of multikey quicksort keys */
+    private long[] keyBuffer;
+
+    /** Number of buffer requests */
+    private long noRequests;
+
+    /** Number of allocated buffers */
+    private long noAllocations;
+
+    /** Number of allocated bytes */
+    private long allocatedBytes;
+
+    /** Memory consumption of buffers kept by arena */
+    private long memoryConsumption;
+    // </editor-fold>
+
+    // <editor-fold desc="Constructor">
+
+    /**
+     * Class RotationBufferArena Constructor. Rotation buffer of one recursion
+     * level gets the biggest size not exceeding maximal size and reference
+     * sequence length, for which memory budget covers rotation buffers of
+     * expected number of recursion levels.
+     *
+     * @param maximalBufferSize     maximal size of rotation buffer of one recursion level
+     * @param sequenceLength        reference sequence length including terminating character
+     * @param memoryBudget          memory in bytes available for rotation buffers
+     * @param expectedLevels        expected number of simultaneously used recursion levels
+     * @param maximalLevels         maximal recursion level
+     */
+    public RotationBufferArena( int maximalBufferSize,
+                                int sequenceLength,
+                                long memoryBudget,
+                                int expectedLevels,
+                                int maximalLevels       ) {
+
+        long bufferSize;
+
+        bufferSize = Math.min(maximalBufferSize, sequenceLength);
+        bufferSize = Math.min(bufferSize, (memoryBudget / (((long) expectedLevels) * 4)));
+        rotationBufferSize = ((int) Math.max(bufferSize, MINIMAL_ROTATION_BUFFER_SIZE));
+        levelBuffers = new int[maximalLevels + 1][];
+        sortBuffer = null;
+        keyBuffer = null;
+        noRequests = 0;
+        noAllocations = 0;
+        allocatedBytes = 0;
+        memoryConsumption = 0;
+    }
+    // </editor-fold>
+
+    // <editor-fold desc="Methods">
+
+    /**
+     * Function getRotationBufferSize provides size of rotation buffer of one
+     * recursion level.
+     *
+     * @return      number of rotations in rotation buffer
+     */
+    public int getRotationBufferSize() {
+        return rotationBufferSize;
+    }
+
+    /**
+     * Function getLevelBuffer provides rotation buffer of given recursion
+     * level. Buffer content is left from its previous use.
+     *
+     * @param level     recursion level
+     * @return          rotation buffer of rotationBufferSize rotations
+     */
+    public int[] getLevelBuffer(int level) {
+        noRequests++;
+        if (levelBuffers[level] == null) {
+            levelBuffers[level] = new int[rotationBufferSize];
+            countAllocation(((long) rotationBufferSize) * 4);
+        }
+        return levelBuffers[level];
+    }
+
+    /**
+     * Function getSortBuffer provides buffer for at least given number of
+     * rotations. Buffer content is left from its previous use.
+     *
+     * @param size      number of rotations
+     * @return          sort buffer
+     */
+    public int[] getSortBuffer(int size) {
+        noRequests++;
+        if ((sortBuffer == null) || (sortBuffer.length < size)) {
+            if (sortBuffer != null) {
+                memoryConsumption -= (((long) sortBuffer.length) * 4);
+            }
+            sortBuffer = new int[getGrownSize((sortBuffer == null) ? 0 : sortBuffer.length, size)];
+            countAllocation(((long) sortBuffer.length) * 4);
+        }
+        return sortBuffer;
+    }
+
+    /**
+     * Function getKeyBuffer provides buffer for at least given number of
+     * multikey quicksort keys. Buffer content is left from its previous use.
+     *
+     * @param size      number of keys
+     * @return          key buffer
+     */
+    public long[] getKeyBuffer(int size) {
+        noRequests++;
+        if ((keyBuffer == null) || (keyBuffer.length < size)) {
+            if (keyBuffer != null) {
+                memoryConsumption -= (((long) keyBuffer.length) * 8);
+            }
+            keyBuffer = new long[getGrownSize((keyBuffer == null) ? 0 : keyBuffer.length, size)];
+            countAllocation(((long) keyBuffer.length) * 8);
+        }
+        return keyBuffer;
+    }
+
+    /**
+     * Function getNoRequests provides number of buffer requests.
+     *
+     * @return      number of buffer requests
+     */
+    public long getNoRequests() {
+        return noRequests;
+    }
+
+    /**
+     * Function getNoAllocations provides number of allocated buffers.
+     *
+     * @return      number of allocated buffers
+     */
+    public long getNoAllocations() {
+        return noAllocations;
+    }
+
+    /**
+     * Function getAllocatedBytes provides total number of bytes allocated by
+     * arena, including buffers replaced by bigger ones.
+     *
+     * @return      number of allocated bytes
+     */
+    public long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    /**
+     * Function getMemoryConsumption provides memory consumption of buffers
+     * currently kept by arena.
+     *
+     * @return      memory consumption in bytes
+     */
+    public long getMemoryConsumption() {
+        return memoryConsumption;
+    }
+
+    /**
+     * Function countAllocation updates allocation counters.
+     *
+     * @param bytes     number of allocated bytes
+     */
+    private void countAllocation(long bytes) {
+        noAllocations++;
+        allocatedBytes += bytes;
+        memoryConsumption += bytes;
+    }
+
+    /**
+     * Function getGrownSize calculates new size of growing buffer, so series
+     * of slowly increasing requests does not allocate buffer each time.
+     *
+     * @param currentSize       current buffer size
+     * @param requestedSize     requested buffer size
+     * @return                  new buffer size
+     */
+    private int getGrownSize(int currentSize, int requestedSize) {
+        return ((int) Math.min(Integer.MAX_VALUE - 8, Math.max(requestedSize, (((long) currentSize) + (currentSize >>> SORT_BUFFER_GROWTH_SHIFT)))));
+    }
+    // </editor-fold>
+}
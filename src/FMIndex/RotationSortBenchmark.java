@@ -0,0 +1,197 @@
+/*
+ * Author:
+ *
+ *      Vedran Sabadoš
+ *
+ * Version:
+ *
+ *      V1.0         26. 12. 2013
+ */
+
+package FMIndex;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.Arrays;
+
+/**
+ * Class RotationSortBenchmark compares rotation sort algorithms on the same
+ * rotation buckets. Reference sequence is recovered from preprocessed
+ * reference sequence index file (e.g. Data/Chr1_010.rfix), its rotations are
+ * divided into initial buckets and every bucket is sorted by heap sort and by
+ * multikey quicksort. Sorted buckets are compared, so the benchmark checks
+ * that both algorithms give the same BW transform as well.
+ *
+ * Usage: java -cp bin FMIndex.RotationSortBenchmark [file.rfix]
+ *
+ * @version     V1.0                26.12.2013.
+ * @author      Vedran Sabadoš
+ */
+public class RotationSortBenchmark {
+
+    // <editor-fold desc="Constants">
+
+    final static public String DEFAULT_INDEX_FILE = "Data/Chr1_010.rfix";   // index file used if none is given
+    final static public int START_SEQUENCE_LENGTH = 3;                      // start sequence length of benchmarked buckets
+    final static public int START_SEQUENCE_LENGTH_10_PLUS = 2;              // start sequence length for alphabet of more than 10 characters
+    // </editor-fold>
+
+    // <editor-fold desc="Methods">
+
+    /**
+     * Benchmark main function
+     *
+     * @param args      command line arguments, optional preprocessed reference sequence index file
+     */
+    public static void main(String[] args) {
+
+        ReferenceSequenceIndex referenceSequenceIndex;
+        RotationBucketizer rotationBucketizer;
+        RotationSorter heapSorter;
+        RotationSorter multikeySorter;
+        ObjectInputStream inputStream;
+        byte[] compactCodeBuffer;
+        byte[] startSequence;
+        int[] heapRotations;
+        int[] multikeyRotations;
+        String filename;
+        int alphabetSize;
+        int startSequenceLength;
+        int noBuckets;
+        long heapDuration;
+        long multikeyDuration;
+        long time;
+
+        filename = ((args.length > 0) ? args[0] : DEFAULT_INDEX_FILE);
+        try {
+
+            /* read reference sequence index */
+            inputStream = new ObjectInputStream(new BufferedInputStream(new FileInputStream(filename)));
+            try {
+                referenceSequenceIndex = (ReferenceSequenceIndex) inputStream.readObject();
+            } finally {
+                inputStream.close();
+            }
+            if (referenceSequenceIndex.isLongIndex()) {
+                System.out.println("Benchmark supports 32-bit reference sequence index only: " + filename);
+                System.exit(1);
+            }
+            alphabetSize = referenceSequenceIndex.alphabetDictionary.getAlphabetSize();
+            compactCodeBuffer = recoverReferenceSequence(referenceSequenceIndex);
+            referenceSequenceIndex = null;
+            System.out.println( "Reference sequence of " + Integer.toString(compactCodeBuffer.length - 1)
+                                + " characters recovered from " + filename);
+
+            /* divide rotations into buckets */
+            startSequenceLength = ((alphabetSize > 10) ? START_SEQUENCE_LENGTH_10_PLUS : START_SEQUENCE_LENGTH);
+            rotationBucketizer = new RotationBucketizer(compactCodeBuffer, alphabetSize, startSequenceLength, false);
+            heapSorter = new RotationSorter(    compactCodeBuffer,
+                                                alphabetSize,
+                                                ReferenceSequence.RotationSortAlgorithm.HEAP_SORT           );
+            multikeySorter = new RotationSorter(compactCodeBuffer,
+                                                alphabetSize,
+                                                ReferenceSequence.RotationSortAlgorithm.MULTIKEY_QUICKSORT  );
+
+            /* sort each bucket by both algorithms */
+            startSequence = new byte[startSequenceLength];
+            noBuckets = 1;
+            for (int i = 0; i < startSequenceLength; i++) {
+                noBuckets *= alphabetSize;
+            }
+            heapDuration = 0;
+            multikeyDuration = 0;
+            for (int bucket = 0; bucket < noBuckets; bucket++) {
+                for (int i = (startSequenceLength - 1), j = bucket; i >= 0; i--, j /= alphabetSize) {
+                    startSequence[i] = (byte) ((j % alphabetSize) + 1);
+                }
+                heapRotations = rotationBucketizer.getBucketRotations(rotationBucketizer.getBucketIndex(startSequence));
+                multikeyRotations = Arrays.copyOf(heapRotations, heapRotations.length);
+
+                time = System.nanoTime();
+                heapSorter.sortRotations(heapRotations, heapRotations.length, startSequenceLength);
+                heapDuration += (System.nanoTime() - time);
+
+                time = System.nanoTime();
+                multikeySorter.sortRotations(multikeyRotations, multikeyRotations.length, startSequenceLength);
+                multikeyDuration += (System.nanoTime() - time);
+
+                if (!Arrays.equals(heapRotations, multikeyRotations)) {
+                    System.out.println("Sorted buckets differ for bucket " + Integer.toString(bucket) + "!");
+                    System.exit(1);
+                }
+            }
+            rotationBucketizer.close();
+
+            /* report results */
+            System.out.println("Buckets sorted:              " + Integer.toString(noBuckets));
+            System.out.println("Heap sort duration:          " + Long.toString(heapDuration / 1000000) + " ms");
+            System.out.println("Multikey quicksort duration: " + Long.toString(multikeyDuration / 1000000) + " ms");
+            if (multikeyDuration > 0) {
+                System.out.println("Speedup:                     " + String.format("%.2f", ((double) heapDuration) / multikeyDuration));
+            }
+        } catch (IOException ex) {
+            System.out.println("Reading of " + filename + " failed: " + ex.getMessage());
+            System.exit(1);
+        } catch (ClassNotFoundException ex) {
+            System.out.println("Reading of " + filename + " failed: " + ex.getMessage());
+            System.exit(1);
+        } catch (ReportedException ex) {
+            System.out.println(ex.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Function recoverReferenceSequence recovers compact coded reference
+     * sequence from its index by inverting BW transform.
+     *
+     * @param referenceSequenceIndex    reference sequence index
+     * @return                          compact coded reference sequence terminated by character 0
+     * @throws ReportedException
+     */
+    private static byte[] recoverReferenceSequence(ReferenceSequenceIndex referenceSequenceIndex) throws ReportedException {
+
+        FMIndexOccurrenceTable occurrenceTable;
+        byte[] bwtBuffer;
+        byte[] compactCodeBuffer;
+        int[] lastToFirst;
+        int[] characterCount;
+        int referenceSequenceLength;
+        int alphabetSize;
+        int index;
+
+        occurrenceTable = referenceSequenceIndex.getOccurrenceTable();
+        alphabetSize = referenceSequenceIndex.alphabetDictionary.getAlphabetSize();
+        referenceSequenceLength = referenceSequenceIndex.prefixSumTable[alphabetSize + 1];
+
+        /* read BW transform from occurrence table */
+        bwtBuffer = new byte[referenceSequenceLength];
+        for (int i = 0; i < referenceSequenceLength; i++) {
+            for (byte c = 0; c <= alphabetSize; c++) {
+                if (occurrenceTable.Occ(c, i + 1) != occurrenceTable.Occ(c, i)) {
+                    bwtBuffer[i] = c;
+                    break;
+                }
+            }
+        }
+
+        /* calculate last to first mapping */
+        lastToFirst = new int[referenceSequenceLength];
+        characterCount = new int[alphabetSize + 1];
+        for (int i = 0; i < referenceSequenceLength; i++) {
+            lastToFirst[i] = (referenceSequenceIndex.prefixSumTable[bwtBuffer[i]] + characterCount[bwtBuffer[i]]++);
+        }
+
+        /* invert BW transform, rotation 0 is preceded by terminating character */
+        compactCodeBuffer = new byte[referenceSequenceLength];
+        index = 0;
+        for (int i = (referenceSequenceLength - 2); i >= 0; i--) {
+            compactCodeBuffer[i] = bwtBuffer[index];
+            index = lastToFirst[index];
+        }
+        return compactCodeBuffer;
+    }
+    // </editor-fold>
+}
@@ -0,0 +1,984 @@
+/*
+ * Author:
+ *
+ *      Vedran Sabadoš
+ *
+ * Version:
+ *
+ *      V1.0         26. 12. 2013
+ */
+
+package FMIndex;
+
+import static java.lang.StrictMath.min;
+import java.util.Arrays;
+
+/**
+ * Class RotationSorter compares and sorts rotations of compact coded reference
+ * sequence. It keeps data structures describing long periodic runs (runs of
+ * the same character or tandem repeats of short period), which are used to
+ * skip comparison of rotations inside such runs. Rotations are sorted either by heap sort or by multikey quicksort,
+ * which partitions rotations by keys packing several following characters
+ * into one long value and reuses the length of common prefix of rotations
+ * between recursion levels. Reference sequence is given either as byte per
+ * character buffer or as packed buffer, whose rotations are compared several
+ * characters at once. After construction the object is only read, so the
+ * same object can be used to sort different rotation buckets concurrently.
+ *
+ * @version     V1.0                26.12.2013.
+ * @author      Vedran Sabadoš
+ */
+public class RotationSorter {
+
+    // <editor-fold desc="Constants">
+
+    final static public int DEFAULT_MAXIMAL_REPEAT_PERIOD = 12; // default maximal period of detected periodic runs
+    final static public int MAXIMAL_REPEAT_PERIOD = 255;        // maximal period of detected periodic runs that can be requested
+    final public int LONG_RUN_SEQUENCE_THRESHOLD = 100;         // minimal length of long run sequence
+    final public int MINIMAL_REPEAT_COPIES = 3;                 // minimal number of repeat copies in long periodic run
+    final public int PERIODIC_RUN_BLOCK_SHIFT = 8;              // periodic run lookup block size (256 characters) multiplication/divsion shift
+    final public int LONG_RUN_TEST_INTERVAL = 64;               // number of characters compared between two further long run sequence tests
+    final public int TEST_LONG_RUN_SEQUENCE_AFTER = 10;         // test if long run sequence after specified number of passes when comaring two rotations
+    final public int MULTIKEY_INSERTION_SORT_SIZE = 16;         // multikey quicksort sorts smaller ranges by insertion sort
+    final public int MULTIKEY_MAXIMAL_DEPTH = 1024;             // multikey quicksort switches to heap sort after given number of equal characters
+    final public int PACKED_COMPARE_LENGTH = 64;                // number of packed characters compared between two long run sequence tests
+    final public int PACKED_SCAN_BUFFER_SIZE = 0x00010000;      // number of packed characters decoded at once during long run detection
+    // </editor-fold>
+
+    // <editor-fold desc="Fields">
+
+    /** Compact coded reference sequence buffer, or null if packed buffer is used */
+    private final byte[] compactCodeBuffer;
+
+    /** Packed compact coded reference sequence buffer, or null if byte buffer is used */
+    private final PackedCodeBuffer packedCodeBuffer;
+
+    /** Reference sequence length including terminating character */
+    private final int referenceSequenceLength;
+
+    /** Algorithm used to sort rotations */
+    private final ReferenceSequence.RotationSortAlgorithm sortAlgorithm;
+
+    /** Number of bits per character in multikey quicksort key */
+    private final int bitsPerCharacter;
+
+    /** Number of characters packed into multikey quicksort key */
+    private final int charactersPerKey;
+
+    /** Maximal period of detected periodic runs */
+    private final int maximalRepeatPeriod;
+
+    /** Number of long periodic runs */
+    private int noPeriodicRuns;
+
+    /** Start rotations of long periodic runs, sorted */
+    private int[] periodicRunStart;
+
+    /** End rotations (exclusive) of long periodic runs */
+    private int[] periodicRunEnd;
+
+    /** Periods of long periodic runs */
+    private byte[] periodicRunPeriod;
+
+    /** Index of the first periodic run ending after start of each lookup block */
+    private int[] periodicRunBlockIndex;
+
+    /** Estimated memory consumption of long run data structures */
+    private long memoryConsumption;
+
+    /** Flag telling that sorting is cancelled and the cause is already thrown */
+    private volatile boolean cancelled;
+    // </editor-fold>
+
+    // <editor-fold desc="Constructor">
+
+    /**
+     * Class RotationSorter Constructor, rotations are sorted by heap sort
+     *
+     * @param codeBuffer        compact coded reference sequence terminated by character 0
+     * @param alphabetSize      number of characters in the alphabet
+     */
+    public RotationSorter(byte[] codeBuffer, int alphabetSize) {
+        this(codeBuffer, alphabetSize, ReferenceSequence.RotationSortAlgorithm.HEAP_SORT);
+    }
+
+    /**
+     * Class RotationSorter Constructor
+     *
+     * @param codeBuffer        compact coded reference sequence terminated by character 0
+     * @param alphabetSize      number of characters in the alphabet
+     * @param algorithm         algorithm used to sort rotations
+     */
+    public RotationSorter(  byte[] codeBuffer,
+                            int alphabetSize,
+                            ReferenceSequence.RotationSortAlgorithm algorithm   ) {
+        this(codeBuffer, null, alphabetSize, algorithm, DEFAULT_MAXIMAL_REPEAT_PERIOD);
+    }
+
+    /**
+     * Class RotationSorter Constructor
+     *
+     * @param codeBuffer        compact coded reference sequence terminated by character 0
+     * @param alphabetSize      number of characters in the alphabet
+     * @param algorithm         algorithm used to sort rotations
+     * @param repeatPeriod      maximal period of detected periodic runs, 1 detects runs of the same character only
+     */
+    public RotationSorter(  byte[] codeBuffer,
+                            int alphabetSize,
+                            ReferenceSequence.RotationSortAlgorithm algorithm,
+                            int repeatPeriod                                    ) {
+        this(codeBuffer, null, alphabetSize, algorithm, repeatPeriod);
+    }
+
+    /**
+     * Class RotationSorter Constructor, reference sequence is given as packed
+     * buffer.
+     *
+     * @param packedBuffer      packed compact coded reference sequence terminated by character 0
+     * @param alphabetSize      number of characters in the alphabet
+     * @param algorithm         algorithm used to sort rotations
+     * @param repeatPeriod      maximal period of detected periodic runs, 1 detects runs of the same character only
+     */
+    public RotationSorter(  PackedCodeBuffer packedBuffer,
+                            int alphabetSize,
+                            ReferenceSequence.RotationSortAlgorithm algorithm,
+                            int repeatPeriod                                    ) {
+        this(null, packedBuffer, alphabetSize, algorithm, repeatPeriod);
+    }
+
+    /**
+     * Class RotationSorter Constructor
+     *
+     * @param codeBuffer        compact coded reference sequence, or null if packed buffer is given
+     * @param packedBuffer      packed compact coded reference sequence, or null if code buffer is given
+     * @param alphabetSize      number of characters in the alphabet
+     * @param algorithm         algorithm used to sort rotations
+     * @param repeatPeriod      maximal period of detected periodic runs
+     */
+    private RotationSorter( byte[] codeBuffer,
+                            PackedCodeBuffer packedBuffer,
+                            int alphabetSize,
+                            ReferenceSequence.RotationSortAlgorithm algorithm,
+                            int repeatPeriod                                    ) {
+
+        int bits;
+
+        compactCodeBuffer = codeBuffer;
+        packedCodeBuffer = packedBuffer;
+        if (packedCodeBuffer != null) {
+            referenceSequenceLength = packedCodeBuffer.getLength();
+        } else {
+            referenceSequenceLength = compactCodeBuffer.length;
+        }
+        sortAlgorithm = algorithm;
+        bits = 1;
+        while ((1 << bits) <= alphabetSize) {
+            bits++;
+        }
+        bitsPerCharacter = bits;
+        charactersPerKey = (63 / bits);
+        maximalRepeatPeriod = Math.max(1, Math.min(repeatPeriod, MAXIMAL_REPEAT_PERIOD));
+        cancelled = false;
+        detectPeriodicRuns();
+    }
+    // </editor-fold>
+
+    // <editor-fold desc="Methods">
+
+    /**
+     * Function getMemoryConsumption estimates memory consumption of long run
+     * data structures.
+     *
+     * @return      estimated memory consumption in bytes
+     */
+    public long getMemoryConsumption() {
+        return memoryConsumption;
+    }
+
+    /**
+     * Function getSortMemoryConsumption estimates additional memory needed to
+     * sort given number of rotations.
+     *
+     * @param noRotations       number of rotations to sort
+     * @return                  estimated memory consumption in bytes
+     */
+    public long getSortMemoryConsumption(int noRotations) {
+        if (sortAlgorithm == ReferenceSequence.RotationSortAlgorithm.MULTIKEY_QUICKSORT) {
+            return (((long) noRotations) * 8);
+        }
+        return 0;
+    }
+
+    /**
+     * Function cancel marks sorting as cancelled. All sorts in progress, as
+     * well as all subsequent sorts, are interrupted by ReportedException
+     * whose message is not shown to the user.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Function isCancelled checks if sorting is cancelled.
+     *
+     * @return      true if sorting is cancelled
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Function getNoPeriodicRuns provides number of detected long periodic
+     * runs.
+     *
+     * @return      number of long periodic runs
+     */
+    public int getNoPeriodicRuns() {
+        return noPeriodicRuns;
+    }
+
+    /**
+     * Function detectPeriodicRuns detects long periodic runs in reference
+     * sequence and prepares data structures to efficiently sort reference
+     * sequence rotations. Periodic run of period p is maximal sequence in
+     * which each character is equal to the character p places before it,
+     * e.g. run of the same character (p = 1) or tandem repeat ACACAC (p = 2).
+     * Only runs of primitive period are kept, so run of the same character is
+     * not detected again as run of period 2, 3, ... Periodic runs are kept
+     * sorted by start, and each lookup block of reference sequence gets index
+     * of the first run that may contain its characters.
+     */
+    private void detectPeriodicRuns() {
+
+        byte[] scanBuffer;
+        int scanBufferStart;
+        int scanBufferLength;
+        int[] matchCount;
+        int[] start;
+        int[] end;
+        byte[] period;
+        long[] sortKeys;
+        int noRuns;
+        int maximalEnd;
+        int run;
+        int noBlocks;
+        int offset;
+        int scanEnd;
+        int compareEnd;
+        int count;
+        int nextCount;
+        int minimalCount;
+
+        /* find periodic runs, reference sequence is scanned in parts */
+        matchCount = new int[maximalRepeatPeriod + 1];
+        scanBuffer = compactCodeBuffer;
+        if (packedCodeBuffer != null) {
+            scanBuffer = new byte[PACKED_SCAN_BUFFER_SIZE + maximalRepeatPeriod];
+        }
+        periodicRunStart = new int[16];
+        periodicRunEnd = new int[16];
+        periodicRunPeriod = new byte[16];
+        noPeriodicRuns = 0;
+        for (scanBufferStart = 0; scanBufferStart < referenceSequenceLength; scanBufferStart += PACKED_SCAN_BUFFER_SIZE) {
+            scanBufferLength = min((PACKED_SCAN_BUFFER_SIZE + maximalRepeatPeriod), (referenceSequenceLength - scanBufferStart));
+            offset = 0;
+            if (packedCodeBuffer != null) {
+                packedCodeBuffer.readCodes(scanBufferStart, scanBuffer, scanBufferLength);
+                offset = scanBufferStart;
+            }
+            scanEnd = min((scanBufferStart + PACKED_SCAN_BUFFER_SIZE), referenceSequenceLength);
+            for (int p = 1; p <= maximalRepeatPeriod; p++) {
+
+                /* count characters equal to the character p places after them, run ends at the first different one */
+                count = matchCount[p];
+                minimalCount = (Math.max(LONG_RUN_SEQUENCE_THRESHOLD, (MINIMAL_REPEAT_COPIES * p)) - p);
+                compareEnd = min(scanEnd, (referenceSequenceLength - p));
+                for (int i = scanBufferStart; i < compareEnd; i++) {
+                    nextCount = ((scanBuffer[i - offset] == scanBuffer[i + p - offset]) ? (count + 1) : 0);
+                    if ((count >= minimalCount) && (nextCount == 0)) {
+                        addPeriodicRun((i - count), (i + p), p);
+                    }
+                    count = nextCount;
+                }
+
+                /* the last run ends p places before the end of reference sequence */
+                if ((compareEnd < scanEnd) && (count >= minimalCount)) {
+                    addPeriodicRun((compareEnd - count), (compareEnd + p), p);
+                }
+                matchCount[p] = ((compareEnd < scanEnd) ? 0 : count);
+            }
+        }
+
+        /* sort periodic runs by start */
+        noRuns = noPeriodicRuns;
+        start = periodicRunStart;
+        end = periodicRunEnd;
+        period = periodicRunPeriod;
+        sortKeys = new long[noRuns];
+        for (int i = 0; i < noRuns; i++) {
+            sortKeys[i] = ((((long) start[i]) << 32) | i);
+        }
+        Arrays.sort(sortKeys);
+        periodicRunStart = new int[noRuns];
+        periodicRunEnd = new int[noRuns];
+        periodicRunPeriod = new byte[noRuns];
+        for (int i = 0; i < noRuns; i++) {
+            run = ((int) sortKeys[i]);
+            periodicRunStart[i] = start[run];
+            periodicRunEnd[i] = end[run];
+            periodicRunPeriod[i] = period[run];
+        }
+        memoryConsumption = (((long) noRuns) * 9);
+
+        /* runs ending before lookup block start are skipped, ends are not sorted, so their running maximum is used */
+        if (noRuns > 0) {
+            noBlocks = ((referenceSequenceLength >>> PERIODIC_RUN_BLOCK_SHIFT) + 1);
+            periodicRunBlockIndex = new int[noBlocks];
+            memoryConsumption += (((long) noBlocks) * 4);
+            run = 0;
+            maximalEnd = periodicRunEnd[0];
+            for (int block = 0; block < noBlocks; block++) {
+                while ((run < noRuns) && (maximalEnd <= (block << PERIODIC_RUN_BLOCK_SHIFT))) {
+                    run++;
+                    if (run < noRuns) {
+                        maximalEnd = Math.max(maximalEnd, periodicRunEnd[run]);
+                    }
+                }
+                periodicRunBlockIndex[block] = run;
+            }
+        }
+    }
+
+    /**
+     * Function addPeriodicRun adds periodic run to the list of long periodic
+     * runs, if its period is primitive.
+     *
+     * @param runStart      start rotation of periodic run
+     * @param runEnd        end rotation of periodic run (exclusive)
+     * @param period        period of periodic run
+     */
+    private void addPeriodicRun(int runStart, int runEnd, int period) {
+        if (!isPrimitivePeriod(runStart, period)) {
+            return;
+        }
+        if (noPeriodicRuns >= periodicRunStart.length) {
+            periodicRunStart = Arrays.copyOf(periodicRunStart, (noPeriodicRuns * 2));
+            periodicRunEnd = Arrays.copyOf(periodicRunEnd, (noPeriodicRuns * 2));
+            periodicRunPeriod = Arrays.copyOf(periodicRunPeriod, (noPeriodicRuns * 2));
+        }
+        periodicRunStart[noPeriodicRuns] = runStart;
+        periodicRunEnd[noPeriodicRuns] = runEnd;
+        periodicRunPeriod[noPeriodicRuns++] = ((byte) period);
+    }
+
+    /**
+     * Function isPrimitivePeriod checks if period of periodic run is
+     * primitive, i.e. if its first period is not itself periodic with period
+     * dividing it.
+     *
+     * @param runStart      start rotation of periodic run
+     * @param period        period of periodic run
+     * @return              true if period is primitive
+     */
+    private boolean isPrimitivePeriod(int runStart, int period) {
+
+        boolean periodic;
+
+        for (int divisor = 1; divisor < period; divisor++) {
+            if ((period % divisor) != 0) {
+                continue;
+            }
+            periodic = true;
+            for (int i = 0; i < (period - divisor); i++) {
+                if (getCode(runStart + i) != getCode(runStart + i + divisor)) {
+                    periodic = false;
+                    break;
+                }
+            }
+            if (periodic) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Function findPeriodicRun finds long periodic run containing given
+     * rotation. Search starts at the first run that may contain lookup block
+     * of the rotation, and only few overlapping runs are checked.
+     *
+     * @param rotation      rotation
+     * @param period        period of searched run, or 0 for any period
+     * @return              index of periodic run, -1 if rotation is not inside such run
+     */
+    private int findPeriodicRun(int rotation, int period) {
+
+        if (noPeriodicRuns <= 0) {
+            return -1;
+        }
+        for (   int run = periodicRunBlockIndex[rotation >>> PERIODIC_RUN_BLOCK_SHIFT];
+                (run < noPeriodicRuns) && (periodicRunStart[run] <= rotation);
+                run++                                                               ) {
+            if ((periodicRunEnd[run] > rotation) && ((period == 0) || ((periodicRunPeriod[run] & 0xff) == period))) {
+                return run;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Function getCode provides compact code of reference sequence character
+     * at given position, either from packed buffer or not.
+     *
+     * @param position      character position
+     * @return              compact code of character
+     */
+    private byte getCode(int position) {
+        if (packedCodeBuffer != null) {
+            return packedCodeBuffer.getCode(position);
+        }
+        return compactCodeBuffer[position];
+    }
+
+    /**
+     * Function rotationEquals checks if given rotation of reference sequence
+     * begins with given start sequence.
+     *
+     * @param rotation          rotation to check against start sequence
+     * @param startSequence     start sequence buffer
+     * @param length            length of start sequence
+     * @return                  true if given rotation begins with start sequence
+     */
+    public boolean rotationEquals(int rotation, byte[] startSequence, int length) {
+
+        int startSequenceIndex;
+
+        if (packedCodeBuffer != null) {
+            return packedCodeBuffer.codesEqual(rotation, startSequence, length);
+        }
+        for (startSequenceIndex = 0; startSequenceIndex < length; startSequenceIndex++) {
+            if (startSequence[startSequenceIndex] != compactCodeBuffer[rotation++]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Function sortRotations sorts given rotations using selected sort
+     * algorithm
+     *
+     * @param rotationBuffer        buffer containing rotations to sort
+     * @param noRotations           number of rotations to sort
+     * @param startSequenceLength   number of characters guaranteed to be the same
+     *                              at the beginning of each rotation
+     * @throws ReportedException
+     */
+    public void sortRotations(  int[] rotationBuffer,
+                                int noRotations,
+                                int startSequenceLength ) throws ReportedException {
+        sortRotations(rotationBuffer, noRotations, startSequenceLength, null);
+    }
+
+    /**
+     * Function sortRotations sorts given rotations using selected sort
+     * algorithm. Multikey quicksort keys are kept in buffer taken from given
+     * arena, so it is not allocated for every sort.
+     *
+     * @param rotationBuffer        buffer containing rotations to sort
+     * @param noRotations           number of rotations to sort
+     * @param startSequenceLength   number of characters guaranteed to be the same
+     *                              at the beginning of each rotation
+     * @param arena                 arena providing key buffer, or null if key buffer is allocated
+     * @throws ReportedException
+     */
+    public void sortRotations(  int[] rotationBuffer,
+                                int noRotations,
+                                int startSequenceLength,
+                                RotationBufferArena arena   ) throws ReportedException {
+
+        long[] keyBuffer;
+
+        if ((sortAlgorithm == ReferenceSequence.RotationSortAlgorithm.MULTIKEY_QUICKSORT) && (noRotations > 1)) {
+            if (arena != null) {
+                keyBuffer = arena.getKeyBuffer(noRotations);
+            } else {
+                keyBuffer = new long[noRotations];
+            }
+            calculateKeys(rotationBuffer, keyBuffer, 0, noRotations, startSequenceLength);
+            multikeySortRotations(  rotationBuffer,
+                                    keyBuffer,
+                                    0,
+                                    noRotations,
+                                    startSequenceLength,
+                                    (startSequenceLength + MULTIKEY_MAXIMAL_DEPTH)  );
+        } else {
+            heapSortRotations(rotationBuffer, noRotations, startSequenceLength);
+        }
+    }
+
+    /**
+     * Function heapSortRotations sorts given rotations using heap sort algorithm
+     *
+     * @param rotationBuffer        buffer containing rotations to sort
+     * @param noRotations           number of rotations to sort
+     * @param startSequenceLength   number of characters guaranteed to be the same
+     *                              at the beginning of each rotation
+     * @throws ReportedException
+     */
+    public void heapSortRotations(  int[] rotationBuffer,
+                                    int noRotations,
+                                    int startSequenceLength ) throws ReportedException {
+
+        int Child;
+        int Parent;
+        int CurrentParent;
+        int PreviousParent;
+        int LeftChild;
+        int RightChild;
+        int tmp;
+        int cnt;
+
+        /* heapify rotations */
+        Parent = 0;
+        Child = 1;
+        while(Child < noRotations) {
+            checkCancel();
+            if (isRotationGreater(rotationBuffer[Child], rotationBuffer[Parent], startSequenceLength)) {
+                tmp = rotationBuffer[Child];
+                PreviousParent = Child;
+                CurrentParent = Parent;
+
+                do {
+                    rotationBuffer[PreviousParent] = rotationBuffer[CurrentParent];
+                    PreviousParent = CurrentParent;
+                    if (CurrentParent < 1) {
+                        break;
+                    }
+                    CurrentParent = ((PreviousParent - 1) / 2);
+                } while (isRotationGreater(tmp, rotationBuffer[CurrentParent], startSequenceLength));
+
+                rotationBuffer[PreviousParent] = tmp;
+            }
+
+            Child++;
+            Parent = ((Child - 1) / 2);
+        }
+
+        /* sort rotations */
+        cnt = noRotations - 1;
+        while(cnt > 0) {
+            checkCancel();
+            tmp = rotationBuffer[cnt];
+            rotationBuffer[cnt] = rotationBuffer[0];
+
+            Parent = 0;
+            LeftChild = 1;
+            RightChild = 2;
+
+            while (true) {
+                if (RightChild < cnt) {
+                    if (isRotationGreater(rotationBuffer[LeftChild], rotationBuffer[RightChild], startSequenceLength)) {
+                        if (isRotationGreater(rotationBuffer[LeftChild], tmp, startSequenceLength)) {
+                            rotationBuffer[Parent] = rotationBuffer[LeftChild];
+                            Parent = LeftChild;
+                        } else {
+                            rotationBuffer[Parent] = tmp;
+                            break;
+                        }
+                    } else {
+                        if (isRotationGreater(rotationBuffer[RightChild], tmp, startSequenceLength)) {
+                            rotationBuffer[Parent] = rotationBuffer[RightChild];
+                            Parent = RightChild;
+                        } else {
+                            rotationBuffer[Parent] = tmp;
+                            break;
+                        }
+                    }
+                } else {
+                    if (LeftChild < cnt) {
+                        if (isRotationGreater(rotationBuffer[LeftChild], tmp, startSequenceLength)) {
+                            rotationBuffer[Parent] = rotationBuffer[LeftChild];
+                            rotationBuffer[LeftChild] = tmp;
+                            break;
+                        } else {
+                            rotationBuffer[Parent] = tmp;
+                            break;
+                        }
+                    } else {
+                        rotationBuffer[Parent] = tmp;
+                        break;
+                    }
+                }
+
+                LeftChild = (Parent * 2) + 1;
+                RightChild = LeftChild + 1;
+            }
+            cnt--;
+        }
+    }
+
+    /**
+     * Function multikeySortRotations sorts range of given rotations using
+     * multikey quicksort. Rotations are partitioned into smaller, equal and
+     * greater ones by their keys, so sorting of smaller and greater rotations
+     * continues with the same keys, while for equal rotations keys are
+     * calculated from the next characters. Rotations in small ranges are
+     * sorted by insertion sort, and rotations that stay equal for too many
+     * characters (e.g. inside long runs) are sorted by heap sort, which
+     * skips long run sequences.
+     *
+     * @param rotationBuffer        buffer containing rotations to sort
+     * @param keyBuffer             buffer containing keys of rotations at current depth
+     * @param lowIndex              index of the first rotation in range
+     * @param highIndex             index following the last rotation in range
+     * @param depth                 number of characters guaranteed to be the same
+     *                              at the beginning of each rotation in range
+     * @param maximalDepth          depth after which range is sorted by heap sort
+     * @throws ReportedException
+     */
+    private void multikeySortRotations( int[] rotationBuffer,
+                                        long[] keyBuffer,
+                                        int lowIndex,
+                                        int highIndex,
+                                        int depth,
+                                        int maximalDepth    ) throws ReportedException {
+
+        int[] sortBuffer;
+        long pivotKey;
+        long key;
+        int lessIndex;
+        int greaterIndex;
+        int index;
+
+        while ((highIndex - lowIndex) > 1) {
+
+            /* sort small range by insertion sort */
+            if ((highIndex - lowIndex) < MULTIKEY_INSERTION_SORT_SIZE) {
+                insertionSortRotations(rotationBuffer, keyBuffer, lowIndex, highIndex, depth);
+                return;
+            }
+
+            /* sort range of rotations equal for too many characters by heap sort */
+            checkCancel();
+            if (depth >= maximalDepth) {
+                sortBuffer = new int[highIndex - lowIndex];
+                System.arraycopy(rotationBuffer, lowIndex, sortBuffer, 0, sortBuffer.length);
+                heapSortRotations(sortBuffer, sortBuffer.length, depth);
+                System.arraycopy(sortBuffer, 0, rotationBuffer, lowIndex, sortBuffer.length);
+                return;
+            }
+
+            /* partition range into smaller, equal and greater rotations */
+            pivotKey = getMedianKey( keyBuffer[lowIndex],
+                                     keyBuffer[(lowIndex + highIndex) >>> 1],
+                                     keyBuffer[highIndex - 1]                   );
+            lessIndex = lowIndex;
+            greaterIndex = (highIndex - 1);
+            index = lowIndex;
+            while (index <= greaterIndex) {
+                key = keyBuffer[index];
+                if (key < pivotKey) {
+                    swapRotations(rotationBuffer, keyBuffer, lessIndex++, index++);
+                } else if (key > pivotKey) {
+                    swapRotations(rotationBuffer, keyBuffer, index, greaterIndex--);
+                } else {
+                    index++;
+                }
+            }
+
+            /* smaller and greater rotations are sorted with the same keys */
+            multikeySortRotations(rotationBuffer, keyBuffer, lowIndex, lessIndex, depth, maximalDepth);
+            multikeySortRotations(rotationBuffer, keyBuffer, (greaterIndex + 1), highIndex, depth, maximalDepth);
+
+            /* equal rotations are sorted by keys of the following characters */
+            lowIndex = lessIndex;
+            highIndex = (greaterIndex + 1);
+            depth += charactersPerKey;
+            calculateKeys(rotationBuffer, keyBuffer, lowIndex, highIndex, depth);
+        }
+    }
+
+    /**
+     * Function insertionSortRotations sorts small range of given rotations
+     * using insertion sort. Rotations are compared by their keys, and only if
+     * keys are equal the following characters are compared.
+     *
+     * @param rotationBuffer        buffer containing rotations to sort
+     * @param keyBuffer             buffer containing keys of rotations at current depth
+     * @param lowIndex              index of the first rotation in range
+     * @param highIndex             index following the last rotation in range
+     * @param depth                 number of characters guaranteed to be the same
+     *                              at the beginning of each rotation in range
+     */
+    private void insertionSortRotations(    int[] rotationBuffer,
+                                            long[] keyBuffer,
+                                            int lowIndex,
+                                            int highIndex,
+                                            int depth           ) {
+
+        int rotation;
+        long key;
+        int index;
+
+        for (int i = (lowIndex + 1); i < highIndex; i++) {
+            rotation = rotationBuffer[i];
+            key = keyBuffer[i];
+            index = i;
+            while ((index > lowIndex)
+                   && ((keyBuffer[index - 1] > key)
+                       || ((keyBuffer[index - 1] == key)
+                           && isRotationGreater(rotationBuffer[index - 1], rotation, (depth + charactersPerKey))))) {
+                rotationBuffer[index] = rotationBuffer[index - 1];
+                keyBuffer[index] = keyBuffer[index - 1];
+                index--;
+            }
+            rotationBuffer[index] = rotation;
+            keyBuffer[index] = key;
+        }
+    }
+
+    /**
+     * Function calculateKeys calculates keys of rotations in given range. Key
+     * packs characters following the first depth characters of rotation, the
+     * first character being in the most significant bits, so comparing keys
+     * gives the same result as comparing packed characters. Characters after
+     * the end of reference sequence are packed as terminating character.
+     *
+     * @param rotationBuffer        buffer containing rotations
+     * @param keyBuffer             buffer to store calculated keys in
+     * @param lowIndex              index of the first rotation in range
+     * @param highIndex             index following the last rotation in range
+     * @param depth                 number of characters to skip at the beginning of each rotation
+     */
+    private void calculateKeys( int[] rotationBuffer,
+                                long[] keyBuffer,
+                                int lowIndex,
+                                int highIndex,
+                                int depth           ) {
+
+        byte[] codeBuffer;
+        int characterIndex;
+        long key;
+
+        /* packed characters of each key are decoded into small buffer */
+        if (packedCodeBuffer != null) {
+            codeBuffer = new byte[charactersPerKey];
+            for (int i = lowIndex; i < highIndex; i++) {
+                characterIndex = (rotationBuffer[i] + depth);
+                key = 0;
+                if (characterIndex < referenceSequenceLength) {
+                    packedCodeBuffer.readCodes( characterIndex,
+                                                codeBuffer,
+                                                min(charactersPerKey, (referenceSequenceLength - characterIndex))  );
+                }
+                for (int j = 0; j < charactersPerKey; j++) {
+                    key <<= bitsPerCharacter;
+                    if (characterIndex++ < referenceSequenceLength) {
+                        key |= codeBuffer[j];
+                    }
+                }
+                keyBuffer[i] = key;
+            }
+            return;
+        }
+
+        for (int i = lowIndex; i < highIndex; i++) {
+            characterIndex = (rotationBuffer[i] + depth);
+            key = 0;
+            if ((characterIndex + charactersPerKey) <= referenceSequenceLength) {
+                for (int j = 0; j < charactersPerKey; j++) {
+                    key = ((key << bitsPerCharacter) | compactCodeBuffer[characterIndex++]);
+                }
+            } else {
+                for (int j = 0; j < charactersPerKey; j++) {
+                    key <<= bitsPerCharacter;
+                    if (characterIndex < referenceSequenceLength) {
+                        key |= compactCodeBuffer[characterIndex++];
+                    }
+                }
+            }
+            keyBuffer[i] = key;
+        }
+    }
+
+    /**
+     * Function getMedianKey provides median of three keys.
+     *
+     * @param keyA      key A
+     * @param keyB      key B
+     * @param keyC      key C
+     * @return          median of keys A, B and C
+     */
+    private long getMedianKey(long keyA, long keyB, long keyC) {
+        if (keyA < keyB) {
+            if (keyB < keyC) {
+                return keyB;
+            }
+            return ((keyA < keyC) ? keyC : keyA);
+        }
+        if (keyA < keyC) {
+            return keyA;
+        }
+        return ((keyB < keyC) ? keyC : keyB);
+    }
+
+    /**
+     * Function swapRotations swaps two rotations together with their keys.
+     *
+     * @param rotationBuffer        buffer containing rotations
+     * @param keyBuffer             buffer containing keys of rotations
+     * @param indexA                index of rotation A
+     * @param indexB                index of rotation B
+     */
+    private void swapRotations(int[] rotationBuffer, long[] keyBuffer, int indexA, int indexB) {
+
+        int rotation;
+        long key;
+
+        rotation = rotationBuffer[indexA];
+        rotationBuffer[indexA] = rotationBuffer[indexB];
+        rotationBuffer[indexB] = rotation;
+        key = keyBuffer[indexA];
+        keyBuffer[indexA] = keyBuffer[indexB];
+        keyBuffer[indexB] = key;
+    }
+
+    /**
+     * Function isRotationGreater checks if rotation A of reference sequence is
+     * greater than rotation B. Rotations are guaranteed to be equal at first
+     * startSequenceLength places.
+     *
+     * @param rotationA             rotation A
+     * @param rotationB             rotation B
+     * @param startSequenceLength   number of places at the beginning that are guaranteed to be equal
+     * @return                      true if rotation A is greater than rotation B
+     */
+    public boolean isRotationGreater(int rotationA, int rotationB,  int startSequenceLength) {
+
+        int charactersToSkip;
+        int compareLength;
+
+        if (packedCodeBuffer != null) {
+            return isPackedRotationGreater(rotationA, rotationB, startSequenceLength);
+        }
+        rotationA += startSequenceLength;
+        rotationB += startSequenceLength;
+        compareLength = TEST_LONG_RUN_SEQUENCE_AFTER;
+        while (true) {
+            for (int i = 0; i < compareLength; i++) {
+                if (compactCodeBuffer[rotationA++] != compactCodeBuffer[rotationB++]) {
+                    if (compactCodeBuffer[--rotationA] > compactCodeBuffer[--rotationB]) {
+                        return true;
+                    }
+                    return false;
+                }
+            }
+
+            /* check if comparing two long run rotations */
+            charactersToSkip = checkLongRunSequence(rotationA, rotationB);
+            rotationA += charactersToSkip;
+            rotationB += charactersToSkip;
+            compareLength = LONG_RUN_TEST_INTERVAL;
+        }
+    }
+
+    /**
+     * Function isPackedRotationGreater checks if rotation A of packed reference
+     * sequence is greater than rotation B. Characters are compared several at
+     * once, and long run sequences are tested after every compared part.
+     *
+     * @param rotationA             rotation A
+     * @param rotationB             rotation B
+     * @param startSequenceLength   number of places at the beginning that are guaranteed to be equal
+     * @return                      true if rotation A is greater than rotation B
+     */
+    private boolean isPackedRotationGreater(int rotationA, int rotationB,  int startSequenceLength) {
+
+        int noEqualCharacters;
+        int charactersToSkip;
+
+        rotationA += startSequenceLength;
+        rotationB += startSequenceLength;
+        while (true) {
+            noEqualCharacters = packedCodeBuffer.getCommonPrefixLength(rotationA, rotationB, PACKED_COMPARE_LENGTH);
+            rotationA += noEqualCharacters;
+            rotationB += noEqualCharacters;
+            if (noEqualCharacters < PACKED_COMPARE_LENGTH) {
+                return (packedCodeBuffer.getCode(rotationA) > packedCodeBuffer.getCode(rotationB));
+            }
+
+            /* check if comparing two long run rotations */
+            charactersToSkip = checkLongRunSequence(rotationA, rotationB);
+            rotationA += charactersToSkip;
+            rotationB += charactersToSkip;
+        }
+    }
+
+    /**
+     * Function checkLongRunSequence checks if both input rotations are inside
+     * long periodic runs of the same period, and calculate for how many
+     * following characters the rotations will stay equal. Inside the same
+     * run, rotations whose distance is multiple of period stay equal up to
+     * the end of run. Rotations inside different runs stay equal if their
+     * first periods are equal.
+     *
+     * @param rotationA     rotation A
+     * @param rotationB     rotation B
+     * @return              number of characters rotation A and B will stay equal
+     */
+    private int checkLongRunSequence(int rotationA, int rotationB) {
+
+        int runA;
+        int runB;
+        int period;
+        int charactersToSkip;
+
+        /* find periodic runs of both rotations */
+        runA = findPeriodicRun(rotationA, 0);
+        if (runA < 0) {
+            return 0;
+        }
+        period = (periodicRunPeriod[runA] & 0xff);
+        runB = findPeriodicRun(rotationB, period);
+        if (runB < 0) {
+            return 0;
+        }
+        charactersToSkip = min((periodicRunEnd[runA] - rotationA), (periodicRunEnd[runB] - rotationB));
+
+        /* check phase of rotations */
+        if (runA == runB) {
+            if (((rotationA - rotationB) % period) != 0) {
+                return 0;
+            }
+        } else {
+            if (charactersToSkip < period) {
+                return 0;
+            }
+            for (int i = 0; i < period; i++) {
+                if (getCode(rotationA + i) != getCode(rotationB + i)) {
+                    return 0;
+                }
+            }
+        }
+        return charactersToSkip;
+    }
+
+    /**
+     * Function checkCancel checks if reference sequence creation cancellation
+     * is requested. If so, creation is interrupted by ReportedException. If
+     * sorting is already cancelled, creation is interrupted as well.
+     *
+     * @throws ReportedException
+     */
+    private void checkCancel() throws ReportedException {
+        if (cancelled) {
+            throw new ReportedException("Sortiranje rotacija je prekinuto!");
+        }
+        if (Thread.interrupted()) {
+            cancelled = true;
+            throw new ReportedException("Kreiranje indeksa referentnog slijeda prekinuto na zahtjev korisnika!");
+        }
+    }
+    // </editor-fold>
+}
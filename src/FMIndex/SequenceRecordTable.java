@@ -0,0 +1,140 @@
+/*
+ * Author:
+ *
+ *      Vedran Sabadoš
+ *
+ * Version:
+ *
+ *      V1.0         26. 12. 2013
+ */
+
+package FMIndex;
+
+import java.util.Arrays;
+
+/**
+ * Class SequenceRecordTable contains boundaries of Fasta records indexed into
+ * one reference sequence. Records are concatenated in file order and
+ * separated by one separator character, so each record starts one character
+ * after the end of previous record. Only record names and start positions are
+ * kept, record lengths are derived from the next record start.
+ *
+ * @version     V1.0                26.12.2013.
+ * @author      Vedran Sabadoš
+ */
+public class SequenceRecordTable implements java.io.Serializable {
+
+    // <editor-fold desc="Constants">
+
+    private static final long serialVersionUID = 4526172190815331027L;
+
+    final public static int SEPARATOR_CHARACTER = 0x3e;        // > character in UTF8 separates records in reference sequence
+    // </editor-fold>
+
+    // <editor-fold desc="Fields">
+
+    /** Record names */
+    private final String[] recordNames;
+
+    /** Position of the first character of each record, followed by reference sequence length plus 1 */
+    private final long[] recordStarts;
+    // </editor-fold>
+
+    // <editor-fold desc="Constructor">
+
+    /**
+     * Class SequenceRecordTable Constructor
+     *
+     * @param names         record names in reference sequence order
+     * @param lengths       record lengths in reference sequence order
+     */
+    public SequenceRecordTable(String[] names, long[] lengths) {
+        recordNames = Arrays.copyOf(names, names.length);
+        recordStarts = new long[names.length + 1];
+        for (int i = 0; i < names.length; i++) {
+            recordStarts[i + 1] = (recordStarts[i] + lengths[i] + 1);
+        }
+    }
+    // </editor-fold>
+
+    // <editor-fold desc="Methods">
+
+    /**
+     * Function getNoRecords provides number of records.
+     *
+     * @return      number of records
+     */
+    public int getNoRecords() {
+        return recordNames.length;
+    }
+
+    /**
+     * Function getRecordName provides name of given record.
+     *
+     * @param record    record index
+     * @return          record name
+     */
+    public String getRecordName(int record) {
+        return recordNames[record];
+    }
+
+    /**
+     * Function getRecordStart provides reference sequence position of the
+     * first character of given record.
+     *
+     * @param record    record index
+     * @return          position of the first record character
+     */
+    public long getRecordStart(int record) {
+        return recordStarts[record];
+    }
+
+    /**
+     * Function getRecordLength provides number of characters of given record.
+     *
+     * @param record    record index
+     * @return          record length
+     */
+    public long getRecordLength(int record) {
+        return (recordStarts[record + 1] - recordStarts[record] - 1);
+    }
+
+    /**
+     * Function findRecord finds record containing given reference sequence
+     * position. Separator following a record belongs to that record.
+     *
+     * @param position  reference sequence position
+     * @return          record index, or -1 if position is outside all records
+     */
+    public int findRecord(long position) {
+
+        int record;
+
+        if ((position < 0) || (position >= recordStarts[recordNames.length])) {
+            return -1;
+        }
+        record = Arrays.binarySearch(recordStarts, position);
+        if (record < 0) {
+            record = (-record - 2);
+        }
+        return record;
+    }
+
+    /**
+     * Function getMemoryConsumption estimates memory consumption of record
+     * table.
+     *
+     * @return      estimated memory consumption in bytes
+     */
+    public long getMemoryConsumption() {
+
+        long memoryConsumption;
+
+        memoryConsumption = (recordStarts.length * 8);
+        for (String recordName: recordNames) {
+            memoryConsumption += (40 + (2 * recordName.length()));
+        }
+        return memoryConsumption;
+    }
+    // </editor-fold>
+}
@@ -0,0 +1,432 @@
+/*
+ * Author:
+ *
+ *      Vedran Sabadoš
+ *
+ * Version:
+ *
+ *      V1.0         26. 12. 2013
+ */
+
+package FMIndex;
+
+import java.util.Arrays;
+
+/**
+ * Class SuffixArrayBuilder constructs suffix array of compact coded reference
+ * sequence using induced sorting algorithm (SA-IS) by Nong, Zhang and Chan.
+ * Construction time is linear in reference sequence length and it does not
+ * depend on repetitiveness of reference sequence. Reference sequence has to be
+ * terminated by unique character 0, which is lexicographically smaller than
+ * any other character.
+ *
+ * @version     V1.0                26.12.2013.
+ * @author      Vedran Sabadoš
+ */
+public class SuffixArrayBuilder {
+
+    // <editor-fold desc="Fields">
+
+    /** Estimated memory consumption of currently allocated structures */
+    private long currentMemoryConsumption;
+
+    /** Estimated maximal memory consumption during construction */
+    private long maximalMemoryConsumption;
+    // </editor-fold>
+
+    // <editor-fold desc="Constructor">
+
+    /** Class SuffixArrayBuilder Constructor */
+    public SuffixArrayBuilder() {
+        currentMemoryConsumption = 0;
+        maximalMemoryConsumption = 0;
+    }
+    // </editor-fold>
+
+    // <editor-fold desc="Methods">
+
+    /**
+     * Function buildSuffixArray constructs suffix array of given compact coded
+     * reference sequence.
+     *
+     * @param compactCodeBuffer     compact coded reference sequence terminated by character 0
+     * @param alphabetSize          number of different characters, including terminating character
+     * @return                      suffix array of reference sequence
+     * @throws ReportedException
+     */
+    public int[] buildSuffixArray(  byte[] compactCodeBuffer,
+                                    int alphabetSize            ) throws ReportedException {
+
+        int[] suffixArray;
+
+        if (    (compactCodeBuffer.length < 1)
+                || (compactCodeBuffer[compactCodeBuffer.length - 1] != 0)  ) {
+            throw new ReportedException("Referentni slijed za izgradnju sufiksnog polja nije ispravno terminiran!");
+        }
+        suffixArray = new int[compactCodeBuffer.length];
+        allocateMemory(((long) compactCodeBuffer.length) * 4);
+        induceSuffixArray(  new ByteSuffixText(compactCodeBuffer),
+                            suffixArray,
+                            0,
+                            compactCodeBuffer.length,
+                            alphabetSize                            );
+        return suffixArray;
+    }
+
+    /**
+     * Function getMaximalMemoryConsumption provides estimated maximal memory
+     * consumption during suffix array construction.
+     *
+     * @return      estimated maximal memory consumption in bytes
+     */
+    public long getMaximalMemoryConsumption() {
+        return maximalMemoryConsumption;
+    }
+
+    /**
+     * Function induceSuffixArray constructs suffix array for given text into
+     * the part of suffix array buffer. It is called recursively for reduced
+     * text which is stored at the end of the same suffix array buffer part.
+     *
+     * @param text              text to construct suffix array for
+     * @param suffixArray       suffix array buffer
+     * @param offset            offset of the first suffix array element in suffix array buffer
+     * @param length            length of text
+     * @param alphabetSize      number of different characters in text
+     * @throws ReportedException
+     */
+    private void induceSuffixArray( SuffixText text,
+                                    int[] suffixArray,
+                                    int offset,
+                                    int length,
+                                    int alphabetSize    ) throws ReportedException {
+
+        long[] suffixTypes;
+        int[] bucketArray;
+        int lmsCount;
+        int nameCount;
+        int previousSuffix;
+        int suffix;
+        int reducedTextOffset;
+        boolean different;
+
+        checkCancel();
+        if (length == 1) {
+            suffixArray[offset] = 0;
+            return;
+        }
+
+        /* classify suffixes as S-type (bit set) or L-type (bit reset) */
+        suffixTypes = new long[(length + 63) >>> 6];
+        bucketArray = new int[alphabetSize];
+        allocateMemory((suffixTypes.length * 8) + (bucketArray.length * 4));
+        suffixTypes[(length - 1) >>> 6] |= (1L << ((length - 1) & 63));
+        for (int i = (length - 2); i >= 0; i--) {
+            if (    (text.get(i) < text.get(i + 1))
+                    || ((text.get(i) == text.get(i + 1)) && isSType(suffixTypes, i + 1))    ) {
+                suffixTypes[i >>> 6] |= (1L << (i & 63));
+            }
+        }
+
+        /* stage 1: sort LMS substrings */
+        getBuckets(text, length, bucketArray, true);
+        Arrays.fill(suffixArray, offset, (offset + length), -1);
+        for (int i = 1; i < length; i++) {
+            if (isLmsType(suffixTypes, i)) {
+                suffixArray[offset + (--bucketArray[text.get(i)])] = i;
+            }
+        }
+        induceLTypeSuffixes(text, suffixTypes, suffixArray, offset, length, bucketArray);
+        induceSTypeSuffixes(text, suffixTypes, suffixArray, offset, length, bucketArray);
+        checkCancel();
+
+        /* move sorted LMS substrings to the beginning of suffix array */
+        lmsCount = 0;
+        for (int i = 0; i < length; i++) {
+            if (isLmsType(suffixTypes, suffixArray[offset + i])) {
+                suffixArray[offset + (lmsCount++)] = suffixArray[offset + i];
+            }
+        }
+
+        /* name LMS substrings */
+        Arrays.fill(suffixArray, (offset + lmsCount), (offset + length), -1);
+        nameCount = 0;
+        previousSuffix = -1;
+        for (int i = 0; i < lmsCount; i++) {
+            suffix = suffixArray[offset + i];
+            different = false;
+            for (int d = 0; d < length; d++) {
+                if (    (previousSuffix < 0)
+                        || (text.get(suffix + d) != text.get(previousSuffix + d))
+                        || (isSType(suffixTypes, suffix + d) != isSType(suffixTypes, previousSuffix + d))   ) {
+                    different = true;
+                    break;
+                } else if ((d > 0) && (isLmsType(suffixTypes, suffix + d) || isLmsType(suffixTypes, previousSuffix + d))) {
+                    break;
+                }
+            }
+            if (different) {
+                nameCount++;
+                previousSuffix = suffix;
+            }
+            suffixArray[offset + lmsCount + (suffix >>> 1)] = (nameCount - 1);
+        }
+
+        /* move names to the end of suffix array, they form reduced text */
+        reducedTextOffset = (offset + length - lmsCount);
+        for (int i = (offset + length - 1), j = (offset + length - 1); i >= (offset + lmsCount); i--) {
+            if (suffixArray[i] >= 0) {
+                suffixArray[j--] = suffixArray[i];
+            }
+        }
+        checkCancel();
+
+        /* stage 2: sort reduced text suffixes */
+        if (nameCount < lmsCount) {
+            induceSuffixArray(  new IntSuffixText(suffixArray, reducedTextOffset),
+                                suffixArray,
+                                offset,
+                                lmsCount,
+                                nameCount                                           );
+        } else {
+            for (int i = 0; i < lmsCount; i++) {
+                suffixArray[offset + suffixArray[reducedTextOffset + i]] = i;
+            }
+        }
+
+        /* stage 3: induce suffix array from sorted LMS suffixes */
+        getBuckets(text, length, bucketArray, true);
+        for (int i = 1, j = 0; i < length; i++) {
+            if (isLmsType(suffixTypes, i)) {
+                suffixArray[reducedTextOffset + (j++)] = i;
+            }
+        }
+        for (int i = 0; i < lmsCount; i++) {
+            suffixArray[offset + i] = suffixArray[reducedTextOffset + suffixArray[offset + i]];
+        }
+        Arrays.fill(suffixArray, (offset + lmsCount), (offset + length), -1);
+        for (int i = (lmsCount - 1); i >= 0; i--) {
+            suffix = suffixArray[offset + i];
+            suffixArray[offset + i] = -1;
+            suffixArray[offset + (--bucketArray[text.get(suffix)])] = suffix;
+        }
+        induceLTypeSuffixes(text, suffixTypes, suffixArray, offset, length, bucketArray);
+        induceSTypeSuffixes(text, suffixTypes, suffixArray, offset, length, bucketArray);
+
+        /* release unused memory */
+        releaseMemory((suffixTypes.length * 8) + (bucketArray.length * 4));
+        checkCancel();
+    }
+
+    /**
+     * Function induceLTypeSuffixes places L-type suffixes into their buckets,
+     * scanning suffix array from left to right.
+     *
+     * @param text              text suffix array is constructed for
+     * @param suffixTypes       suffix type bits
+     * @param suffixArray       suffix array buffer
+     * @param offset            offset of the first suffix array element in suffix array buffer
+     * @param length            length of text
+     * @param bucketArray       bucket array
+     */
+    private void induceLTypeSuffixes(   SuffixText text,
+                                        long[] suffixTypes,
+                                        int[] suffixArray,
+                                        int offset,
+                                        int length,
+                                        int[] bucketArray   ) {
+
+        int suffix;
+
+        getBuckets(text, length, bucketArray, false);
+        for (int i = 0; i < length; i++) {
+            suffix = (suffixArray[offset + i] - 1);
+            if ((suffix >= 0) && !isSType(suffixTypes, suffix)) {
+                suffixArray[offset + (bucketArray[text.get(suffix)]++)] = suffix;
+            }
+        }
+    }
+
+    /**
+     * Function induceSTypeSuffixes places S-type suffixes into their buckets,
+     * scanning suffix array from right to left.
+     *
+     * @param text              text suffix array is constructed for
+     * @param suffixTypes       suffix type bits
+     * @param suffixArray       suffix array buffer
+     * @param offset            offset of the first suffix array element in suffix array buffer
+     * @param length            length of text
+     * @param bucketArray       bucket array
+     */
+    private void induceSTypeSuffixes(   SuffixText text,
+                                        long[] suffixTypes,
+                                        int[] suffixArray,
+                                        int offset,
+                                        int length,
+                                        int[] bucketArray   ) {
+
+        int suffix;
+
+        getBuckets(text, length, bucketArray, true);
+        for (int i = (length - 1); i >= 0; i--) {
+            suffix = (suffixArray[offset + i] - 1);
+            if ((suffix >= 0) && isSType(suffixTypes, suffix)) {
+                suffixArray[offset + (--bucketArray[text.get(suffix)])] = suffix;
+            }
+        }
+    }
+
+    /**
+     * Function getBuckets calculates start or end position of each character
+     * bucket in suffix array.
+     *
+     * @param text              text suffix array is constructed for
+     * @param length            length of text
+     * @param bucketArray       bucket array to fill
+     * @param bucketEnd         true if bucket end positions are requested
+     */
+    private void getBuckets(    SuffixText text,
+                                int length,
+                                int[] bucketArray,
+                                boolean bucketEnd   ) {
+
+        int sum;
+        int count;
+
+        Arrays.fill(bucketArray, 0);
+        for (int i = 0; i < length; i++) {
+            bucketArray[text.get(i)]++;
+        }
+        sum = 0;
+        for (int i = 0; i < bucketArray.length; i++) {
+            count = bucketArray[i];
+            sum += count;
+            bucketArray[i] = (bucketEnd ? sum : (sum - count));
+        }
+    }
+
+    /**
+     * Function isSType checks if suffix at given position is S-type suffix.
+     *
+     * @param suffixTypes       suffix type bits
+     * @param position          suffix position
+     * @return                  true if suffix is S-type
+     */
+    private boolean isSType(long[] suffixTypes, int position) {
+        return ((suffixTypes[position >>> 6] & (1L << (position & 63))) != 0);
+    }
+
+    /**
+     * Function isLmsType checks if suffix at given position is leftmost S-type
+     * (LMS) suffix.
+     *
+     * @param suffixTypes       suffix type bits
+     * @param position          suffix position
+     * @return                  true if suffix is LMS suffix
+     */
+    private boolean isLmsType(long[] suffixTypes, int position) {
+        return ((position > 0) && isSType(suffixTypes, position) && !isSType(suffixTypes, position - 1));
+    }
+
+    /**
+     * Function allocateMemory updates memory consumption statistics after
+     * memory allocation.
+     *
+     * @param size      size of allocated memory in bytes
+     */
+    private void allocateMemory(long size) {
+        currentMemoryConsumption += size;
+        if (currentMemoryConsumption > maximalMemoryConsumption) {
+            maximalMemoryConsumption = currentMemoryConsumption;
+        }
+    }
+
+    /**
+     * Function releaseMemory updates memory consumption statistics after
+     * memory release.
+     *
+     * @param size      size of released memory in bytes
+     */
+    private void releaseMemory(long size) {
+        currentMemoryConsumption -= size;
+    }
+
+    /**
+     * Function checkCancel checks if reference sequence creation cancellation
+     * is requested. If so, creation is interrupted by ReportedException
+     * describing cancellation.
+     *
+     * @throws ReportedException
+     */
+    private void checkCancel() throws ReportedException {
+        if (Thread.interrupted()) {
+            throw new ReportedException("Kreiranje indeksa referentnog slijeda prekinuto na zahtjev korisnika!");
+        }
+    }
+    // </editor-fold>
+
+    // <editor-fold desc="Suffix text classes">
+
+    /**
+     * Class SuffixText provides uniform character access to text suffix array
+     * is constructed for, regardless of how the text is stored.
+     */
+    private abstract static class SuffixText {
+
+        /**
+         * Function get provides character at given position.
+         *
+         * @param position      character position
+         * @return              character at given position
+         */
+        abstract int get(int position);
+    }
+
+    /** Class ByteSuffixText provides access to compact coded reference sequence */
+    private static class ByteSuffixText extends SuffixText {
+
+        /** Compact coded reference sequence */
+        private final byte[] buffer;
+
+        /**
+         * Class ByteSuffixText Constructor
+         *
+         * @param compactCodeBuffer     compact coded reference sequence
+         */
+        ByteSuffixText(byte[] compactCodeBuffer) {
+            buffer = compactCodeBuffer;
+        }
+
+        @Override
+        int get(int position) {
+            return buffer[position];
+        }
+    }
+
+    /** Class IntSuffixText provides access to reduced text stored in suffix array buffer */
+    private static class IntSuffixText extends SuffixText {
+
+        /** Buffer containing reduced text */
+        private final int[] buffer;
+
+        /** Offset of reduced text in buffer */
+        private final int offset;
+
+        /**
+         * Class IntSuffixText Constructor
+         *
+         * @param textBuffer      buffer containing reduced text
+         * @param textOffset      offset of reduced text in buffer
+         */
+        IntSuffixText(int[] textBuffer, int textOffset) {
+            buffer = textBuffer;
+            offset = textOffset;
+        }
+
+        @Override
+        int get(int position) {
+            return buffer[offset + position];
+        }
+    }
+    // </editor-fold>
+}
@@ -0,0 +1,91 @@
+/*
+ * Author:
+ *
+ *      Vedran Sabadoš
+ *
+ * Version:
+ *
+ *      V1.0         26. 12. 2013
+ */
+
+package FMIndex;
+
+/**
+ * Class SuffixArrayInterval contains interval of sorted reference sequence
+ * rotations, i.e. of BW transform indexes, which begin with query sequence.
+ * Number of query sequence occurrences equals interval size. Interval whose
+ * high index is lower than its low index is empty.
+ *
+ * @version     V1.0                26.12.2013.
+ * @author      Vedran Sabadoš
+ */
+public class SuffixArrayInterval {
+
+    // <editor-fold desc="Fields">
+
+    /** Index of the first rotation beginning with query sequence */
+    private final long lowIndex;
+
+    /** Index of the last rotation beginning with query sequence */
+    private final long highIndex;
+    // </editor-fold>
+
+    // <editor-fold desc="Constructor">
+
+    /**
+     * Class SuffixArrayInterval Constructor
+     *
+     * @param low       index of the first rotation
+     * @param high      index of the last rotation
+     */
+    public SuffixArrayInterval(long low, long high) {
+        lowIndex = low;
+        highIndex = high;
+    }
+    // </editor-fold>
+
+    // <editor-fold desc="Methods">
+
+    /**
+     * Function getLowIndex provides index of the first rotation beginning
+     * with query sequence.
+     *
+     * @return      low index
+     */
+    public long getLowIndex() {
+        return lowIndex;
+    }
+
+    /**
+     * Function getHighIndex provides index of the last rotation beginning
+     * with query sequence.
+     *
+     * @return      high index
+     */
+    public long getHighIndex() {
+        return highIndex;
+    }
+
+    /**
+     * Function getCount provides number of query sequence occurrences.
+     *
+     * @return      interval size, 0 if interval is empty
+     */
+    public long getCount() {
+        if (highIndex < lowIndex) {
+            return 0;
+        }
+        return (highIndex - lowIndex + 1);
+    }
+
+    /**
+     * Function isEmpty checks if query sequence does not occur in reference
+     * sequence.
+     *
+     * @return      true if interval is empty
+     */
+    public boolean isEmpty() {
+        return (highIndex < lowIndex);
+    }
+    // </editor-fold>
+}
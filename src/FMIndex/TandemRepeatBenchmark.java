@@ -0,0 +1,192 @@
+/*
+ * Author:
+ *
+ *      Vedran Sabadoš
+ *
+ * Version:
+ *
+ *      V1.0         26. 12. 2013
+ */
+
+package FMIndex;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Class TandemRepeatBenchmark compares rotation sorting with skipping of
+ * single character runs only against skipping of periodic runs of short
+ * period. Synthetic reference sequence over alphabet A, C, G, T is generated
+ * from random sequence interleaved with tandem repeats of periods 1 to
+ * maximal period and with arrays of exact copies of 171 character unit
+ * (alpha satellite like repeat). Rotations are divided into initial buckets
+ * and every bucket is sorted by both sorters. Sorted buckets are compared,
+ * so the benchmark checks that both sorters give the same BW transform as
+ * well.
+ *
+ * Usage: java -cp bin FMIndex.TandemRepeatBenchmark [length [period [heap|multikey]]]
+ *
+ * @version     V1.0                26.12.2013.
+ * @author      Vedran Sabadoš
+ */
+public class TandemRepeatBenchmark {
+
+    // <editor-fold desc="Constants">
+
+    final static public int DEFAULT_SEQUENCE_LENGTH = 1000000;              // length of generated reference sequence if none is given
+    final static public int ALPHABET_SIZE = 4;                              // generated reference sequence alphabet A, C, G, T
+    final static public int START_SEQUENCE_LENGTH = 3;                      // start sequence length of benchmarked buckets
+    final static public int SATELLITE_PERIOD = 171;                         // period of alpha satellite like repeat
+    final static public int REPEAT_PERCENT = 50;                            // percentage of generated sequence covered by repeats
+    final static public int MAXIMAL_REPEAT_LENGTH = 4000;                   // maximal length of one tandem repeat
+    final static public long RANDOM_SEED = 2013;                            // seed of generated reference sequence
+    // </editor-fold>
+
+    // <editor-fold desc="Methods">
+
+    /**
+     * Benchmark main function
+     *
+     * @param args      command line arguments, optional sequence length, maximal period and sort algorithm
+     */
+    public static void main(String[] args) {
+
+        ReferenceSequence.RotationSortAlgorithm algorithm;
+        RotationBucketizer rotationBucketizer;
+        RotationSorter runSorter;
+        RotationSorter periodicSorter;
+        byte[] compactCodeBuffer;
+        byte[] startSequence;
+        int[] runRotations;
+        int[] periodicRotations;
+        int sequenceLength;
+        int maximalPeriod;
+        int noBuckets;
+        long runDuration;
+        long periodicDuration;
+        long time;
+
+        sequenceLength = ((args.length > 0) ? Integer.parseInt(args[0]) : DEFAULT_SEQUENCE_LENGTH);
+        maximalPeriod = ((args.length > 1) ? Integer.parseInt(args[1]) : RotationSorter.DEFAULT_MAXIMAL_REPEAT_PERIOD);
+        algorithm = ReferenceSequence.RotationSortAlgorithm.MULTIKEY_QUICKSORT;
+        if ((args.length > 2) && args[2].equals("heap")) {
+            algorithm = ReferenceSequence.RotationSortAlgorithm.HEAP_SORT;
+        }
+        try {
+
+            /* generate reference sequence */
+            compactCodeBuffer = generateReferenceSequence(sequenceLength, maximalPeriod);
+            System.out.println( "Reference sequence of " + Integer.toString(sequenceLength)
+                                + " characters generated, " + Integer.toString(REPEAT_PERCENT)
+                                + "% in tandem repeats of period 1 to " + Integer.toString(maximalPeriod)
+                                + " and " + Integer.toString(SATELLITE_PERIOD)                          );
+
+            /* detect runs */
+            time = System.nanoTime();
+            runSorter = new RotationSorter(compactCodeBuffer, ALPHABET_SIZE, algorithm, 1);
+            System.out.println( "Single character runs:       " + Integer.toString(runSorter.getNoPeriodicRuns())
+                                + " detected in " + Long.toString((System.nanoTime() - time) / 1000000) + " ms");
+            time = System.nanoTime();
+            periodicSorter = new RotationSorter(compactCodeBuffer, ALPHABET_SIZE, algorithm, maximalPeriod);
+            System.out.println( "Periodic runs:               " + Integer.toString(periodicSorter.getNoPeriodicRuns())
+                                + " detected in " + Long.toString((System.nanoTime() - time) / 1000000) + " ms");
+
+            /* sort each bucket by both sorters */
+            rotationBucketizer = new RotationBucketizer(compactCodeBuffer, ALPHABET_SIZE, START_SEQUENCE_LENGTH, false);
+            startSequence = new byte[START_SEQUENCE_LENGTH];
+            noBuckets = 1;
+            for (int i = 0; i < START_SEQUENCE_LENGTH; i++) {
+                noBuckets *= ALPHABET_SIZE;
+            }
+            runDuration = 0;
+            periodicDuration = 0;
+            for (int bucket = 0; bucket < noBuckets; bucket++) {
+                for (int i = (START_SEQUENCE_LENGTH - 1), j = bucket; i >= 0; i--, j /= ALPHABET_SIZE) {
+                    startSequence[i] = (byte) ((j % ALPHABET_SIZE) + 1);
+                }
+                runRotations = rotationBucketizer.getBucketRotations(rotationBucketizer.getBucketIndex(startSequence));
+                periodicRotations = Arrays.copyOf(runRotations, runRotations.length);
+
+                time = System.nanoTime();
+                runSorter.sortRotations(runRotations, runRotations.length, START_SEQUENCE_LENGTH);
+                runDuration += (System.nanoTime() - time);
+
+                time = System.nanoTime();
+                periodicSorter.sortRotations(periodicRotations, periodicRotations.length, START_SEQUENCE_LENGTH);
+                periodicDuration += (System.nanoTime() - time);
+
+                if (!Arrays.equals(runRotations, periodicRotations)) {
+                    System.out.println("Sorted buckets differ for bucket " + Integer.toString(bucket) + "!");
+                    System.exit(1);
+                }
+            }
+            rotationBucketizer.close();
+
+            /* report results */
+            System.out.println("Sort algorithm:              " + algorithm.toString());
+            System.out.println("Buckets sorted:              " + Integer.toString(noBuckets));
+            System.out.println("Single character runs:       " + Long.toString(runDuration / 1000000) + " ms");
+            System.out.println("Periodic runs:               " + Long.toString(periodicDuration / 1000000) + " ms");
+            if (periodicDuration > 0) {
+                System.out.println("Speedup:                     " + String.format("%.2f", ((double) runDuration) / periodicDuration));
+            }
+        } catch (ReportedException ex) {
+            System.out.println(ex.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Function generateReferenceSequence generates compact coded reference
+     * sequence rich in tandem repeats.
+     *
+     * @param sequenceLength    number of characters without terminating character
+     * @param maximalPeriod     maximal period of generated tandem repeats
+     * @return                  compact coded reference sequence terminated by character 0
+     */
+    private static byte[] generateReferenceSequence(int sequenceLength, int maximalPeriod) {
+
+        Random random;
+        byte[] compactCodeBuffer;
+        byte[] satelliteUnit;
+        byte[] repeatUnit;
+        int index;
+        int period;
+        int repeatLength;
+
+        random = new Random(RANDOM_SEED);
+        compactCodeBuffer = new byte[sequenceLength + 1];
+        satelliteUnit = new byte[SATELLITE_PERIOD];
+        for (int i = 0; i < SATELLITE_PERIOD; i++) {
+            satelliteUnit[i] = (byte) (random.nextInt(ALPHABET_SIZE) + 1);
+        }
+        index = 0;
+        while (index < sequenceLength) {
+
+            /* random sequence */
+            for (int i = ((MAXIMAL_REPEAT_LENGTH * (100 - REPEAT_PERCENT)) / (50 * REPEAT_PERCENT)) * random.nextInt(50);
+                    (i > 0) && (index < sequenceLength);
+                    i--                                                                                                     ) {
+                compactCodeBuffer[index++] = (byte) (random.nextInt(ALPHABET_SIZE) + 1);
+            }
+
+            /* tandem repeat of random unit or of alpha satellite like unit */
+            if (random.nextInt(4) == 0) {
+                repeatUnit = satelliteUnit;
+            } else {
+                period = (random.nextInt(maximalPeriod) + 1);
+                repeatUnit = new byte[period];
+                for (int i = 0; i < period; i++) {
+                    repeatUnit[i] = (byte) (random.nextInt(ALPHABET_SIZE) + 1);
+                }
+            }
+            repeatLength = random.nextInt(MAXIMAL_REPEAT_LENGTH);
+            for (int i = 0; (i < repeatLength) && (index < sequenceLength); i++) {
+                compactCodeBuffer[index++] = repeatUnit[i % repeatUnit.length];
+            }
+        }
+        compactCodeBuffer[sequenceLength] = 0;
+        return compactCodeBuffer;
+    }
+    // </editor-fold>
+}
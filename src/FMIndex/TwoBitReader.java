@@ -0,0 +1,627 @@
+/*
+ * Author:
+ *
+ *      Vedran Sabadoš
+ *
+ * Version:
+ *
+ *      V1.0         26. 12. 2013
+ */
+
+package FMIndex;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Class TwoBitReader reads reference sequences from UCSC .2bit file mapped
+ * into memory. File starts with header and index of sequence names and
+ * offsets. Each sequence is stored as its length, list of N blocks, list of
+ * mask (lower case) blocks and nucleotides packed with 2 bits per character
+ * (T, C, A, G), the first character in the highest bits of a byte. Byte order
+ * of all numbers is given by the byte order of file signature. As alphabet
+ * of packed nucleotides is known, characters are counted from histogram of
+ * packed bytes and each packed byte is decoded into four compact codes by
+ * one table lookup, N blocks are then filled with compact code of N. Mask
+ * blocks are skipped, as lower case characters get upper case codes.
+ *
+ * @version     V1.0                26.12.2013.
+ * @author      Vedran Sabadoš
+ */
+public class TwoBitReader {
+
+    // <editor-fold desc="Constants">
+
+    final public int TWO_BIT_SIGNATURE = 0x1a412743;            // .2bit file signature
+    final public int HEADER_SIZE = 16;                          // signature, version, number of sequences and reserved word
+    final public int MAXIMAL_INDEX_ENTRY_SIZE = 264;            // name length, up to 255 name bytes and 64-bit offset
+    final public int MAP_WINDOW_SIZE_SHIFT = 30;                // maximal size of mapped packed nucleotides (1 GB) multiplication/division shift
+    final public int CHUNK_SIZE = 0x00100000;                   // number of packed bytes processed in one chunk
+    final public int BASES_PER_BYTE = 4;                        // number of nucleotides packed into one byte
+    final public int N_CHARACTER = 0x4e;                        // N character in UTF8
+    final public byte[] BASE_CHARACTERS = {0x54, 0x43, 0x41, 0x47};    // T, C, A and G characters in UTF8
+    // </editor-fold>
+
+    // <editor-fold desc="Fields">
+
+    /** Mapped .2bit file */
+    private final RandomAccessFile twoBitFile;
+
+    /** Channel of mapped .2bit file */
+    private final FileChannel twoBitChannel;
+
+    /** .2bit file length */
+    private final long fileLength;
+
+    /** Byte order of numbers in file */
+    private final ByteOrder byteOrder;
+
+    /** Sequence names in file order */
+    private final String[] sequenceNames;
+
+    /** File offset of each sequence record */
+    private final long[] sequenceOffsets;
+
+    /** Index of each sequence name */
+    private final HashMap<String, Integer> sequenceLookup;
+
+    /** Chunk of packed bytes taken from mapped file */
+    private final byte[] chunk;
+
+    /** Sequence whose record header is read, or -1 */
+    private int headerSequence;
+
+    /** Number of nucleotides of sequence whose record header is read */
+    private long dnaSize;
+
+    /** Start of each N block of sequence whose record header is read */
+    private int[] nBlockStarts;
+
+    /** Size of each N block of sequence whose record header is read */
+    private int[] nBlockSizes;
+
+    /** Number of mask blocks of sequence whose record header is read */
+    private int noMaskBlocks;
+
+    /** File offset of packed nucleotides of sequence whose record header is read */
+    private long dnaOffset;
+
+    /** Mapped window of packed nucleotides */
+    private MappedByteBuffer window;
+
+    /** File position of the first byte of mapped window */
+    private long windowStart;
+
+    /** Number of bytes taken from mapped file */
+    private long bytesRead;
+    // </editor-fold>
+
+    // <editor-fold desc="Constructor">
+
+    /**
+     * Class TwoBitReader Constructor, opens .2bit file and reads its index.
+     *
+     * @param filename      .2bit filename
+     * @throws IOException
+     */
+    public TwoBitReader(String filename) throws IOException {
+
+        MappedByteBuffer buffer;
+        Charset utf8Charset;
+        byte[] nameBuffer;
+        int signature;
+        int version;
+        int noSequences;
+        int nameLength;
+
+        twoBitFile = new RandomAccessFile(filename, "r");
+        twoBitChannel = twoBitFile.getChannel();
+        fileLength = twoBitChannel.size();
+        chunk = new byte[CHUNK_SIZE];
+        headerSequence = -1;
+        window = null;
+        windowStart = 0;
+        bytesRead = 0;
+        if (fileLength < HEADER_SIZE) {
+            close();
+            throw new IOException("Datoteka nije u .2bit formatu");
+        }
+
+        /* signature gives byte order */
+        buffer = twoBitChannel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+        signature = buffer.getInt(0);
+        if (signature == TWO_BIT_SIGNATURE) {
+            byteOrder = ByteOrder.BIG_ENDIAN;
+        } else if (Integer.reverseBytes(signature) == TWO_BIT_SIGNATURE) {
+            byteOrder = ByteOrder.LITTLE_ENDIAN;
+        } else {
+            close();
+            throw new IOException("Datoteka nije u .2bit formatu");
+        }
+        buffer.order(byteOrder);
+        version = buffer.getInt(4);
+        noSequences = buffer.getInt(8);
+        if (((version != 0) && (version != 1)) || (noSequences < 0)) {
+            close();
+            throw new IOException("Nepodržana inačica .2bit datoteke: " + Integer.toString(version));
+        }
+
+        /* read sequence names and offsets, version 1 uses 64-bit offsets */
+        buffer = twoBitChannel.map( FileChannel.MapMode.READ_ONLY,
+                                    HEADER_SIZE,
+                                    Math.min((fileLength - HEADER_SIZE), (((long) noSequences) * MAXIMAL_INDEX_ENTRY_SIZE)));
+        buffer.order(byteOrder);
+        utf8Charset = Charset.forName("UTF-8");
+        nameBuffer = new byte[256];
+        sequenceNames = new String[noSequences];
+        sequenceOffsets = new long[noSequences];
+        sequenceLookup = new HashMap<>();
+        for (int i = 0; i < noSequences; i++) {
+            nameLength = (buffer.get() & 0xff);
+            buffer.get(nameBuffer, 0, nameLength);
+            sequenceNames[i] = new String(nameBuffer, 0, nameLength, utf8Charset);
+            if (version == 0) {
+                sequenceOffsets[i] = (buffer.getInt() & 0xffffffffL);
+            } else {
+                sequenceOffsets[i] = buffer.getLong();
+            }
+            if (!sequenceLookup.containsKey(sequenceNames[i])) {
+                sequenceLookup.put(sequenceNames[i], i);
+            }
+        }
+        bytesRead += (HEADER_SIZE + buffer.position());
+    }
+    // </editor-fold>
+
+    // <editor-fold desc="Methods">
+
+    /**
+     * Function getNoSequences provides number of sequences in file.
+     *
+     * @return      number of sequences
+     */
+    public int getNoSequences() {
+        return sequenceNames.length;
+    }
+
+    /**
+     * Function getSequenceNames provides names of all sequences in file order.
+     *
+     * @return      sequence names
+     */
+    public String[] getSequenceNames() {
+        return Arrays.copyOf(sequenceNames, sequenceNames.length);
+    }
+
+    /**
+     * Function getSequenceName provides name of given sequence.
+     *
+     * @param sequence      sequence index
+     * @return              sequence name
+     */
+    public String getSequenceName(int sequence) {
+        return sequenceNames[sequence];
+    }
+
+    /**
+     * Function findSequence finds the first sequence with given name.
+     *
+     * @param name      sequence name
+     * @return          sequence index, or -1 if there is no such sequence
+     */
+    public int findSequence(String name) {
+
+        Integer sequence;
+
+        sequence = sequenceLookup.get(name);
+        return ((sequence != null) ? sequence : -1);
+    }
+
+    /**
+     * Function getSequenceLength provides number of nucleotides of given
+     * sequence.
+     *
+     * @param sequence      sequence index
+     * @return              sequence length
+     * @throws IOException
+     */
+    public long getSequenceLength(int sequence) throws IOException {
+        readSequenceHeader(sequence);
+        return dnaSize;
+    }
+
+    /**
+     * Function getNoNBlocks provides number of N blocks of given sequence.
+     *
+     * @param sequence      sequence index
+     * @return              number of N blocks
+     * @throws IOException
+     */
+    public int getNoNBlocks(int sequence) throws IOException {
+        readSequenceHeader(sequence);
+        return nBlockStarts.length;
+    }
+
+    /**
+     * Function getNoMaskBlocks provides number of mask blocks of given
+     * sequence.
+     *
+     * @param sequence      sequence index
+     * @return              number of mask blocks
+     * @throws IOException
+     */
+    public int getNoMaskBlocks(int sequence) throws IOException {
+        readSequenceHeader(sequence);
+        return noMaskBlocks;
+    }
+
+    /**
+     * Function countCharacters adds number of characters and upper bound of
+     * number of runs of given sequence to character and run counts. Packed
+     * bytes are counted by histogram keyed by packed byte and the last
+     * nucleotide of previous byte, which is expanded to nucleotide and run
+     * counts at the end. Nucleotides hidden by N blocks are then replaced by
+     * N characters, each N block adds one N run and may split one run of each
+     * nucleotide.
+     *
+     * @param sequence          sequence index
+     * @param characterCount    number of characters of each raw code, 256 entries
+     * @param runCount          upper bound of number of runs of each raw code, 256 entries
+     * @throws IOException
+     */
+    public void countCharacters(int sequence, long[] characterCount, long[] runCount) throws IOException {
+
+        long[] pairCount;
+        long[] nucleotideCount;
+        long[] nucleotideRunCount;
+        long noBytes;
+        long position;
+        long blockEnd;
+        int length;
+        int previousBase;
+        int base;
+
+        readSequenceHeader(sequence);
+
+        /* count packed bytes together with the last nucleotide of previous byte, BASES_PER_BYTE marks no previous byte */
+        pairCount = new long[(BASES_PER_BYTE + 1) * 256];
+        noBytes = ((dnaSize + BASES_PER_BYTE - 1) / BASES_PER_BYTE);
+        previousBase = BASES_PER_BYTE;
+        position = 0;
+        while ((length = readChunk(position, (dnaSize / BASES_PER_BYTE))) > 0) {
+            for (int i = 0; i < length; i++) {
+                pairCount[(previousBase << 8) | (chunk[i] & 0xff)]++;
+                previousBase = (chunk[i] & 3);
+            }
+            position += length;
+        }
+        nucleotideCount = new long[BASES_PER_BYTE];
+        nucleotideRunCount = new long[BASES_PER_BYTE];
+        for (int i = 0; i < pairCount.length; i++) {
+            if (pairCount[i] > 0) {
+                countNucleotides(i, BASES_PER_BYTE, pairCount[i], nucleotideCount, nucleotideRunCount);
+            }
+        }
+
+        /* count nucleotides of the last partial byte */
+        if ((position < noBytes) && (readChunk(position, noBytes) > 0)) {
+            countNucleotides(   ((previousBase << 8) | (chunk[0] & 0xff)),
+                                ((int) (dnaSize % BASES_PER_BYTE)),
+                                1,
+                                nucleotideCount,
+                                nucleotideRunCount                          );
+        }
+
+        /* nucleotides hidden by N blocks are not counted */
+        for (int i = 0; i < nBlockStarts.length; i++) {
+            blockEnd = (((long) nBlockStarts[i]) + nBlockSizes[i]);
+            for (long j = nBlockStarts[i]; j < blockEnd; j += (((long) CHUNK_SIZE) * BASES_PER_BYTE)) {
+                countHiddenNucleotides(j, Math.min(blockEnd, (j + (((long) CHUNK_SIZE) * BASES_PER_BYTE))), nucleotideCount);
+            }
+            characterCount[N_CHARACTER] += nBlockSizes[i];
+            runCount[N_CHARACTER]++;
+            for (base = 0; base < BASES_PER_BYTE; base++) {
+                nucleotideRunCount[base]++;
+            }
+        }
+        for (int i = 0; i < BASES_PER_BYTE; i++) {
+            characterCount[BASE_CHARACTERS[i]] += nucleotideCount[i];
+            runCount[BASE_CHARACTERS[i]] += Math.min(nucleotideCount[i], nucleotideRunCount[i]);
+        }
+    }
+
+    /**
+     * Function decodeSequence writes compact codes of given sequence into
+     * compact code buffer at given offset, or appends them to packed code
+     * buffer if it is given.
+     *
+     * @param sequence          sequence index
+     * @param codeTable         compact code of each raw code, 256 entries
+     * @param compactCodeBuffer buffer to write compact codes to, or null
+     * @param offset            position of the first code in compact code buffer
+     * @param packedCodeBuffer  buffer to append compact codes to, or null
+     * @return                  number of written compact codes
+     * @throws IOException
+     */
+    public int decodeSequence(  int sequence,
+                                byte[] codeTable,
+                                byte[] compactCodeBuffer,
+                                int offset,
+                                PackedCodeBuffer packedCodeBuffer   ) throws IOException {
+
+        byte[] quadCodes;
+        byte[] codes;
+        long noBytes;
+        long fullBytes;
+        long position;
+        int codesIndex;
+        int length;
+        int chunkFullBytes;
+        int packedByte;
+        int nBlock;
+        int chunkBases;
+        long blockStart;
+        long blockEnd;
+        long chunkStart;
+        long chunkEnd;
+        byte nCode;
+
+        readSequenceHeader(sequence);
+
+        /* compact codes of four nucleotides of each packed byte */
+        quadCodes = new byte[256 * BASES_PER_BYTE];
+        for (int i = 0; i < 256; i++) {
+            for (int j = 0; j < BASES_PER_BYTE; j++) {
+                quadCodes[(i * BASES_PER_BYTE) + j] = codeTable[BASE_CHARACTERS[(i >>> (6 - (2 * j))) & 3]];
+            }
+        }
+        nCode = codeTable[N_CHARACTER];
+        codes = ((packedCodeBuffer != null) ? new byte[CHUNK_SIZE * BASES_PER_BYTE] : compactCodeBuffer);
+
+        /* decode chunks of packed bytes, the last partial byte included */
+        noBytes = ((dnaSize + BASES_PER_BYTE - 1) / BASES_PER_BYTE);
+        fullBytes = (dnaSize / BASES_PER_BYTE);
+        position = 0;
+        nBlock = 0;
+        while ((length = readChunk(position, noBytes)) > 0) {
+            codesIndex = ((packedCodeBuffer != null) ? 0 : ((int) (offset + (position * BASES_PER_BYTE))));
+            chunkFullBytes = ((int) Math.min(length, (fullBytes - position)));
+            for (int i = 0; i < chunkFullBytes; i++) {
+                packedByte = ((chunk[i] & 0xff) * BASES_PER_BYTE);
+                codes[codesIndex++] = quadCodes[packedByte];
+                codes[codesIndex++] = quadCodes[packedByte + 1];
+                codes[codesIndex++] = quadCodes[packedByte + 2];
+                codes[codesIndex++] = quadCodes[packedByte + 3];
+            }
+            if (chunkFullBytes < length) {
+                packedByte = ((chunk[chunkFullBytes] & 0xff) * BASES_PER_BYTE);
+                for (int j = 0; j < (dnaSize % BASES_PER_BYTE); j++) {
+                    codes[codesIndex++] = quadCodes[packedByte + j];
+                }
+            }
+            chunkStart = (position * BASES_PER_BYTE);
+            chunkEnd = Math.min(dnaSize, ((position + length) * BASES_PER_BYTE));
+            chunkBases = ((int) (chunkEnd - chunkStart));
+
+            /* fill N blocks overlapping the chunk */
+            while (nBlock < nBlockStarts.length) {
+                blockStart = Math.max(chunkStart, nBlockStarts[nBlock]);
+                blockEnd = Math.min(chunkEnd, (((long) nBlockStarts[nBlock]) + nBlockSizes[nBlock]));
+                if (nBlockStarts[nBlock] >= chunkEnd) {
+                    break;
+                }
+                if (blockStart < blockEnd) {
+                    if (packedCodeBuffer != null) {
+                        Arrays.fill(codes, ((int) (blockStart - chunkStart)), ((int) (blockEnd - chunkStart)), nCode);
+                    } else {
+                        Arrays.fill(codes, ((int) (offset + blockStart)), ((int) (offset + blockEnd)), nCode);
+                    }
+                }
+                if ((((long) nBlockStarts[nBlock]) + nBlockSizes[nBlock]) > chunkEnd) {
+                    break;
+                }
+                nBlock++;
+            }
+            if (packedCodeBuffer != null) {
+                for (int i = 0; i < chunkBases; i++) {
+                    packedCodeBuffer.appendCode(codes[i]);
+                }
+            }
+            position += length;
+        }
+        return ((int) dnaSize);
+    }
+
+    /**
+     * Function getBytesRead provides number of bytes taken from mapped file.
+     *
+     * @return      number of bytes read
+     */
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * Function getMemoryConsumption estimates memory consumption of reader,
+     * mapped file is not included as it is not kept on heap.
+     *
+     * @return      memory consumption in bytes
+     */
+    public long getMemoryConsumption() {
+        return (CHUNK_SIZE + (((long) sequenceNames.length) * 64));
+    }
+
+    /** Function close closes .2bit file */
+    public void close() {
+        try {
+            twoBitFile.close();
+        } catch (IOException ex) {
+        }
+    }
+
+    /**
+     * Function readSequenceHeader reads length, N blocks and mask block count
+     * of given sequence, unless they are already read.
+     *
+     * @param sequence      sequence index
+     * @throws IOException
+     */
+    private void readSequenceHeader(int sequence) throws IOException {
+
+        MappedByteBuffer buffer;
+        long position;
+        int noNBlocks;
+
+        if (sequence == headerSequence) {
+            return;
+        }
+        position = sequenceOffsets[sequence];
+        buffer = mapNumbers(position, 8);
+        dnaSize = (buffer.getInt(0) & 0xffffffffL);
+        noNBlocks = buffer.getInt(4);
+        position += 8;
+        nBlockStarts = new int[noNBlocks];
+        nBlockSizes = new int[noNBlocks];
+        if (noNBlocks > 0) {
+            buffer = mapNumbers(position, (((long) noNBlocks) * 8));
+            buffer.asIntBuffer().get(nBlockStarts);
+            buffer.position(noNBlocks * 4);
+            buffer.asIntBuffer().get(nBlockSizes);
+            position += (((long) noNBlocks) * 8);
+        }
+        noMaskBlocks = mapNumbers(position, 4).getInt(0);
+        position += (4 + (((long) noMaskBlocks) * 8) + 4);
+        dnaOffset = position;
+        if ((dnaOffset + ((dnaSize + BASES_PER_BYTE - 1) / BASES_PER_BYTE)) > fileLength) {
+            throw new IOException("Neispravan zapis sekvence " + sequenceNames[sequence] + " u .2bit datoteci");
+        }
+        bytesRead += (dnaOffset - sequenceOffsets[sequence]);
+        headerSequence = sequence;
+    }
+
+    /**
+     * Function countNucleotides adds nucleotides and run starts of packed
+     * byte to nucleotide and run counts.
+     *
+     * @param pair                  packed byte, with the last nucleotide of previous byte in bits 8 and up
+     * @param noBases               number of nucleotides of packed byte to count
+     * @param count                 number of occurrences of packed byte
+     * @param nucleotideCount       number of each nucleotide
+     * @param nucleotideRunCount    number of runs of each nucleotide
+     */
+    private void countNucleotides(int pair, int noBases, long count, long[] nucleotideCount, long[] nucleotideRunCount) {
+
+        int previousBase;
+        int base;
+
+        previousBase = (pair >>> 8);
+        for (int j = 0; j < noBases; j++) {
+            base = ((pair >>> (6 - (2 * j))) & 3);
+            nucleotideCount[base] += count;
+            if (base != previousBase) {
+                nucleotideRunCount[base] += count;
+            }
+            previousBase = base;
+        }
+    }
+
+    /**
+     * Function countHiddenNucleotides subtracts nucleotides hidden by N block
+     * from nucleotide counts. Whole packed bytes are counted by histogram,
+     * partial bytes at block ends nucleotide by nucleotide.
+     *
+     * @param start             position of the first hidden nucleotide
+     * @param end               position after the last hidden nucleotide, not more than one chunk after start
+     * @param nucleotideCount   number of each nucleotide
+     * @throws IOException
+     */
+    private void countHiddenNucleotides(long start, long end, long[] nucleotideCount) throws IOException {
+
+        long[] byteCount;
+        long firstByte;
+        long base;
+        int chunkIndex;
+
+        firstByte = (start / BASES_PER_BYTE);
+        readChunk(firstByte, ((end + BASES_PER_BYTE - 1) / BASES_PER_BYTE));
+        byteCount = new long[256];
+        base = start;
+        while (base < end) {
+            chunkIndex = ((int) ((base / BASES_PER_BYTE) - firstByte));
+            if (((base % BASES_PER_BYTE) == 0) && ((base + BASES_PER_BYTE) <= end)) {
+                byteCount[chunk[chunkIndex] & 0xff]++;
+                base += BASES_PER_BYTE;
+            } else {
+                nucleotideCount[(chunk[chunkIndex] >>> (6 - (2 * (base % BASES_PER_BYTE)))) & 3]--;
+                base++;
+            }
+        }
+        for (int i = 0; i < 256; i++) {
+            if (byteCount[i] > 0) {
+                for (int j = 0; j < BASES_PER_BYTE; j++) {
+                    nucleotideCount[(i >>> (6 - (2 * j))) & 3] -= byteCount[i];
+                }
+            }
+        }
+    }
+
+    /**
+     * Function mapNumbers maps region of file containing numbers in file byte
+     * order.
+     *
+     * @param position      file position
+     * @param length        region length
+     * @return              mapped region
+     * @throws IOException
+     */
+    private MappedByteBuffer mapNumbers(long position, long length) throws IOException {
+
+        MappedByteBuffer buffer;
+
+        if ((position + length) > fileLength) {
+            throw new IOException("Neočekivani kraj .2bit datoteke");
+        }
+        buffer = twoBitChannel.map(FileChannel.MapMode.READ_ONLY, position, length);
+        buffer.order(byteOrder);
+        return buffer;
+    }
+
+    /**
+     * Function readChunk fills chunk with packed bytes of sequence whose
+     * record header is read. Packed bytes are taken from mapped window of up
+     * to 1 GB, which is mapped again only when chunk is outside of it.
+     *
+     * @param position      index of the first packed byte
+     * @param end           index after the last packed byte to read
+     * @return              number of bytes in chunk, 0 at the end position
+     * @throws IOException
+     */
+    private int readChunk(long position, long end) throws IOException {
+
+        long filePosition;
+        int length;
+
+        if (position >= end) {
+            return 0;
+        }
+        filePosition = (dnaOffset + position);
+        length = ((int) Math.min(CHUNK_SIZE, (end - position)));
+        if ((window == null) || (filePosition < windowStart) || ((filePosition + length) > (windowStart + window.limit()))) {
+            window = twoBitChannel.map( FileChannel.MapMode.READ_ONLY,
+                                        filePosition,
+                                        Math.min((1L << MAP_WINDOW_SIZE_SHIFT), (fileLength - filePosition)));
+            windowStart = filePosition;
+        }
+        window.position((int) (filePosition - windowStart));
+        window.get(chunk, 0, length);
+        bytesRead += length;
+        return length;
+    }
+    // </editor-fold>
+}
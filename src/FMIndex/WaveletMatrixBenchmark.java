@@ -0,0 +1,262 @@
+/*
+ * Author:
+ *
+ *      Vedran Sabadoš
+ *
+ * Version:
+ *
+ *      V1.0         26. 12. 2013
+ */
+
+package FMIndex;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.Arrays;
+
+/**
+ * Class WaveletMatrixBenchmark compares occurrence wavelet tree with
+ * occurrence wavelet matrix built upon the same BW transform. Index saved with
+ * occurrence wavelet tree is read, BW transform is read back from the tree and
+ * wavelet matrix is built from it. Memory consumption of both structures is
+ * printed, and query sequences sampled from reference sequence (as by
+ * BackwardSearchBenchmark) are counted by OccRange of both structures: steps
+ * replayed independently of each other and whole backward searches. Both
+ * structures have to give the same counts and intervals. Each measurement is
+ * repeated and its fastest round is reported.
+ *
+ * Usage: java -cp bin FMIndex.WaveletMatrixBenchmark [file.rfix] [query length] [number of queries]
+ *
+ * @version     V1.0                26.12.2013.
+ * @author      Vedran Sabadoš
+ */
+public class WaveletMatrixBenchmark {
+
+    // <editor-fold desc="Constants">
+
+    final static public String DEFAULT_INDEX_FILE = "Data/Chr1_010.rfix";   // index file used if none is given
+    final static public int DEFAULT_QUERY_LENGTH = 32;                      // query length used if none is given
+    final static public int DEFAULT_NO_QUERIES = 100000;                    // number of queries used if none is given
+    final static public int NO_ROUNDS = 10;                                 // number of rounds, the fastest one of each structure is reported
+    // </editor-fold>
+
+    // <editor-fold desc="Methods">
+
+    /**
+     * Benchmark main function
+     *
+     * @param args      command line arguments, optional preprocessed reference
+     *                  sequence index file, query length and number of queries
+     */
+    public static void main(String[] args) {
+
+        ReferenceSequenceIndex referenceSequenceIndex;
+        FMIndexWaveletTreeNode occurrenceWaveletTree;
+        FMIndexWaveletMatrix occurrenceWaveletMatrix;
+        ObjectInputStream inputStream;
+        byte[][] querySequences;
+        byte[] stepCharacters;
+        int[] stepLowIndexes;
+        int[] stepHighIndexes;
+        int[] treeIntervals;
+        int[] matrixIntervals;
+        String filename;
+        int queryLength;
+        int noQueries;
+        int noSteps;
+        long treeChecksum;
+        long matrixChecksum;
+        long treeDuration;
+        long matrixDuration;
+        long time;
+
+        filename = ((args.length > 0) ? args[0] : DEFAULT_INDEX_FILE);
+        try {
+            queryLength = ((args.length > 1) ? Integer.parseInt(args[1]) : DEFAULT_QUERY_LENGTH);
+            noQueries = ((args.length > 2) ? Integer.parseInt(args[2]) : DEFAULT_NO_QUERIES);
+            if ((queryLength < 2) || (noQueries < 1)) {
+                System.out.println("Query length has to be at least 2 and number of queries at least 1");
+                System.exit(1);
+            }
+
+            /* read reference sequence index */
+            inputStream = new ObjectInputStream(new BufferedInputStream(new FileInputStream(filename)));
+            try {
+                referenceSequenceIndex = (ReferenceSequenceIndex) inputStream.readObject();
+            } finally {
+                inputStream.close();
+            }
+            if (referenceSequenceIndex.occurrenceWaveletTree == null) {
+                System.out.println("Benchmark needs 32-bit reference sequence index with occurrence wavelet tree: " + filename);
+                System.exit(1);
+            }
+
+            /* build wavelet matrix upon BW transform of the tree */
+            occurrenceWaveletTree = referenceSequenceIndex.occurrenceWaveletTree;
+            time = System.nanoTime();
+            occurrenceWaveletMatrix = new FMIndexWaveletMatrix(occurrenceWaveletTree, referenceSequenceIndex.prefixSumTable);
+            time = (System.nanoTime() - time);
+            System.out.println( "Wavelet matrix with " + Integer.toString(occurrenceWaveletMatrix.getNoLevels()) + " levels built in "
+                                + Long.toString(time / 1000000) + " ms");
+            System.out.println("Wavelet tree memory:                        " + Integer.toString(occurrenceWaveletTree.getMemoryConsumption()) + " bytes");
+            System.out.println("Wavelet matrix memory:                      " + Integer.toString(occurrenceWaveletMatrix.getMemoryConsumption()) + " bytes");
+            System.out.println( "Bits per character, tree / matrix:         "
+                                + String.format("%.3f", (8.0 * occurrenceWaveletTree.getMemoryConsumption()) / referenceSequenceIndex.getBwtLength()) + " / "
+                                + String.format("%.3f", (8.0 * occurrenceWaveletMatrix.getMemoryConsumption()) / referenceSequenceIndex.getBwtLength()));
+
+            /* sample query sequences and record backward search steps */
+            querySequences = BackwardSearchBenchmark.sampleQuerySequences(referenceSequenceIndex, queryLength, noQueries);
+            System.out.println( Integer.toString(noQueries) + " query sequences of " + Integer.toString(queryLength)
+                                + " characters sampled from " + filename);
+            stepCharacters = new byte[noQueries * (queryLength - 1)];
+            stepLowIndexes = new int[stepCharacters.length];
+            stepHighIndexes = new int[stepCharacters.length];
+            noSteps = BackwardSearchBenchmark.recordSteps(referenceSequenceIndex, querySequences, stepCharacters, stepLowIndexes, stepHighIndexes);
+
+            /* replay recorded steps on both structures */
+            treeDuration = Long.MAX_VALUE;
+            matrixDuration = Long.MAX_VALUE;
+            for (int round = 0; round < NO_ROUNDS; round++) {
+                time = System.nanoTime();
+                treeChecksum = replay(occurrenceWaveletTree, stepCharacters, stepLowIndexes, stepHighIndexes, noSteps);
+                treeDuration = Math.min(treeDuration, (System.nanoTime() - time));
+
+                time = System.nanoTime();
+                matrixChecksum = replay(occurrenceWaveletMatrix, stepCharacters, stepLowIndexes, stepHighIndexes, noSteps);
+                matrixDuration = Math.min(matrixDuration, (System.nanoTime() - time));
+
+                if (treeChecksum != matrixChecksum) {
+                    System.out.println("Replayed step counts differ!");
+                    System.exit(1);
+                }
+            }
+            System.out.println("Backward search steps:                      " + Integer.toString(noSteps));
+            reportDurations("Replayed steps", treeDuration, matrixDuration, noSteps);
+
+            /* search all queries on both structures */
+            treeIntervals = new int[2 * noQueries];
+            matrixIntervals = new int[2 * noQueries];
+            treeDuration = Long.MAX_VALUE;
+            matrixDuration = Long.MAX_VALUE;
+            for (int round = 0; round < NO_ROUNDS; round++) {
+                time = System.nanoTime();
+                search(referenceSequenceIndex, occurrenceWaveletTree, querySequences, treeIntervals);
+                treeDuration = Math.min(treeDuration, (System.nanoTime() - time));
+
+                time = System.nanoTime();
+                search(referenceSequenceIndex, occurrenceWaveletMatrix, querySequences, matrixIntervals);
+                matrixDuration = Math.min(matrixDuration, (System.nanoTime() - time));
+
+                if (!Arrays.equals(treeIntervals, matrixIntervals)) {
+                    System.out.println("Backward search intervals differ!");
+                    System.exit(1);
+                }
+            }
+            reportDurations("Whole searches", treeDuration, matrixDuration, noSteps);
+        } catch (NumberFormatException ex) {
+            System.out.println("Query length and number of queries have to be integers: " + ex.getMessage());
+            System.exit(1);
+        } catch (IOException ex) {
+            System.out.println("Reading of " + filename + " failed: " + ex.getMessage());
+            System.exit(1);
+        } catch (ClassNotFoundException ex) {
+            System.out.println("Reading of " + filename + " failed: " + ex.getMessage());
+            System.exit(1);
+        } catch (ReportedException ex) {
+            System.out.println(ex.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Function replay counts occurrences of recorded steps by one OccRange
+     * call per step.
+     *
+     * @param occurrenceTable       occurrence wavelet tree or matrix
+     * @param stepCharacters        character of each step
+     * @param stepLowIndexes        lower index of each step
+     * @param stepHighIndexes       higher index of each step
+     * @param noSteps               number of steps
+     * @return                      checksum of all counts
+     * @throws ReportedException
+     */
+    static long replay( FMIndexOccurrenceTable occurrenceTable,
+                        byte[] stepCharacters,
+                        int[] stepLowIndexes,
+                        int[] stepHighIndexes,
+                        int noSteps                             ) throws ReportedException {
+
+        int[] occurrences;
+        long checksum;
+
+        occurrences = new int[2];
+        checksum = 0;
+        for (int i = 0; i < noSteps; i++) {
+            occurrenceTable.OccRange(stepCharacters[i], stepLowIndexes[i], stepHighIndexes[i], occurrences);
+            checksum += occurrences[0];
+            checksum += (((long) occurrences[1]) << 20);
+        }
+        return checksum;
+    }
+
+    /**
+     * Function search finds interval of each query sequence by backward
+     * search with one OccRange call per step.
+     *
+     * @param referenceSequenceIndex    reference sequence index
+     * @param occurrenceTable           occurrence wavelet tree or matrix
+     * @param querySequences            compact coded query sequences
+     * @param intervals                 receives low and high index of each interval
+     * @throws ReportedException
+     */
+    static void search( ReferenceSequenceIndex referenceSequenceIndex,
+                        FMIndexOccurrenceTable occurrenceTable,
+                        byte[][] querySequences,
+                        int[] intervals                             ) throws ReportedException {
+
+        int[] occurrences;
+        byte[] querySequence;
+        int lowIndex;
+        int highIndex;
+        byte characterToProcess;
+
+        occurrences = new int[2];
+        for (int q = 0; q < querySequences.length; q++) {
+            querySequence = querySequences[q];
+            characterToProcess = querySequence[querySequence.length - 1];
+            lowIndex = referenceSequenceIndex.C(characterToProcess);
+            highIndex = (referenceSequenceIndex.C((byte) (characterToProcess + 1)) - 1);
+            for (int i = (querySequence.length - 2); i >= 0; i--) {
+                characterToProcess = querySequence[i];
+                occurrenceTable.OccRange(characterToProcess, lowIndex, (highIndex + 1), occurrences);
+                lowIndex = (referenceSequenceIndex.C(characterToProcess) + occurrences[0]);
+                highIndex = (referenceSequenceIndex.C(characterToProcess) + occurrences[1] - 1);
+                if (highIndex < lowIndex) {
+                    break;
+                }
+            }
+            intervals[2 * q] = lowIndex;
+            intervals[(2 * q) + 1] = highIndex;
+        }
+    }
+
+    /**
+     * Function reportDurations prints durations per step on both structures
+     * and speedup of wavelet matrix.
+     *
+     * @param title                 measurement title
+     * @param treeDuration          duration on occurrence wavelet tree in nanoseconds
+     * @param matrixDuration        duration on occurrence wavelet matrix in nanoseconds
+     * @param noSteps               number of steps
+     */
+    private static void reportDurations(String title, long treeDuration, long matrixDuration, int noSteps) {
+        System.out.println(title + ", wavelet tree:               " + String.format("%.1f", ((double) treeDuration) / noSteps) + " ns");
+        System.out.println(title + ", wavelet matrix:             " + String.format("%.1f", ((double) matrixDuration) / noSteps) + " ns");
+        if (matrixDuration > 0) {
+            System.out.println(title + ", speedup:                    " + String.format("%.2f", ((double) treeDuration) / matrixDuration));
+        }
+    }
+    // </editor-fold>
+}
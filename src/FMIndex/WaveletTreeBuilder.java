@@ -0,0 +1,511 @@
+/*
+ * Author:
+ *
+ *      Vedran Sabadoš
+ *
+ * Version:
+ *
+ *      V1.0         26. 12. 2013
+ */
+
+package FMIndex;
+
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Class WaveletTreeBuilder fills empty occurrence wavelet tree from complete
+ * BW transform in bulk. Instead of inserting one character at a time through
+ * all tree levels, characters of each node are converted into bit string
+ * words 64 at a time and then stably partitioned into character strings of
+ * child nodes. Big nodes are divided into chunks of whole super buckets which
+ * are converted and partitioned concurrently. Sibling subtrees are built as
+ * separate tasks on fork-join pool and each node refreshes its own buckets,
+ * so bucket refresh runs in parallel as well. Character string of a node is
+ * released as soon as it is partitioned, so at most two copies of BW
+ * transform exist besides the one given by caller. Number of characters and
+ * processing time are collected per tree level.
+ *
+ * @version     V1.0                26.12.2013.
+ * @author      Vedran Sabadoš
+ */
+public class WaveletTreeBuilder {
+
+    // <editor-fold desc="Constants">
+
+    final public int CHUNK_SIZE = 0x00100000;                   // characters in one concurrently processed chunk, multiple of super bucket size
+    final public int MAXIMAL_NO_LEVELS = 256;                   // maximal number of wavelet tree levels
+    // </editor-fold>
+
+    // <editor-fold desc="Fields">
+
+    /** Number of threads used to build wavelet tree */
+    private final int noThreads;
+
+    /** Number of characters processed on each tree level */
+    private final AtomicLongArray levelCharacters;
+
+    /** Processing time in nanoseconds summed over nodes of each tree level */
+    private final AtomicLongArray levelDurations;
+
+    /** Number of tree levels */
+    private int noLevels;
+
+    /** Wall clock build duration in milliseconds */
+    private long buildDuration;
+
+    /** Current memory consumption of partitioned character strings */
+    private final AtomicLong currentMemoryConsumption;
+
+    /** Maximal memory consumption of partitioned character strings */
+    private final AtomicLong maximalMemoryConsumption;
+    // </editor-fold>
+
+    // <editor-fold desc="Constructor">
+
+    /**
+     * Class WaveletTreeBuilder Constructor
+     *
+     * @param threads       number of threads used to build wavelet tree
+     */
+    public WaveletTreeBuilder(int threads) {
+        noThreads = threads;
+        levelCharacters = new AtomicLongArray(MAXIMAL_NO_LEVELS);
+        levelDurations = new AtomicLongArray(MAXIMAL_NO_LEVELS);
+        noLevels = 0;
+        buildDuration = 0;
+        currentMemoryConsumption = new AtomicLong();
+        maximalMemoryConsumption = new AtomicLong();
+    }
+    // </editor-fold>
+
+    // <editor-fold desc="Methods">
+
+    /**
+     * Function build fills empty wavelet tree with given BW transform and
+     * refreshes its buckets. Characters given to Huffman-shaped tree are
+     * replaced by their leaf codes, so BW transform is not preserved.
+     *
+     * @param tree      empty wavelet tree created upon prefix-sum table of BW transform
+     * @param bwt       BW transform
+     * @throws ReportedException
+     */
+    public void build(FMIndexWaveletTreeNode tree, byte[] bwt) throws ReportedException {
+
+        ForkJoinPool forkJoinPool;
+
+        if (tree.getNodeSize() != bwt.length) {
+            throw new ReportedException("BW transformacija ne odgovara stablu valića!");
+        }
+        buildDuration = System.nanoTime();
+        forkJoinPool = new ForkJoinPool(noThreads);
+        try {
+            forkJoinPool.submit(new NodeTask(tree, bwt, 0, false)).get();
+        } catch (InterruptedException ex) {
+            throw new ReportedException("Kreiranje indeksa referentnog slijeda prekinuto na zahtjev korisnika!");
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof TreeBuildException) {
+                throw new ReportedException(ex.getCause().getMessage());
+            }
+            throw new ReportedException(    "Neočekivana pogreška tijekom kreiranja stabla valića ("
+                                            + ex.getCause().toString() + ")!"                           );
+        } finally {
+            forkJoinPool.shutdown();
+        }
+        buildDuration = ((System.nanoTime() - buildDuration) / 1000000);
+        for (noLevels = 0; (noLevels < MAXIMAL_NO_LEVELS) && (levelCharacters.get(noLevels) > 0); noLevels++) {
+        }
+    }
+
+    /**
+     * Function getNoLevels provides number of built tree levels.
+     *
+     * @return      number of tree levels
+     */
+    public int getNoLevels() {
+        return noLevels;
+    }
+
+    /**
+     * Function getLevelCharacters provides number of characters processed on
+     * given tree level.
+     *
+     * @param level     tree level, 0 is the root
+     * @return          number of characters
+     */
+    public long getLevelCharacters(int level) {
+        return levelCharacters.get(level);
+    }
+
+    /**
+     * Function getLevelDuration provides processing time of given tree level
+     * summed over all its nodes.
+     *
+     * @param level     tree level, 0 is the root
+     * @return          processing time in milliseconds
+     */
+    public long getLevelDuration(int level) {
+        return (levelDurations.get(level) / 1000000);
+    }
+
+    /**
+     * Function getLevelThroughput provides throughput of given tree level in
+     * characters per second of processing time.
+     *
+     * @param level     tree level, 0 is the root
+     * @return          characters per second
+     */
+    public long getLevelThroughput(int level) {
+        return ((levelCharacters.get(level) * 1000000000L) / Math.max(1, levelDurations.get(level)));
+    }
+
+    /**
+     * Function getBuildDuration provides wall clock duration of the last build.
+     *
+     * @return      build duration in milliseconds
+     */
+    public long getBuildDuration() {
+        return buildDuration;
+    }
+
+    /**
+     * Function getMaximalMemoryConsumption provides estimated maximal memory
+     * consumption of partitioned character strings.
+     *
+     * @return      maximal memory consumption in bytes
+     */
+    public long getMaximalMemoryConsumption() {
+        return maximalMemoryConsumption.get();
+    }
+
+    /**
+     * Function allocateMemory updates memory consumption statistics after
+     * memory allocation.
+     *
+     * @param size      size of allocated memory in bytes
+     */
+    private void allocateMemory(long size) {
+
+        long current;
+        long maximal;
+
+        current = currentMemoryConsumption.addAndGet(size);
+        maximal = maximalMemoryConsumption.get();
+        while ((current > maximal) && !maximalMemoryConsumption.compareAndSet(maximal, current)) {
+            maximal = maximalMemoryConsumption.get();
+        }
+    }
+
+    /**
+     * Function releaseMemory updates memory consumption statistics after
+     * memory release.
+     *
+     * @param size      size of released memory in bytes
+     */
+    private void releaseMemory(long size) {
+        currentMemoryConsumption.addAndGet(-size);
+    }
+    // </editor-fold>
+
+    // <editor-fold desc="Node task">
+
+    /**
+     * Class NodeTask fills one wavelet tree node, partitions its characters
+     * among child nodes and builds child subtrees concurrently.
+     */
+    private class NodeTask extends RecursiveAction {
+
+        /** Wavelet tree node to fill */
+        private final FMIndexWaveletTreeNode node;
+
+        /** Characters of this node */
+        private byte[] characters;
+
+        /** Tree level of this node */
+        private final int level;
+
+        /** Set if character string is owned by builder and released after partitioning */
+        private final boolean ownCharacters;
+
+        /**
+         * Class NodeTask Constructor
+         *
+         * @param treeNode      wavelet tree node to fill
+         * @param nodeChars     characters of the node
+         * @param treeLevel     tree level of the node
+         * @param own           set if character string is owned by builder
+         */
+        NodeTask(FMIndexWaveletTreeNode treeNode, byte[] nodeChars, int treeLevel, boolean own) {
+            node = treeNode;
+            characters = nodeChars;
+            level = treeLevel;
+            ownCharacters = own;
+        }
+
+        /** Task execution function */
+        @Override
+        protected void compute() {
+
+            ArrayList<ForkJoinTask<?>> tasks;
+            ChunkTask[] chunkTasks;
+            byte[] leftCharacters;
+            byte[] rightCharacters;
+            int noChunks;
+            int length;
+            int noOnes;
+            int leftIndex;
+            int rightIndex;
+            long time;
+
+            time = System.nanoTime();
+            length = characters.length;
+            noChunks = Math.max(1, ((length + (CHUNK_SIZE - 1)) / CHUNK_SIZE));
+
+            /* fill bit string words of each chunk */
+            chunkTasks = new ChunkTask[noChunks];
+            for (int i = 0; i < noChunks; i++) {
+                chunkTasks[i] = new ChunkTask(  node,
+                                                characters,
+                                                (i * CHUNK_SIZE),
+                                                Math.min(CHUNK_SIZE, (length - (i * CHUNK_SIZE)))   );
+            }
+            runChunks(chunkTasks);
+            node.setNodeSequentialIndex(length);
+
+            /* allocate child character strings */
+            noOnes = 0;
+            for (ChunkTask chunkTask: chunkTasks) {
+                noOnes += chunkTask.noOnes;
+            }
+            leftCharacters = null;
+            rightCharacters = null;
+            if (node.leftChild != null) {
+                if (node.leftChild.getNodeSize() != (length - noOnes)) {
+                    throw new TreeBuildException("BW transformacija ne odgovara stablu valića!");
+                }
+                leftCharacters = new byte[length - noOnes];
+                allocateMemory(leftCharacters.length);
+            }
+            if (node.rightChild != null) {
+                if (node.rightChild.getNodeSize() != noOnes) {
+                    throw new TreeBuildException("BW transformacija ne odgovara stablu valića!");
+                }
+                rightCharacters = new byte[noOnes];
+                allocateMemory(rightCharacters.length);
+            }
+
+            /* partition characters of each chunk among child nodes */
+            if ((leftCharacters != null) || (rightCharacters != null)) {
+                leftIndex = 0;
+                rightIndex = 0;
+                for (ChunkTask chunkTask: chunkTasks) {
+                    chunkTask.prepareSplit(leftCharacters, leftIndex, rightCharacters, rightIndex);
+                    leftIndex += (chunkTask.length - chunkTask.noOnes);
+                    rightIndex += chunkTask.noOnes;
+                }
+                runChunks(chunkTasks);
+            }
+            if (ownCharacters) {
+                releaseMemory(length);
+            }
+            characters = null;
+
+            /* refresh buckets of this node only, children refresh their own */
+            node.refreshNodeBuckets();
+            levelCharacters.addAndGet(level, length);
+            levelDurations.addAndGet(level, (System.nanoTime() - time));
+
+            /* build child subtrees concurrently */
+            tasks = new ArrayList<>();
+            if (leftCharacters != null) {
+                tasks.add(new NodeTask(node.leftChild, leftCharacters, (level + 1), true));
+            }
+            if (rightCharacters != null) {
+                tasks.add(new NodeTask(node.rightChild, rightCharacters, (level + 1), true));
+            }
+            invokeAll(tasks);
+        }
+
+        /**
+         * Function runChunks runs chunk tasks, concurrently if there is more
+         * than one chunk.
+         *
+         * @param chunkTasks    chunk tasks
+         */
+        private void runChunks(ChunkTask[] chunkTasks) {
+            if (chunkTasks.length == 1) {
+                chunkTasks[0].compute();
+            } else {
+                for (ChunkTask chunkTask: chunkTasks) {
+                    chunkTask.reinitialize();
+                }
+                invokeAll(chunkTasks);
+            }
+        }
+    }
+    // </editor-fold>
+
+    // <editor-fold desc="Chunk task">
+
+    /**
+     * Class ChunkTask processes one chunk of wavelet tree node characters. In
+     * the first run it converts characters into bit string words, in the
+     * second run it copies characters into child node character strings.
+     */
+    private class ChunkTask extends RecursiveAction {
+
+        /** Wavelet tree node being filled */
+        private final FMIndexWaveletTreeNode node;
+
+        /** Characters of the node */
+        private final byte[] characters;
+
+        /** Index of the first character of chunk, multiple of super bucket size */
+        private final int start;
+
+        /** Number of characters in chunk */
+        private final int length;
+
+        /** Number of chunk characters stored in the node as binary 1 */
+        private int noOnes;
+
+        /** Left child node character string, or null */
+        private byte[] leftCharacters;
+
+        /** Index of the first chunk character in left child node character string */
+        private int leftStart;
+
+        /** Right child node character string, or null */
+        private byte[] rightCharacters;
+
+        /** Index of the first chunk character in right child node character string */
+        private int rightStart;
+
+        /** Set if characters are to be copied into child node character strings */
+        private boolean split;
+
+        /**
+         * Class ChunkTask Constructor
+         *
+         * @param treeNode      wavelet tree node being filled
+         * @param nodeChars     characters of the node
+         * @param chunkStart    index of the first character of chunk
+         * @param chunkLength   number of characters in chunk
+         */
+        ChunkTask(FMIndexWaveletTreeNode treeNode, byte[] nodeChars, int chunkStart, int chunkLength) {
+            node = treeNode;
+            characters = nodeChars;
+            start = chunkStart;
+            length = chunkLength;
+            noOnes = 0;
+            split = false;
+        }
+
+        /**
+         * Function prepareSplit switches task to copying of characters into
+         * child node character strings.
+         *
+         * @param left          left child node character string, or null
+         * @param leftIndex     index of the first chunk character in left string
+         * @param right         right child node character string, or null
+         * @param rightIndex    index of the first chunk character in right string
+         */
+        void prepareSplit(byte[] left, int leftIndex, byte[] right, int rightIndex) {
+            leftCharacters = left;
+            leftStart = leftIndex;
+            rightCharacters = right;
+            rightStart = rightIndex;
+            split = true;
+        }
+
+        /** Task execution function */
+        @Override
+        protected void compute() {
+
+            int threshold;
+            int leftIndex;
+            int leftEnd;
+            int rightIndex;
+            int rightEnd;
+            int end;
+            int bit;
+            int i;
+            byte character;
+
+            if (!split) {
+                try {
+                    noOnes = node.insertCharacters(characters, start, length);
+                } catch (ReportedException ex) {
+                    throw new TreeBuildException(ex.getMessage());
+                }
+                return;
+            }
+
+            /*
+             * character is always written, but index moves only if it belongs
+             * to the string. Writing stops when chunk part of either string is
+             * full, so neighbouring chunks are never overwritten. The rest of
+             * chunk belongs to the other string.
+             */
+            threshold = node.getThresholdCharacterNumber();
+            leftIndex = leftStart;
+            leftEnd = (leftStart + (length - noOnes));
+            rightIndex = rightStart;
+            rightEnd = (rightStart + noOnes);
+            end = (start + length);
+            i = start;
+            if (leftCharacters == null) {
+                for (; rightIndex < rightEnd; i++) {
+                    character = characters[i];
+                    rightCharacters[rightIndex] = character;
+                    rightIndex += ((threshold - 1 - character) >>> 31);
+                }
+            } else if (rightCharacters == null) {
+                for (; leftIndex < leftEnd; i++) {
+                    character = characters[i];
+                    leftCharacters[leftIndex] = character;
+                    leftIndex += ((character - threshold) >>> 31);
+                }
+            } else {
+                for (; (leftIndex < leftEnd) && (rightIndex < rightEnd); i++) {
+                    character = characters[i];
+                    bit = ((threshold - 1 - character) >>> 31);
+                    leftCharacters[leftIndex] = character;
+                    rightCharacters[rightIndex] = character;
+                    leftIndex += (1 - bit);
+                    rightIndex += bit;
+                }
+                if (leftIndex < leftEnd) {
+                    System.arraycopy(characters, i, leftCharacters, leftIndex, (end - i));
+                } else if (rightIndex < rightEnd) {
+                    System.arraycopy(characters, i, rightCharacters, rightIndex, (end - i));
+                }
+            }
+        }
+    }
+    // </editor-fold>
+
+    // <editor-fold desc="Exceptions">
+
+    /**
+     * Class TreeBuildException is used to propagate error message from build
+     * task to the thread waiting for wavelet tree.
+     */
+    private static class TreeBuildException extends RuntimeException {
+
+        /**
+         * Class TreeBuildException Constructor
+         *
+         * @param message   error message
+         */
+        TreeBuildException(String message) {
+            super(message);
+        }
+    }
+    // </editor-fold>
+}
@@ -0,0 +1,212 @@
+/*
+ * Author:
+ *
+ *      Vedran Sabadoš
+ *
+ * Version:
+ *
+ *      V1.0         26. 12. 2013
+ */
+
+package FMIndex;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.Arrays;
+
+/**
+ * Class WaveletTreeShapeBenchmark compares occurrence wavelet tree shaped by
+ * prefix-sum midpoint with Huffman-shaped occurrence wavelet tree built upon
+ * the same BW transform. Index saved with occurrence wavelet tree is read, BW
+ * transform is read back from the tree and both trees are built from it.
+ * Memory consumption and average path length of both trees are printed
+ * together with zeroth-order entropy of BW transform, and query sequences
+ * sampled from reference sequence (as by BackwardSearchBenchmark) are counted
+ * by OccRange of both trees: steps replayed independently of each other and
+ * whole backward searches. Both trees have to give the same counts and
+ * intervals. Each measurement is repeated and its fastest round is reported.
+ *
+ * Usage: java -cp bin FMIndex.WaveletTreeShapeBenchmark [file.rfix] [query length] [number of queries]
+ *
+ * @version     V1.0                26.12.2013.
+ * @author      Vedran Sabadoš
+ */
+public class WaveletTreeShapeBenchmark {
+
+    // <editor-fold desc="Constants">
+
+    final static public String DEFAULT_INDEX_FILE = "Data/Chr1_010.rfix";   // index file used if none is given
+    final static public int DEFAULT_QUERY_LENGTH = 32;                      // query length used if none is given
+    final static public int DEFAULT_NO_QUERIES = 100000;                    // number of queries used if none is given
+    final static public int NO_ROUNDS = 10;                                 // number of rounds, the fastest one of each shape is reported
+    // </editor-fold>
+
+    // <editor-fold desc="Methods">
+
+    /**
+     * Benchmark main function
+     *
+     * @param args      command line arguments, optional preprocessed reference
+     *                  sequence index file, query length and number of queries
+     */
+    public static void main(String[] args) {
+
+        ReferenceSequenceIndex referenceSequenceIndex;
+        FMIndexWaveletTreeNode midpointWaveletTree;
+        FMIndexWaveletTreeNode huffmanWaveletTree;
+        ObjectInputStream inputStream;
+        byte[][] querySequences;
+        byte[] bwt;
+        byte[] stepCharacters;
+        int[] stepLowIndexes;
+        int[] stepHighIndexes;
+        int[] midpointIntervals;
+        int[] huffmanIntervals;
+        String filename;
+        int queryLength;
+        int noQueries;
+        int noSteps;
+        long midpointChecksum;
+        long huffmanChecksum;
+        long midpointDuration;
+        long huffmanDuration;
+        long time;
+
+        filename = ((args.length > 0) ? args[0] : DEFAULT_INDEX_FILE);
+        try {
+            queryLength = ((args.length > 1) ? Integer.parseInt(args[1]) : DEFAULT_QUERY_LENGTH);
+            noQueries = ((args.length > 2) ? Integer.parseInt(args[2]) : DEFAULT_NO_QUERIES);
+            if ((queryLength < 2) || (noQueries < 1)) {
+                System.out.println("Query length has to be at least 2 and number of queries at least 1");
+                System.exit(1);
+            }
+
+            /* read reference sequence index */
+            inputStream = new ObjectInputStream(new BufferedInputStream(new FileInputStream(filename)));
+            try {
+                referenceSequenceIndex = (ReferenceSequenceIndex) inputStream.readObject();
+            } finally {
+                inputStream.close();
+            }
+            if (referenceSequenceIndex.occurrenceWaveletTree == null) {
+                System.out.println("Benchmark needs 32-bit reference sequence index with occurrence wavelet tree: " + filename);
+                System.exit(1);
+            }
+
+            /* build both trees upon BW transform of the saved tree */
+            bwt = new byte[referenceSequenceIndex.occurrenceWaveletTree.getNodeSize()];
+            referenceSequenceIndex.occurrenceWaveletTree.resetSequentialIndex();
+            for (int i = 0; i < bwt.length; i++) {
+                bwt[i] = referenceSequenceIndex.occurrenceWaveletTree.readCharacter();
+            }
+            referenceSequenceIndex.occurrenceWaveletTree = null;
+            midpointWaveletTree = new FMIndexWaveletTreeNode(null, referenceSequenceIndex.prefixSumTable, false);
+            new WaveletTreeBuilder(1).build(midpointWaveletTree, bwt.clone());
+            huffmanWaveletTree = new FMIndexWaveletTreeNode(null, referenceSequenceIndex.prefixSumTable, true);
+            new WaveletTreeBuilder(1).build(huffmanWaveletTree, bwt);
+            bwt = null;
+            referenceSequenceIndex.occurrenceWaveletTree = midpointWaveletTree;
+            reportTree("Midpoint", midpointWaveletTree, referenceSequenceIndex.getBwtLength());
+            reportTree("Huffman", huffmanWaveletTree, referenceSequenceIndex.getBwtLength());
+            System.out.println("Zero-order entropy of BW transform:         " + String.format("%.3f", referenceSequenceIndex.getZeroOrderEntropy()) + " bits");
+
+            /* sample query sequences and record backward search steps */
+            querySequences = BackwardSearchBenchmark.sampleQuerySequences(referenceSequenceIndex, queryLength, noQueries);
+            System.out.println( Integer.toString(noQueries) + " query sequences of " + Integer.toString(queryLength)
+                                + " characters sampled from " + filename);
+            stepCharacters = new byte[noQueries * (queryLength - 1)];
+            stepLowIndexes = new int[stepCharacters.length];
+            stepHighIndexes = new int[stepCharacters.length];
+            noSteps = BackwardSearchBenchmark.recordSteps(referenceSequenceIndex, querySequences, stepCharacters, stepLowIndexes, stepHighIndexes);
+
+            /* replay recorded steps on both trees */
+            midpointDuration = Long.MAX_VALUE;
+            huffmanDuration = Long.MAX_VALUE;
+            for (int round = 0; round < NO_ROUNDS; round++) {
+                time = System.nanoTime();
+                midpointChecksum = WaveletMatrixBenchmark.replay(midpointWaveletTree, stepCharacters, stepLowIndexes, stepHighIndexes, noSteps);
+                midpointDuration = Math.min(midpointDuration, (System.nanoTime() - time));
+
+                time = System.nanoTime();
+                huffmanChecksum = WaveletMatrixBenchmark.replay(huffmanWaveletTree, stepCharacters, stepLowIndexes, stepHighIndexes, noSteps);
+                huffmanDuration = Math.min(huffmanDuration, (System.nanoTime() - time));
+
+                if (midpointChecksum != huffmanChecksum) {
+                    System.out.println("Replayed step counts differ!");
+                    System.exit(1);
+                }
+            }
+            System.out.println("Backward search steps:                      " + Integer.toString(noSteps));
+            reportDurations("Replayed steps", midpointDuration, huffmanDuration, noSteps);
+
+            /* search all queries on both trees */
+            midpointIntervals = new int[2 * noQueries];
+            huffmanIntervals = new int[2 * noQueries];
+            midpointDuration = Long.MAX_VALUE;
+            huffmanDuration = Long.MAX_VALUE;
+            for (int round = 0; round < NO_ROUNDS; round++) {
+                time = System.nanoTime();
+                WaveletMatrixBenchmark.search(referenceSequenceIndex, midpointWaveletTree, querySequences, midpointIntervals);
+                midpointDuration = Math.min(midpointDuration, (System.nanoTime() - time));
+
+                time = System.nanoTime();
+                WaveletMatrixBenchmark.search(referenceSequenceIndex, huffmanWaveletTree, querySequences, huffmanIntervals);
+                huffmanDuration = Math.min(huffmanDuration, (System.nanoTime() - time));
+
+                if (!Arrays.equals(midpointIntervals, huffmanIntervals)) {
+                    System.out.println("Backward search intervals differ!");
+                    System.exit(1);
+                }
+            }
+            reportDurations("Whole searches", midpointDuration, huffmanDuration, noSteps);
+        } catch (NumberFormatException ex) {
+            System.out.println("Query length and number of queries have to be integers: " + ex.getMessage());
+            System.exit(1);
+        } catch (IOException ex) {
+            System.out.println("Reading of " + filename + " failed: " + ex.getMessage());
+            System.exit(1);
+        } catch (ClassNotFoundException ex) {
+            System.out.println("Reading of " + filename + " failed: " + ex.getMessage());
+            System.exit(1);
+        } catch (ReportedException ex) {
+            System.out.println(ex.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Function reportTree prints memory consumption and average path length
+     * of one tree.
+     *
+     * @param title         tree shape title
+     * @param waveletTree   occurrence wavelet tree
+     * @param bwtLength     length of BW transform
+     */
+    private static void reportTree(String title, FMIndexWaveletTreeNode waveletTree, long bwtLength) {
+        System.out.println( String.format("%-44s", (title + " tree memory / bits per character:"))
+                            + Integer.toString(waveletTree.getMemoryConsumption()) + " bytes / "
+                            + String.format("%.3f", (8.0 * waveletTree.getMemoryConsumption()) / bwtLength));
+        System.out.println( String.format("%-44s", (title + " tree average path length:"))
+                            + String.format("%.3f", ((double) waveletTree.getStoredBits()) / bwtLength) + " ranks");
+    }
+
+    /**
+     * Function reportDurations prints durations per step on both trees and
+     * speedup of Huffman-shaped tree.
+     *
+     * @param title                 measurement title
+     * @param midpointDuration      duration on midpoint-shaped tree in nanoseconds
+     * @param huffmanDuration       duration on Huffman-shaped tree in nanoseconds
+     * @param noSteps               number of steps
+     */
+    private static void reportDurations(String title, long midpointDuration, long huffmanDuration, int noSteps) {
+        System.out.println(title + ", midpoint tree:              " + String.format("%.1f", ((double) midpointDuration) / noSteps) + " ns");
+        System.out.println(title + ", Huffman tree:               " + String.format("%.1f", ((double) huffmanDuration) / noSteps) + " ns");
+        if (huffmanDuration > 0) {
+            System.out.println(title + ", speedup:                    " + String.format("%.2f", ((double) midpointDuration) / huffmanDuration));
+        }
+    }
+    // </editor-fold>
+}